@@ -0,0 +1,159 @@
+package com.wolf.redis.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import com.wolf.redis.common.codec.ValueCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 分块写入List/Set,工具类按key取得所在的Jedis后调用这里的方法
+ *
+ * 元素边编码边发送,每chunkSize个元素一条RPUSH/SADD,通过pipeline连续发送,
+ * 内存中只保留一块编码后的元素;每条命令都很短,写入大集合期间redis仍能及时处理其它客户端的请求。
+ *
+ * replace为true时先写到同一个节点上的临时key,全部写完后在MULTI中RENAME成目标key并去掉临时key的过期时间,
+ * 其它客户端要么看到旧的集合,要么看到完整的新集合。临时key带过期时间,写入中途进程退出也不会一直留在redis中。
+ * replace为false时追加到已有的集合,中途失败会留下已经写入的部分
+ *
+ * @author wolf
+ */
+public final class CollectionWriter {
+
+	/** 每条命令的元素数 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** 每发送这么多块读取一次回复,及早发现错误 */
+	private static final int SYNC_CHUNKS = 16;
+
+	/** 临时key的过期时间(秒) */
+	private static final int TEMP_KEY_SECONDS = 3600;
+
+	private CollectionWriter() {
+	}
+
+	/**
+	 * RPUSH写入List
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param elements 按顺序写入
+	 * @param replace 是否原子地替换整个List
+	 * @param chunkSize 每条RPUSH的元素数
+	 * @param codec
+	 * @return 写入的元素数
+	 */
+	public static <E> long writeList(Jedis jedis, String key, Iterator<E> elements, boolean replace, int chunkSize,
+			ValueCodec codec) {
+		return write(jedis, key, elements, true, replace, chunkSize, codec);
+	}
+
+	/**
+	 * SADD写入Set
+	 * @see #writeList(Jedis, String, Iterator, boolean, int, ValueCodec)
+	 */
+	public static <E> long writeSet(Jedis jedis, String key, Iterator<E> elements, boolean replace, int chunkSize,
+			ValueCodec codec) {
+		return write(jedis, key, elements, false, replace, chunkSize, codec);
+	}
+
+	private static <E> long write(Jedis jedis, String key, Iterator<E> elements, boolean list, boolean replace,
+			int chunkSize, ValueCodec codec) {
+		if (chunkSize <= 0) {
+			chunkSize = DEFAULT_CHUNK_SIZE;
+		}
+		byte[] binaryKey = SafeEncoder.encode(key);
+		byte[] target = replace ? SafeEncoder.encode(key + ":tmp:" + UUID.randomUUID()) : binaryKey;
+		long count = 0;
+		int chunks = 0;
+		boolean completed = false;
+		Pipeline pipeline = null;
+		try {
+			pipeline = jedis.pipelined();
+			List<Response<?>> responses = new ArrayList<Response<?>>(SYNC_CHUNKS + 1);
+			byte[][] chunk = new byte[chunkSize][];
+			int size = 0;
+			while (elements.hasNext()) {
+				chunk[size++] = codec.encode(elements.next());
+				if (size == chunkSize || !elements.hasNext()) {
+					byte[][] values = size == chunkSize ? chunk : copyOf(chunk, size);
+					responses.add(list ? pipeline.rpush(target, values) : pipeline.sadd(target, values));
+					if (replace && chunks == 0) {
+						pipeline.expire(target, TEMP_KEY_SECONDS);
+					}
+					//命令已经写入输出缓冲区,数组可以重复使用
+					count += size;
+					size = 0;
+					if (++chunks % SYNC_CHUNKS == 0) {
+						sync(pipeline, responses);
+					}
+				}
+			}
+			sync(pipeline, responses);
+			if (replace) {
+				if (count == 0) {
+					jedis.del(binaryKey);
+				} else {
+					Transaction transaction = jedis.multi();
+					transaction.rename(target, binaryKey);
+					transaction.persist(binaryKey);
+					for (Object result : transaction.exec()) {
+						if (result instanceof RuntimeException) {
+							throw (RuntimeException) result;
+						}
+					}
+				}
+			}
+			completed = true;
+			return count;
+		} finally {
+			if (!completed) {
+				abort(jedis, pipeline, replace && count > 0 ? target : null);
+			}
+		}
+	}
+
+	/**
+	 * 读取回复,pipeline中的错误回复(例如key已经是其它类型)不会在sync时抛出,逐个检查
+	 */
+	private static void sync(Pipeline pipeline, List<Response<?>> responses) {
+		pipeline.sync();
+		for (Response<?> response : responses) {
+			response.get();
+		}
+		responses.clear();
+	}
+
+	private static byte[][] copyOf(byte[][] chunk, int size) {
+		byte[][] values = new byte[size][];
+		System.arraycopy(chunk, 0, values, 0, size);
+		return values;
+	}
+
+	/**
+	 * 失败时读完pipeline中未读取的回复并删除临时key,连接已经不可用时断开,由连接池重新连接
+	 */
+	private static void abort(Jedis jedis, Pipeline pipeline, byte[] temp) {
+		try {
+			if (pipeline != null) {
+				pipeline.sync();
+			}
+			if (temp != null) {
+				jedis.del(temp);
+			}
+		} catch (Exception e) {
+			//临时key会自己过期
+			try {
+				jedis.disconnect();
+			} catch (Exception ignore) {
+				//ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package com.wolf.redis.common;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.wolf.redis.common.codec.ValueCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Map对象的读写,工具类按key取得所在的Jedis后调用这里的方法
+ *
+ * 两种存储方式(见MapStorageMode)的读取都兼容另一种格式:按当前方式读取遇到WRONGTYPE时改用另一种格式,
+ * 切换存储方式后旧数据仍然可以读取,正常情况下不会多一次往返。
+ * 单个条目的读写总是使用Hash,写入时遇到旧格式的Set先把它迁移成Hash。
+ *
+ * @author wolf
+ */
+public final class MapObjects {
+
+	/** HSCAN每次取回的条目数 */
+	private static final int SCAN_COUNT = 1000;
+
+	private static final byte SPLIT_BYTE = (byte) Constant.SPLIT_CHAR.charAt(0);
+
+	private MapObjects() {
+	}
+
+	/**
+	 * 写入整个map
+	 * SET方式追加 value^key 元素,HASH方式覆盖同名的field;
+	 * SET方式遇到已经是Hash的key(写入过单个条目)时按Hash写入
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param map
+	 * @param mode 存储方式
+	 * @param codec
+	 */
+	public static <V> void putAll(Jedis jedis, String key, Map<String, V> map, MapStorageMode mode,
+			ValueCodec codec) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		if (mode == MapStorageMode.SET) {
+			byte[][] elements = new byte[map.size()][];
+			int i = 0;
+			for (Map.Entry<String, V> entry : map.entrySet()) {
+				//*******采用分隔符处理有一定的风险,如果map中的key含有SPLIT_CHAR则会导致拆分出错*******
+				elements[i++] = joinElement(codec.encode(entry.getValue()), entry.getKey());
+			}
+			try {
+				jedis.sadd(binaryKey, elements);
+				return;
+			} catch (JedisDataException e) {
+				//已经被put迁移成Hash,改为按Hash写入
+				checkWrongType(e);
+			}
+		}
+		Map<byte[], byte[]> hash = new LinkedHashMap<byte[], byte[]>(map.size() << 1);
+		for (Map.Entry<String, V> entry : map.entrySet()) {
+			hash.put(SafeEncoder.encode(entry.getKey()), codec.encode(entry.getValue()));
+		}
+		try {
+			jedis.hmset(binaryKey, hash);
+		} catch (JedisDataException e) {
+			checkWrongType(e);
+			migrate(jedis, binaryKey);
+			jedis.hmset(binaryKey, hash);
+		}
+	}
+
+	/**
+	 * 读取整个map
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param mode 存储方式
+	 * @param clazz 对象所属的类
+	 * @param codec
+	 * @return key不存在时返回空map
+	 */
+	public static <V> Map<String, V> getAll(Jedis jedis, String key, MapStorageMode mode, Class<V> clazz,
+			ValueCodec codec) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		if (mode == MapStorageMode.SET) {
+			try {
+				return decodeSet(jedis.smembers(binaryKey), null, clazz, codec);
+			} catch (JedisDataException e) {
+				checkWrongType(e);
+				return scanHash(jedis, binaryKey, clazz, codec);
+			}
+		}
+		try {
+			return scanHash(jedis, binaryKey, clazz, codec);
+		} catch (JedisDataException e) {
+			checkWrongType(e);
+			return decodeSet(jedis.smembers(binaryKey), null, clazz, codec);
+		}
+	}
+
+	/**
+	 * 读取单个条目(HGET)
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param field map中的key
+	 * @param clazz 对象所属的类
+	 * @param codec
+	 * @return 不存在时返回null
+	 */
+	public static <V> V get(Jedis jedis, String key, String field, Class<V> clazz, ValueCodec codec) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		try {
+			return codec.decode(jedis.hget(binaryKey, SafeEncoder.encode(field)), clazz);
+		} catch (JedisDataException e) {
+			checkWrongType(e);
+			Set<String> fields = new HashSet<String>(1);
+			fields.add(field);
+			return decodeSet(jedis.smembers(binaryKey), fields, clazz, codec).get(field);
+		}
+	}
+
+	/**
+	 * 读取多个条目(HMGET)
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param fields map中的key
+	 * @param clazz 对象所属的类
+	 * @param codec
+	 * @return 保持fields的顺序,不存在的field不会出现在结果中
+	 */
+	public static <V> Map<String, V> get(Jedis jedis, String key, Collection<String> fields, Class<V> clazz,
+			ValueCodec codec) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		String[] fieldArray = fields.toArray(new String[fields.size()]);
+		byte[][] binaryFields = new byte[fieldArray.length][];
+		for (int i = 0; i < fieldArray.length; i++) {
+			binaryFields[i] = SafeEncoder.encode(fieldArray[i]);
+		}
+		Map<String, V> result = new LinkedHashMap<String, V>(fieldArray.length << 1);
+		List<byte[]> values;
+		try {
+			values = jedis.hmget(binaryKey, binaryFields);
+		} catch (JedisDataException e) {
+			checkWrongType(e);
+			Map<String, V> legacy = decodeSet(jedis.smembers(binaryKey), new HashSet<String>(fields), clazz, codec);
+			for (String field : fieldArray) {
+				V value = legacy.get(field);
+				if (value != null) {
+					result.put(field, value);
+				}
+			}
+			return result;
+		}
+		for (int i = 0; i < fieldArray.length; i++) {
+			byte[] value = values.get(i);
+			if (value != null) {
+				result.put(fieldArray[i], codec.decode(value, clazz));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 写入单个条目(HSET)
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param field map中的key
+	 * @param value
+	 * @param codec
+	 */
+	public static <V> void put(Jedis jedis, String key, String field, V value, ValueCodec codec) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		byte[] binaryField = SafeEncoder.encode(field);
+		byte[] binaryValue = codec.encode(value);
+		try {
+			jedis.hset(binaryKey, binaryField, binaryValue);
+		} catch (JedisDataException e) {
+			checkWrongType(e);
+			migrate(jedis, binaryKey);
+			jedis.hset(binaryKey, binaryField, binaryValue);
+		}
+	}
+
+	/**
+	 * 把旧格式的Set原地转换成Hash
+	 * value的字节原样搬到Hash中,不需要解析对象。
+	 * 用WATCH保证转换期间没有其它客户端修改这个key,被修改时重新读取再转换;
+	 * 旧格式中同一个map key有多个元素时保留其中任意一个
+	 */
+	private static void migrate(Jedis jedis, byte[] key) {
+		while (true) {
+			jedis.watch(key);
+			Set<byte[]> elements;
+			try {
+				elements = jedis.smembers(key);
+			} catch (JedisDataException e) {
+				jedis.unwatch();
+				checkWrongType(e);
+				//其它客户端已经完成了转换
+				return;
+			}
+			Map<byte[], byte[]> hash = new HashMap<byte[], byte[]>(elements.size() << 1);
+			for (byte[] element : elements) {
+				int split = indexOfSplit(element);
+				hash.put(Arrays.copyOfRange(element, split + 1, element.length), Arrays.copyOf(element, split));
+			}
+			Transaction transaction = jedis.multi();
+			transaction.del(key);
+			if (!hash.isEmpty()) {
+				transaction.hmset(key, hash);
+			}
+			if (transaction.exec() != null) {
+				return;
+			}
+		}
+	}
+
+	private static <V> Map<String, V> scanHash(Jedis jedis, byte[] key, Class<V> clazz, ValueCodec codec) {
+		Map<String, V> result = new HashMap<String, V>();
+		ScanParams params = new ScanParams().count(SCAN_COUNT);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			ScanResult<Map.Entry<byte[], byte[]>> page = jedis.hscan(key, SafeEncoder.encode(cursor), params);
+			for (Map.Entry<byte[], byte[]> entry : page.getResult()) {
+				result.put(SafeEncoder.encode(entry.getKey()), codec.decode(entry.getValue(), clazz));
+			}
+			cursor = page.getStringCursor();
+		} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+		return result;
+	}
+
+	/**
+	 * 按SSCAN读取一页旧格式的Set,每个元素拆分成 map key -> value 的字节,value不解码
+	 * @param jedis key所在的Jedis
+	 * @param key
+	 * @param cursor
+	 * @param params 匹配模式作用于整个 value^key 元素
+	 */
+	public static ScanResult<Map.Entry<byte[], byte[]>> scanLegacy(Jedis jedis, byte[] key, byte[] cursor,
+			ScanParams params) {
+		ScanResult<byte[]> page = jedis.sscan(key, cursor, params);
+		List<Map.Entry<byte[], byte[]>> entries = new ArrayList<Map.Entry<byte[], byte[]>>(page.getResult().size());
+		for (byte[] element : page.getResult()) {
+			int split = indexOfSplit(element);
+			entries.add(new AbstractMap.SimpleImmutableEntry<byte[], byte[]>(
+					Arrays.copyOfRange(element, split + 1, element.length), Arrays.copyOf(element, split)));
+		}
+		return new ScanResult<Map.Entry<byte[], byte[]>>(page.getCursorAsBytes(), entries);
+	}
+
+	/**
+	 * 是否为key的类型与命令不符的错误
+	 */
+	public static boolean isWrongType(JedisDataException e) {
+		return e.getMessage() != null && e.getMessage().startsWith("WRONGTYPE");
+	}
+
+	/**
+	 * 解析旧格式的Set
+	 * @param fields 只解析这些map key,为null时全部解析
+	 */
+	private static <V> Map<String, V> decodeSet(Set<byte[]> elements, Set<String> fields, Class<V> clazz,
+			ValueCodec codec) {
+		Map<String, V> result = new HashMap<String, V>(elements.size() << 1);
+		for (byte[] element : elements) {
+			//数据格式： "{\"descrition\":\"worker\",\"id\":\"0011\",\"roleName\":\"worker\"}^001_key"
+			int split = indexOfSplit(element);
+			String field = SafeEncoder.encode(Arrays.copyOfRange(element, split + 1, element.length));
+			if (fields == null || fields.contains(field)) {
+				result.put(field, codec.decode(Arrays.copyOf(element, split), clazz));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 拼接旧格式的元素 value^key
+	 */
+	private static byte[] joinElement(byte[] value, String key) {
+		byte[] keyBytes = SafeEncoder.encode(key);
+		byte[] element = new byte[value.length + 1 + keyBytes.length];
+		System.arraycopy(value, 0, element, 0, value.length);
+		element[value.length] = SPLIT_BYTE;
+		System.arraycopy(keyBytes, 0, element, value.length + 1, keyBytes.length);
+		return element;
+	}
+
+	/**
+	 * 旧格式元素中分隔符的位置
+	 * 二进制codec编码的value中可能出现分隔符,所以取最后一个
+	 */
+	private static int indexOfSplit(byte[] element) {
+		for (int i = element.length - 1; i >= 0; i--) {
+			if (element[i] == SPLIT_BYTE) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("map element without " + Constant.SPLIT_CHAR);
+	}
+
+	private static void checkWrongType(JedisDataException e) {
+		if (!isWrongType(e)) {
+			throw e;
+		}
+	}
+}
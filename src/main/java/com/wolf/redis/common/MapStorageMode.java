@@ -0,0 +1,21 @@
+package com.wolf.redis.common;
+
+/**
+ * setMapObject/getMapObject在redis中的存储方式
+ *
+ * @author wolf
+ */
+public enum MapStorageMode {
+
+	/**
+	 * 旧格式,Set中的每个元素为 value^key
+	 * 读单个条目也要取回整个Set,更新条目会留下旧的元素
+	 */
+	SET,
+
+	/**
+	 * Hash格式,map的key作为field,对象作为value
+	 * 单个条目的读写为O(1)
+	 */
+	HASH
+}
@@ -0,0 +1,127 @@
+package com.wolf.redis.common;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.wolf.redis.common.codec.ValueCodec;
+
+/**
+ * redis中List的分页只读视图
+ * size为创建时LLEN的结果,元素按页用LRANGE取回,在第一次get时才解码;
+ * 顺序访问时一次多取readAhead页,减少往返。只读取前几个元素时只需要一次很小的请求。
+ *
+ * 不是快照:取两页之间list被修改时,后面的页反映修改后的内容,超出实际长度的位置返回null。
+ * 不持有连接,每次取页时由PageLoader借用连接。非线程安全,不支持修改
+ *
+ * @author wolf
+ */
+public class PagedList<E> extends AbstractList<E> implements RandomAccess {
+
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	/** 顺序访问时额外多取的页数 */
+	private static final int READ_AHEAD = 1;
+
+	/**
+	 * 取回一段元素
+	 */
+	public interface PageLoader {
+		/**
+		 * LRANGE key start end
+		 * @param start 第一个元素的下标
+		 * @param end 最后一个元素的下标(包含)
+		 */
+		List<byte[]> range(long start, long end);
+	}
+
+	private final PageLoader loader;
+	private final ValueCodec codec;
+	private final Class<E> clazz;
+	private final int size;
+	private final int pageSize;
+
+	/** 取回的元素,解码前为byte[] */
+	private final Object[][] pages;
+
+	/** 最近一次取回的最后一页,用于判断是否顺序访问 */
+	private int lastLoaded = -1;
+
+	/**
+	 * @param loader 取回元素
+	 * @param length LLEN的结果
+	 * @param firstPage 与LLEN一起取回的第一页,可以为null
+	 * @param pageSize 每页元素数
+	 * @param codec 对象解码
+	 * @param clazz 对象所属的类
+	 */
+	public PagedList(PageLoader loader, long length, List<byte[]> firstPage, int pageSize, ValueCodec codec,
+			Class<E> clazz) {
+		this.loader = loader;
+		this.codec = codec;
+		this.clazz = clazz;
+		this.size = (int) Math.min(length, Integer.MAX_VALUE);
+		this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+		this.pages = new Object[(int) (((long) size + this.pageSize - 1) / this.pageSize)][];
+		if (firstPage != null && pages.length > 0) {
+			fill(0, firstPage);
+			lastLoaded = 0;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		int page = index / pageSize;
+		Object[] elements = pages[page];
+		if (elements == null) {
+			load(page);
+			elements = pages[page];
+		}
+		int offset = index - page * pageSize;
+		Object element = elements[offset];
+		if (element instanceof byte[]) {
+			element = codec.decode((byte[]) element, clazz);
+			elements[offset] = element;
+		}
+		return (E) element;
+	}
+
+	/**
+	 * 取回一页,紧接着上一次取回的页时顺序访问,连同后面readAhead页一起取
+	 */
+	private void load(int page) {
+		int last = page;
+		if (page == lastLoaded + 1) {
+			last = Math.min(page + READ_AHEAD, pages.length - 1);
+			while (last > page && pages[last] != null) {
+				last--;
+			}
+		}
+		long start = (long) page * pageSize;
+		long end = Math.min((long) (last + 1) * pageSize, size) - 1;
+		List<byte[]> elements = loader.range(start, end);
+		for (int p = page; p <= last; p++) {
+			int from = (p - page) * pageSize;
+			fill(p, elements.subList(Math.min(from, elements.size()), Math.min(from + pageSize, elements.size())));
+		}
+		lastLoaded = last;
+	}
+
+	private void fill(int page, List<byte[]> elements) {
+		int length = (int) Math.min(pageSize, size - (long) page * pageSize);
+		Object[] values = new Object[length];
+		for (int i = 0; i < length && i < elements.size(); i++) {
+			values[i] = elements.get(i);
+		}
+		pages[page] = values;
+	}
+}
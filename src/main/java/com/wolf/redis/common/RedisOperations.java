@@ -0,0 +1,76 @@
+package com.wolf.redis.common;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RedisClientsUtil、BaseShardedJedis共有的常用操作,JedisPoolOperations基于JedisPoolAdaptor实现
+ * 与原有方法的约定一致:出错时记录日志,返回null/false/0,不抛出异常。
+ * AsyncRedis通过这个接口异步执行
+ *
+ * @author wolf
+ */
+public interface RedisOperations {
+
+	String get(String key);
+
+	boolean set(String key, String value);
+
+	/**
+	 * @param expire_time 过期时间(多少秒后过期)
+	 */
+	boolean set(String key, String value, int expire_time);
+
+	boolean del(String key);
+
+	/**
+	 * @return 1:设置了过期时间  0:没有设置过期时间/不能设置过期时间
+	 */
+	long setExpire(String key, int expire_time);
+
+	<E> E getObject(String key, Class<E> clazz);
+
+	<V> boolean setObject(String key, V object);
+
+	/**
+	 * @return key与对象的映射,不存在的key不会出现在结果中
+	 */
+	<E> Map<String, E> getObjects(Collection<String> keys, Class<E> clazz);
+
+	String getHashSet(String key, String field);
+
+	boolean setHashSet(String key, String field, String value);
+
+	<V> Map<String, V> getMapObject(String key, Class<V> clazz);
+
+	<V> V getMapEntry(String key, String field, Class<V> clazz);
+
+	<V> boolean putMapEntry(String key, String field, V value);
+
+	List<String> getList(String key);
+
+	List<String> rangeList(String key, long start, long end);
+
+	/**
+	 * 从左侧(头部)添加
+	 */
+	boolean addList(String key, String... value);
+
+	<E> List<E> getListObjects(String key, Class<E> clazz);
+
+	Set<String> getSet(String key);
+
+	boolean addSet(String key, String... members);
+
+	boolean containsInSet(String key, String value);
+
+	<E> Set<E> getSetObjects(String key, Class<E> clazz);
+
+	boolean setSortedSet(String key, long score, String value);
+
+	Set<String> getSoredSetByRange(String key, int startRange, int endRange, boolean orderByDesc);
+
+	Double getScore(String key, String member);
+}
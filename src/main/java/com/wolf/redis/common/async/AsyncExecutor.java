@@ -0,0 +1,119 @@
+package com.wolf.redis.common.async;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AsyncRedis执行命令的有界线程池
+ * 线程数和队列长度都有上限,队列满时拒绝而不是由调用线程执行:调用方通常是请求线程,
+ * 不能因为redis变慢而被阻塞。另有一个线程负责超时
+ * 多个AsyncRedis可以共用一个AsyncExecutor,不再使用时调用shutdown
+ *
+ * @author wolf
+ */
+public class AsyncExecutor {
+
+	public static final int DEFAULT_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static final AtomicInteger INDEX = new AtomicInteger();
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	public AsyncExecutor() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param threads 执行命令的线程数,即最多同时执行的命令数
+	 * @param queueSize 等待执行的命令数上限
+	 */
+	public AsyncExecutor(int threads, int queueSize) {
+		final int index = INDEX.incrementAndGet();
+		this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+					private final AtomicInteger thread = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "redis-async-" + index + "-" + thread.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "redis-async-timer-" + index);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		//完成的命令取消超时任务后立即从队列中移除
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * @throws RejectedExecutionException 队列已满或已经shutdown
+	 */
+	void execute(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			throw e;
+		}
+	}
+
+	ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+		return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void timedOut() {
+		timeoutCount.incrementAndGet();
+	}
+
+	void rejected() {
+		rejectedCount.incrementAndGet();
+	}
+
+	/** 因线程池或shard的等待队列已满而拒绝的命令数 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/** 超时的命令数 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/** 正在执行的命令数 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** 等待执行的命令数 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * 不再接受新的命令,已经提交的命令继续执行
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		timer.shutdownNow();
+	}
+}
@@ -0,0 +1,556 @@
+package com.wolf.redis.common.async;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.wolf.redis.common.RedisOperations;
+import com.wolf.redis.common.client.RedisClientsUtil;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolOperations;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+import com.wolf.redis.common.sharded.BaseShardedJedis;
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * RedisOperations的异步版本,方法返回CompletableFuture,命令在AsyncExecutor的线程中执行
+ * 调用方可以先发出多个互不相关的读取,最后一起join,而不是逐个等待。
+ *
+ * 每个shard同时执行的命令不超过maxInFlightPerShard,超出的在这个shard的队列中等待,
+ * 一个变慢的shard只占用有限的线程和连接,不影响其它shard;队列也满时立即以RejectedExecutionException失败。
+ * 超过timeoutMillis未完成的命令以TimeoutException失败,已经在执行的命令仍会执行完,
+ * 还在队列中的不再执行;调用方cancel的命令同样不再执行。
+ *
+ * 结果与同步方法一致:redis出错时同步方法记录日志并返回null/false/0,这里以同样的值正常完成
+ *
+ * @author wolf
+ */
+public class AsyncRedis {
+
+	static Logger logger = Logger.getLogger(AsyncRedis.class);
+
+	public static final int DEFAULT_MAX_IN_FLIGHT_PER_SHARD = 32;
+	public static final int DEFAULT_MAX_WAITING_PER_SHARD = 1024;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+
+	private final RedisOperations operations;
+	private final ShardRouter router;
+	private final AsyncExecutor executor;
+	private final Lane[] lanes;
+
+	private volatile int maxInFlightPerShard = DEFAULT_MAX_IN_FLIGHT_PER_SHARD;
+	private volatile int maxWaitingPerShard = DEFAULT_MAX_WAITING_PER_SHARD;
+	private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+	/**
+	 * @param operations 实际执行命令的同步实现
+	 * @param router 计算key所在的shard,用于按shard限制并发;为null时所有key共用一个限制
+	 * @param executor 执行命令的线程池,可以与其它AsyncRedis共用
+	 */
+	public AsyncRedis(RedisOperations operations, ShardRouter router, AsyncExecutor executor) {
+		this.operations = operations;
+		this.router = router;
+		this.executor = executor;
+		int shards = router == null ? 1 : Math.max(1, router.getShards().size());
+		this.lanes = new Lane[shards];
+		for (int i = 0; i < shards; i++) {
+			this.lanes[i] = new Lane();
+		}
+	}
+
+	/**
+	 * 基于BaseShardedJedis,没有设置shardRouter时按连接池的shard创建RingRouter,只用于限制并发
+	 */
+	public AsyncRedis(BaseShardedJedis shardedJedis, AsyncExecutor executor) {
+		this(shardedJedis, shardedJedis.getShardRouter() != null ? shardedJedis.getShardRouter()
+				: routerOf(shardedJedis), executor);
+	}
+
+	/**
+	 * 基于RedisClientsUtil,只有一个redis,所有key共用一个并发限制
+	 */
+	public AsyncRedis(RedisClientsUtil redisClientsUtil, AsyncExecutor executor) {
+		this(redisClientsUtil, null, executor);
+	}
+
+	/**
+	 * 基于JedisPoolAdaptor,每个命令借出一个JedisAdaptor
+	 */
+	public AsyncRedis(JedisPoolAdaptor pool, AsyncExecutor executor) {
+		this(new JedisPoolOperations(pool), pool.getShardRouter(), executor);
+	}
+
+	private static ShardRouter routerOf(BaseShardedJedis shardedJedis) {
+		if (shardedJedis.getShardedJedisPool() == null) {
+			return null;
+		}
+		ShardedJedis jedis = null;
+		try {
+			jedis = shardedJedis.getShardedJedisPool().getResource();
+			return new RingRouter(new ArrayList<JedisShardInfo>(jedis.getAllShardInfo()));
+		} catch (Exception ex) {
+			logger.error("get shards error, all keys share one in-flight limit.", ex);
+			return null;
+		} finally {
+			if (jedis != null) {
+				jedis.close();
+			}
+		}
+	}
+
+	/**
+	 * 在key所在shard的限制下异步执行command
+	 * 用于RedisOperations之外的操作,command中使用的连接需要自己借还
+	 */
+	public <T> CompletableFuture<T> submit(String key, Callable<T> command) {
+		return submit(lane(key), command);
+	}
+
+	private Lane lane(String key) {
+		if (lanes.length == 1 || key == null) {
+			return lanes[0];
+		}
+		return lanes[router.shardIndex(key)];
+	}
+
+	private <T> CompletableFuture<T> submit(Lane lane, Callable<T> command) {
+		final Task<T> task = new Task<T>(lane, command);
+		final long timeout = timeoutMillis;
+		if (timeout > 0) {
+			final ScheduledFuture<?> timer;
+			try {
+				timer = executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (task.future.completeExceptionally(new TimeoutException("redis command timed out after "
+								+ timeout + "ms."))) {
+							executor.timedOut();
+						}
+					}
+				}, timeout);
+			} catch (RejectedExecutionException e) {
+				task.future.completeExceptionally(e);
+				return task.future;
+			}
+			task.future.whenComplete(new BiConsumer<T, Throwable>() {
+				@Override
+				public void accept(T value, Throwable error) {
+					timer.cancel(false);
+				}
+			});
+		}
+		lane.offer(task);
+		return task.future;
+	}
+
+	/** 每个shard同时执行的命令数上限 */
+	public int getMaxInFlightPerShard() {
+		return maxInFlightPerShard;
+	}
+
+	public void setMaxInFlightPerShard(int maxInFlightPerShard) {
+		this.maxInFlightPerShard = Math.max(1, maxInFlightPerShard);
+	}
+
+	/** 每个shard等待执行的命令数上限 */
+	public int getMaxWaitingPerShard() {
+		return maxWaitingPerShard;
+	}
+
+	public void setMaxWaitingPerShard(int maxWaitingPerShard) {
+		this.maxWaitingPerShard = Math.max(0, maxWaitingPerShard);
+	}
+
+	/** 从提交到完成的超时时间(毫秒),不大于0时不超时 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public AsyncExecutor getExecutor() {
+		return executor;
+	}
+
+	public RedisOperations getOperations() {
+		return operations;
+	}
+
+	/**
+	 * 一个shard上的并发限制
+	 */
+	private final class Lane {
+		private final ArrayDeque<Task<?>> waiting = new ArrayDeque<Task<?>>();
+		private int inFlight;
+
+		void offer(Task<?> task) {
+			boolean rejected = false;
+			synchronized (this) {
+				if (inFlight >= maxInFlightPerShard) {
+					if (waiting.size() < maxWaitingPerShard) {
+						waiting.add(task);
+						return;
+					}
+					rejected = true;
+				} else {
+					inFlight++;
+				}
+			}
+			if (rejected) {
+				executor.rejected();
+				task.future.completeExceptionally(new RejectedExecutionException(
+						"too many redis commands waiting on one shard."));
+				return;
+			}
+			dispatch(task);
+		}
+
+		/**
+		 * 一个命令执行完后调用,取出下一个等待的命令
+		 */
+		void done() {
+			dispatch(next());
+		}
+
+		private void dispatch(Task<?> task) {
+			while (task != null) {
+				try {
+					executor.execute(task);
+					return;
+				} catch (RejectedExecutionException e) {
+					task.future.completeExceptionally(e);
+					task = next();
+				}
+			}
+		}
+
+		/**
+		 * 下一个还需要执行的命令,没有时释放占用的名额
+		 */
+		private synchronized Task<?> next() {
+			Task<?> task;
+			while ((task = waiting.poll()) != null) {
+				if (!task.future.isDone()) {
+					return task;
+				}
+			}
+			inFlight--;
+			return null;
+		}
+	}
+
+	private static final class Task<T> implements Runnable {
+		final Lane lane;
+		final Callable<T> command;
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		Task(Lane lane, Callable<T> command) {
+			this.lane = lane;
+			this.command = command;
+		}
+
+		@Override
+		public void run() {
+			try {
+				//已经超时或被取消
+				if (!future.isDone()) {
+					future.complete(command.call());
+				}
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				lane.done();
+			}
+		}
+	}
+
+	/*
+	 * 以下为RedisOperations的异步版本
+	 */
+
+	public CompletableFuture<String> get(final String key) {
+		return submit(key, new Callable<String>() {
+			@Override
+			public String call() {
+				return operations.get(key);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> set(final String key, final String value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.set(key, value);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> set(final String key, final String value, final int expire_time) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.set(key, value, expire_time);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> del(final String key) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.del(key);
+			}
+		});
+	}
+
+	public CompletableFuture<Long> setExpire(final String key, final int expire_time) {
+		return submit(key, new Callable<Long>() {
+			@Override
+			public Long call() {
+				return operations.setExpire(key, expire_time);
+			}
+		});
+	}
+
+	public <E> CompletableFuture<E> getObject(final String key, final Class<E> clazz) {
+		return submit(key, new Callable<E>() {
+			@Override
+			public E call() {
+				return operations.getObject(key, clazz);
+			}
+		});
+	}
+
+	public <V> CompletableFuture<Boolean> setObject(final String key, final V object) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.setObject(key, object);
+			}
+		});
+	}
+
+	/**
+	 * 按shard拆分后每个shard各执行一次getObjects,各shard受各自的并发限制
+	 * @return key与对象的映射,按keys的顺序,不存在的key不会出现在结果中;任一shard出错时为null
+	 */
+	public <E> CompletableFuture<Map<String, E>> getObjects(final Collection<String> keys, final Class<E> clazz) {
+		if (keys == null || keys.isEmpty()) {
+			return CompletableFuture.completedFuture((Map<String, E>) new LinkedHashMap<String, E>());
+		}
+		Map<Lane, List<String>> groups = new LinkedHashMap<Lane, List<String>>();
+		for (String key : keys) {
+			Lane lane = lane(key);
+			List<String> group = groups.get(lane);
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.put(lane, group);
+			}
+			group.add(key);
+		}
+		if (groups.size() == 1) {
+			return submit(groups.keySet().iterator().next(), new Callable<Map<String, E>>() {
+				@Override
+				public Map<String, E> call() {
+					return operations.getObjects(keys, clazz);
+				}
+			});
+		}
+		final List<CompletableFuture<Map<String, E>>> parts = new ArrayList<CompletableFuture<Map<String, E>>>(
+				groups.size());
+		for (Map.Entry<Lane, List<String>> group : groups.entrySet()) {
+			final List<String> groupKeys = group.getValue();
+			parts.add(submit(group.getKey(), new Callable<Map<String, E>>() {
+				@Override
+				public Map<String, E> call() {
+					return operations.getObjects(groupKeys, clazz);
+				}
+			}));
+		}
+		return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()])).thenApply(
+				new Function<Void, Map<String, E>>() {
+					@Override
+					public Map<String, E> apply(Void ignored) {
+						Map<String, E> found = new LinkedHashMap<String, E>(keys.size() << 1);
+						for (CompletableFuture<Map<String, E>> part : parts) {
+							Map<String, E> values = part.join();
+							if (values == null) {
+								return null;
+							}
+							found.putAll(values);
+						}
+						Map<String, E> result = new LinkedHashMap<String, E>(found.size() << 1);
+						for (String key : keys) {
+							E value = found.get(key);
+							if (value != null) {
+								result.put(key, value);
+							}
+						}
+						return result;
+					}
+				});
+	}
+
+	public CompletableFuture<String> getHashSet(final String key, final String field) {
+		return submit(key, new Callable<String>() {
+			@Override
+			public String call() {
+				return operations.getHashSet(key, field);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> setHashSet(final String key, final String field, final String value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.setHashSet(key, field, value);
+			}
+		});
+	}
+
+	public <V> CompletableFuture<Map<String, V>> getMapObject(final String key, final Class<V> clazz) {
+		return submit(key, new Callable<Map<String, V>>() {
+			@Override
+			public Map<String, V> call() {
+				return operations.getMapObject(key, clazz);
+			}
+		});
+	}
+
+	public <V> CompletableFuture<V> getMapEntry(final String key, final String field, final Class<V> clazz) {
+		return submit(key, new Callable<V>() {
+			@Override
+			public V call() {
+				return operations.getMapEntry(key, field, clazz);
+			}
+		});
+	}
+
+	public <V> CompletableFuture<Boolean> putMapEntry(final String key, final String field, final V value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.putMapEntry(key, field, value);
+			}
+		});
+	}
+
+	public CompletableFuture<List<String>> getList(final String key) {
+		return submit(key, new Callable<List<String>>() {
+			@Override
+			public List<String> call() {
+				return operations.getList(key);
+			}
+		});
+	}
+
+	public CompletableFuture<List<String>> rangeList(final String key, final long start, final long end) {
+		return submit(key, new Callable<List<String>>() {
+			@Override
+			public List<String> call() {
+				return operations.rangeList(key, start, end);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> addList(final String key, final String... value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.addList(key, value);
+			}
+		});
+	}
+
+	public <E> CompletableFuture<List<E>> getListObjects(final String key, final Class<E> clazz) {
+		return submit(key, new Callable<List<E>>() {
+			@Override
+			public List<E> call() {
+				return operations.getListObjects(key, clazz);
+			}
+		});
+	}
+
+	public CompletableFuture<Set<String>> getSet(final String key) {
+		return submit(key, new Callable<Set<String>>() {
+			@Override
+			public Set<String> call() {
+				return operations.getSet(key);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> addSet(final String key, final String... members) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.addSet(key, members);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> containsInSet(final String key, final String value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.containsInSet(key, value);
+			}
+		});
+	}
+
+	public <E> CompletableFuture<Set<E>> getSetObjects(final String key, final Class<E> clazz) {
+		return submit(key, new Callable<Set<E>>() {
+			@Override
+			public Set<E> call() {
+				return operations.getSetObjects(key, clazz);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> setSortedSet(final String key, final long score, final String value) {
+		return submit(key, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return operations.setSortedSet(key, score, value);
+			}
+		});
+	}
+
+	public CompletableFuture<Set<String>> getSoredSetByRange(final String key, final int startRange,
+			final int endRange, final boolean orderByDesc) {
+		return submit(key, new Callable<Set<String>>() {
+			@Override
+			public Set<String> call() {
+				return operations.getSoredSetByRange(key, startRange, endRange, orderByDesc);
+			}
+		});
+	}
+
+	public CompletableFuture<Double> getScore(final String key, final String member) {
+		return submit(key, new Callable<Double>() {
+			@Override
+			public Double call() {
+				return operations.getScore(key, member);
+			}
+		});
+	}
+}
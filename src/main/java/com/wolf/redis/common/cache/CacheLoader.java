@@ -0,0 +1,15 @@
+package com.wolf.redis.common.cache;
+
+/**
+ * 缓存未命中时加载数据,例如查询数据库
+ *
+ * @author wolf
+ */
+public interface CacheLoader<E> {
+
+	/**
+	 * @param key 缓存的key
+	 * @return 返回null时不写入缓存
+	 */
+	E load(String key) throws Exception;
+}
@@ -0,0 +1,84 @@
+package com.wolf.redis.common.cache;
+
+/**
+ * 近似的访问频率统计(Count-Min Sketch)
+ * 每个key在4行计数器中各占一个位置,频率取4个计数器的最小值,计数器上限为15。
+ * 累计访问次数达到阈值后所有计数器减半,让旧的热点逐渐冷却。
+ * 非线程安全,由NearCache加锁访问
+ *
+ * @author wolf
+ */
+final class FrequencySketch {
+
+	private static final int DEPTH = 4;
+
+	private static final int MAX_COUNT = 15;
+
+	private static final int[] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc2b2ae35};
+
+	private final int[] table;
+
+	private final int mask;
+
+	/** 累计访问次数达到这个值后减半 */
+	private final int sampleSize;
+
+	private int additions;
+
+	FrequencySketch(int expectedEntries) {
+		int width = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+		this.table = new int[width * DEPTH];
+		this.mask = width - 1;
+		this.sampleSize = Math.max(10 * expectedEntries, 160);
+	}
+
+	/**
+	 * 记录一次访问
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * 估算访问频率
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < DEPTH; i++) {
+			frequency = Math.min(frequency, table[indexOf(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		additions >>>= 1;
+	}
+
+	private int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) & (DEPTH - 1)];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+
+	private static int spread(int h) {
+		h ^= h >>> 17;
+		h *= 0xed5ad4bb;
+		h ^= h >>> 11;
+		return h;
+	}
+}
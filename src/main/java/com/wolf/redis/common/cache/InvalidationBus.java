@@ -0,0 +1,428 @@
+package com.wolf.redis.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 多个应用节点之间同步一级缓存的失效
+ *
+ * PUBLISH方式:本节点通过工具类写入key后调用publish,后台线程把积累的key合并成一条消息发布到channel,
+ * 其它节点的订阅线程收到后移除本地缓存中的这些key。只使用第一个redis节点。
+ * KEYSPACE方式:订阅每个redis节点的keyspace通知(需要服务端配置notify-keyspace-events,至少包含K和写命令对应的类型),
+ * 不经过本工具类的写入也能失效,publish不做任何事。
+ *
+ * 订阅连接断开期间可能漏掉消息,所以断开时以及重新订阅成功时都会清空本地缓存。
+ * 发布失败或待发布的key积压过多时,下一次发布改为让其它节点清空缓存的消息。
+ *
+ * 使用前调用start,不再使用时调用close
+ *
+ * @author wolf
+ */
+public class InvalidationBus {
+
+	static Logger logger = Logger.getLogger(InvalidationBus.class);
+
+	/**
+	 * 失效消息的来源
+	 */
+	public enum Source {
+		/** 工具类写入后发布到channel */
+		PUBLISH,
+		/** redis的keyspace通知 */
+		KEYSPACE
+	}
+
+	public static final String DEFAULT_CHANNEL = "near-cache:invalidation";
+
+	/** 一条消息最多包含的key数 */
+	private static final int MAX_BATCH = 512;
+
+	/** 最多积压的待发布key数 */
+	private static final int MAX_PENDING = 100000;
+
+	private static final long MIN_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 5000;
+
+	private static final String TYPE_KEYS = "K";
+	private static final String TYPE_FLUSH = "F";
+
+	private final NearCache nearCache;
+	private final List<JedisShardInfo> nodes;
+	private final Source source;
+	private String channel = DEFAULT_CHANNEL;
+	private int database = 0;
+
+	/** 区分自己发布的消息 */
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private final BlockingQueue<String> pending = new LinkedBlockingQueue<String>(MAX_PENDING);
+	private final AtomicBoolean flushRequired = new AtomicBoolean();
+
+	private volatile boolean running;
+	private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private Jedis publishJedis;
+
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong gapCount = new AtomicLong();
+
+	/**
+	 * PUBLISH方式
+	 */
+	public InvalidationBus(NearCache nearCache, String host, int port) {
+		this(nearCache, singleNode(host, port), Source.PUBLISH);
+	}
+
+	/**
+	 * @param nearCache 要同步的一级缓存
+	 * @param nodes redis节点,PUBLISH方式只使用第一个
+	 * @param source 失效消息的来源
+	 */
+	public InvalidationBus(NearCache nearCache, List<JedisShardInfo> nodes, Source source) {
+		if (nodes == null || nodes.isEmpty()) {
+			throw new IllegalArgumentException("nodes is empty");
+		}
+		this.nearCache = nearCache;
+		this.nodes = source == Source.PUBLISH ? nodes.subList(0, 1) : nodes;
+		this.source = source;
+	}
+
+	private static List<JedisShardInfo> singleNode(String host, int port) {
+		List<JedisShardInfo> nodes = new ArrayList<JedisShardInfo>(1);
+		nodes.add(new JedisShardInfo(host, port));
+		return nodes;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	public void setChannel(String channel) {
+		this.channel = channel;
+	}
+
+	public int getDatabase() {
+		return database;
+	}
+
+	/**
+	 * KEYSPACE方式订阅的db
+	 */
+	public void setDatabase(int database) {
+		this.database = database;
+	}
+
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+
+	/**
+	 * 启动订阅线程,PUBLISH方式同时启动发布线程
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (int i = 0; i < nodes.size(); i++) {
+			Subscriber subscriber = new Subscriber(nodes.get(i));
+			subscribers.add(subscriber);
+			threads.add(daemon(subscriber, "redis-invalidation-sub-" + i));
+		}
+		if (source == Source.PUBLISH) {
+			threads.add(daemon(new Runnable() {
+				@Override
+				public void run() {
+					publishLoop();
+				}
+			}, "redis-invalidation-pub"));
+		}
+	}
+
+	/**
+	 * 停止所有线程,尚未发布的key会在停止前发布
+	 */
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (Subscriber subscriber : subscribers) {
+			subscriber.stop();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(2));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		subscribers.clear();
+		threads.clear();
+	}
+
+	/**
+	 * 通知其它节点这些key已经改变,由后台线程合并发布
+	 * KEYSPACE方式下不做任何事
+	 */
+	public void publish(String... keys) {
+		if (source != Source.PUBLISH || !running) {
+			return;
+		}
+		for (String key : keys) {
+			if (!pending.offer(key)) {
+				//积压过多,让其它节点清空缓存
+				flushRequired.set(true);
+				return;
+			}
+		}
+	}
+
+	/** 发布的消息数 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/** 收到的其它节点的消息数(KEYSPACE方式为通知数) */
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/** 订阅中断的次数,每次都会清空本地缓存 */
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	private void publishLoop() {
+		List<String> batch = new ArrayList<String>(MAX_BATCH);
+		while (running || !pending.isEmpty()) {
+			try {
+				String key = pending.poll(100, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					batch.add(key);
+					pending.drainTo(batch, MAX_BATCH - 1);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (flushRequired.getAndSet(false)) {
+				pending.clear();
+				batch.clear();
+				send(message(TYPE_FLUSH, batch));
+			} else if (!batch.isEmpty()) {
+				send(message(TYPE_KEYS, batch));
+			}
+			batch.clear();
+		}
+		disconnect(publishJedis);
+		publishJedis = null;
+	}
+
+	/**
+	 * 发布失败时重连重试一次,仍然失败则下次发布改为清空缓存的消息
+	 */
+	private void send(String message) {
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				if (publishJedis == null) {
+					publishJedis = new Jedis(nodes.get(0));
+				}
+				publishJedis.publish(channel, message);
+				publishedCount.incrementAndGet();
+				return;
+			} catch (Exception e) {
+				disconnect(publishJedis);
+				publishJedis = null;
+				if (attempt > 0) {
+					logger.error("publish invalidation error, remote near caches will be flushed later", e);
+					flushRequired.set(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 消息格式: 第一行为节点id,第二行为类型,之后依次是每个key的"长度:key",
+	 * key中可以包含换行等任意字符
+	 */
+	private String message(String type, List<String> keys) {
+		StringBuilder sb = new StringBuilder(nodeId.length() + 3 + keys.size() * 36);
+		sb.append(nodeId).append('\n').append(type).append('\n');
+		for (String key : keys) {
+			sb.append(key.length()).append(':').append(key);
+		}
+		return sb.toString();
+	}
+
+	private void onMessage(String message) {
+		int idEnd = message.indexOf('\n');
+		if (idEnd < 0 || message.regionMatches(0, nodeId, 0, idEnd) && idEnd == nodeId.length()) {
+			return;
+		}
+		receivedCount.incrementAndGet();
+		int typeEnd = message.indexOf('\n', idEnd + 1);
+		String type = typeEnd < 0 ? message.substring(idEnd + 1) : message.substring(idEnd + 1, typeEnd);
+		if (TYPE_FLUSH.equals(type)) {
+			nearCache.invalidateAll();
+			return;
+		}
+		if (typeEnd < 0) {
+			return;
+		}
+		List<String> keys = new ArrayList<String>();
+		int start = typeEnd + 1;
+		while (start < message.length()) {
+			int colon = message.indexOf(':', start);
+			int length = -1;
+			if (colon > start && colon - start <= 10) {
+				try {
+					length = Integer.parseInt(message.substring(start, colon));
+				} catch (NumberFormatException e) {
+					length = -1;
+				}
+			}
+			if (length < 0 || colon + 1 + length > message.length()) {
+				//无法解析的消息,不知道哪些key改变了,清空缓存
+				logger.error("malformed invalidation message, flush near cache");
+				nearCache.invalidateAll();
+				return;
+			}
+			keys.add(message.substring(colon + 1, colon + 1 + length));
+			start = colon + 1 + length;
+		}
+		nearCache.invalidate(keys.toArray(new String[keys.size()]));
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void disconnect(Jedis jedis) {
+		if (jedis != null) {
+			try {
+				jedis.disconnect();
+			} catch (Exception e) {
+				//ignore
+			}
+		}
+	}
+
+	/**
+	 * 一个redis节点上的订阅,断开后按指数退避重连
+	 */
+	private final class Subscriber implements Runnable {
+		private final JedisShardInfo node;
+		private final String keyspacePrefix = "__keyspace@" + database + "__:";
+		private volatile JedisPubSub pubSub;
+		private boolean connectedBefore;
+		private long backoff = MIN_BACKOFF_MILLIS;
+
+		Subscriber(JedisShardInfo node) {
+			this.node = node;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Jedis jedis = null;
+				try {
+					jedis = new Jedis(node);
+					pubSub = new Listener();
+					if (source == Source.PUBLISH) {
+						jedis.subscribe(pubSub, channel);
+					} else {
+						jedis.psubscribe(pubSub, keyspacePrefix + "*");
+					}
+				} catch (Exception e) {
+					if (!running) {
+						break;
+					}
+					logger.error("invalidation subscriber disconnected, flush near cache. node is :" + node.getHost()
+							+ ":" + node.getPort(), e);
+					gap();
+					sleep();
+				} finally {
+					disconnect(jedis);
+				}
+			}
+		}
+
+		void stop() {
+			JedisPubSub current = pubSub;
+			try {
+				if (current != null && current.isSubscribed()) {
+					if (source == Source.PUBLISH) {
+						current.unsubscribe();
+					} else {
+						current.punsubscribe();
+					}
+				}
+			} catch (Exception e) {
+				//连接已经断开,订阅线程会自己退出
+			}
+		}
+
+		private void subscribed() {
+			if (connectedBefore) {
+				//重新订阅之前的消息可能已经丢失
+				gap();
+			}
+			connectedBefore = true;
+			backoff = MIN_BACKOFF_MILLIS;
+		}
+
+		private void gap() {
+			gapCount.incrementAndGet();
+			nearCache.invalidateAll();
+		}
+
+		private void sleep() {
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			backoff = Math.min(backoff << 1, MAX_BACKOFF_MILLIS);
+		}
+
+		private final class Listener extends JedisPubSub {
+			@Override
+			public void onSubscribe(String channel, int subscribedChannels) {
+				subscribed();
+			}
+
+			@Override
+			public void onPSubscribe(String pattern, int subscribedChannels) {
+				subscribed();
+			}
+
+			@Override
+			public void onMessage(String channel, String message) {
+				InvalidationBus.this.onMessage(message);
+			}
+
+			@Override
+			public void onPMessage(String pattern, String channel, String message) {
+				receivedCount.incrementAndGet();
+				nearCache.invalidate(channel.substring(keyspacePrefix.length()));
+			}
+		}
+	}
+}
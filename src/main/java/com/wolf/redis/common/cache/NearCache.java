@@ -0,0 +1,244 @@
+package com.wolf.redis.common.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的一级缓存,缓存解析后的对象
+ * 放在工具类的get/getObject/getListObjects前面,命中时不借连接、不访问redis、不解析json。
+ *
+ * 容量可以按条目数和字节数(按redis中value的字节数估算)限制,超出时按访问频率淘汰:
+ * 新条目只有比最久未访问的条目更常被访问时才会替换它,偶尔被访问一次的key不会把热点挤出去。
+ * 本地过期时间不超过ttlSeconds,也不超过redis中key的剩余过期时间。
+ *
+ * 缓存的对象会被多个调用方共享,调用方不能修改取回的对象。
+ *
+ * @author wolf
+ */
+public class NearCache {
+
+	private static final int KIND_STRING = 0;
+	private static final int KIND_OBJECT = 1;
+	private static final int KIND_LIST = 2;
+
+	/** 最多缓存的条目数 */
+	private final int maxEntries;
+
+	/** 最多缓存的字节数,不大于0时不限制 */
+	private final long maxBytes;
+
+	/** 本地最长缓存时间(毫秒) */
+	private final long ttlMillis;
+
+	/** 按访问顺序排列,第一个是最久未访问的条目 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	private final FrequencySketch sketch;
+
+	private long weightedSize;
+
+	/** 每次失效加1,读取redis之前记下,写入缓存时发现变化说明期间有失效,放弃写入 */
+	private final AtomicLong stamp = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxEntries 最多缓存的条目数
+	 * @param maxBytes 最多缓存的字节数,不大于0时只按条目数限制
+	 * @param ttlSeconds 本地最长缓存时间(秒)
+	 */
+	public NearCache(int maxEntries, long maxBytes, int ttlSeconds) {
+		if (maxEntries <= 0 || ttlSeconds <= 0) {
+			throw new IllegalArgumentException("maxEntries and ttlSeconds must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.sketch = new FrequencySketch(maxEntries);
+	}
+
+	/**
+	 * @param maxEntries 最多缓存的条目数
+	 * @param ttlSeconds 本地最长缓存时间(秒)
+	 */
+	public NearCache(int maxEntries, int ttlSeconds) {
+		this(maxEntries, 0, ttlSeconds);
+	}
+
+	public String getString(String key) {
+		return (String) lookup(key, KIND_STRING, null);
+	}
+
+	public <E> E getObject(String key, Class<E> clazz) {
+		return clazz.cast(lookup(key, KIND_OBJECT, clazz));
+	}
+
+	/**
+	 * @return 缓存的List的拷贝,未命中时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public <E> List<E> getList(String key, Class<E> clazz) {
+		List<E> list = (List<E>) lookup(key, KIND_LIST, clazz);
+		return list == null ? null : new ArrayList<E>(list);
+	}
+
+	/**
+	 * 读取redis之前调用,把返回值传给put方法
+	 */
+	public long stamp() {
+		return stamp.get();
+	}
+
+	/**
+	 * @param weight redis中value的字节数
+	 * @param pttl redis中key的剩余过期时间(毫秒),-1表示不过期
+	 * @param stamp 读取redis之前调用stamp()的返回值
+	 */
+	public void putString(String key, String value, int weight, long pttl, long stamp) {
+		put(key, KIND_STRING, null, value, weight, pttl, stamp);
+	}
+
+	public <E> void putObject(String key, Class<E> clazz, E value, int weight, long pttl, long stamp) {
+		put(key, KIND_OBJECT, clazz, value, weight, pttl, stamp);
+	}
+
+	public <E> void putList(String key, Class<E> clazz, List<E> value, int weight, long pttl, long stamp) {
+		put(key, KIND_LIST, clazz, new ArrayList<E>(value), weight, pttl, stamp);
+	}
+
+	/**
+	 * 移除指定的key,通过工具类写入或删除key时调用
+	 */
+	public void invalidate(String... keys) {
+		stamp.incrementAndGet();
+		synchronized (this) {
+			for (String key : keys) {
+				remove(key);
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public void invalidateAll() {
+		stamp.incrementAndGet();
+		synchronized (this) {
+			entries.clear();
+			weightedSize = 0;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long weightedSize() {
+		return weightedSize;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	private Object lookup(String key, int kind, Class<?> clazz) {
+		Object value = null;
+		synchronized (this) {
+			sketch.increment(key);
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expireAt - now() <= 0) {
+					remove(key);
+				} else if (entry.kind == kind && entry.clazz == clazz) {
+					value = entry.value;
+				}
+			}
+		}
+		(value == null ? missCount : hitCount).incrementAndGet();
+		return value;
+	}
+
+	private void put(String key, int kind, Class<?> clazz, Object value, int weight, long pttl, long stamp) {
+		if (value == null || pttl == -2 || (maxBytes > 0 && weight > maxBytes)) {
+			return;
+		}
+		long ttl = pttl > 0 ? Math.min(pttl, ttlMillis) : ttlMillis;
+		Entry entry = new Entry(kind, clazz, value, weight, now() + ttl);
+		synchronized (this) {
+			if (this.stamp.get() != stamp) {
+				//读取redis期间有key失效,这次读到的值可能已经过时
+				return;
+			}
+			remove(key);
+			if (!makeRoom(key, weight)) {
+				return;
+			}
+			entries.put(key, entry);
+			weightedSize += weight;
+		}
+	}
+
+	/**
+	 * 从最久未访问的条目开始淘汰,直到容得下新条目
+	 * @return 新条目的访问频率不高于被淘汰的条目时返回false,不写入新条目
+	 */
+	private boolean makeRoom(String key, int weight) {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() >= maxEntries || (maxBytes > 0 && weightedSize + weight > maxBytes)) {
+			Map.Entry<String, Entry> victim = iterator.next();
+			boolean expired = victim.getValue().expireAt - now() <= 0;
+			if (!expired && sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+				return false;
+			}
+			iterator.remove();
+			weightedSize -= victim.getValue().weight;
+			if (!expired) {
+				evictionCount.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			weightedSize -= entry.weight;
+		}
+	}
+
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	private static final class Entry {
+		final int kind;
+		final Class<?> clazz;
+		final Object value;
+		final int weight;
+		final long expireAt;
+
+		Entry(int kind, Class<?> clazz, Object value, int weight, long expireAt) {
+			this.kind = kind;
+			this.clazz = clazz;
+			this.value = value;
+			this.weight = weight;
+			this.expireAt = expireAt;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.wolf.redis.common.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 合并同一个key上的并发调用
+ * 同一时刻只有第一个调用方执行,其它调用方等待并共享它的结果或异常;执行结束后下一次调用重新执行。
+ *
+ * @author wolf
+ */
+public final class SingleFlight<V> {
+
+	private final ConcurrentMap<String, FutureTask<V>> calls = new ConcurrentHashMap<String, FutureTask<V>>();
+
+	/**
+	 * @param key
+	 * @param callable 只在没有进行中的调用时执行
+	 * @return callable的返回值
+	 * @throws Exception callable抛出的异常,或等待时被中断
+	 */
+	public V execute(String key, Callable<V> callable) throws Exception {
+		FutureTask<V> task = new FutureTask<V>(callable);
+		FutureTask<V> call = calls.putIfAbsent(key, task);
+		if (call == null) {
+			call = task;
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+		}
+		try {
+			return call.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * 进行中的调用数
+	 */
+	public int inFlight() {
+		return calls.size();
+	}
+}
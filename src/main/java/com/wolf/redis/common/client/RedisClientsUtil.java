@@ -1,28 +1,55 @@
 package com.wolf.redis.common.client;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.wolf.redis.common.Constant;
+import com.wolf.redis.common.MapObjects;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.RedisOperations;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ObjectBatch;
+import com.wolf.redis.common.codec.ValueCodec;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-import com.alibaba.fastjson.JSON;
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.SafeEncoder;
 
 
 @Repository
-public class RedisClientsUtil {
+public class RedisClientsUtil implements RedisOperations {
 	
 	static Logger logger = Logger.getLogger(RedisClientsUtil.class);
 	
 //	@Autowired
 	private JedisPool jedisPool; //注入redis客户端连接池
+	
+	private ValueCodec codec = new JsonCodec(); //对象与字节之间的转换,默认json
+	
+	private MapStorageMode mapStorageMode = MapStorageMode.SET; //setMapObject的存储方式,默认为原来的Set
+	
+	public ValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+
+	public MapStorageMode getMapStorageMode() {
+		return mapStorageMode;
+	}
+
+	public void setMapStorageMode(MapStorageMode mapStorageMode) {
+		this.mapStorageMode = mapStorageMode;
+	}
 
     
     /** 
@@ -56,12 +83,12 @@ public class RedisClientsUtil {
     * @throws
    */
     public <V> boolean setObject(String key,V object){
-    	//将对象转换成json数据格式
-    	String value = JSON.toJSONString(object);
+    	//将对象转换成字节
+    	byte[] value = codec.encode(object);
     	Jedis jedis = null; 
         try {  
             jedis = jedisPool.getResource(); 
-            jedis.set(key, value);  
+            jedis.set(SafeEncoder.encode(key), value);  
             return true;  
         } catch (Exception ex) {  
             logger.error("setObject error; key is : "+key+" value object is :"+object, ex);  
@@ -72,72 +99,121 @@ public class RedisClientsUtil {
     }
     
     /**
-     * 
+     *
      * 向缓存中设置Map<K, V>对象
+     * 按mapStorageMode存放为Set或Hash
      * @Title: set
      * @param key
-     * @param map<Key,Value>  
-     * @return boolean    
+     * @param map<Key,Value>
+     * @return boolean
      * @throws
-    */
-     public <V> boolean setMapObject(String key,Map<String, V> map){
-    	 Jedis jedis = null; 
-    	 boolean flag = false;
-     	//将对象转换成json数据格式
-     	if (map!=null && !map.isEmpty()) {
-     		List<String> jsonList = new ArrayList<String>(map.size());
-			for (String element_key : map.keySet()) {
-				V object = map.get(element_key);
-				//*******采用分隔符处理有一定的风险,如果map中的key含有SPLIT_CHAR则会导致拆分出错*******
-				String element_content = JSON.toJSONString(object)+ Constant.SPLIT_CHAR+element_key;
-    			jsonList.add(element_content);
-			}
-			//将Set<String>转化成json数组
-	    	String[] jsonArray = new String[jsonList.size()];
-	    	jsonList.toArray(jsonArray);
-			try {  
-	             jedis = jedisPool.getResource(); 
-	             jedis.sadd(key, jsonArray);  
-	             flag = true;  
-	         } catch (Exception ex) {  
-	             logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);  
-	         } finally {  
-	             returnResource(jedis);
-	         }  
-		}
-     	 return flag; 
-     }
-     
-     /**
-      * @Title: 根据key获取Set无序集合对象值
-      * @param key
-      * @param clazz 集合中装载对象所属的类   
-      * @return Set<E>    
-      * @throws
      */
-    public <V> Map<String,V> getMapObject(String key,Class<V> clazz) {  
-        Jedis jedis = null; 
-        try {  
-            jedis = jedisPool.getResource(); 
-            //获取json集合数据                                                                         
-            Set<String> jsonSet =jedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Map<String,V> objectMap = new HashMap<String,V>(jsonSet.size());
-            for (String json : jsonSet) {
-            	//数据格式： "{\"descrition\":\"worker\",\"id\":\"0011\",\"roleName\":\"worker\"}^001_key"
-            	String[] contentArray = json.split("\\"+Constant.SPLIT_CHAR);
-				V entity = JSON.parseObject(contentArray[0], clazz);
-				objectMap.put(contentArray[1],entity);
-			}
-            return objectMap;
-        } catch (Exception ex) {  
-            logger.error("get getObjects error key is :"+key+" class is :"+clazz, ex);    
-            return null;  
-        } finally {  
+    public <V> boolean setMapObject(String key,Map<String, V> map){
+        if (map==null || map.isEmpty()) {
+            return false;
+        }
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            MapObjects.putAll(jedis, key, map, mapStorageMode, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);
+            return false;
+        } finally {
             returnResource(jedis);
-        }  
-    }  
-    
+        }
+    }
+
+    /**
+     * @Title: 根据key获取Map对象值
+     * 两种存储方式的数据都可以读取
+     * @param key
+     * @param clazz 集合中装载对象所属的类
+     * @return Map<String,V>
+     * @throws
+     */
+    public <V> Map<String,V> getMapObject(String key,Class<V> clazz) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            return MapObjects.getAll(jedis, key, mapStorageMode, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("get getMapObject error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        } finally {
+            returnResource(jedis);
+        }
+    }
+
+    /**
+     * @Title: 获取Map对象中的单个条目(HGET)
+     * @param key
+     * @param field map中的key
+     * @param clazz 对象所属的类
+     * @return V 不存在时返回null
+     * @throws
+     */
+    public <V> V getMapEntry(String key,String field,Class<V> clazz) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            return MapObjects.get(jedis, key, field, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntry error key is :"+key+" field is :"+field, ex);
+            return null;
+        } finally {
+            returnResource(jedis);
+        }
+    }
+
+    /**
+     * @Title: 获取Map对象中的多个条目(HMGET)
+     * @param key
+     * @param fields map中的key
+     * @param clazz 对象所属的类
+     * @return Map<String,V> 保持fields的顺序,不存在的field不会出现在结果中
+     * @throws
+     */
+    public <V> Map<String,V> getMapEntries(String key,Collection<String> fields,Class<V> clazz) {
+        if (fields==null || fields.isEmpty()) {
+            return new LinkedHashMap<String,V>();
+        }
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            return MapObjects.get(jedis, key, fields, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntries error key is :"+key+" fields is :"+fields, ex);
+            return null;
+        } finally {
+            returnResource(jedis);
+        }
+    }
+
+    /**
+     * @Title: 设置Map对象中的单个条目(HSET)
+     * 旧格式(Set)的数据会先转换成Hash
+     * @param key
+     * @param field map中的key
+     * @param value
+     * @return boolean
+     * @throws
+     */
+    public <V> boolean putMapEntry(String key,String field,V value) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            MapObjects.put(jedis, key, field, value, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("putMapEntry error key is :"+key+" field is :"+field, ex);
+            return false;
+        } finally {
+            returnResource(jedis);
+        }
+    }
+
     /**
      * 
      * 向缓存中设置List集合对象
@@ -149,23 +225,17 @@ public class RedisClientsUtil {
      * @throws
     */
      public <E> boolean setListObjects(String key,List<E> list){
-     	//将List集合中的对象转换成json数据格式的数组
-    	List<String> jsonList = new ArrayList<String>(list.size());
-    	if(list!=null && !list.isEmpty()){
-    		for (E object : list) {
-    			String element_content = JSON.toJSONString(object);
-    			jsonList.add(element_content);
-			}
-    	}
-    	
-    	//将List<String>转化成json数组
-    	String[] jsonArray = new String[jsonList.size()];
-    	jsonList.toArray(jsonArray);
+     	//将List集合中的对象转换成字节数组
+    	byte[][] elements = new byte[list.size()][];
+    	int i = 0;
+    	for (E object : list) {
+    		elements[i++] = codec.encode(object);
+		}
      	Jedis jedis = null; 
          try {  
              jedis = jedisPool.getResource(); 
              //添加一个字符串值到List容器的底部（右侧）如果KEY不存在，则创建一个List容器，如果KEY存在并且不是一个List容器，那么返回FLASE
-             jedis.rpush(key, jsonArray);  
+             jedis.rpush(SafeEncoder.encode(key), elements);  
              return true;  
          } catch (Exception ex) {  
              logger.error("setListObjects error; key is : "+key, ex);  
@@ -187,11 +257,11 @@ public class RedisClientsUtil {
         try {  
             jedis = jedisPool.getResource(); 
             //规律: 左数从0开始,右数从-1开始(0: the first element, 1: the second ... -1: the last element, -2: the penultimate ...)                                                            
-            List<String> jsonList =jedis.lrange(key, 0, -1);
-            //转化集合中的字符串为对象格式
-            List<E> objectList = new ArrayList<E>(jsonList.size());
-            for (String json : jsonList) {
-				E objec = JSON.parseObject(json, clazz);
+            List<byte[]> elements =jedis.lrange(SafeEncoder.encode(key), 0, -1);
+            //转化集合中的字节为对象格式
+            List<E> objectList = new ArrayList<E>(elements.size());
+            for (byte[] element : elements) {
+				E objec = codec.decode(element, clazz);
 				objectList.add(objec);
 			}
             return objectList;
@@ -213,23 +283,17 @@ public class RedisClientsUtil {
      * @throws
     */
      public <E> boolean setSetObjects(String key,Set<E> set){
-     	//将Set集合中的对象转换成json数据格式的数组
-    	Set<String> jsonSet = new HashSet<String>(set.size());
-    	if(set!=null && !set.isEmpty()){
-    		for (E object : set) {
-    			String element_content = JSON.toJSONString(object);
-    			jsonSet.add(element_content);
-			}
-    	}
-    	
-    	//将Set<String>转化成json数组
-    	String[] jsonArray = new String[jsonSet.size()];
-    	jsonSet.toArray(jsonArray);
+     	//将Set集合中的对象转换成字节数组
+    	byte[][] elements = new byte[set.size()][];
+    	int i = 0;
+    	for (E object : set) {
+    		elements[i++] = codec.encode(object);
+		}
      	Jedis jedis = null; 
          try {  
              jedis = jedisPool.getResource(); 
              //存放集合数据
-             jedis.sadd(key, jsonArray);  
+             jedis.sadd(SafeEncoder.encode(key), elements);  
              return true;  
          } catch (Exception ex) {  
              logger.error("setObjects error; key is : "+key, ex);  
@@ -250,12 +314,12 @@ public class RedisClientsUtil {
         Jedis jedis = null; 
         try {  
             jedis = jedisPool.getResource(); 
-            //获取json集合数据                                                                         
-            Set<String> jsonSet =jedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Set<E> objectSet = new HashSet<E>(jsonSet.size());
-            for (String json : jsonSet) {
-				E objec = JSON.parseObject(json, clazz);
+            //获取集合数据                                                                         
+            Set<byte[]> elements =jedis.smembers(SafeEncoder.encode(key));
+            //转化集合中的字节为对象格式
+            Set<E> objectSet = new HashSet<E>(elements.size());
+            for (byte[] element : elements) {
+				E objec = codec.decode(element, clazz);
 				objectSet.add(objec);
 			}
             return objectSet;
@@ -299,8 +363,8 @@ public class RedisClientsUtil {
         Jedis jedis = null; 
         try {  
             jedis = jedisPool.getResource(); 
-            String value = jedis.get(key);  
-            return JSON.parseObject(value, clazz);
+            byte[] value = jedis.get(SafeEncoder.encode(key));  
+            return codec.decode(value, clazz);
         } catch (Exception ex) {  
             logger.error("get getObject error key is :"+key+" class is :"+clazz, ex);    
             return null;  
@@ -310,6 +374,74 @@ public class RedisClientsUtil {
     }  
     
     
+    /**
+     * 批量获取对象
+     * 一次MGET取回全部value,对象较多时并行做对象转换
+     * @Title: getObjects
+     * @param keys
+     * @param clazz 要返回的对象所属的类
+     * @return Map<String,E> key与对象的映射,不存在的key不会出现在结果中
+     * @throws
+     */
+    public <E> Map<String, E> getObjects(Collection<String> keys, Class<E> clazz) {
+        if (keys == null || keys.isEmpty()) {
+            return new LinkedHashMap<String, E>();
+        }
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        byte[][] binaryKeys = new byte[keyArray.length][];
+        for (int i = 0; i < keyArray.length; i++) {
+            binaryKeys[i] = SafeEncoder.encode(keyArray[i]);
+        }
+        List<byte[]> values;
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            values = jedis.mget(binaryKeys);
+        } catch (Exception ex) {
+            logger.error("getObjects error keys size is :"+keyArray.length+" class is :"+clazz, ex);
+            return null;
+        } finally {
+            returnResource(jedis);
+        }
+        //连接归还之后再做对象转换
+        return ObjectBatch.decode(keyArray, values, clazz, codec);
+    }
+
+    /**
+     * 批量向缓存中设置对象
+     * 过期时间大于0时全部SETEX放在一个pipeline里发送,否则执行一次MSET
+     * @Title: setObjects
+     * @param objects key与对象的映射
+     * @param expire_time 过期时间(秒),不大于0时不过期
+     * @return boolean
+     * @throws
+     */
+    public <E> boolean setObjects(Map<String, E> objects, int expire_time) {
+        if (objects == null || objects.isEmpty()) {
+            return false;
+        }
+        byte[][] keysvalues = ObjectBatch.encode(objects, codec);
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            if (expire_time > 0) {
+                Pipeline pipeline = jedis.pipelined();
+                for (int i = 0; i < keysvalues.length; i += 2) {
+                    pipeline.setex(keysvalues[i], expire_time, keysvalues[i + 1]);
+                }
+                pipeline.sync();
+            } else {
+                jedis.mset(keysvalues);
+            }
+            return true;
+        } catch (Exception ex) {
+            logger.error("setObjects error; keys size is : "+objects.size(), ex);
+            return false;
+        } finally {
+            returnResource(jedis);
+        }
+    }
+
     /** 
      * 添加到Set中 
      * @param key 
@@ -0,0 +1,536 @@
+package com.wolf.redis.common.codec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 紧凑的二进制codec
+ * JavaBean按字段名排序后依次写出字段值,不写字段名:数字用变长编码,String直接写UTF-8,
+ * 集合、嵌套对象等其他类型的字段按字段的泛型类型嵌入json。
+ * 非JavaBean的值(String,数字,集合等)整体按json写入。
+ *
+ * 写入和读取两端的类定义必须一致,字段发生变化时通过schema摘要识别并抛出异常,
+ * 工具类会把它当作缓存未命中处理。
+ * 读取不是本codec写入的数据(例如原来JsonCodec写入的json)时按json解析,便于平滑切换。
+ *
+ * @author wolf
+ */
+public class BinaryCodec implements ValueCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** 按字段写入的JavaBean */
+	private static final byte FORMAT_BEAN = 0x01;
+
+	/** 整体按json写入 */
+	private static final byte FORMAT_JSON = 0x02;
+
+	private final ConcurrentMap<Class<?>, BeanSchema> schemas = new ConcurrentHashMap<Class<?>, BeanSchema>();
+
+	@Override
+	public byte[] encode(Object value) {
+		BeanSchema schema = schemaOf(value.getClass());
+		if (schema == null) {
+			byte[] json = JSON.toJSONBytes(value);
+			byte[] bytes = new byte[json.length + 1];
+			bytes[0] = FORMAT_JSON;
+			System.arraycopy(json, 0, bytes, 1, json.length);
+			return bytes;
+		}
+		ByteSink sink = new ByteSink(64);
+		sink.write(FORMAT_BEAN);
+		sink.writeShort(schema.signature);
+		try {
+			for (FieldSlot slot : schema.slots) {
+				slot.write(value, sink);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("cannot read field of " + value.getClass(), e);
+		}
+		return sink.toByteArray();
+	}
+
+	@Override
+	public <E> E decode(byte[] bytes, Class<E> clazz) {
+		if (bytes == null) {
+			return null;
+		}
+		if (bytes.length == 0) {
+			throw new IllegalArgumentException("empty value for " + clazz);
+		}
+		if (bytes[0] == FORMAT_JSON) {
+			return JSON.parseObject(Arrays.copyOfRange(bytes, 1, bytes.length), clazz);
+		}
+		if (bytes[0] != FORMAT_BEAN) {
+			//不是本codec写入的数据,按json解析
+			return JSON.parseObject(bytes, clazz);
+		}
+		BeanSchema schema = schemaOf(clazz);
+		if (schema == null) {
+			throw new IllegalArgumentException(clazz + " is not a java bean");
+		}
+		ByteSource source = new ByteSource(bytes, 1);
+		int signature = source.readShort();
+		if (signature != schema.signature) {
+			throw new IllegalStateException("schema of " + clazz + " changed, stored value is stale");
+		}
+		try {
+			E bean = clazz.cast(schema.constructor.newInstance());
+			for (FieldSlot slot : schema.slots) {
+				slot.read(bean, source);
+			}
+			return bean;
+		} catch (IllegalStateException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("cannot create " + clazz, e);
+		}
+	}
+
+	private BeanSchema schemaOf(Class<?> clazz) {
+		BeanSchema schema = schemas.get(clazz);
+		if (schema == null) {
+			schema = BeanSchema.build(clazz);
+			schemas.putIfAbsent(clazz, schema);
+		}
+		return schema == BeanSchema.NOT_BEAN ? null : schema;
+	}
+
+	/**
+	 * 一个类的字段布局
+	 */
+	private static final class BeanSchema {
+
+		static final BeanSchema NOT_BEAN = new BeanSchema(null, Collections.<FieldSlot>emptyList());
+
+		final Constructor<?> constructor;
+		final List<FieldSlot> slots;
+		final int signature;
+
+		BeanSchema(Constructor<?> constructor, List<FieldSlot> slots) {
+			this.constructor = constructor;
+			this.slots = slots;
+			StringBuilder sb = new StringBuilder();
+			for (FieldSlot slot : slots) {
+				sb.append(slot.field.getName()).append(':').append(slot.field.getGenericType());
+				if (slot.kind == FieldSlot.ENUM) {
+					//枚举按名字写入,原来按ordinal写入的值识别为过期
+					sb.append("#name");
+				}
+				sb.append(';');
+			}
+			this.signature = sb.toString().hashCode() & 0xFFFF;
+		}
+
+		static BeanSchema build(Class<?> clazz) {
+			if (clazz.isPrimitive() || clazz.isArray() || clazz.isEnum() || clazz.isInterface()
+					|| Modifier.isAbstract(clazz.getModifiers()) || clazz.getName().startsWith("java.")
+					|| CharSequence.class.isAssignableFrom(clazz) || Number.class.isAssignableFrom(clazz)
+					|| Collection.class.isAssignableFrom(clazz) || Map.class.isAssignableFrom(clazz)) {
+				return NOT_BEAN;
+			}
+			Constructor<?> constructor;
+			try {
+				constructor = clazz.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				return NOT_BEAN;
+			}
+			List<Field> fields = new ArrayList<Field>();
+			for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+						fields.add(field);
+					}
+				}
+			}
+			Collections.sort(fields, new Comparator<Field>() {
+				@Override
+				public int compare(Field a, Field b) {
+					int c = a.getName().compareTo(b.getName());
+					return c != 0 ? c : a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+				}
+			});
+			List<FieldSlot> slots = new ArrayList<FieldSlot>(fields.size());
+			for (Field field : fields) {
+				field.setAccessible(true);
+				slots.add(new FieldSlot(field));
+			}
+			return new BeanSchema(constructor, slots);
+		}
+	}
+
+	/**
+	 * 单个字段的读写
+	 */
+	private static final class FieldSlot {
+		private static final int STRING = 0, INT = 1, LONG = 2, BOOLEAN = 3, DOUBLE = 4, FLOAT = 5,
+				SHORT = 6, BYTE = 7, CHAR = 8, INTEGER_OBJ = 9, LONG_OBJ = 10, BOOLEAN_OBJ = 11,
+				DOUBLE_OBJ = 12, FLOAT_OBJ = 13, SHORT_OBJ = 14, BYTE_OBJ = 15, CHAR_OBJ = 16,
+				DATE = 17, ENUM = 18, BYTES = 19, JSON_VALUE = 20;
+
+		final Field field;
+		final int kind;
+		final Type genericType;
+
+		FieldSlot(Field field) {
+			this.field = field;
+			this.genericType = field.getGenericType();
+			this.kind = kindOf(field.getType());
+		}
+
+		private static int kindOf(Class<?> type) {
+			if (type == String.class) return STRING;
+			if (type == int.class) return INT;
+			if (type == long.class) return LONG;
+			if (type == boolean.class) return BOOLEAN;
+			if (type == double.class) return DOUBLE;
+			if (type == float.class) return FLOAT;
+			if (type == short.class) return SHORT;
+			if (type == byte.class) return BYTE;
+			if (type == char.class) return CHAR;
+			if (type == Integer.class) return INTEGER_OBJ;
+			if (type == Long.class) return LONG_OBJ;
+			if (type == Boolean.class) return BOOLEAN_OBJ;
+			if (type == Double.class) return DOUBLE_OBJ;
+			if (type == Float.class) return FLOAT_OBJ;
+			if (type == Short.class) return SHORT_OBJ;
+			if (type == Byte.class) return BYTE_OBJ;
+			if (type == Character.class) return CHAR_OBJ;
+			if (type == Date.class) return DATE;
+			if (type.isEnum()) return ENUM;
+			if (type == byte[].class) return BYTES;
+			return JSON_VALUE;
+		}
+
+		void write(Object bean, ByteSink sink) throws IllegalAccessException {
+			switch (kind) {
+			case INT:
+				sink.writeVarLong(zigzag(field.getInt(bean)));
+				return;
+			case LONG:
+				sink.writeVarLong(zigzag(field.getLong(bean)));
+				return;
+			case BOOLEAN:
+				sink.write(field.getBoolean(bean) ? 1 : 0);
+				return;
+			case DOUBLE:
+				sink.writeLong(Double.doubleToLongBits(field.getDouble(bean)));
+				return;
+			case FLOAT:
+				sink.writeInt(Float.floatToIntBits(field.getFloat(bean)));
+				return;
+			case SHORT:
+				sink.writeVarLong(zigzag(field.getShort(bean)));
+				return;
+			case BYTE:
+				sink.write(field.getByte(bean));
+				return;
+			case CHAR:
+				sink.writeVarLong(field.getChar(bean));
+				return;
+			default:
+				break;
+			}
+			Object value = field.get(bean);
+			if (value == null) {
+				sink.write(0);
+				return;
+			}
+			switch (kind) {
+			case STRING:
+				sink.writeBytes(((String) value).getBytes(UTF8));
+				return;
+			case BYTES:
+				sink.writeBytes((byte[]) value);
+				return;
+			case JSON_VALUE:
+				sink.writeBytes(JSON.toJSONBytes(value));
+				return;
+			default:
+				break;
+			}
+			sink.write(1);
+			switch (kind) {
+			case INTEGER_OBJ:
+			case SHORT_OBJ:
+			case LONG_OBJ:
+				sink.writeVarLong(zigzag(((Number) value).longValue()));
+				break;
+			case BOOLEAN_OBJ:
+				sink.write(((Boolean) value) ? 1 : 0);
+				break;
+			case DOUBLE_OBJ:
+				sink.writeLong(Double.doubleToLongBits((Double) value));
+				break;
+			case FLOAT_OBJ:
+				sink.writeInt(Float.floatToIntBits((Float) value));
+				break;
+			case BYTE_OBJ:
+				sink.write((Byte) value);
+				break;
+			case CHAR_OBJ:
+				sink.writeVarLong((Character) value);
+				break;
+			case DATE:
+				sink.writeVarLong(zigzag(((Date) value).getTime()));
+				break;
+			case ENUM:
+				//按名字写入,增加、调整枚举常量的顺序不影响已写入的值
+				sink.writeBytes(((Enum<?>) value).name().getBytes(UTF8));
+				break;
+			default:
+				throw new IllegalStateException("unknown field kind " + kind);
+			}
+		}
+
+		void read(Object bean, ByteSource source) throws IllegalAccessException {
+			switch (kind) {
+			case INT:
+				field.setInt(bean, (int) unzigzag(source.readVarLong()));
+				return;
+			case LONG:
+				field.setLong(bean, unzigzag(source.readVarLong()));
+				return;
+			case BOOLEAN:
+				field.setBoolean(bean, source.read() != 0);
+				return;
+			case DOUBLE:
+				field.setDouble(bean, Double.longBitsToDouble(source.readLong()));
+				return;
+			case FLOAT:
+				field.setFloat(bean, Float.intBitsToFloat(source.readInt()));
+				return;
+			case SHORT:
+				field.setShort(bean, (short) unzigzag(source.readVarLong()));
+				return;
+			case BYTE:
+				field.setByte(bean, (byte) source.read());
+				return;
+			case CHAR:
+				field.setChar(bean, (char) source.readVarLong());
+				return;
+			case STRING: {
+				byte[] bytes = source.readBytes();
+				field.set(bean, bytes == null ? null : new String(bytes, UTF8));
+				return;
+			}
+			case BYTES:
+				field.set(bean, source.readBytes());
+				return;
+			case JSON_VALUE: {
+				byte[] bytes = source.readBytes();
+				field.set(bean, bytes == null ? null : JSON.parseObject(bytes, genericType));
+				return;
+			}
+			default:
+				break;
+			}
+			if (source.read() == 0) {
+				field.set(bean, null);
+				return;
+			}
+			switch (kind) {
+			case INTEGER_OBJ:
+				field.set(bean, Integer.valueOf((int) unzigzag(source.readVarLong())));
+				break;
+			case SHORT_OBJ:
+				field.set(bean, Short.valueOf((short) unzigzag(source.readVarLong())));
+				break;
+			case LONG_OBJ:
+				field.set(bean, Long.valueOf(unzigzag(source.readVarLong())));
+				break;
+			case BOOLEAN_OBJ:
+				field.set(bean, Boolean.valueOf(source.read() != 0));
+				break;
+			case DOUBLE_OBJ:
+				field.set(bean, Double.valueOf(Double.longBitsToDouble(source.readLong())));
+				break;
+			case FLOAT_OBJ:
+				field.set(bean, Float.valueOf(Float.intBitsToFloat(source.readInt())));
+				break;
+			case BYTE_OBJ:
+				field.set(bean, Byte.valueOf((byte) source.read()));
+				break;
+			case CHAR_OBJ:
+				field.set(bean, Character.valueOf((char) source.readVarLong()));
+				break;
+			case DATE:
+				field.set(bean, new Date(unzigzag(source.readVarLong())));
+				break;
+			case ENUM:
+				field.set(bean, enumOf(source.readBytes()));
+				break;
+			default:
+				throw new IllegalStateException("unknown field kind " + kind);
+			}
+		}
+
+		private Object enumOf(byte[] name) {
+			String constant = new String(name, UTF8);
+			for (Object value : field.getType().getEnumConstants()) {
+				if (((Enum<?>) value).name().equals(constant)) {
+					return value;
+				}
+			}
+			throw new IllegalStateException("enum constant " + constant + " of " + field.getType()
+					+ " not found, stored value is stale");
+		}
+
+		private static long zigzag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+
+		private static long unzigzag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+
+	/**
+	 * 可扩容的输出缓冲
+	 */
+	private static final class ByteSink {
+		private byte[] buf;
+		private int count;
+
+		ByteSink(int capacity) {
+			buf = new byte[capacity];
+		}
+
+		private void ensure(int extra) {
+			if (count + extra > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+			}
+		}
+
+		void write(int b) {
+			ensure(1);
+			buf[count++] = (byte) b;
+		}
+
+		void writeShort(int v) {
+			ensure(2);
+			buf[count++] = (byte) (v >>> 8);
+			buf[count++] = (byte) v;
+		}
+
+		void writeInt(int v) {
+			ensure(4);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				buf[count++] = (byte) (v >>> shift);
+			}
+		}
+
+		void writeLong(long v) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buf[count++] = (byte) (v >>> shift);
+			}
+		}
+
+		void writeVarLong(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf[count++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[count++] = (byte) v;
+		}
+
+		/**
+		 * 长度加1后写入,0表示null
+		 */
+		void writeBytes(byte[] bytes) {
+			writeVarLong(bytes.length + 1L);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, count, bytes.length);
+			count += bytes.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, count);
+		}
+	}
+
+	/**
+	 * 输入游标
+	 */
+	private static final class ByteSource {
+		private final byte[] buf;
+		private int pos;
+
+		ByteSource(byte[] buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+		}
+
+		int read() {
+			if (pos >= buf.length) {
+				throw new IllegalStateException("truncated value");
+			}
+			return buf[pos++] & 0xFF;
+		}
+
+		int readShort() {
+			return (read() << 8) | read();
+		}
+
+		int readInt() {
+			int v = 0;
+			for (int i = 0; i < 4; i++) {
+				v = (v << 8) | read();
+			}
+			return v;
+		}
+
+		long readLong() {
+			long v = 0;
+			for (int i = 0; i < 8; i++) {
+				v = (v << 8) | read();
+			}
+			return v;
+		}
+
+		long readVarLong() {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return v;
+				}
+			}
+			throw new IllegalStateException("malformed varint");
+		}
+
+		byte[] readBytes() {
+			int length = (int) readVarLong();
+			if (length == 0) {
+				return null;
+			}
+			length--;
+			if (pos + length > buf.length) {
+				throw new IllegalStateException("truncated value");
+			}
+			byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+			pos += length;
+			return bytes;
+		}
+	}
+}
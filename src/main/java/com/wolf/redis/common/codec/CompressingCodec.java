@@ -0,0 +1,203 @@
+package com.wolf.redis.common.codec;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 在另一个codec外面压缩较大的值
+ * encode的结果不小于threshold字节时用deflate压缩,压缩后更小才使用压缩结果,
+ * 写入的值以一个字节的标志开头:
+ * FLAG_COMPRESSED 之后是原始长度(变长编码)和deflate数据;
+ * FLAG_RAW 之后是delegate的原始结果,只在原始结果本身以这两个标志开头时使用;
+ * 其它情况直接写delegate的结果,因此压缩前写入的数据、小于threshold的值都可以照常读取,
+ * 去掉CompressingCodec之前需要先清除压缩过的值。
+ * json以及BinaryCodec的结果不会以这两个标志开头。
+ *
+ * 通过工具类的codec属性为每个bean单独配置,threshold的选择见CompressionBenchmark,例如:
+ * new CompressingCodec(new JsonCodec(), 4096)
+ *
+ * @author wolf
+ */
+public class CompressingCodec implements ValueCodec {
+
+	/** deflate压缩的值 */
+	static final byte FLAG_COMPRESSED = 0x1F;
+
+	/** 没有压缩、以标志字节开头的值 */
+	static final byte FLAG_RAW = 0x1E;
+
+	public static final int DEFAULT_THRESHOLD = 4096;
+
+	private final ValueCodec delegate;
+	private volatile int threshold;
+	private volatile int level = Deflater.BEST_SPEED;
+
+	/** Deflater、Inflater持有native内存,每个线程复用一个 */
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	public CompressingCodec(ValueCodec delegate) {
+		this(delegate, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param delegate 对象与字节之间的转换
+	 * @param threshold 不小于这个字节数时压缩
+	 */
+	public CompressingCodec(ValueCodec delegate, int threshold) {
+		this.delegate = delegate;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		byte[] raw = delegate.encode(value);
+		if (raw.length >= threshold) {
+			byte[] compressed = compress(raw);
+			if (compressed != null) {
+				return compressed;
+			}
+		}
+		if (raw.length > 0 && (raw[0] == FLAG_COMPRESSED || raw[0] == FLAG_RAW)) {
+			byte[] bytes = new byte[raw.length + 1];
+			bytes[0] = FLAG_RAW;
+			System.arraycopy(raw, 0, bytes, 1, raw.length);
+			return bytes;
+		}
+		return raw;
+	}
+
+	@Override
+	public <E> E decode(byte[] bytes, Class<E> clazz) {
+		if (bytes == null || bytes.length == 0) {
+			return delegate.decode(bytes, clazz);
+		}
+		if (bytes[0] == FLAG_COMPRESSED) {
+			return delegate.decode(decompress(bytes), clazz);
+		}
+		if (bytes[0] == FLAG_RAW) {
+			return delegate.decode(Arrays.copyOfRange(bytes, 1, bytes.length), clazz);
+		}
+		return delegate.decode(bytes, clazz);
+	}
+
+	/**
+	 * 压缩后不比原来小时返回null
+	 */
+	private byte[] compress(byte[] raw) {
+		Deflater deflater = deflaters.get();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+			deflaters.set(deflater);
+		}
+		deflater.setLevel(level);
+		deflater.setInput(raw);
+		deflater.finish();
+		int header = 1 + varLongSize(raw.length);
+		//不比原来小的结果没有用处,输出缓冲只需要原来的大小
+		byte[] out = new byte[raw.length];
+		int length = header;
+		try {
+			while (!deflater.finished() && length < out.length) {
+				length += deflater.deflate(out, length, out.length - length);
+			}
+			if (!deflater.finished()) {
+				return null;
+			}
+		} finally {
+			deflater.reset();
+		}
+		out[0] = FLAG_COMPRESSED;
+		writeVarLong(out, 1, raw.length);
+		return Arrays.copyOf(out, length);
+	}
+
+	private byte[] decompress(byte[] bytes) {
+		int pos = 1;
+		long length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (pos >= bytes.length || shift > 28) {
+				throw new IllegalStateException("malformed compressed value");
+			}
+			int b = bytes[pos++];
+			length |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		byte[] raw = new byte[(int) length];
+		Inflater inflater = inflaters.get();
+		inflater.setInput(bytes, pos, bytes.length - pos);
+		try {
+			int count = 0;
+			while (count < raw.length) {
+				int n = inflater.inflate(raw, count, raw.length - count);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				count += n;
+			}
+			if (count != raw.length) {
+				throw new IllegalStateException("truncated compressed value");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("malformed compressed value", e);
+		} finally {
+			inflater.reset();
+		}
+		return raw;
+	}
+
+	private static int varLongSize(long v) {
+		int size = 1;
+		while ((v & ~0x7FL) != 0) {
+			size++;
+			v >>>= 7;
+		}
+		return size;
+	}
+
+	private static void writeVarLong(byte[] buf, int pos, long v) {
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos] = (byte) v;
+	}
+
+	public ValueCodec getDelegate() {
+		return delegate;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * 不小于这个字节数的值才压缩,默认DEFAULT_THRESHOLD
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * deflate压缩级别,默认Deflater.BEST_SPEED
+	 */
+	public void setLevel(int level) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("level " + level);
+		}
+		this.level = level;
+	}
+}
@@ -0,0 +1,24 @@
+package com.wolf.redis.common.codec;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 使用fastjson的codec,与原来JSON.toJSONString写入的数据完全兼容
+ *
+ * @author wolf
+ */
+public class JsonCodec implements ValueCodec {
+
+	@Override
+	public byte[] encode(Object value) {
+		return JSON.toJSONBytes(value);
+	}
+
+	@Override
+	public <E> E decode(byte[] bytes, Class<E> clazz) {
+		if (bytes == null) {
+			return null;
+		}
+		return JSON.parseObject(bytes, clazz);
+	}
+}
@@ -0,0 +1,110 @@
+package com.wolf.redis.common.codec;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+
+import com.wolf.redis.common.sharded.FanOutExecutor;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 批量对象与字节之间的转换
+ * 对象较多时把解析拆成若干段并行执行
+ *
+ * @author wolf
+ */
+public final class ObjectBatch {
+
+	static Logger logger = Logger.getLogger(ObjectBatch.class);
+
+	/** 超过这个数量才并行解析 */
+	public static final int PARALLEL_THRESHOLD = 64;
+
+	/** 并行解析时每段至少包含的对象个数 */
+	private static final int MIN_CHUNK_SIZE = 32;
+
+	private static final int MAX_CHUNKS = Runtime.getRuntime().availableProcessors();
+
+	private ObjectBatch() {
+	}
+
+	/**
+	 * 把对象转换成key,value交替的数组,用于MSET/SETEX
+	 * @param objects key与对象的映射
+	 * @param codec
+	 * @return key,value交替的数组
+	 */
+	public static <E> byte[][] encode(Map<String, E> objects, ValueCodec codec) {
+		byte[][] keysvalues = new byte[objects.size() << 1][];
+		int i = 0;
+		for (Map.Entry<String, E> entry : objects.entrySet()) {
+			keysvalues[i++] = SafeEncoder.encode(entry.getKey());
+			keysvalues[i++] = codec.encode(entry.getValue());
+		}
+		return keysvalues;
+	}
+
+	/**
+	 * 把MGET的结果转换成对象
+	 * @param keys
+	 * @param values 与keys顺序一致的value
+	 * @param clazz 对象所属的类
+	 * @param codec
+	 * @return key与对象的映射,保持keys的顺序,value为null或无法解析的key不会出现在结果中
+	 */
+	public static <E> Map<String, E> decode(String[] keys, List<byte[]> values, Class<E> clazz,
+			ValueCodec codec) {
+		Object[] objects = new Object[keys.length];
+		int chunks = Math.min(MAX_CHUNKS, keys.length / MIN_CHUNK_SIZE);
+		if (keys.length < PARALLEL_THRESHOLD || chunks < 2) {
+			decode(keys, values, clazz, codec, objects, 0, keys.length);
+		} else {
+			decodeParallel(keys, values, clazz, codec, objects, chunks);
+		}
+		Map<String, E> result = new LinkedHashMap<String, E>(keys.length << 1);
+		for (int i = 0; i < keys.length; i++) {
+			if (objects[i] != null) {
+				result.put(keys[i], clazz.cast(objects[i]));
+			}
+		}
+		return result;
+	}
+
+	private static <E> void decodeParallel(final String[] keys, final List<byte[]> values, final Class<E> clazz,
+			final ValueCodec codec, final Object[] objects, int chunks) {
+		int chunkSize = (keys.length + chunks - 1) / chunks;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		for (int start = 0; start < keys.length; start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(keys.length, start + chunkSize);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					decode(keys, values, clazz, codec, objects, from, to);
+					return null;
+				}
+			});
+		}
+		FanOutExecutor.invokeAll(tasks);
+	}
+
+	private static <E> void decode(String[] keys, List<byte[]> values, Class<E> clazz, ValueCodec codec,
+			Object[] objects, int from, int to) {
+		for (int i = from; i < to; i++) {
+			byte[] value = values.get(i);
+			if (value == null) {
+				continue;
+			}
+			try {
+				objects[i] = codec.decode(value, clazz);
+			} catch (Exception ex) {
+				logger.error("decode error key is :" + keys[i] + " class is :" + clazz, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.wolf.redis.common.codec;
+
+/**
+ * 对象与redis中存放的字节之间的转换
+ * 每个工具类(BaseShardedJedis,RedisClientsUtil,JedisAdaptor,BaseRedisTemplate)配置一个codec,
+ * 对象方法直接通过二进制命令读写encode的结果,不再经过String中转
+ *
+ * @author wolf
+ */
+public interface ValueCodec {
+
+	/**
+	 * 对象转换成字节
+	 * @param value 不为null
+	 * @return
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * 字节转换成对象
+	 * @param bytes 为null时返回null
+	 * @param clazz 对象所属的类
+	 * @return
+	 */
+	<E> E decode(byte[] bytes, Class<E> clazz);
+}
@@ -0,0 +1,289 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.wolf.redis.common.metrics.CommandStats;
+import com.wolf.redis.common.metrics.LatencyHistogram;
+import com.wolf.redis.common.metrics.PoolMetrics;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.common.metrics.ShardMetrics;
+
+/**
+ * 按借出等待时间和命令延迟调整JedisPoolAdaptor的maxTotal、maxIdle
+ * 每隔intervalMillis检查上一段时间的PoolMetrics:
+ * 借出等待的p99超过targetWaitMicros或有线程在等待时,如果借出数已经达到maxTotal,maxTotal增加一半(不超过上限),
+ * 否则等待来自创建连接,只把maxIdle提高到借出峰值,让连接归还后保留;
+ * 设置了commandLatencyLimitMicros且命令延迟的p99超过它时不增加,此时redis已经变慢,更多连接只会增加它的负担。
+ * 连续shrinkAfterIntervals次等待都不超过targetWaitMicros时,maxIdle降到这段时间借出峰值的1.25倍,
+ * 多余的空闲连接归还时关闭;maxTotal向峰值的2倍收缩一半的距离(不低于下限),低峰时使用更少的socket,
+ * 突发请求时下一次检查即重新增加
+ *
+ * @author wolf
+ */
+public class AdaptivePoolSizer {
+
+	static Logger logger = Logger.getLogger(AdaptivePoolSizer.class);
+
+	public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+	public static final long DEFAULT_TARGET_WAIT_MICROS = 1000;
+	public static final int DEFAULT_SHRINK_AFTER_INTERVALS = 30;
+
+	private static final AtomicInteger INDEX = new AtomicInteger();
+
+	private final JedisPoolAdaptor pool;
+	private final int minTotal;
+	private final int maxTotal;
+
+	private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+	private volatile long targetWaitMicros = DEFAULT_TARGET_WAIT_MICROS;
+	private volatile int shrinkAfterIntervals = DEFAULT_SHRINK_AFTER_INTERVALS;
+	private volatile long commandLatencyLimitMicros;
+	private volatile RedisMetrics commandMetrics;
+
+	private ScheduledThreadPoolExecutor timer;
+	private volatile long resizeCount;
+
+	/** 以下在adjust中使用 */
+	private long[] lastWait = new long[LatencyHistogram.BUCKETS];
+	private long[] lastCommands = new long[LatencyHistogram.BUCKETS];
+	private int quietIntervals;
+	private long quietPeakActive;
+
+	AdaptivePoolSizer(JedisPoolAdaptor pool, int minTotal, int maxTotal) {
+		this.pool = pool;
+		this.minTotal = Math.max(1, minTotal);
+		this.maxTotal = Math.max(this.minTotal, maxTotal);
+	}
+
+	synchronized void start() {
+		int current = pool.getMaxTotal();
+		if (current < minTotal || current > maxTotal) {
+			resize(Math.min(maxTotal, Math.max(minTotal, current)), Math.min(pool.getMaxIdle(), maxTotal),
+					"out of range");
+		}
+		lastWait = pool.getPoolMetrics().getBorrowWait().snapshot();
+		lastCommands = commandSnapshot(commandMetrics);
+		final int index = INDEX.incrementAndGet();
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "redis-pool-sizer-" + index);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		schedule(timer);
+	}
+
+	synchronized void stop() {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	/**
+	 * 每次执行后按当前的intervalMillis安排下一次
+	 */
+	private void schedule(final ScheduledThreadPoolExecutor executor) {
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					adjust();
+				} catch (Exception e) {
+					logger.error("adjust pool size error.", e);
+				}
+				if (!executor.isShutdown()) {
+					schedule(executor);
+				}
+			}
+		}, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 按上次检查以来的统计调整一次,由定时任务调用
+	 */
+	public synchronized void adjust() {
+		PoolMetrics metrics = pool.getPoolMetrics();
+		if (metrics == null) {
+			return;
+		}
+		long[] wait = metrics.getBorrowWait().snapshot();
+		long[] window = subtract(wait, lastWait);
+		lastWait = wait;
+		long waitP99Micros = LatencyHistogram.percentile(window, 99) / 1000;
+		int waiters = pool.getNumWaiters();
+		long peakActive = metrics.takePeakActive();
+		long commandP99Micros = commandP99Micros();
+		int currentTotal = pool.getMaxTotal();
+		int currentIdle = pool.getMaxIdle();
+
+		if (waiters > 0 || waitP99Micros > targetWaitMicros) {
+			quietIntervals = 0;
+			quietPeakActive = 0;
+			String reason = "borrow wait p99 " + waitP99Micros + "us, waiters " + waiters + ", peak active "
+					+ peakActive;
+			if (commandLatencyLimitMicros > 0 && commandP99Micros > commandLatencyLimitMicros) {
+				logger.info("pool not grown, command p99 " + commandP99Micros + "us, " + reason);
+				return;
+			}
+			int newTotal = currentTotal;
+			if (peakActive + waiters >= currentTotal) {
+				//连接数已经达到上限
+				newTotal = (int) Math.min(maxTotal, Math.max(currentTotal + 1, currentTotal * 3L / 2));
+			}
+			int newIdle = (int) Math.min(newTotal, Math.max(currentIdle, peakActive + waiters));
+			resize(newTotal, newIdle, reason);
+			return;
+		}
+
+		quietIntervals++;
+		quietPeakActive = Math.max(quietPeakActive, peakActive);
+		if (quietIntervals < shrinkAfterIntervals) {
+			return;
+		}
+		long target = quietPeakActive * 5 / 4 + 1;
+		int newIdle = (int) Math.max(pool.getMinIdle(), Math.min(currentIdle, target));
+		long shrinkTo = Math.max(minTotal, Math.min(currentTotal, target * 2));
+		int newTotal = (int) Math.max(newIdle, currentTotal - (currentTotal - shrinkTo + 1) / 2);
+		String reason = "quiet for " + quietIntervals + " intervals, peak active " + quietPeakActive;
+		quietIntervals = 0;
+		quietPeakActive = 0;
+		resize(newTotal, newIdle, reason);
+	}
+
+	private void resize(int newTotal, int newIdle, String reason) {
+		int oldTotal = pool.getMaxTotal();
+		int oldIdle = pool.getMaxIdle();
+		if (newTotal == oldTotal && newIdle == oldIdle) {
+			return;
+		}
+		//先放大maxTotal再调整maxIdle,任何时候maxIdle都不大于maxTotal
+		if (newTotal > oldTotal) {
+			pool.setMaxTotal(newTotal);
+			pool.setMaxIdle(newIdle);
+		} else {
+			pool.setMaxIdle(newIdle);
+			pool.setMaxTotal(newTotal);
+		}
+		resizeCount++;
+		logger.info("pool resized, maxTotal " + oldTotal + " -> " + newTotal + ", maxIdle " + oldIdle + " -> "
+				+ newIdle + ", " + reason);
+	}
+
+	/**
+	 * 上次检查以来所有shard、所有命令合并的延迟p99,没有设置commandMetrics时返回0
+	 */
+	private long commandP99Micros() {
+		RedisMetrics current = commandMetrics;
+		if (current == null) {
+			return 0;
+		}
+		long[] commands = commandSnapshot(current);
+		long[] window = subtract(commands, lastCommands);
+		lastCommands = commands;
+		return LatencyHistogram.percentile(window, 99) / 1000;
+	}
+
+	/**
+	 * 所有shard、所有命令合并的延迟直方图,metrics为null时全为0
+	 */
+	private static long[] commandSnapshot(RedisMetrics metrics) {
+		long[] commands = new long[LatencyHistogram.BUCKETS];
+		if (metrics != null) {
+			for (ShardMetrics shard : metrics.getShards()) {
+				for (CommandStats stats : shard.getCommandStats()) {
+					stats.getLatency().addTo(commands);
+				}
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * 两次快照之间的计数,统计被reset时按0处理
+	 */
+	private static long[] subtract(long[] current, long[] last) {
+		long[] window = new long[current.length];
+		for (int i = 0; i < current.length; i++) {
+			window[i] = Math.max(0, current[i] - last[i]);
+		}
+		return window;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	/**
+	 * 检查的间隔,在已经安排的下一次检查之后生效;第一次检查的间隔通过JedisPoolAdaptor.enableAdaptiveSizing设置
+	 */
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = Math.max(1, intervalMillis);
+	}
+
+	public long getTargetWaitMicros() {
+		return targetWaitMicros;
+	}
+
+	/**
+	 * 借出等待p99的目标,超过时增加连接
+	 */
+	public void setTargetWaitMicros(long targetWaitMicros) {
+		this.targetWaitMicros = targetWaitMicros;
+	}
+
+	public int getShrinkAfterIntervals() {
+		return shrinkAfterIntervals;
+	}
+
+	/**
+	 * 连续多少次等待都不超过目标时减少连接
+	 */
+	public void setShrinkAfterIntervals(int shrinkAfterIntervals) {
+		this.shrinkAfterIntervals = Math.max(1, shrinkAfterIntervals);
+	}
+
+	public long getCommandLatencyLimitMicros() {
+		return commandLatencyLimitMicros;
+	}
+
+	/**
+	 * 命令延迟p99超过这个值时不增加连接,需要同时设置commandMetrics,不大于0时不检查
+	 */
+	public void setCommandLatencyLimitMicros(long commandLatencyLimitMicros) {
+		this.commandLatencyLimitMicros = commandLatencyLimitMicros;
+	}
+
+	public RedisMetrics getCommandMetrics() {
+		return commandMetrics;
+	}
+
+	/**
+	 * 记录这个连接池的命令延迟的RedisMetrics,即创建连接池时使用的MeteredShardInfo或RedisMetrics
+	 */
+	public synchronized void setCommandMetrics(RedisMetrics commandMetrics) {
+		this.commandMetrics = commandMetrics;
+		//下次检查只统计从现在开始的命令
+		lastCommands = commandSnapshot(commandMetrics);
+	}
+
+	public int getMinTotal() {
+		return minTotal;
+	}
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/** 调整的次数 */
+	public long getResizeCount() {
+		return resizeCount;
+	}
+}
@@ -1,7 +1,18 @@
 package com.wolf.redis.common.jedisadaptor;
 
-import com.alibaba.fastjson.JSON;
-import com.wolf.redis.common.Constant;
+import com.wolf.redis.common.CollectionWriter;
+import com.wolf.redis.common.MapObjects;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ObjectBatch;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.scan.KeyScanIterator;
+import com.wolf.redis.common.sharded.FanOutExecutor;
+import com.wolf.redis.common.sharded.FanOutExecutor.ShardCommand;
+import com.wolf.redis.common.sharded.FanOutResult;
+import com.wolf.redis.common.sharded.GetCoalescer;
+import com.wolf.redis.common.sharded.ShardedBatch;
 import org.apache.log4j.Logger;
 import redis.clients.jedis.BinaryClient.LIST_POSITION;
 import redis.clients.jedis.*;
@@ -26,6 +37,25 @@ public class JedisAdaptor {
     private Jedis jedis;
     private JedisCommands jedisCommands;
     private BinaryJedisCommands binaryJedisCommands;
+    //对象与字节之间的转换，默认json
+    private ValueCodec codec = new JsonCodec();
+    //setMapObject的存储方式，默认为原来的Set
+    private MapStorageMode mapStorageMode = MapStorageMode.SET;
+    //sharded时在所有shard上执行的命令(keys、dbSize、flushDB等)的截止时间，毫秒
+    private long fanOutTimeoutMillis = DEFAULT_FAN_OUT_TIMEOUT_MILLIS;
+
+    //setListObjects等分块写入时每条命令的元素数
+    private int writeChunkSize = CollectionWriter.DEFAULT_CHUNK_SIZE;
+    //scanKeys每次SCAN的COUNT
+    private int scanCount = KeyScanIterator.DEFAULT_COUNT;
+    //为true时keys(pattern)改用SCAN，不阻塞redis
+    private boolean keysUseScan;
+    //由JedisPoolAdaptor设置，get/getObject与其它线程的读取合并发送，为null时使用自己的连接
+    private GetCoalescer getCoalescer;
+    //由JedisPoolAdaptor设置，这次借出时没有PING检查连接
+    private boolean unverified;
+
+    public static final long DEFAULT_FAN_OUT_TIMEOUT_MILLIS = 5000;
 
     public JedisAdaptor(Jedis jedis) {
         super();
@@ -47,6 +77,152 @@ public class JedisAdaptor {
         return sharded ? shardedJedis : jedis;
     }
 
+    public ValueCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(ValueCodec codec) {
+        this.codec = codec;
+    }
+
+    public MapStorageMode getMapStorageMode() {
+        return mapStorageMode;
+    }
+
+    public void setMapStorageMode(MapStorageMode mapStorageMode) {
+        this.mapStorageMode = mapStorageMode;
+    }
+
+    public long getFanOutTimeoutMillis() {
+        return fanOutTimeoutMillis;
+    }
+
+    /**
+     * sharded时keys、dbSize、randomKey在所有shard上并行执行，
+     * 超过这个时间仍未返回的shard按失败处理，不大于0时一直等待；flushDB、flushAll不设截止时间
+     */
+    public void setFanOutTimeoutMillis(long fanOutTimeoutMillis) {
+        this.fanOutTimeoutMillis = fanOutTimeoutMillis;
+    }
+
+    /**
+     * MGET，按String key分片，以二进制形式返回value
+     */
+    List<byte[]> mgetBinary(String[] keys) {
+        if (sharded) {
+            return ShardedBatch.mgetBinary(shardedJedis, keys);
+        }
+        byte[][] binaryKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            binaryKeys[i] = SafeEncoder.encode(keys[i]);
+        }
+        return jedis.mget(binaryKeys);
+    }
+
+    void setGetCoalescer(GetCoalescer getCoalescer) {
+        this.getCoalescer = getCoalescer;
+    }
+
+    boolean isUnverified() {
+        return unverified;
+    }
+
+    void setUnverified(boolean unverified) {
+        this.unverified = unverified;
+    }
+
+    public int getWriteChunkSize() {
+        return writeChunkSize;
+    }
+
+    public void setWriteChunkSize(int writeChunkSize) {
+        this.writeChunkSize = writeChunkSize;
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public boolean isKeysUseScan() {
+        return keysUseScan;
+    }
+
+    /**
+     * 为true时keys(String)通过SCAN取得所有key，不再在每个shard上执行阻塞的KEYS
+     */
+    public void setKeysUseScan(boolean keysUseScan) {
+        this.keysUseScan = keysUseScan;
+    }
+
+    /**
+     * 在所有shard上并行执行，非sharded时只有一个shard
+     */
+    private <T> FanOutResult<T> fanOut(ShardCommand<T> command, long timeoutMillis) {
+        Collection<Jedis> shards = sharded ? shardedJedis.getAllShards() : Collections.singletonList(jedis);
+        return FanOutExecutor.invokeAll(shards, command, timeoutMillis);
+    }
+
+    /**
+     * 记录失败的shard，返回成功的结果
+     */
+    private static <T> List<T> successes(String command, FanOutResult<T> result) {
+        if (!result.isComplete()) {
+            for (int i = 0; i < result.size(); i++) {
+                if (result.getError(i) != null) {
+                    logger.error(command + " failed on shard " + result.getShard(i) + ", result is partial.",
+                            result.getError(i));
+                }
+            }
+        }
+        return result.getResults();
+    }
+
+    /**
+     * 所有shard都成功时返回结果，否则抛出JedisException，用于不能部分成功的命令
+     */
+    private static <T> List<T> allSucceeded(String command, FanOutResult<T> result) {
+        if (result.isComplete()) {
+            return result.getResults();
+        }
+        StringBuilder failed = new StringBuilder();
+        Throwable cause = null;
+        for (int i = 0; i < result.size(); i++) {
+            if (result.getError(i) != null) {
+                failed.append(failed.length() == 0 ? "" : ", ").append(result.getShard(i));
+                if (cause == null) {
+                    cause = result.getError(i);
+                }
+            }
+        }
+        throw new JedisException(command + " failed on shards " + failed + ".", cause);
+    }
+
+    /**
+     * 对象方法使用的二进制命令
+     * 如果是sharded，按String key计算shard，与String命令的分片保持一致
+     */
+    Jedis binaryCommands(String key) {
+        return sharded ? shardedJedis.getShard(key) : jedis;
+    }
+
+    /**
+     * KeyHandle所在的Jedis
+     * 由ShardRouter分片时直接使用缓存的shard下标,否则按String key计算
+     */
+    private Jedis binaryCommands(KeyHandle key) {
+        if (!sharded) {
+            return jedis;
+        }
+        if (shardedJedis instanceof RouterShardedJedis) {
+            return ((RouterShardedJedis) shardedJedis).getShard(key);
+        }
+        return shardedJedis.getShard(key.getKey());
+    }
+
     public String ping() {
         if (sharded) {
             throw new JedisException("ping is not supported if sharded.");
@@ -68,9 +244,9 @@ public class JedisAdaptor {
      */
     public <V> boolean setObject(String key,V object){
         try {
-            //将对象转换成json数据格式
-            String value = JSON.toJSONString(object);
-            jedis.set(key, value);
+            //将对象转换成字节
+            byte[] value = codec.encode(object);
+            binaryCommands(key).set(SafeEncoder.encode(key), value);
             return true;
         } catch (Exception e) {
             logger.error("setObject error .....");
@@ -78,6 +254,21 @@ public class JedisAdaptor {
         }
     }
 
+    /**
+     * get/getObject合并读取时使用的GetCoalescer，不合并时返回null
+     * 合并的读取在另外的连接的db 0上执行，select了其它db、watch或multi中的连接在自己的连接上读取
+     */
+    private GetCoalescer coalescer() {
+        if (getCoalescer == null || sharded) {
+            return getCoalescer;
+        }
+        Client client = jedis.getClient();
+        if (client.getDB() != 0 || client.isInWatch() || client.isInMulti()) {
+            return null;
+        }
+        return getCoalescer;
+    }
+
     /**
      * 通过key获取对象值
      * @Title: getObject
@@ -88,8 +279,10 @@ public class JedisAdaptor {
      */
     public <E> E getObject(String key,Class<E> clazz) {
         try {
-            String value = jedis.get(key);
-            return JSON.parseObject(value, clazz);
+            GetCoalescer coalescer = coalescer();
+            byte[] value = coalescer != null ? coalescer.get(key)
+                    : binaryCommands(key).get(SafeEncoder.encode(key));
+            return codec.decode(value, clazz);
         } catch (Exception ex) {
             logger.error("get getObject error key is :"+key+" class is :"+clazz, ex);
             return null;
@@ -97,9 +290,127 @@ public class JedisAdaptor {
     }
 
     public String get(String key) {
+        GetCoalescer coalescer = coalescer();
+        if (coalescer != null) {
+            byte[] value = coalescer.get(key);
+            return value == null ? null : SafeEncoder.encode(value);
+        }
         return jedisCommands.get(key);
     }
 
+    /*
+     * 以下为KeyHandle版本,使用预先编码的key和缓存的shard下标
+     */
+
+    public String set(KeyHandle key, String value) {
+        return binaryCommands(key).set(key.getBytes(), SafeEncoder.encode(value));
+    }
+
+    public String setex(KeyHandle key, int seconds, String value) {
+        return binaryCommands(key).setex(key.getBytes(), seconds, SafeEncoder.encode(value));
+    }
+
+    public String get(KeyHandle key) {
+        byte[] value = binaryCommands(key).get(key.getBytes());
+        return value == null ? null : SafeEncoder.encode(value);
+    }
+
+    public Boolean exists(KeyHandle key) {
+        return binaryCommands(key).exists(key.getBytes());
+    }
+
+    public Long expire(KeyHandle key, int seconds) {
+        return binaryCommands(key).expire(key.getBytes(), seconds);
+    }
+
+    public Long incr(KeyHandle key) {
+        return binaryCommands(key).incr(key.getBytes());
+    }
+
+    public Long del(KeyHandle key) {
+        return binaryCommands(key).del(key.getBytes());
+    }
+
+    public <V> boolean setObject(KeyHandle key, V object) {
+        try {
+            binaryCommands(key).set(key.getBytes(), codec.encode(object));
+            return true;
+        } catch (Exception e) {
+            logger.error("setObject error key is :"+key, e);
+            return false;
+        }
+    }
+
+    public <E> E getObject(KeyHandle key, Class<E> clazz) {
+        try {
+            return codec.decode(binaryCommands(key).get(key.getBytes()), clazz);
+        } catch (Exception ex) {
+            logger.error("get getObject error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        }
+    }
+
+    /**
+     * 批量获取对象
+     * 如果是sharded，按shard分组后每个shard执行一次MGET，对象较多时并行做对象转换
+     * @Title: getObjects
+     * @param keys
+     * @param clazz 要返回的对象所属的类
+     * @return Map<String,E> key与对象的映射，不存在的key不会出现在结果中
+     * @throws
+     */
+    public <E> Map<String, E> getObjects(Collection<String> keys, Class<E> clazz) {
+        if (keys == null || keys.isEmpty()) {
+            return new LinkedHashMap<String, E>();
+        }
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        try {
+            return ObjectBatch.decode(keyArray, mgetBinary(keyArray), clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getObjects error keys size is :"+keyArray.length+" class is :"+clazz, ex);
+            return null;
+        }
+    }
+
+    /**
+     * 批量向缓存中设置对象
+     * 如果是sharded，按shard分组后每个shard的命令放在一个pipeline里发送
+     * @Title: setObjects
+     * @param objects key与对象的映射
+     * @param expire_time 过期时间(秒)，不大于0时不过期
+     * @return boolean
+     * @throws
+     */
+    public <E> boolean setObjects(Map<String, E> objects, int expire_time) {
+        if (objects == null || objects.isEmpty()) {
+            return false;
+        }
+        byte[][] keysvalues = ObjectBatch.encode(objects, codec);
+        try {
+            if (sharded) {
+                String[] keys = new String[objects.size()];
+                byte[][] values = new byte[keys.length][];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = SafeEncoder.encode(keysvalues[i << 1]);
+                    values[i] = keysvalues[(i << 1) + 1];
+                }
+                ShardedBatch.setex(shardedJedis, expire_time, keys, values);
+            } else if (expire_time > 0) {
+                Pipeline pipeline = jedis.pipelined();
+                for (int i = 0; i < keysvalues.length; i += 2) {
+                    pipeline.setex(keysvalues[i], expire_time, keysvalues[i + 1]);
+                }
+                pipeline.sync();
+            } else {
+                jedis.mset(keysvalues);
+            }
+            return true;
+        } catch (Exception ex) {
+            logger.error("setObjects error; keys size is : "+objects.size(), ex);
+            return false;
+        }
+    }
+
     public String set(byte[] key, byte[] value) {
         return binaryJedisCommands.set(key, value);
     }
@@ -123,37 +434,30 @@ public class JedisAdaptor {
         return binaryJedisCommands.exists(key);
     }
 
+    /**
+     * 如果是sharded，按shard分组后每个shard执行一次DEL，多个shard并行
+     *
+     * @param keys
+     * @return
+     */
     public Long del(String... keys) {
         if (sharded) {
-            long count = 0;
-            for (String key : keys) {
-                long del = shardedJedis.del(key);
-                if (del > 0) {
-                    count++;
-                }
-            }
-            return count;
+            return ShardedBatch.del(shardedJedis, keys);
         } else {
             return jedis.del(keys);
         }
     }
 
     /**
-     * 避免使用此方法进行删除，效率低下
-     * 
+     * 如果是sharded，按shard分组后每个shard执行一次DEL，多个shard并行
+     * 二进制key按完整的key计算shard，与二进制的set一致
+     *
      * @param keys
      * @return
      */
     public Long del(byte[]... keys) {
         if (sharded) {
-            long count = 0;
-            for (byte[] key : keys) {
-                long del = shardedJedis.del(SafeEncoder.encode(key));
-                if (del > 0) {
-                    count++;
-                }
-            }
-            return count;
+            return ShardedBatch.del(shardedJedis, keys);
         } else {
             return jedis.del(keys);
         }
@@ -167,25 +471,51 @@ public class JedisAdaptor {
         return binaryJedisCommands.type(key);
     }
 
+    /**
+     * sharded时在所有shard上并行执行，不受fanOutTimeoutMillis限制（redis不会因为客户端放弃等待而停止清空），
+     * 任何一个shard失败时抛出JedisException，不返回部分成功的结果
+     */
     public String flushDB() {
         if (sharded) {
-            String code = null;
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            for (Jedis shard : allShards) {
-                code = shard.flushDB();
-            }
-            return code;
+            List<String> codes = allSucceeded("flushDB", flushDB(0));
+            return codes.get(codes.size() - 1);
         } else {
             return jedis.flushDB();
         }
     }
 
+    /**
+     * 在每个shard上执行flushDB，返回每个shard的结果或错误
+     */
+    public FanOutResult<String> flushDB(long timeoutMillis) {
+        return fanOut(new ShardCommand<String>() {
+            @Override
+            public String execute(Jedis shard) {
+                return shard.flushDB();
+            }
+        }, timeoutMillis);
+    }
+
+    /**
+     * sharded时在所有shard上并行执行，部分shard失败时记录错误，只返回成功的shard上的key
+     */
     public Set<String> keys(String pattern) {
+        if (keysUseScan) {
+            HashSet<String> keys = new HashSet<String>();
+            KeyScanIterator iterator = scanKeys(pattern);
+            try {
+                while (iterator.hasNext()) {
+                    keys.add(iterator.next());
+                }
+            } finally {
+                iterator.close();
+            }
+            return keys;
+        }
         if (sharded) {
             HashSet<String> keys = new HashSet<String>();
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            for (Jedis shard : allShards) {
-                keys.addAll(shard.keys(pattern));
+            for (Set<String> shardKeys : successes("keys", keys(pattern, fanOutTimeoutMillis))) {
+                keys.addAll(shardKeys);
             }
             return keys;
         } else {
@@ -193,12 +523,29 @@ public class JedisAdaptor {
         }
     }
 
-    public Set<byte[]> keys(byte[] pattern) {
+    /**
+     * 在每个shard上执行keys，返回每个shard的结果或错误
+     */
+    public FanOutResult<Set<String>> keys(final String pattern, long timeoutMillis) {
+        return fanOut(new ShardCommand<Set<String>>() {
+            @Override
+            public Set<String> execute(Jedis shard) {
+                return shard.keys(pattern);
+            }
+        }, timeoutMillis);
+    }
+
+    public Set<byte[]> keys(final byte[] pattern) {
         if (sharded) {
             HashSet<byte[]> keys = new HashSet<byte[]>();
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            for (Jedis shard : allShards) {
-                keys.addAll(shard.keys(pattern));
+            FanOutResult<Set<byte[]>> result = fanOut(new ShardCommand<Set<byte[]>>() {
+                @Override
+                public Set<byte[]> execute(Jedis shard) {
+                    return shard.keys(pattern);
+                }
+            }, fanOutTimeoutMillis);
+            for (Set<byte[]> shardKeys : successes("keys", result)) {
+                keys.addAll(shardKeys);
             }
             return keys;
         } else {
@@ -206,17 +553,49 @@ public class JedisAdaptor {
         }
     }
 
+    /**
+     * 按SCAN逐页遍历匹配的key，见KeyScanIterator
+     * sharded时每个shard使用单独的连接并在后台提前取下一页，迭代期间可以继续使用本对象执行其它命令，
+     * 用完或中途放弃时必须调用close
+     * @param pattern 为null时遍历所有key
+     */
+    public KeyScanIterator scanKeys(String pattern) {
+        if (sharded) {
+            Set<JedisShardInfo> shards = new LinkedHashSet<JedisShardInfo>(shardedJedis.getAllShardInfo());
+            return new KeyScanIterator(shards, pattern, scanCount);
+        } else {
+            return new KeyScanIterator(Collections.singletonList(jedis), pattern, scanCount);
+        }
+    }
+
+    /**
+     * sharded时在所有shard上并行执行，从返回了key的shard中随机取一个，
+     * 避免选中空的shard时返回null
+     */
     public String randomKey() {
         if (sharded) {
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            Random r = new Random();
-            int num = r.nextInt(allShards.size());
-            return allShards.toArray(new Jedis[0])[num].randomKey();
+            FanOutResult<String> result = fanOut(new ShardCommand<String>() {
+                @Override
+                public String execute(Jedis shard) {
+                    return shard.randomKey();
+                }
+            }, fanOutTimeoutMillis);
+            return randomOf(successes("randomKey", result));
         } else {
             return jedis.randomKey();
         }
     }
 
+    private static <T> T randomOf(List<T> candidates) {
+        List<T> keys = new ArrayList<T>(candidates.size());
+        for (T key : candidates) {
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        return keys.isEmpty() ? null : keys.get(new Random().nextInt(keys.size()));
+    }
+
     public String rename(String oldkey, String newkey) {
         if (sharded) {
             throw new JedisException("rename is not supported if sharded.");
@@ -227,10 +606,13 @@ public class JedisAdaptor {
 
     public byte[] randomBinaryKey() {
         if (sharded) {
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            Random r = new Random();
-            int num = r.nextInt(allShards.size());
-            return allShards.toArray(new Jedis[0])[num].randomBinaryKey();
+            FanOutResult<byte[]> result = fanOut(new ShardCommand<byte[]>() {
+                @Override
+                public byte[] execute(Jedis shard) {
+                    return shard.randomBinaryKey();
+                }
+            }, fanOutTimeoutMillis);
+            return randomOf(successes("randomBinaryKey", result));
         } else {
             return jedis.randomBinaryKey();
         }
@@ -265,12 +647,14 @@ public class JedisAdaptor {
         return jedisCommands.expire(key, seconds);
     }
 
+    /**
+     * sharded时在所有shard上并行执行，部分shard失败时记录错误，只统计成功的shard
+     */
     public Long dbSize() {
         if (sharded) {
             long size = 0;
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            for (Jedis shard : allShards) {
-                size += shard.dbSize();
+            for (Long shardSize : successes("dbSize", dbSize(fanOutTimeoutMillis))) {
+                size += shardSize;
             }
             return size;
         } else {
@@ -278,6 +662,18 @@ public class JedisAdaptor {
         }
     }
 
+    /**
+     * 在每个shard上执行dbSize，返回每个shard的结果或错误
+     */
+    public FanOutResult<Long> dbSize(long timeoutMillis) {
+        return fanOut(new ShardCommand<Long>() {
+            @Override
+            public Long execute(Jedis shard) {
+                return shard.dbSize();
+            }
+        }, timeoutMillis);
+    }
+
     public Long expire(byte[] key, int seconds) {
         return binaryJedisCommands.expire(key, seconds);
     }
@@ -322,30 +718,44 @@ public class JedisAdaptor {
         }
     }
 
+    /**
+     * sharded时在所有shard上并行执行，不受fanOutTimeoutMillis限制（redis不会因为客户端放弃等待而停止清空），
+     * 任何一个shard失败时抛出JedisException，不返回部分成功的结果
+     */
     public String flushAll() {
         if (sharded) {
-            String code = null;
-            Collection<Jedis> allShards = shardedJedis.getAllShards();
-            for (Jedis shard : allShards) {
-                code = shard.flushAll();
-            }
-            return code;
+            List<String> codes = allSucceeded("flushAll", flushAll(0));
+            return codes.get(codes.size() - 1);
         } else {
             return jedis.flushAll();
         }
     }
 
+    /**
+     * 在每个shard上执行flushAll，返回每个shard的结果或错误
+     */
+    public FanOutResult<String> flushAll(long timeoutMillis) {
+        return fanOut(new ShardCommand<String>() {
+            @Override
+            public String execute(Jedis shard) {
+                return shard.flushAll();
+            }
+        }, timeoutMillis);
+    }
+
     public String getSet(String key, String value) {
         return jedisCommands.getSet(key, value);
     }
 
+    /**
+     * 如果是sharded，按shard分组后每个shard执行一次MGET，多个shard并行
+     *
+     * @param keys
+     * @return
+     */
     public List<String> mget(String... keys) {
         if (sharded) {
-            ArrayList<String> values = new ArrayList<String>();
-            for (String key : keys) {
-                values.add(shardedJedis.get(key));
-            }
-            return values;
+            return ShardedBatch.mget(shardedJedis, keys);
         } else {
             return jedis.mget(keys);
         }
@@ -359,13 +769,15 @@ public class JedisAdaptor {
         return jedisCommands.setnx(key, value);
     }
 
+    /**
+     * 如果是sharded，按shard分组后每个shard执行一次MGET，多个shard并行
+     *
+     * @param keys
+     * @return
+     */
     public List<byte[]> mget(byte[]... keys) {
         if (sharded) {
-            ArrayList<byte[]> values = new ArrayList<byte[]>();
-            for (byte[] key : keys) {
-                values.add(shardedJedis.get(key));
-            }
-            return values;
+            return ShardedBatch.mget(shardedJedis, keys);
         } else {
             return jedis.mget(keys);
         }
@@ -379,11 +791,15 @@ public class JedisAdaptor {
         return binaryJedisCommands.setnx(key, value);
     }
 
+    /**
+     * 如果是sharded，按shard分组后每个shard执行一次MSET，多个shard并行，整体不是原子的
+     *
+     * @param keysvalues
+     * @return
+     */
     public String mset(String... keysvalues) {
         if (sharded) {
-            for (int i = 0; i < keysvalues.length; i += 2) {
-                shardedJedis.set(keysvalues[i], keysvalues[i + 1]);
-            }
+            ShardedBatch.mset(shardedJedis, keysvalues);
             return "+OK";
         } else {
             return jedis.mset(keysvalues);
@@ -395,42 +811,46 @@ public class JedisAdaptor {
         return binaryJedisCommands.setex(key, seconds, value);
     }
 
+    /**
+     * 如果是sharded，按shard分组后每个shard执行一次MSET，多个shard并行，整体不是原子的
+     *
+     * @param keysvalues
+     * @return
+     */
     public String mset(byte[]... keysvalues) {
         if (sharded) {
-            for (int i = 0; i < keysvalues.length; i += 2) {
-                shardedJedis.set(keysvalues[i], keysvalues[i + 1]);
-            }
+            ShardedBatch.mset(shardedJedis, keysvalues);
             return "+OK";
         } else {
             return jedis.mset(keysvalues);
         }
     }
 
+    /**
+     * 如果是sharded，逐个key执行SETNX，每个shard的SETNX放在一个pipeline里，多个shard并行
+     * 返回设置成功的key的个数
+     *
+     * @param keysvalues
+     * @return
+     */
     public Long msetnx(String... keysvalues) {
         if (sharded) {
-            long count = 0;
-            for (int i = 0; i < keysvalues.length; i += 2) {
-                long num = shardedJedis.setnx(keysvalues[i], keysvalues[i + 1]);
-                if (num > 0) {
-                    count++;
-                }
-            }
-            return count;
+            return ShardedBatch.msetnx(shardedJedis, keysvalues);
         } else {
             return jedis.msetnx(keysvalues);
         }
     }
 
+    /**
+     * 如果是sharded，逐个key执行SETNX，每个shard的SETNX放在一个pipeline里，多个shard并行
+     * 返回设置成功的key的个数
+     *
+     * @param keysvalues
+     * @return
+     */
     public Long msetnx(byte[]... keysvalues) {
         if (sharded) {
-            long count = 0;
-            for (int i = 0; i < keysvalues.length; i += 2) {
-                long num = shardedJedis.setnx(keysvalues[i], keysvalues[i + 1]);
-                if (num > 0) {
-                    count++;
-                }
-            }
-            return count;
+            return ShardedBatch.msetnx(shardedJedis, keysvalues);
         } else {
             return jedis.msetnx(keysvalues);
         }
@@ -1090,10 +1510,16 @@ public class JedisAdaptor {
         }
     }
 
-    //
-    // public void psubscribe(JedisPubSub jedisPubSub, String... patterns) {
-    // jedis.psubscribe(jedisPubSub, patterns);
-    // }
+    /**
+     * 按模式订阅,模式无法对应到某个shard
+     */
+    public void psubscribe(JedisPubSub jedisPubSub, String... patterns) {
+        if (sharded) {
+            throw new JedisException("psubscribe is not supported if sharded.");
+        } else {
+            jedis.psubscribe(jedisPubSub, patterns);
+        }
+    }
 
     public Long zcount(String key, double min, double max) {
         return jedisCommands.zcount(key, min, max);
@@ -1689,6 +2115,21 @@ public class JedisAdaptor {
         return shardedJedis.pipelined();
     }
 
+    /**
+     * 自动pipeline的会话，sharded与非sharded都可以使用，见PipelineSession
+     * 排队满PipelineSession.DEFAULT_FLUSH_THRESHOLD个命令时自动发送
+     */
+    public PipelineSession session() {
+        return new PipelineSession(this, codec, PipelineSession.DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * @param flushThreshold 排队的命令数达到这个值时自动发送
+     */
+    public PipelineSession session(int flushThreshold) {
+        return new PipelineSession(this, codec, flushThreshold);
+    }
+
     
     public void subscribe(final JedisPubSub jedisPubSub, final String... channels) {
     	if(sharded) {
@@ -1713,6 +2154,7 @@ public class JedisAdaptor {
     /**
      *
      * 向缓存中设置Map<K, V>对象
+     * 按mapStorageMode存放为Set或Hash
      * @Title: set
      * @param key
      * @param map<Key,Value>
@@ -1720,56 +2162,91 @@ public class JedisAdaptor {
      * @throws
      */
     public <V> boolean setMapObject(String key,Map<String, V> map){
-        boolean flag = false;
-        //将对象转换成json数据格式
-        if (map!=null && !map.isEmpty()) {
-            List<String> jsonList = new ArrayList<String>(map.size());
-            for (String element_key : map.keySet()) {
-                V object = map.get(element_key);
-                //*******采用分隔符处理有一定的风险,如果map中的key含有SPLIT_CHAR则会导致拆分出错*******
-                String element_content = JSON.toJSONString(object)+ Constant.SPLIT_CHAR+element_key;
-                jsonList.add(element_content);
-            }
-            //将Set<String>转化成json数组
-            String[] jsonArray = new String[jsonList.size()];
-            jsonList.toArray(jsonArray);
-            try {
-                jedis.sadd(key, jsonArray);
-                flag = true;
-            } catch (Exception ex) {
-                logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);
-                return flag;
-            }
+        if (map==null || map.isEmpty()) {
+            return false;
+        }
+        try {
+            MapObjects.putAll(binaryCommands(key), key, map, mapStorageMode, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);
+            return false;
         }
-        return flag;
     }
 
     /**
-     * @Title: 根据key获取Set无序集合对象值
+     * @Title: 根据key获取Map对象值
+     * 两种存储方式的数据都可以读取
      * @param key
      * @param clazz 集合中装载对象所属的类
-     * @return Set<E>
+     * @return Map<String,V>
      * @throws
      */
     public <V> Map<String,V> getMapObject(String key,Class<V> clazz) {
         try {
-            //获取json集合数据
-            Set<String> jsonSet =jedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Map<String,V> objectMap = new HashMap<String,V>(jsonSet.size());
-            for (String json : jsonSet) {
-                //数据格式： "{\"descrition\":\"worker\",\"id\":\"0011\",\"roleName\":\"worker\"}^001_key"
-                String[] contentArray = json.split("\\"+Constant.SPLIT_CHAR);
-                V entity = JSON.parseObject(contentArray[0], clazz);
-                objectMap.put(contentArray[1],entity);
-            }
-            return objectMap;
+            return MapObjects.getAll(binaryCommands(key), key, mapStorageMode, clazz, codec);
         } catch (Exception ex) {
-            logger.error("get getObjects error key is :"+key+" class is :"+clazz, ex);
+            logger.error("get getMapObject error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @Title: 获取Map对象中的单个条目(HGET)
+     * @param key
+     * @param field map中的key
+     * @param clazz 对象所属的类
+     * @return V 不存在时返回null
+     * @throws
+     */
+    public <V> V getMapEntry(String key,String field,Class<V> clazz) {
+        try {
+            return MapObjects.get(binaryCommands(key), key, field, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntry error key is :"+key+" field is :"+field, ex);
             return null;
         }
     }
 
+    /**
+     * @Title: 获取Map对象中的多个条目(HMGET)
+     * @param key
+     * @param fields map中的key
+     * @param clazz 对象所属的类
+     * @return Map<String,V> 保持fields的顺序,不存在的field不会出现在结果中
+     * @throws
+     */
+    public <V> Map<String,V> getMapEntries(String key,Collection<String> fields,Class<V> clazz) {
+        if (fields==null || fields.isEmpty()) {
+            return new LinkedHashMap<String,V>();
+        }
+        try {
+            return MapObjects.get(binaryCommands(key), key, fields, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntries error key is :"+key+" fields is :"+fields, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @Title: 设置Map对象中的单个条目(HSET)
+     * 旧格式(Set)的数据会先转换成Hash
+     * @param key
+     * @param field map中的key
+     * @param value
+     * @return boolean
+     * @throws
+     */
+    public <V> boolean putMapEntry(String key,String field,V value) {
+        try {
+            MapObjects.put(binaryCommands(key), key, field, value, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("putMapEntry error key is :"+key+" field is :"+field, ex);
+            return false;
+        }
+    }
+
     /**
      *
      * 向缓存中设置List集合对象
@@ -1781,24 +2258,30 @@ public class JedisAdaptor {
      * @throws
      */
     public <E> boolean setListObjects(String key,List<E> list){
-        //将List集合中的对象转换成json数据格式的数组
-        List<String> jsonList = new ArrayList<String>(list.size());
-        if(list!=null && !list.isEmpty()){
-            for (E object : list) {
-                String element_content = JSON.toJSONString(object);
-                jsonList.add(element_content);
-            }
+        try {
+            //添加到List容器的底部（右侧）如果KEY不存在，则创建一个List容器，如果KEY存在并且不是一个List容器，那么返回FLASE
+            //按writeChunkSize分块编码和发送，不会一次把整个集合转换成字节数组
+            CollectionWriter.writeList(binaryCommands(key), key, list.iterator(), false, writeChunkSize, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setListObjects error; key is : "+key, ex);
+            return false;
         }
+    }
 
-        //将List<String>转化成json数组
-        String[] jsonArray = new String[jsonList.size()];
-        jsonList.toArray(jsonArray);
+    /**
+     * 流式写入List集合对象，元素边编码边分块RPUSH，内存中只保留一块
+     * @param key 键
+     * @param elements 按顺序写入的对象
+     * @param replace 为true时写到临时key后RENAME，原子地替换整个List；为false时追加到底部
+     * @return boolean
+     */
+    public <E> boolean writeListObjects(String key, Iterator<E> elements, boolean replace) {
         try {
-            //添加一个字符串值到List容器的底部（右侧）如果KEY不存在，则创建一个List容器，如果KEY存在并且不是一个List容器，那么返回FLASE
-            jedis.rpush(key, jsonArray);
+            CollectionWriter.writeList(binaryCommands(key), key, elements, replace, writeChunkSize, codec);
             return true;
         } catch (Exception ex) {
-            logger.error("setListObjects error; key is : "+key, ex);
+            logger.error("writeListObjects error; key is : "+key, ex);
             return false;
         }
     }
@@ -1813,11 +2296,11 @@ public class JedisAdaptor {
     public <E> List<E> getListObjects(String key,Class<E> clazz) {
         try {
             //规律: 左数从0开始,右数从-1开始(0: the first element, 1: the second ... -1: the last element, -2: the penultimate ...)
-            List<String> jsonList =jedis.lrange(key, 0, -1);
-            //转化集合中的字符串为对象格式
-            List<E> objectList = new ArrayList<E>(jsonList.size());
-            for (String json : jsonList) {
-                E objec = JSON.parseObject(json, clazz);
+            List<byte[]> elements =binaryCommands(key).lrange(SafeEncoder.encode(key), 0, -1);
+            //转化集合中的字节为对象格式
+            List<E> objectList = new ArrayList<E>(elements.size());
+            for (byte[] element : elements) {
+                E objec = codec.decode(element, clazz);
                 objectList.add(objec);
             }
             return objectList;
@@ -1836,24 +2319,29 @@ public class JedisAdaptor {
      * @throws
      */
     public <E> boolean setSetObjects(String key,Set<E> set){
-        //将Set集合中的对象转换成json数据格式的数组
-        Set<String> jsonSet = new HashSet<String>(set.size());
-        if(set!=null && !set.isEmpty()){
-            for (E object : set) {
-                String element_content = JSON.toJSONString(object);
-                jsonSet.add(element_content);
-            }
+        try {
+            //存放集合数据，按writeChunkSize分块编码和发送
+            CollectionWriter.writeSet(binaryCommands(key), key, set.iterator(), false, writeChunkSize, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setObjects error; key is : "+key, ex);
+            return false;
         }
+    }
 
-        //将Set<String>转化成json数组
-        String[] jsonArray = new String[jsonSet.size()];
-        jsonSet.toArray(jsonArray);
+    /**
+     * 流式写入Set集合对象，元素边编码边分块发送，内存中只保留一块
+     * @param key 键
+     * @param elements 要写入的对象
+     * @param replace 为true时写到临时key后RENAME，原子地替换整个Set；为false时追加
+     * @return boolean
+     */
+    public <E> boolean writeSetObjects(String key, Iterator<E> elements, boolean replace) {
         try {
-            //存放集合数据
-            jedis.sadd(key, jsonArray);
+            CollectionWriter.writeSet(binaryCommands(key), key, elements, replace, writeChunkSize, codec);
             return true;
         } catch (Exception ex) {
-            logger.error("setObjects error; key is : "+key, ex);
+            logger.error("writeSetObjects error; key is : "+key, ex);
             return false;
         }
     }
@@ -1867,12 +2355,12 @@ public class JedisAdaptor {
      */
     public <E> Set<E> getSetObjects(String key,Class<E> clazz) {
         try {
-            //获取json集合数据
-            Set<String> jsonSet =jedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Set<E> objectSet = new HashSet<E>(jsonSet.size());
-            for (String json : jsonSet) {
-                E objec = JSON.parseObject(json, clazz);
+            //获取集合数据
+            Set<byte[]> elements =binaryCommands(key).smembers(SafeEncoder.encode(key));
+            //转化集合中的字节为对象格式
+            Set<E> objectSet = new HashSet<E>(elements.size());
+            for (byte[] element : elements) {
+                E objec = codec.decode(element, clazz);
                 objectSet.add(objec);
             }
             return objectSet;
@@ -0,0 +1,198 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.util.List;
+
+import com.wolf.redis.common.CollectionWriter;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.nio.NioEngine;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+import com.wolf.redis.common.scan.KeyScanIterator;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 多路复用的JedisAdaptor,替代JedisPoolAdaptor
+ * 每个shard只建立connectionsPerShard个连接(默认1个),所有线程共用:命令按顺序写出,
+ * 每个连接的读线程按顺序读取回复,交给发出命令的线程。
+ * 线程不再独占连接,不需要很大的连接池,也没有借还连接的竞争;多个线程同时写出的命令合并成一次写。
+ *
+ * blpop/brpop/brpoplpush,以及watch/multi开始的事务在独立的连接上执行,这些连接用完后保留少量空闲的重复使用。
+ * subscribe、monitor、select、auth、quit等改变连接状态的命令不支持,抛出JedisException。
+ *
+ * getResource返回的JedisAdaptor可以被多个线程同时使用;close只丢弃当前线程未读取的回复,不关闭连接。
+ * 不再使用时调用destroy
+ *
+ * 传入NioEngine时共用连接改为非阻塞,由engine的EventLoop线程读写,每个连接不再需要单独的读线程
+ *
+ * @author wolf
+ */
+public class JedisMultiplexer {
+
+	public static final int DEFAULT_CONNECTIONS_PER_SHARD = 1;
+
+	// sharded时使用,非sharded时为null
+	private final MultiplexedShardedJedis shardedJedis;
+
+	// 非sharded时使用
+	private final MultiplexedJedis jedis;
+
+	// 返回的JedisAdaptor使用的codec
+	private ValueCodec codec = new JsonCodec();
+
+	// 返回的JedisAdaptor使用的setMapObject存储方式
+	private MapStorageMode mapStorageMode = MapStorageMode.SET;
+
+	// 返回的JedisAdaptor在所有shard上执行命令的截止时间
+	private long fanOutTimeoutMillis = JedisAdaptor.DEFAULT_FAN_OUT_TIMEOUT_MILLIS;
+
+	// 返回的JedisAdaptor分块写入时每条命令的元素数
+	private int writeChunkSize = CollectionWriter.DEFAULT_CHUNK_SIZE;
+
+	// 返回的JedisAdaptor每次SCAN的COUNT,以及keys是否改用SCAN
+	private int scanCount = KeyScanIterator.DEFAULT_COUNT;
+	private boolean keysUseScan;
+
+	private volatile boolean destroyed;
+
+	// 创建基于Sharded Jedis的多路复用连接
+	public JedisMultiplexer(List<JedisShardInfo> shards) {
+		this(shards, DEFAULT_CONNECTIONS_PER_SHARD);
+	}
+
+	// 创建基于Sharded Jedis的多路复用连接,每个shard connectionsPerShard个连接
+	public JedisMultiplexer(List<JedisShardInfo> shards, int connectionsPerShard) {
+		this(new RingRouter(shards), connectionsPerShard);
+	}
+
+	/**
+	 * 创建基于Sharded Jedis的多路复用连接,由router计算分片
+	 * @param connectionsPerShard 每个shard共用的连接数,线程按创建顺序分配到其中一个
+	 */
+	public JedisMultiplexer(ShardRouter router, int connectionsPerShard) {
+		this(router, connectionsPerShard, null);
+	}
+
+	/**
+	 * 创建基于Sharded Jedis的多路复用连接,共用连接由engine的EventLoop非阻塞读写
+	 * @param engine 为null时使用阻塞socket;可以与其它JedisMultiplexer共用,destroy时不关闭
+	 */
+	public JedisMultiplexer(ShardRouter router, int connectionsPerShard, NioEngine engine) {
+		this.shardedJedis = new MultiplexedShardedJedis(router, connectionsPerShard, engine);
+		this.jedis = null;
+	}
+
+	// 创建基于Jedis的多路复用连接
+	public JedisMultiplexer(final String host, final int port) {
+		this(new JedisShardInfo(host, port), DEFAULT_CONNECTIONS_PER_SHARD);
+	}
+
+	// 创建基于Jedis的多路复用连接
+	public JedisMultiplexer(JedisShardInfo shardInfo, int connections) {
+		this(shardInfo, connections, null);
+	}
+
+	// 创建基于Jedis的多路复用连接,engine为null时使用阻塞socket
+	public JedisMultiplexer(JedisShardInfo shardInfo, int connections, NioEngine engine) {
+		this.shardedJedis = null;
+		this.jedis = new MultiplexedJedis(shardInfo, connections, engine);
+	}
+
+	/**
+	 * 返回使用共用连接的JedisAdaptor,不占用连接,可以不调用close
+	 * 同时丢弃当前线程之前未读取的回复
+	 */
+	public JedisAdaptor getResource() {
+		if (destroyed) {
+			throw new JedisException("jedis multiplexer is destroyed.");
+		}
+		JedisAdaptor jedisAdaptor;
+		if (shardedJedis != null) {
+			shardedJedis.disconnect();
+			jedisAdaptor = new JedisAdaptor(shardedJedis);
+		} else {
+			jedis.getMultiplexedClient().resetState();
+			jedisAdaptor = new JedisAdaptor(jedis);
+		}
+		jedisAdaptor.setCodec(codec);
+		jedisAdaptor.setMapStorageMode(mapStorageMode);
+		jedisAdaptor.setFanOutTimeoutMillis(fanOutTimeoutMillis);
+		jedisAdaptor.setWriteChunkSize(writeChunkSize);
+		jedisAdaptor.setScanCount(scanCount);
+		jedisAdaptor.setKeysUseScan(keysUseScan);
+		return jedisAdaptor;
+	}
+
+	/**
+	 * 关闭所有连接,正在等待回复的命令失败
+	 */
+	public void destroy() {
+		destroyed = true;
+		if (shardedJedis != null) {
+			shardedJedis.closeAll();
+		} else {
+			jedis.getMultiplexedClient().closeAll();
+		}
+	}
+
+	/** 所有共用连接写出的命令数 */
+	public long getCommandCount() {
+		return shardedJedis != null ? shardedJedis.getCommandCount() : jedis.getMultiplexedClient().getCommandCount();
+	}
+
+	/** 所有共用连接flush的次数,getCommandCount() / getFlushCount() 即平均每次写出的命令数 */
+	public long getFlushCount() {
+		return shardedJedis != null ? shardedJedis.getFlushCount() : jedis.getMultiplexedClient().getFlushCount();
+	}
+
+	public ValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+
+	public MapStorageMode getMapStorageMode() {
+		return mapStorageMode;
+	}
+
+	public void setMapStorageMode(MapStorageMode mapStorageMode) {
+		this.mapStorageMode = mapStorageMode;
+	}
+
+	public long getFanOutTimeoutMillis() {
+		return fanOutTimeoutMillis;
+	}
+
+	public void setFanOutTimeoutMillis(long fanOutTimeoutMillis) {
+		this.fanOutTimeoutMillis = fanOutTimeoutMillis;
+	}
+
+	public int getWriteChunkSize() {
+		return writeChunkSize;
+	}
+
+	public void setWriteChunkSize(int writeChunkSize) {
+		this.writeChunkSize = writeChunkSize;
+	}
+
+	public int getScanCount() {
+		return scanCount;
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public boolean isKeysUseScan() {
+		return keysUseScan;
+	}
+
+	public void setKeysUseScan(boolean keysUseScan) {
+		this.keysUseScan = keysUseScan;
+	}
+}
@@ -4,11 +4,31 @@ import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.springframework.stereotype.Repository;
+
+import com.wolf.redis.common.CollectionWriter;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.metrics.MeteredJedis;
+import com.wolf.redis.common.metrics.MeteredJedisPool;
+import com.wolf.redis.common.metrics.MeteredShardInfo;
+import com.wolf.redis.common.metrics.PoolMetrics;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+import com.wolf.redis.common.scan.KeyScanIterator;
+import com.wolf.redis.common.sharded.GetCoalescer;
+
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
 import redis.clients.util.Hashing;
 import redis.clients.util.Pool;
 
+import java.io.Closeable;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 //import org.apache.commons.pool.impl.GenericObjectPool.Config;
 
@@ -23,6 +43,37 @@ import java.util.regex.Pattern;
 @Repository
 public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 
+	// 借出的JedisAdaptor使用的codec
+	private ValueCodec codec = new JsonCodec();
+
+	// 借出的JedisAdaptor使用的setMapObject存储方式
+	private MapStorageMode mapStorageMode = MapStorageMode.SET;
+
+	// 借出的JedisAdaptor在所有shard上执行命令的截止时间
+	private long fanOutTimeoutMillis = JedisAdaptor.DEFAULT_FAN_OUT_TIMEOUT_MILLIS;
+
+	// 借出的JedisAdaptor分块写入时每条命令的元素数
+	private int writeChunkSize = CollectionWriter.DEFAULT_CHUNK_SIZE;
+
+	// 借出的JedisAdaptor每次SCAN的COUNT,以及keys是否改用SCAN
+	private int scanCount = KeyScanIterator.DEFAULT_COUNT;
+	private boolean keysUseScan;
+
+	// 合并多个线程并发的get/getObject,为null时不合并
+	private volatile GetCoalescer getCoalescer;
+
+	// 路由模式下每个shard的连接池
+	private Map<JedisShardInfo, JedisPool> shardPools;
+
+	// 借出等待、创建连接的统计,为null时不统计
+	private volatile PoolMetrics poolMetrics;
+
+	// 按借出等待时间调整maxIdle、maxTotal,为null时不调整
+	private AdaptivePoolSizer poolSizer;
+
+	// 最近这段时间内归还且连接没有断开的JedisAdaptor检查时不再PING,不大于0时每次都PING
+	private long skipValidationMillis;
+
 	public JedisPoolAdaptor(){
 	}
 
@@ -50,6 +101,52 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		super(poolConfig, new JedisFactory(shards, algo, keyTagPattern));
 	}
 
+	// 创建基于Sharded Jedis的Pool,routed为true时使用路由模式
+	public JedisPoolAdaptor(final JedisPoolConfig poolConfig,
+							List<JedisShardInfo> shards, boolean routed) {
+		this(poolConfig, shards, Hashing.MURMUR_HASH, null, routed);
+	}
+
+	/**
+	 * 创建基于Sharded Jedis的Pool
+	 * 路由模式下每个shard有独立的连接池(使用同一个poolConfig),借出的JedisAdaptor本身不持有连接,
+	 * 命令只从key所在shard的连接池借连接,JedisAdaptor.close()时归还。
+	 * 普通模式下每个JedisAdaptor都连接所有shard,testOnBorrow时每次借出都要PING所有shard
+	 */
+	public JedisPoolAdaptor(final JedisPoolConfig poolConfig,
+							List<JedisShardInfo> shards, Hashing algo, Pattern keyTagPattern, boolean routed) {
+		this(poolConfig, new RingRouter(shards, algo, keyTagPattern), routed);
+	}
+
+	/**
+	 * 创建基于Sharded Jedis的Pool,由router计算分片
+	 * RingRouter与默认的分片结果一致,JumpRouter等其它实现需要迁移已有数据
+	 * @param routed 是否使用路由模式
+	 */
+	public JedisPoolAdaptor(final JedisPoolConfig poolConfig, ShardRouter router, boolean routed) {
+		this(poolConfig, router, routed ? createShardPools(poolConfig, router.getShards()) : null);
+	}
+
+	private JedisPoolAdaptor(final JedisPoolConfig poolConfig, ShardRouter router,
+							 Map<JedisShardInfo, JedisPool> shardPools) {
+		super(poolConfig, new JedisFactory(router, shardPools));
+		this.shardPools = shardPools;
+	}
+
+	private static Map<JedisShardInfo, JedisPool> createShardPools(JedisPoolConfig poolConfig,
+																	List<JedisShardInfo> shards) {
+		Map<JedisShardInfo, JedisPool> shardPools = new IdentityHashMap<JedisShardInfo, JedisPool>();
+		for (JedisShardInfo shard : shards) {
+			if (shard instanceof MeteredShardInfo) {
+				shardPools.put(shard, new MeteredJedisPool(poolConfig, (MeteredShardInfo) shard));
+				continue;
+			}
+			shardPools.put(shard, new JedisPool(poolConfig, shard.getHost(), shard.getPort(),
+					shard.getSoTimeout(), shard.getPassword(), shard.getDb()));
+		}
+		return shardPools;
+	}
+
 	// 创建基于Jedis的Pool
 	public JedisPoolAdaptor(final JedisPoolConfig poolConfig,final String host) {
 		this(poolConfig, host, Protocol.DEFAULT_PORT, Protocol.DEFAULT_TIMEOUT,null);
@@ -58,13 +155,22 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 	// 创建基于Jedis的Pool
 	public JedisPoolAdaptor(String host, int port) {
 		super(new JedisPoolConfig(),
-				new JedisFactory(host, port,Protocol.DEFAULT_TIMEOUT, null));
+				new JedisFactory(host, port,Protocol.DEFAULT_TIMEOUT, null, null));
 	}
 
 	// 创建基于Jedis的Pool
 	public JedisPoolAdaptor(final JedisPoolConfig poolConfig, final String host,
 			int port, int timeout, final String password) {
-		super(poolConfig, new JedisFactory(host, port, timeout, password));
+		super(poolConfig, new JedisFactory(host, port, timeout, password, null));
+	}
+
+	/**
+	 * 创建基于Jedis的Pool,每个命令的延迟、错误数和字节数记录到metrics
+	 * sharded时用MeteredShardInfo代替JedisShardInfo
+	 */
+	public JedisPoolAdaptor(final JedisPoolConfig poolConfig, final String host,
+			int port, int timeout, final String password, RedisMetrics metrics) {
+		super(poolConfig, new JedisFactory(host, port, timeout, password, metrics));
 	}
 
 	// 创建基于Jedis的Pool
@@ -79,6 +185,331 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		this(poolConfig, host, port, timeout, null);
 	}
 
+	/**
+	 * 借出JedisAdaptor
+	 * 设置了skipValidationMillis时,借出时跳过了PING的连接在这里PING,失败时作为损坏的连接归还并重新借出,
+	 * 最多试过所有空闲连接后创建新的连接,调用者拿到的总是检查过的连接
+	 */
+	@Override
+	public JedisAdaptor getResource() {
+		JedisAdaptor jedisAdaptor = getUnverifiedResource();
+		if (!jedisAdaptor.isUnverified()) {
+			return jedisAdaptor;
+		}
+		JedisFactory factory = (JedisFactory) internalPool.getFactory();
+		int attempts = internalPool.getNumIdle() + 1;
+		for (int i = 0; ; i++) {
+			if (factory.ping(jedisAdaptor.getJedis())) {
+				jedisAdaptor.setUnverified(false);
+				return jedisAdaptor;
+			}
+			returnBrokenResource(jedisAdaptor);
+			if (i >= attempts) {
+				throw new JedisConnectionException("Could not get a verified resource from the pool");
+			}
+			jedisAdaptor = getUnverifiedResource();
+			if (!jedisAdaptor.isUnverified()) {
+				return jedisAdaptor;
+			}
+		}
+	}
+
+	/**
+	 * 借出JedisAdaptor,最近归还的连接可能没有PING(isUnverified),
+	 * 调用者要在第一次使用失败时换一个getResource借出的连接重试,见JedisPoolOperations
+	 */
+	JedisAdaptor getUnverifiedResource() {
+		PoolMetrics metrics = poolMetrics;
+		JedisAdaptor jedisAdaptor;
+		if (metrics == null) {
+			jedisAdaptor = super.getResource();
+		} else {
+			long start = System.nanoTime();
+			try {
+				jedisAdaptor = super.getResource();
+			} catch (JedisException e) {
+				metrics.borrowFailed(System.nanoTime() - start);
+				throw e;
+			}
+			metrics.borrowed(System.nanoTime() - start, internalPool.getNumActive(), internalPool.getNumIdle());
+		}
+		jedisAdaptor.setCodec(codec);
+		jedisAdaptor.setMapStorageMode(mapStorageMode);
+		jedisAdaptor.setFanOutTimeoutMillis(fanOutTimeoutMillis);
+		jedisAdaptor.setWriteChunkSize(writeChunkSize);
+		jedisAdaptor.setScanCount(scanCount);
+		jedisAdaptor.setKeysUseScan(keysUseScan);
+		jedisAdaptor.setGetCoalescer(getCoalescer);
+		if (shardPools != null) {
+			((RoutedShardedJedis) jedisAdaptor.getJedis()).borrowedFrom(this, jedisAdaptor);
+		}
+		return jedisAdaptor;
+	}
+
+	public long getFanOutTimeoutMillis() {
+		return fanOutTimeoutMillis;
+	}
+
+	public void setFanOutTimeoutMillis(long fanOutTimeoutMillis) {
+		this.fanOutTimeoutMillis = fanOutTimeoutMillis;
+	}
+
+	public GetCoalescer getGetCoalescer() {
+		return getCoalescer;
+	}
+
+	/**
+	 * 借出的JedisAdaptor的get/getObject与其它线程的读取合并,每批按shard分组各执行一次MGET
+	 * 合并的读取使用单独创建的连接,不占用连接池:调用方等待结果时手里已经拿着一个JedisAdaptor,
+	 * 连接池被占满时也不会互相等待。只影响之后借出的JedisAdaptor。
+	 * 合并的读取使用MGET,非string类型的key读到null而不是WRONGTYPE错误;
+	 * select了其它db、watch或multi中的JedisAdaptor不合并
+	 * @param windowMicros 第一个请求到达后最多等待的微秒数
+	 * @param maxBatch 一批最多的请求数
+	 */
+	public synchronized void enableGetCoalescing(long windowMicros, int maxBatch) {
+		disableGetCoalescing();
+		getCoalescer = new GetCoalescer(new DedicatedReader(internalPool.getFactory()), windowMicros, maxBatch);
+		if (internalPool.getFactory() instanceof JedisFactory) {
+			getCoalescer.setTimeoutMillis(((JedisFactory) internalPool.getFactory()).soTimeout());
+		}
+	}
+
+	public PoolMetrics getPoolMetrics() {
+		return poolMetrics;
+	}
+
+	/**
+	 * 记录借出等待时间(包括创建连接和testOnBorrow)、创建连接的时间和借出时的连接数,
+	 * 通常使用RedisMetrics.pool(name)创建以注册到JMX;为null时不再记录
+	 */
+	public void setPoolMetrics(PoolMetrics poolMetrics) {
+		if (poolMetrics != null) {
+			poolMetrics.bind(internalPool);
+		}
+		if (internalPool.getFactory() instanceof JedisFactory) {
+			((JedisFactory) internalPool.getFactory()).poolMetrics = poolMetrics;
+		}
+		this.poolMetrics = poolMetrics;
+	}
+
+	/**
+	 * 按观察到的借出等待时间调整maxIdle、maxTotal,见AdaptivePoolSizer。
+	 * 没有设置PoolMetrics时创建一个不注册JMX的PoolMetrics
+	 * @param minTotal maxTotal的下限
+	 * @param maxTotal maxTotal的上限
+	 * @return 启动的AdaptivePoolSizer,可以在启动后修改它的参数
+	 */
+	public AdaptivePoolSizer enableAdaptiveSizing(int minTotal, int maxTotal) {
+		return enableAdaptiveSizing(minTotal, maxTotal, AdaptivePoolSizer.DEFAULT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param intervalMillis 检查的间隔,第一次检查也在这之后,
+	 * 启动后再调用AdaptivePoolSizer.setIntervalMillis要等已经安排的下一次检查之后才生效
+	 */
+	public synchronized AdaptivePoolSizer enableAdaptiveSizing(int minTotal, int maxTotal, long intervalMillis) {
+		disableAdaptiveSizing();
+		if (poolMetrics == null) {
+			setPoolMetrics(new PoolMetrics("JedisPoolAdaptor"));
+		}
+		poolSizer = new AdaptivePoolSizer(this, minTotal, maxTotal);
+		poolSizer.setIntervalMillis(intervalMillis);
+		poolSizer.start();
+		return poolSizer;
+	}
+
+	public synchronized void disableAdaptiveSizing() {
+		if (poolSizer != null) {
+			poolSizer.stop();
+			poolSizer = null;
+		}
+	}
+
+	public long getSkipValidationMillis() {
+		return skipValidationMillis;
+	}
+
+	/**
+	 * testOnBorrow、testWhileIdle检查连接时,最近skipValidationMillis毫秒内归还、且连接没有断开的JedisAdaptor
+	 * 不再PING:刚刚成功执行过命令的连接通常仍然可用,sharded时可以省掉每次借出对每个shard的PING。
+	 * 只有JedisPoolOperations使用跳过PING的连接,第一次使用失败时换一个检查过的连接重试一次;
+	 * getResource借出的连接仍然在返回前PING,空闲更久的连接由testWhileIdle在后台检查。不大于0时每次都PING
+	 */
+	public void setSkipValidationMillis(long skipValidationMillis) {
+		this.skipValidationMillis = skipValidationMillis;
+		if (internalPool != null && internalPool.getFactory() instanceof JedisFactory) {
+			((JedisFactory) internalPool.getFactory()).skipValidationMillis = skipValidationMillis;
+		}
+	}
+
+	/**
+	 * JedisAdaptor的连接是否已经断开,不发送命令
+	 */
+	boolean isBroken(JedisAdaptor jedisAdaptor) {
+		return ((JedisFactory) internalPool.getFactory()).isBroken(jedisAdaptor.getJedis());
+	}
+
+	public int getMaxTotal() {
+		return internalPool.getMaxTotal();
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		internalPool.setMaxTotal(maxTotal);
+	}
+
+	public int getMaxIdle() {
+		return internalPool.getMaxIdle();
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		internalPool.setMaxIdle(maxIdle);
+	}
+
+	public int getMinIdle() {
+		return internalPool.getMinIdle();
+	}
+
+	public synchronized void disableGetCoalescing() {
+		GetCoalescer current = getCoalescer;
+		if (current != null) {
+			getCoalescer = null;
+			current.close();
+		}
+	}
+
+	public int getWriteChunkSize() {
+		return writeChunkSize;
+	}
+
+	public void setWriteChunkSize(int writeChunkSize) {
+		this.writeChunkSize = writeChunkSize;
+	}
+
+	public int getScanCount() {
+		return scanCount;
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public boolean isKeysUseScan() {
+		return keysUseScan;
+	}
+
+	public void setKeysUseScan(boolean keysUseScan) {
+		this.keysUseScan = keysUseScan;
+	}
+
+	/**
+	 * 是否为路由模式
+	 */
+	public boolean isRouted() {
+		return shardPools != null;
+	}
+
+	/**
+	 * 路由模式下每个shard的连接池,key为创建时传入的JedisShardInfo
+	 */
+	public Map<JedisShardInfo, JedisPool> getShardPools() {
+		return shardPools;
+	}
+
+	/**
+	 * 与借出的JedisAdaptor分片结果一致的router,非sharded时返回null
+	 */
+	public ShardRouter getShardRouter() {
+		if (internalPool == null || !(internalPool.getFactory() instanceof JedisFactory)) {
+			return null;
+		}
+		return ((JedisFactory) internalPool.getFactory()).getRouter();
+	}
+
+	@Override
+	public void destroy() {
+		disableAdaptiveSizing();
+		disableGetCoalescing();
+		super.destroy();
+		if (shardPools != null) {
+			for (JedisPool shardPool : shardPools.values()) {
+				shardPool.destroy();
+			}
+		}
+	}
+
+	public ValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+
+	public MapStorageMode getMapStorageMode() {
+		return mapStorageMode;
+	}
+
+	public void setMapStorageMode(MapStorageMode mapStorageMode) {
+		this.mapStorageMode = mapStorageMode;
+	}
+
+	/**
+	 * 合并读取使用的连接,由连接池的factory单独创建,出错时重新创建
+	 */
+	private static class DedicatedReader implements GetCoalescer.BatchReader, Closeable {
+		private final PooledObjectFactory<JedisAdaptor> factory;
+		private PooledObject<JedisAdaptor> current;
+
+		DedicatedReader(PooledObjectFactory<JedisAdaptor> factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public synchronized List<byte[]> mget(String[] keys) {
+			try {
+				if (current == null) {
+					current = factory.makeObject();
+				}
+				return current.getObject().mgetBinary(keys);
+			} catch (JedisConnectionException e) {
+				close();
+				throw e;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new JedisException(e);
+			} finally {
+				passivate();
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (current != null) {
+				try {
+					factory.destroyObject(current);
+				} catch (Exception e) {
+					//ignore
+				}
+				current = null;
+			}
+		}
+
+		/**
+		 * 路由模式下归还借到的shard连接
+		 */
+		private void passivate() {
+			if (current != null) {
+				try {
+					factory.passivateObject(current);
+				} catch (Exception e) {
+					//ignore
+				}
+			}
+		}
+	}
+
 	/**
 	 * PoolableObjectFactory custom impl.
 	 */
@@ -89,12 +520,24 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		private List<JedisShardInfo> shards;
 		private Hashing algo;
 		private Pattern keyTagPattern;
+		// 由router计算分片时不为null
+		private ShardRouter router;
+		// 路由模式下每个shard的连接池,普通模式为null
+		private Map<JedisShardInfo, JedisPool> shardPools;
+		// 由shards创建时getRouter返回的router,不影响makeObject
+		private ShardRouter ringRouter;
 
 		// for single jedis pool
 		private String host;
 		private int port;
 		private int timeout;
 		private String password;
+		// 不为null时创建MeteredJedis
+		private RedisMetrics metrics;
+		// 不为null时记录创建连接的时间
+		private volatile PoolMetrics poolMetrics;
+		// 大于0时最近归还的连接检查时不PING
+		private volatile long skipValidationMillis;
 
 		public JedisFactory(List<JedisShardInfo> shards, Hashing algo,
 				Pattern keyTagPattern) {
@@ -104,23 +547,77 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 			this.sharded = true;
 		}
 
+		public JedisFactory(ShardRouter router, Map<JedisShardInfo, JedisPool> shardPools) {
+			this.shards = router.getShards();
+			this.router = router;
+			this.shardPools = shardPools;
+			this.sharded = true;
+		}
+
 		public JedisFactory(final String host, final int port,
-				final int timeout, final String password) {
+				final int timeout, final String password, RedisMetrics metrics) {
 			super();
 			this.host = host;
 			this.port = port;
 			this.timeout = (timeout > 0) ? timeout : -1;
 			this.password = password;
+			this.metrics = metrics;
 			this.sharded = false;
 		}
 
+		/**
+		 * 由shards创建的Pool第一次调用时按相同的shards、algo、keyTagPattern创建RingRouter
+		 */
+		synchronized ShardRouter getRouter() {
+			if (router != null || !sharded) {
+				return router;
+			}
+			if (ringRouter == null) {
+				ringRouter = new RingRouter(shards, algo, keyTagPattern);
+			}
+			return ringRouter;
+		}
+
+		/**
+		 * 创建的连接读取回复的超时毫秒数,sharded时取各shard中最大的soTimeout,没有设置时为Protocol.DEFAULT_TIMEOUT
+		 */
+		int soTimeout() {
+			if (!sharded) {
+				return timeout > 0 ? timeout : Protocol.DEFAULT_TIMEOUT;
+			}
+			int soTimeout = 0;
+			for (JedisShardInfo shard : shards) {
+				soTimeout = Math.max(soTimeout, shard.getSoTimeout());
+			}
+			return soTimeout > 0 ? soTimeout : Protocol.DEFAULT_TIMEOUT;
+		}
+
 		public PooledObject<JedisAdaptor> makeObject() throws Exception {
-			if (sharded) {
+			PoolMetrics metrics = poolMetrics;
+			if (metrics == null) {
+				return createObject();
+			}
+			long start = System.nanoTime();
+			PooledObject<JedisAdaptor> object = createObject();
+			metrics.created(System.nanoTime() - start);
+			return object;
+		}
+
+		private PooledObject<JedisAdaptor> createObject() throws Exception {
+			if (shardPools != null) {
+				return new DefaultPooledObject<JedisAdaptor>(new JedisAdaptor(new RoutedShardedJedis(router,
+						shardPools)));
+			} else if (router != null) {
+				return new DefaultPooledObject<JedisAdaptor>(new JedisAdaptor(new RouterShardedJedis(router)));
+			} else if (sharded) {
 				return new DefaultPooledObject<JedisAdaptor>(new JedisAdaptor(new ShardedJedis(shards, algo,
 						keyTagPattern)));
 			} else {
 				final Jedis jedis;
-				if (timeout > 0) {
+				if (metrics != null) {
+					jedis = timeout > 0 ? new MeteredJedis(this.host, this.port, this.timeout, metrics)
+							: new MeteredJedis(this.host, this.port, metrics);
+				} else if (timeout > 0) {
 					jedis = new Jedis(this.host, this.port, this.timeout);
 				} else {
 					jedis = new Jedis(this.host, this.port);
@@ -140,7 +637,9 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		public void destroyObject(PooledObject<JedisAdaptor> p)
 				throws Exception {
 			Object jedisObj = p.getObject().getJedis();
-			if (sharded) {
+			if (shardPools != null) {
+				((RoutedShardedJedis) jedisObj).release();
+			} else if (sharded) {
 				ShardedJedis shardedJedis = (ShardedJedis) jedisObj;
 				for (Jedis jedis : shardedJedis.getAllShards()) {
 					try {
@@ -173,7 +672,40 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		public boolean validateObject(PooledObject<JedisAdaptor> p) {
 			Object jedisObj = p.getObject().getJedis();
 
+			if (shardPools != null) {
+				// 不持有连接,连接由各shard的连接池检查
+				return true;
+			}
+			long skip = skipValidationMillis;
+			if (skip > 0 && System.currentTimeMillis() - p.getLastReturnTime() < skip && !isBroken(jedisObj)) {
+				p.getObject().setUnverified(true);
+				return true;
+			}
+			return ping(jedisObj);
+		}
+
+		/**
+		 * 连接是否已经断开,不发送命令
+		 */
+		boolean isBroken(Object jedisObj) {
 			if (sharded) {
+				for (Jedis shard : ((ShardedJedis) jedisObj).getAllShards()) {
+					if (!shard.isConnected() || shard.getClient().isBroken()) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return !((Jedis) jedisObj).isConnected() || ((Jedis) jedisObj).getClient().isBroken();
+		}
+
+		/**
+		 * PING所有连接
+		 */
+		boolean ping(Object jedisObj) {
+			if (shardPools != null) {
+				return true;
+			} else if (sharded) {
 				try {
 					ShardedJedis jedis = (ShardedJedis) jedisObj;
 					for (Jedis shard : jedis.getAllShards()) {
@@ -202,15 +734,17 @@ public class JedisPoolAdaptor extends Pool<JedisAdaptor> {
 		@Override
 		public void activateObject(PooledObject<JedisAdaptor> p)
 				throws Exception {
-			// TODO Auto-generated method stub
-
+			// 借出时先于validateObject调用,validateObject跳过PING时再标记
+			p.getObject().setUnverified(false);
 		}
 
 		@Override
 		public void passivateObject(PooledObject<JedisAdaptor> p)
 				throws Exception {
-			// TODO Auto-generated method stub
-			
+			if (shardPools != null) {
+				// 直接调用returnResource归还时也要归还借到的shard连接
+				((RoutedShardedJedis) p.getObject().getJedis()).release();
+			}
 		}
 
 		
@@ -0,0 +1,359 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.wolf.redis.common.RedisOperations;
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * 基于JedisPoolAdaptor的RedisOperations
+ * 每次调用借出一个JedisAdaptor，用完归还，连接异常时作为损坏的连接归还；
+ * 与RedisClientsUtil一样出错时记录日志，返回null/false/0
+ *
+ * @author wolf
+ */
+public class JedisPoolOperations implements RedisOperations {
+
+	static Logger logger = Logger.getLogger(JedisPoolOperations.class);
+
+	private final JedisPoolAdaptor pool;
+
+	public JedisPoolOperations(JedisPoolAdaptor pool) {
+		this.pool = pool;
+	}
+
+	public JedisPoolAdaptor getPool() {
+		return pool;
+	}
+
+	/**
+	 * 在借出的JedisAdaptor上执行的操作
+	 */
+	private interface Operation<T> {
+		T execute(JedisAdaptor jedis);
+	}
+
+	/**
+	 * 借出JedisAdaptor执行operation后归还
+	 * 借出时跳过了PING(见JedisPoolAdaptor.setSkipValidationMillis)的连接执行失败时，
+	 * 连接可能在上次使用后被redis关闭，换一个getResource借出的检查过的连接重试一次；
+	 * getObject等对象方法记录日志后返回失败的结果，不抛出异常，按连接是否已经断开判断；
+	 * 抛出的读超时不重试，命令可能已经执行
+	 * @param failed 出错时的返回值
+	 */
+	private <T> T execute(String name, String key, T failed, Operation<T> operation) {
+		return execute(name, key, failed, operation, false);
+	}
+
+	/**
+	 * @param verified 为true时借出检查过的连接，不再重试
+	 */
+	private <T> T execute(String name, String key, T failed, Operation<T> operation, boolean verified) {
+		JedisAdaptor jedis = null;
+		boolean broken = false;
+		try {
+			jedis = verified ? pool.getResource() : pool.getUnverifiedResource();
+			try {
+				T result = operation.execute(jedis);
+				if (!jedis.isUnverified() || !pool.isBroken(jedis)) {
+					return result;
+				}
+				logger.info(name + " failed on unverified connection, retry; key is : " + key);
+			} catch (JedisConnectionException ex) {
+				if (!jedis.isUnverified() || ex.getCause() instanceof SocketTimeoutException) {
+					throw ex;
+				}
+				logger.info(name + " failed on unverified connection, retry; key is : " + key, ex);
+			}
+			broken = true;
+		} catch (JedisConnectionException ex) {
+			broken = true;
+			logger.error(name + " error; key is : " + key, ex);
+			return failed;
+		} catch (Exception ex) {
+			logger.error(name + " error; key is : " + key, ex);
+			return failed;
+		} finally {
+			if (jedis != null) {
+				if (broken) {
+					pool.returnBrokenResource(jedis);
+				} else {
+					pool.returnResource(jedis);
+				}
+			}
+		}
+		return execute(name, key, failed, operation, true);
+	}
+
+	@Override
+	public String get(final String key) {
+		return execute("get", key, null, new Operation<String>() {
+			@Override
+			public String execute(JedisAdaptor jedis) {
+				return jedis.get(key);
+			}
+		});
+	}
+
+	@Override
+	public boolean set(final String key, final String value) {
+		return execute("set", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.set(key, value);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public boolean set(final String key, final String value, final int expire_time) {
+		return execute("set", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.setex(key, expire_time, value);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public boolean del(final String key) {
+		return execute("del", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.del(key);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public long setExpire(final String key, final int expire_time) {
+		if (key == null || key.equals("")) {
+			return 0;
+		}
+		return execute("setExpire", key, 0L, new Operation<Long>() {
+			@Override
+			public Long execute(JedisAdaptor jedis) {
+				return jedis.expire(key, expire_time);
+			}
+		});
+	}
+
+	@Override
+	public <E> E getObject(final String key, final Class<E> clazz) {
+		return execute("getObject", key, null, new Operation<E>() {
+			@Override
+			public E execute(JedisAdaptor jedis) {
+				return jedis.getObject(key, clazz);
+			}
+		});
+	}
+
+	@Override
+	public <V> boolean setObject(final String key, final V object) {
+		return execute("setObject", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				return jedis.setObject(key, object);
+			}
+		});
+	}
+
+	@Override
+	public <E> Map<String, E> getObjects(final Collection<String> keys, final Class<E> clazz) {
+		if (keys == null || keys.isEmpty()) {
+			return new LinkedHashMap<String, E>();
+		}
+		return execute("getObjects", keys.size() + " keys", null, new Operation<Map<String, E>>() {
+			@Override
+			public Map<String, E> execute(JedisAdaptor jedis) {
+				return jedis.getObjects(keys, clazz);
+			}
+		});
+	}
+
+	@Override
+	public String getHashSet(final String key, final String field) {
+		return execute("getHashSet", key, null, new Operation<String>() {
+			@Override
+			public String execute(JedisAdaptor jedis) {
+				return jedis.hget(key, field);
+			}
+		});
+	}
+
+	@Override
+	public boolean setHashSet(final String key, final String field, final String value) {
+		if (value == null) {
+			return false;
+		}
+		return execute("setHashSet", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.hset(key, field, value);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public <V> Map<String, V> getMapObject(final String key, final Class<V> clazz) {
+		return execute("getMapObject", key, null, new Operation<Map<String, V>>() {
+			@Override
+			public Map<String, V> execute(JedisAdaptor jedis) {
+				return jedis.getMapObject(key, clazz);
+			}
+		});
+	}
+
+	@Override
+	public <V> V getMapEntry(final String key, final String field, final Class<V> clazz) {
+		return execute("getMapEntry", key, null, new Operation<V>() {
+			@Override
+			public V execute(JedisAdaptor jedis) {
+				return jedis.getMapEntry(key, field, clazz);
+			}
+		});
+	}
+
+	@Override
+	public <V> boolean putMapEntry(final String key, final String field, final V value) {
+		return execute("putMapEntry", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				return jedis.putMapEntry(key, field, value);
+			}
+		});
+	}
+
+	@Override
+	public List<String> getList(final String key) {
+		return rangeList(key, 0, -1);
+	}
+
+	@Override
+	public List<String> rangeList(final String key, final long start, final long end) {
+		if (key == null || key.equals("")) {
+			return null;
+		}
+		return execute("rangeList", key, null, new Operation<List<String>>() {
+			@Override
+			public List<String> execute(JedisAdaptor jedis) {
+				return jedis.lrange(key, start, end);
+			}
+		});
+	}
+
+	@Override
+	public boolean addList(final String key, final String... value) {
+		if (key == null || value == null) {
+			return false;
+		}
+		return execute("addList", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.lpush(key, value);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public <E> List<E> getListObjects(final String key, final Class<E> clazz) {
+		return execute("getListObjects", key, null, new Operation<List<E>>() {
+			@Override
+			public List<E> execute(JedisAdaptor jedis) {
+				return jedis.getListObjects(key, clazz);
+			}
+		});
+	}
+
+	@Override
+	public Set<String> getSet(final String key) {
+		return execute("getSet", key, null, new Operation<Set<String>>() {
+			@Override
+			public Set<String> execute(JedisAdaptor jedis) {
+				return jedis.smembers(key);
+			}
+		});
+	}
+
+	@Override
+	public boolean addSet(final String key, final String... members) {
+		if (key == null || members == null) {
+			return false;
+		}
+		return execute("addSet", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.sadd(key, members);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public boolean containsInSet(final String key, final String value) {
+		if (key == null || value == null) {
+			return false;
+		}
+		return execute("containsInSet", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				return jedis.sismember(key, value);
+			}
+		});
+	}
+
+	@Override
+	public <E> Set<E> getSetObjects(final String key, final Class<E> clazz) {
+		return execute("getSetObjects", key, null, new Operation<Set<E>>() {
+			@Override
+			public Set<E> execute(JedisAdaptor jedis) {
+				return jedis.getSetObjects(key, clazz);
+			}
+		});
+	}
+
+	@Override
+	public boolean setSortedSet(final String key, final long score, final String value) {
+		return execute("setSortedSet", key, false, new Operation<Boolean>() {
+			@Override
+			public Boolean execute(JedisAdaptor jedis) {
+				jedis.zadd(key, score, value);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public Set<String> getSoredSetByRange(final String key, final int startRange, final int endRange,
+			final boolean orderByDesc) {
+		return execute("getSoredSetByRange", key, null, new Operation<Set<String>>() {
+			@Override
+			public Set<String> execute(JedisAdaptor jedis) {
+				return orderByDesc ? jedis.zrevrange(key, startRange, endRange)
+						: jedis.zrange(key, startRange, endRange);
+			}
+		});
+	}
+
+	@Override
+	public Double getScore(final String key, final String member) {
+		return execute("getScore", key, null, new Operation<Double>() {
+			@Override
+			public Double execute(JedisAdaptor jedis) {
+				return jedis.zscore(key, member);
+			}
+		});
+	}
+}
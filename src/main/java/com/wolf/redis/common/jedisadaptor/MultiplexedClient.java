@@ -0,0 +1,400 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.wolf.redis.common.jedisadaptor.SharedConnection.Reply;
+import com.wolf.redis.common.nio.NioEngine;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 多个线程共用的Client,命令发送到共用的SharedConnection(阻塞socket或NioEngine)
+ * Jedis的命令方法都是先sendCommand再读取回复,这里把每个线程发出的命令的回复按顺序记在线程自己的队列中,
+ * 读取回复时取出队列中的第一个,所以同一个Jedis可以被多个线程同时使用,Pipeline、Transaction也按线程各自匹配回复。
+ *
+ * 以下命令不能与其它线程的命令交错,在独立的连接上执行,用完放回空闲列表:
+ * blpop/brpop/brpoplpush(一次借用),watch或multi开始直到exec/discard/unwatch(事务期间当前线程的所有命令)。
+ * subscribe、monitor、select、auth、quit等改变连接状态的命令不支持
+ *
+ * @author wolf
+ */
+class MultiplexedClient extends Client {
+
+	/** 每个shard最多保留的空闲独立连接数 */
+	private static final int MAX_IDLE_DEDICATED = 8;
+
+	private static final Set<Command> BLOCKING = EnumSet.of(Command.BLPOP, Command.BRPOP, Command.BRPOPLPUSH);
+
+	private static final Set<Command> UNSUPPORTED = EnumSet.of(Command.SUBSCRIBE, Command.PSUBSCRIBE,
+			Command.UNSUBSCRIBE, Command.PUNSUBSCRIBE, Command.MONITOR, Command.SYNC, Command.SELECT, Command.AUTH,
+			Command.QUIT);
+
+	private static final byte[][] EMPTY_ARGS = new byte[0][];
+
+	private final JedisShardInfo shardInfo;
+	private final SharedConnection[] connections;
+	private final AtomicInteger nextConnection = new AtomicInteger();
+
+	/** 空闲的独立连接 */
+	private final ConcurrentLinkedQueue<DedicatedClient> idle = new ConcurrentLinkedQueue<DedicatedClient>();
+
+	private final ThreadLocal<ThreadState> states = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState(connections[(nextConnection.getAndIncrement() & Integer.MAX_VALUE)
+					% connections.length]);
+		}
+	};
+
+	private volatile boolean shutdown;
+
+	/**
+	 * @param engine 不为null时共用连接使用NioEngine,否则为阻塞socket
+	 */
+	MultiplexedClient(JedisShardInfo shardInfo, int connections, NioEngine engine) {
+		super(shardInfo.getHost(), shardInfo.getPort());
+		this.shardInfo = shardInfo;
+		this.connections = new SharedConnection[Math.max(1, connections)];
+		for (int i = 0; i < this.connections.length; i++) {
+			this.connections[i] = engine == null ? new MultiplexedConnection(shardInfo)
+					: new NioSharedConnection(engine.newConnection(shardInfo));
+		}
+	}
+
+	@Override
+	protected Connection sendCommand(ProtocolCommand cmd, byte[]... args) {
+		if (UNSUPPORTED.contains(cmd)) {
+			throw new JedisException(cmd + " is not supported on multiplexed connection.");
+		}
+		ThreadState state = states.get();
+		if (state.dedicated != null) {
+			state.pending.add(state.dedicated.send(cmd, args, BLOCKING.contains(cmd)));
+		} else if (BLOCKING.contains(cmd)) {
+			DedicatedClient dedicated = acquire();
+			try {
+				state.pending.add(dedicated.send(cmd, args, true));
+			} finally {
+				//读取回复后放回空闲列表
+				dedicated.release();
+			}
+		} else {
+			state.pending.add(state.connection.send(cmd, args));
+		}
+		return this;
+	}
+
+	@Override
+	protected Connection sendCommand(ProtocolCommand cmd) {
+		return sendCommand(cmd, EMPTY_ARGS);
+	}
+
+	/**
+	 * 当前线程发出的下一个命令的回复
+	 */
+	@Override
+	protected Object readProtocolWithCheckingBroken() {
+		ThreadState state = states.get();
+		Reply reply = state.pending.poll();
+		if (reply == null) {
+			throw new JedisException("no reply is pending on this thread.");
+		}
+		try {
+			return reply.get();
+		} catch (JedisConnectionException e) {
+			//同一批的其它回复已经无法使用
+			state.reset();
+			throw e;
+		}
+	}
+
+	/**
+	 * 读取当前线程的回复,最后except个不读取,Pipeline.sync、Transaction.exec使用
+	 */
+	@Override
+	public List<Object> getAll(int except) {
+		ThreadState state = states.get();
+		List<Object> all = new ArrayList<Object>();
+		while (state.pending.size() > except) {
+			try {
+				all.add(readProtocolWithCheckingBroken());
+			} catch (JedisDataException e) {
+				all.add(e);
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * 回复在读取时才flush
+	 */
+	@Override
+	protected void flush() {
+	}
+
+	@Override
+	public void multi() {
+		ThreadState state = states.get();
+		state.dedicate();
+		sendCommand(Command.MULTI);
+		state.inMulti = true;
+	}
+
+	@Override
+	public void watch(byte[]... keys) {
+		ThreadState state = states.get();
+		state.dedicate();
+		sendCommand(Command.WATCH, keys);
+		state.inWatch = true;
+	}
+
+	@Override
+	public void unwatch() {
+		ThreadState state = states.get();
+		sendCommand(Command.UNWATCH);
+		state.inWatch = false;
+		if (!state.inMulti) {
+			state.undedicate();
+		}
+	}
+
+	@Override
+	public void exec() {
+		ThreadState state = states.get();
+		sendCommand(Command.EXEC);
+		state.inMulti = false;
+		state.inWatch = false;
+		state.undedicate();
+	}
+
+	@Override
+	public void discard() {
+		ThreadState state = states.get();
+		sendCommand(Command.DISCARD);
+		state.inMulti = false;
+		state.inWatch = false;
+		state.undedicate();
+	}
+
+	@Override
+	public boolean isInMulti() {
+		return states.get().inMulti;
+	}
+
+	@Override
+	public boolean isInWatch() {
+		return states.get().inWatch;
+	}
+
+	/**
+	 * 丢弃当前线程未读取的回复并结束事务,不影响共用的连接
+	 */
+	@Override
+	public void resetState() {
+		states.get().reset();
+	}
+
+	@Override
+	public void close() {
+		resetState();
+	}
+
+	@Override
+	public void disconnect() {
+		resetState();
+	}
+
+	@Override
+	public void connect() {
+	}
+
+	@Override
+	public boolean isConnected() {
+		return !shutdown;
+	}
+
+	@Override
+	public boolean isBroken() {
+		return false;
+	}
+
+	/**
+	 * 阻塞命令在独立连接上设置超时
+	 */
+	@Override
+	public void setTimeoutInfinite() {
+	}
+
+	@Override
+	public void rollbackTimeout() {
+	}
+
+	/**
+	 * 关闭共用连接和空闲的独立连接
+	 */
+	void closeAll() {
+		shutdown = true;
+		for (SharedConnection connection : connections) {
+			connection.close();
+		}
+		DedicatedClient dedicated;
+		while ((dedicated = idle.poll()) != null) {
+			dedicated.disconnect();
+		}
+	}
+
+	long getCommandCount() {
+		long count = 0;
+		for (SharedConnection connection : connections) {
+			count += connection.getCommandCount();
+		}
+		return count;
+	}
+
+	long getFlushCount() {
+		long count = 0;
+		for (SharedConnection connection : connections) {
+			count += connection.getFlushCount();
+		}
+		return count;
+	}
+
+	private DedicatedClient acquire() {
+		if (shutdown) {
+			throw new JedisException("multiplexed client is shutdown.");
+		}
+		DedicatedClient dedicated = idle.poll();
+		return dedicated != null ? dedicated : new DedicatedClient();
+	}
+
+	private void recycle(DedicatedClient dedicated) {
+		if (shutdown || dedicated.isBroken() || idle.size() >= MAX_IDLE_DEDICATED) {
+			dedicated.disconnect();
+		} else {
+			idle.offer(dedicated);
+		}
+	}
+
+	/**
+	 * 一个线程在这个shard上的状态
+	 */
+	private final class ThreadState {
+		final SharedConnection connection;
+		/** 已发出、未读取的回复,按发出顺序 */
+		final ArrayDeque<Reply> pending = new ArrayDeque<Reply>();
+		/** 事务使用的独立连接 */
+		DedicatedClient dedicated;
+		boolean inMulti;
+		boolean inWatch;
+
+		ThreadState(SharedConnection connection) {
+			this.connection = connection;
+		}
+
+		void dedicate() {
+			if (dedicated == null) {
+				dedicated = acquire();
+			}
+		}
+
+		void undedicate() {
+			if (dedicated != null) {
+				dedicated.release();
+				dedicated = null;
+			}
+		}
+
+		void reset() {
+			Reply reply;
+			while ((reply = pending.poll()) != null) {
+				reply.discard();
+			}
+			if (dedicated != null) {
+				//事务状态未知,不再使用这个连接
+				dedicated.disconnect();
+				dedicated = null;
+			}
+			inMulti = false;
+			inWatch = false;
+		}
+	}
+
+	/**
+	 * 独立连接,一次只由一个线程使用,回复在读取时直接从socket读
+	 */
+	private final class DedicatedClient extends Client {
+		private int outstanding;
+		private boolean released;
+
+		DedicatedClient() {
+			super(shardInfo.getHost(), shardInfo.getPort());
+			setConnectionTimeout(shardInfo.getConnectionTimeout());
+			setSoTimeout(shardInfo.getSoTimeout());
+			setPassword(shardInfo.getPassword());
+			setDb(shardInfo.getDb());
+		}
+
+		Reply send(ProtocolCommand cmd, byte[][] args, final boolean blocking) {
+			sendCommand(cmd, args);
+			outstanding++;
+			return new Reply() {
+				@Override
+				Object get() {
+					return read(blocking);
+				}
+
+				@Override
+				void discard() {
+					//未读取的回复留在socket中,连接不能再用
+					disconnect();
+					replyDone();
+				}
+			};
+		}
+
+		/**
+		 * 用完后调用,未读取的回复都读取后放回空闲列表
+		 */
+		void release() {
+			released = true;
+			if (outstanding == 0) {
+				released = false;
+				recycle(this);
+			}
+		}
+
+		private Object read(boolean blocking) {
+			try {
+				if (blocking) {
+					setTimeoutInfinite();
+				}
+				return getOne();
+			} finally {
+				if (blocking && !isBroken() && isConnected()) {
+					rollbackTimeout();
+				}
+				replyDone();
+			}
+		}
+
+		private void replyDone() {
+			outstanding--;
+			if (released && outstanding == 0) {
+				released = false;
+				recycle(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.IOUtils;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 多个线程共用的一个redis连接
+ * 命令在写锁内按顺序写出,同时加入回复队列;后台读线程按顺序读取回复,依次交给队列中的请求(redis按收到命令的顺序回复)。
+ * 写出的命令先放在缓冲区,等待回复的线程才flush,其它线程已经flush过时不再重复,多个线程同时写出的命令合并成一次写。
+ * 连接断开或等待回复超时时队列中的请求全部失败,下一个命令重新连接
+ *
+ * @author wolf
+ */
+class MultiplexedConnection implements SharedConnection {
+
+	private static final AtomicInteger INDEX = new AtomicInteger();
+
+	private final JedisShardInfo shardInfo;
+	private final Object writeLock = new Object();
+
+	/** 当前的socket,断开后下一个命令重新创建 */
+	private volatile Link link;
+	private volatile boolean closed;
+
+	private volatile long commandCount;
+	private volatile long flushCount;
+
+	MultiplexedConnection(JedisShardInfo shardInfo) {
+		this.shardInfo = shardInfo;
+	}
+
+	/**
+	 * 写出一个命令,不flush
+	 * @return 这个命令的回复,get时flush并等待
+	 */
+	@Override
+	public Reply send(ProtocolCommand command, byte[]... args) {
+		synchronized (writeLock) {
+			Link current = connect();
+			PendingReply reply = new PendingReply(current, ++current.written);
+			current.replies.add(reply);
+			if (current.broken) {
+				//读线程可能在加入队列前已经清空了队列
+				JedisConnectionException error = new JedisConnectionException("connection is broken.");
+				current.fail(error);
+				throw error;
+			}
+			try {
+				Protocol.sendCommand(current.out, command, args);
+			} catch (JedisConnectionException e) {
+				current.fail(e);
+				throw e;
+			}
+			commandCount++;
+			return reply;
+		}
+	}
+
+	/**
+	 * 关闭连接,还在等待回复的请求全部失败
+	 */
+	@Override
+	public void close() {
+		synchronized (writeLock) {
+			closed = true;
+			Link current = link;
+			if (current != null) {
+				current.fail(new JedisConnectionException("connection is closed."));
+			}
+		}
+	}
+
+	/** 写出的命令数 */
+	@Override
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/** flush的次数,commandCount / flushCount 即平均每次写出的命令数 */
+	@Override
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	private Link connect() {
+		if (closed) {
+			throw new JedisException("connection is closed.");
+		}
+		Link current = link;
+		if (current != null && !current.broken) {
+			return current;
+		}
+		Socket socket = new Socket();
+		try {
+			socket.setReuseAddress(true);
+			socket.setKeepAlive(true);
+			socket.setTcpNoDelay(true);
+			socket.setSoLinger(true, 0);
+			socket.connect(new InetSocketAddress(shardInfo.getHost(), shardInfo.getPort()),
+					shardInfo.getConnectionTimeout());
+			socket.setSoTimeout(shardInfo.getSoTimeout());
+			RedisOutputStream out = new RedisOutputStream(socket.getOutputStream());
+			RedisInputStream in = new RedisInputStream(socket.getInputStream());
+			if (shardInfo.getPassword() != null) {
+				call(out, in, Command.AUTH, SafeEncoder.encode(shardInfo.getPassword()));
+			}
+			if (shardInfo.getDb() != 0) {
+				call(out, in, Command.SELECT, Protocol.toByteArray(shardInfo.getDb()));
+			}
+			//读线程一直等待回复,超时由等待回复的线程判断
+			socket.setSoTimeout(0);
+			current = new Link(socket, out, in);
+		} catch (IOException e) {
+			IOUtils.closeQuietly(socket);
+			throw new JedisConnectionException(e);
+		} catch (RuntimeException e) {
+			IOUtils.closeQuietly(socket);
+			throw e;
+		}
+		Thread reader = new Thread(current, "redis-multiplexed-" + shardInfo.getHost() + ":" + shardInfo.getPort()
+				+ "-" + INDEX.incrementAndGet());
+		reader.setDaemon(true);
+		reader.start();
+		link = current;
+		return current;
+	}
+
+	private static void call(RedisOutputStream out, RedisInputStream in, Command command, byte[]... args)
+			throws IOException {
+		Protocol.sendCommand(out, command, args);
+		out.flush();
+		Protocol.read(in);
+	}
+
+	/**
+	 * flush到reply为止写出的命令
+	 */
+	private void flush(PendingReply reply) {
+		Link current = reply.link;
+		if (current.flushed >= reply.sequence) {
+			return;
+		}
+		synchronized (writeLock) {
+			if (current.flushed >= reply.sequence || current.broken) {
+				return;
+			}
+			try {
+				current.out.flush();
+				current.flushed = current.written;
+				flushCount++;
+			} catch (IOException e) {
+				current.fail(new JedisConnectionException(e));
+			}
+		}
+	}
+
+	/**
+	 * 共用连接上等待读线程交付的回复
+	 */
+	private final class PendingReply extends Reply {
+		final Link link;
+		final long sequence;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Object value;
+		private JedisException error;
+
+		PendingReply(Link link, long sequence) {
+			this.link = link;
+			this.sequence = sequence;
+		}
+
+		@Override
+		Object get() {
+			flush(this);
+			try {
+				int timeout = shardInfo.getSoTimeout();
+				if (timeout > 0) {
+					if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+						//回复不知何时到达,整个连接按断开处理
+						link.fail(new JedisConnectionException("read timed out."));
+					}
+				} else {
+					done.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JedisException("wait reply interrupted.", e);
+			}
+			if (error != null) {
+				throw error;
+			}
+			return value;
+		}
+
+		void complete(Object value, JedisException error) {
+			this.value = value;
+			this.error = error;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * 一个socket及其回复队列,由读线程读取回复
+	 */
+	private final class Link implements Runnable {
+		final Socket socket;
+		final RedisOutputStream out;
+		final RedisInputStream in;
+		final ConcurrentLinkedQueue<PendingReply> replies = new ConcurrentLinkedQueue<PendingReply>();
+		volatile boolean broken;
+		/** 已写出和已flush的最后一个命令的序号,写锁内修改 */
+		long written;
+		volatile long flushed;
+
+		Link(Socket socket, RedisOutputStream out, RedisInputStream in) {
+			this.socket = socket;
+			this.out = out;
+			this.in = in;
+		}
+
+		@Override
+		public void run() {
+			while (!broken) {
+				Object value = null;
+				JedisException error = null;
+				try {
+					value = Protocol.read(in);
+				} catch (JedisDataException e) {
+					//错误回复,只影响对应的请求
+					error = e;
+				} catch (JedisConnectionException e) {
+					fail(e);
+					return;
+				} catch (RuntimeException e) {
+					fail(new JedisConnectionException(e));
+					return;
+				}
+				PendingReply reply = replies.poll();
+				if (reply == null) {
+					fail(new JedisConnectionException("unexpected reply without request."));
+					return;
+				}
+				reply.complete(value, error);
+			}
+		}
+
+		/**
+		 * 关闭socket,队列中的请求全部失败
+		 */
+		void fail(JedisException error) {
+			if (!broken) {
+				broken = true;
+				if (!closed) {
+					JedisAdaptor.logger.error("multiplexed connection to " + shardInfo.getHost() + ":"
+							+ shardInfo.getPort() + " is broken.", error);
+				}
+				IOUtils.closeQuietly(socket);
+			}
+			PendingReply reply;
+			while ((reply = replies.poll()) != null) {
+				reply.complete(null, error);
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import com.wolf.redis.common.nio.NioEngine;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 多个线程共用的Jedis,命令通过MultiplexedClient发送到共用的连接
+ * close、disconnect只丢弃当前线程未读取的回复,连接由JedisMultiplexer.destroy关闭
+ *
+ * @author wolf
+ */
+class MultiplexedJedis extends Jedis {
+
+	MultiplexedJedis(JedisShardInfo shardInfo, int connections, NioEngine engine) {
+		super(shardInfo);
+		this.client = new MultiplexedClient(shardInfo, connections, engine);
+	}
+
+	MultiplexedClient getMultiplexedClient() {
+		return (MultiplexedClient) client;
+	}
+}
@@ -0,0 +1,97 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.wolf.redis.common.nio.NioEngine;
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 每个shard使用MultiplexedJedis的ShardedJedis,多个线程共用
+ * 按router分片,与RouterShardedJedis一致
+ *
+ * @author wolf
+ */
+//与RouterShardedJedis相同,继承自BinaryShardedJedis的srandmember(byte[],int)返回原始类型List
+@SuppressWarnings("unchecked")
+class MultiplexedShardedJedis extends RouterShardedJedis {
+
+	private final Map<JedisShardInfo, MultiplexedJedis> shards = new IdentityHashMap<JedisShardInfo, MultiplexedJedis>();
+
+	private final List<Jedis> allShards;
+
+	MultiplexedShardedJedis(ShardRouter router, int connectionsPerShard, NioEngine engine) {
+		super(router);
+		List<Jedis> all = new ArrayList<Jedis>(router.getShards().size());
+		for (JedisShardInfo shardInfo : router.getShards()) {
+			MultiplexedJedis jedis = new MultiplexedJedis(shardInfo, connectionsPerShard, engine);
+			shards.put(shardInfo, jedis);
+			all.add(jedis);
+		}
+		this.allShards = all;
+	}
+
+	@Override
+	public Jedis getShard(byte[] key) {
+		return shards.get(getShardInfo(key));
+	}
+
+	@Override
+	public Jedis getShard(String key) {
+		return shards.get(getShardInfo(key));
+	}
+
+	@Override
+	Jedis getShard(KeyHandle key) {
+		return shards.get(getShardInfo(key));
+	}
+
+	@Override
+	public Collection<Jedis> getAllShards() {
+		return allShards;
+	}
+
+	/**
+	 * 只丢弃当前线程未读取的回复,不关闭共用的连接
+	 */
+	@Override
+	public void close() {
+		disconnect();
+	}
+
+	@Override
+	public void disconnect() {
+		for (MultiplexedJedis jedis : shards.values()) {
+			jedis.getMultiplexedClient().resetState();
+		}
+	}
+
+	void closeAll() {
+		for (MultiplexedJedis jedis : shards.values()) {
+			jedis.getMultiplexedClient().closeAll();
+		}
+	}
+
+	long getCommandCount() {
+		long count = 0;
+		for (MultiplexedJedis jedis : shards.values()) {
+			count += jedis.getMultiplexedClient().getCommandCount();
+		}
+		return count;
+	}
+
+	long getFlushCount() {
+		long count = 0;
+		for (MultiplexedJedis jedis : shards.values()) {
+			count += jedis.getMultiplexedClient().getFlushCount();
+		}
+		return count;
+	}
+}
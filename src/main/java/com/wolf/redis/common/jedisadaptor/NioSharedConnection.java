@@ -0,0 +1,45 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import com.wolf.redis.common.nio.NioConnection;
+
+import redis.clients.jedis.ProtocolCommand;
+
+/**
+ * NioEngine创建的NioConnection作为MultiplexedClient的共用连接
+ *
+ * @author wolf
+ */
+class NioSharedConnection implements SharedConnection {
+
+	private final NioConnection connection;
+
+	NioSharedConnection(NioConnection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public Reply send(ProtocolCommand command, byte[]... args) {
+		final NioConnection.PendingReply reply = connection.send(command, args);
+		return new Reply() {
+			@Override
+			Object get() {
+				return reply.get();
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		connection.close();
+	}
+
+	@Override
+	public long getCommandCount() {
+		return connection.getCommandCount();
+	}
+
+	@Override
+	public long getFlushCount() {
+		return connection.getFlushCount();
+	}
+}
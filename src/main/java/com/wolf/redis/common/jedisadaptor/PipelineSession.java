@@ -0,0 +1,300 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.sharded.FanOutExecutor;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 自动pipeline的会话
+ * 命令不立即等待回复,而是排队并返回SessionResponse,以下情况把排队的命令作为一批发送:
+ * 读取任意一个结果时、排队的命令数达到flushThreshold时、调用flush或close时。
+ * 每个shard一个pipeline,一批命令在每个shard上只需要一次往返;
+ * 涉及多个shard时各shard的pipeline并行发送和读取回复,总耗时接近一次往返;
+ * JedisMultiplexer的连接只能在当前线程读取回复,各shard依次读取。
+ * 某个shard出错时断开它的连接,未读取的回复不会被之后的命令读到。
+ *
+ * sharded与非sharded使用同一套接口,按String key选择shard,与JedisAdaptor的其它方法分片一致。
+ * 会话中还有排队的命令时,不能直接用JedisAdaptor在同一个连接上执行命令。
+ * 非线程安全,由取得它的线程使用
+ *
+ * @author wolf
+ */
+public class PipelineSession implements Closeable {
+
+	public static final int DEFAULT_FLUSH_THRESHOLD = 100;
+
+	/**
+	 * 在key所在shard的pipeline上执行的命令,用于会话没有提供的命令
+	 */
+	public interface Command<T> {
+		Response<T> apply(Pipeline pipeline);
+	}
+
+	private final JedisAdaptor adaptor;
+	private final ValueCodec codec;
+	private final int flushThreshold;
+
+	/** 本批命令用到的每个shard的pipeline */
+	private final Map<Jedis, Pipeline> pipelines = new IdentityHashMap<Jedis, Pipeline>();
+
+	/** 本批排队的命令 */
+	private List<SessionResponse<?>> pending = new ArrayList<SessionResponse<?>>();
+
+	private boolean closed;
+	private long flushCount;
+	private long commandCount;
+
+	PipelineSession(JedisAdaptor adaptor, ValueCodec codec, int flushThreshold) {
+		this.adaptor = adaptor;
+		this.codec = codec;
+		this.flushThreshold = flushThreshold > 0 ? flushThreshold : DEFAULT_FLUSH_THRESHOLD;
+	}
+
+	/**
+	 * 在key所在shard的pipeline上排队一个命令
+	 */
+	public <T> SessionResponse<T> execute(String key, Command<T> command) {
+		return enqueue(new SessionResponse<T>(this, command.apply(pipeline(key))));
+	}
+
+	public SessionResponse<String> get(String key) {
+		return enqueue(new SessionResponse<String>(this, pipeline(key).get(key)));
+	}
+
+	public SessionResponse<String> set(String key, String value) {
+		return enqueue(new SessionResponse<String>(this, pipeline(key).set(key, value)));
+	}
+
+	public SessionResponse<String> setex(String key, int seconds, String value) {
+		return enqueue(new SessionResponse<String>(this, pipeline(key).setex(key, seconds, value)));
+	}
+
+	public SessionResponse<Long> del(String key) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).del(key)));
+	}
+
+	public SessionResponse<Boolean> exists(String key) {
+		return enqueue(new SessionResponse<Boolean>(this, pipeline(key).exists(key)));
+	}
+
+	public SessionResponse<Long> expire(String key, int seconds) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).expire(key, seconds)));
+	}
+
+	public SessionResponse<Long> ttl(String key) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).ttl(key)));
+	}
+
+	public SessionResponse<Long> incr(String key) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).incr(key)));
+	}
+
+	public SessionResponse<Long> incrBy(String key, long integer) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).incrBy(key, integer)));
+	}
+
+	public SessionResponse<String> hget(String key, String field) {
+		return enqueue(new SessionResponse<String>(this, pipeline(key).hget(key, field)));
+	}
+
+	public SessionResponse<Long> hset(String key, String field, String value) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).hset(key, field, value)));
+	}
+
+	public SessionResponse<Map<String, String>> hgetAll(String key) {
+		return enqueue(new SessionResponse<Map<String, String>>(this, pipeline(key).hgetAll(key)));
+	}
+
+	public SessionResponse<Long> sadd(String key, String... members) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).sadd(key, members)));
+	}
+
+	public SessionResponse<Set<String>> smembers(String key) {
+		return enqueue(new SessionResponse<Set<String>>(this, pipeline(key).smembers(key)));
+	}
+
+	public SessionResponse<Boolean> sismember(String key, String member) {
+		return enqueue(new SessionResponse<Boolean>(this, pipeline(key).sismember(key, member)));
+	}
+
+	public SessionResponse<Long> rpush(String key, String... strings) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).rpush(key, strings)));
+	}
+
+	public SessionResponse<List<String>> lrange(String key, long start, long end) {
+		return enqueue(new SessionResponse<List<String>>(this, pipeline(key).lrange(key, start, end)));
+	}
+
+	public SessionResponse<Long> zadd(String key, double score, String member) {
+		return enqueue(new SessionResponse<Long>(this, pipeline(key).zadd(key, score, member)));
+	}
+
+	/**
+	 * 读取对象,在get时由codec解码
+	 */
+	public <E> SessionResponse<E> getObject(String key, final Class<E> clazz) {
+		return enqueue(new SessionResponse<E>(this, pipeline(key).get(SafeEncoder.encode(key))) {
+			@Override
+			protected E convert(Object value) {
+				return codec.decode((byte[]) value, clazz);
+			}
+		});
+	}
+
+	/**
+	 * 写入对象
+	 * @param expire_time 过期时间(秒),不大于0时不过期
+	 */
+	public SessionResponse<String> setObject(String key, Object object, int expire_time) {
+		byte[] binaryKey = SafeEncoder.encode(key);
+		byte[] value = codec.encode(object);
+		Pipeline pipeline = pipeline(key);
+		Response<String> response = expire_time > 0 ? pipeline.setex(binaryKey, expire_time, value)
+				: pipeline.set(binaryKey, value);
+		return enqueue(new SessionResponse<String>(this, response));
+	}
+
+	/**
+	 * 发送排队的命令并读取所有回复
+	 * 命令返回的错误在对应的SessionResponse.get时抛出;连接出错时本批所有结果的get都抛出这个错误
+	 */
+	public void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		List<SessionResponse<?>> batch = pending;
+		pending = new ArrayList<SessionResponse<?>>();
+		RuntimeException failure = null;
+		List<Jedis> shards = new ArrayList<Jedis>(pipelines.keySet());
+		final boolean[] synced = new boolean[shards.size()];
+		try {
+			if (parallel(shards)) {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(shards.size());
+				for (int i = 0; i < shards.size(); i++) {
+					final int index = i;
+					final Pipeline pipeline = pipelines.get(shards.get(i));
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							pipeline.sync();
+							synced[index] = true;
+							return null;
+						}
+					});
+				}
+				//等待所有shard完成,一个shard失败不影响其它shard读取自己的回复
+				FanOutExecutor.invokeAll(tasks, shards);
+			} else {
+				for (int i = 0; i < shards.size(); i++) {
+					try {
+						pipelines.get(shards.get(i)).sync();
+						synced[i] = true;
+					} catch (RuntimeException e) {
+						//继续读取其它shard的回复
+						if (failure == null) {
+							failure = e;
+						}
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+		} finally {
+			for (int i = 0; i < shards.size(); i++) {
+				if (!synced[i]) {
+					//回复没有读完,断开连接,下次使用时重新连接
+					disconnect(shards.get(i));
+				}
+			}
+			pipelines.clear();
+			flushCount++;
+			for (SessionResponse<?> response : batch) {
+				response.flushed(failure);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * 发送剩下的命令,不关闭JedisAdaptor
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+		}
+	}
+
+	/** 已经发送的批数 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	/** 排队过的命令数 */
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/** 还在排队的命令数 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * 多个shard时在FanOutExecutor的线程上并行读取回复;
+	 * 多路复用的连接(MultiplexedClient)按线程保存未读取的回复,只能在发出命令的线程上读取
+	 */
+	private static boolean parallel(List<Jedis> shards) {
+		return shards.size() > 1 && !(shards.get(0).getClient() instanceof MultiplexedClient);
+	}
+
+	private static void disconnect(Jedis shard) {
+		try {
+			shard.disconnect();
+		} catch (Exception e) {
+			//ignore
+		}
+	}
+
+	private Pipeline pipeline(String key) {
+		if (closed) {
+			throw new JedisException("pipeline session is closed.");
+		}
+		Jedis shard = adaptor.binaryCommands(key);
+		Pipeline pipeline = pipelines.get(shard);
+		if (pipeline == null) {
+			pipeline = shard.pipelined();
+			pipelines.put(shard, pipeline);
+		}
+		return pipeline;
+	}
+
+	private <T> SessionResponse<T> enqueue(SessionResponse<T> response) {
+		pending.add(response);
+		commandCount++;
+		if (pending.size() >= flushThreshold) {
+			flush();
+		}
+		return response;
+	}
+}
@@ -0,0 +1,119 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 按key路由的ShardedJedis
+ * 本身不持有连接,命令用到某个shard时才从这个shard的JedisPool借一个连接,
+ * 同一次借出期间重复使用,close时归还所有借到的连接。
+ * 单key命令只占用一个连接,多key命令按涉及的shard各占用一个连接。
+ * 非线程安全,与ShardedJedis一样一次只能由一个线程使用
+ *
+ * @author wolf
+ */
+//与RouterShardedJedis相同,继承自BinaryShardedJedis的srandmember(byte[],int)返回原始类型List
+@SuppressWarnings("unchecked")
+class RoutedShardedJedis extends RouterShardedJedis {
+
+	/** 每个shard的连接池,由JedisPoolAdaptor创建和销毁 */
+	private final Map<JedisShardInfo, JedisPool> shardPools;
+
+	/** 本次借出期间已经借到的连接 */
+	private final Map<JedisShardInfo, Jedis> borrowed = new IdentityHashMap<JedisShardInfo, Jedis>();
+
+	private JedisPoolAdaptor owner;
+	private JedisAdaptor adaptor;
+
+	RoutedShardedJedis(ShardRouter router, Map<JedisShardInfo, JedisPool> shardPools) {
+		super(router);
+		this.shardPools = shardPools;
+	}
+
+	@Override
+	public Jedis getShard(byte[] key) {
+		return borrow(getShardInfo(key));
+	}
+
+	@Override
+	public Jedis getShard(String key) {
+		return borrow(getShardInfo(key));
+	}
+
+	@Override
+	Jedis getShard(KeyHandle key) {
+		return borrow(getShardInfo(key));
+	}
+
+	/**
+	 * 借出所有shard的连接,keys/flushDB等需要访问所有shard的命令使用
+	 */
+	@Override
+	public Collection<Jedis> getAllShards() {
+		List<JedisShardInfo> shardInfos = getRouter().getShards();
+		List<Jedis> shards = new ArrayList<Jedis>(shardInfos.size());
+		for (JedisShardInfo shardInfo : shardInfos) {
+			shards.add(borrow(shardInfo));
+		}
+		return shards;
+	}
+
+	/**
+	 * 归还借到的连接,再把所属的JedisAdaptor还给JedisPoolAdaptor
+	 */
+	@Override
+	public void close() {
+		release();
+		JedisPoolAdaptor pool = owner;
+		if (pool != null) {
+			owner = null;
+			pool.returnResourceObject(adaptor);
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		release();
+	}
+
+	/**
+	 * JedisPoolAdaptor借出时调用,close时归还给它
+	 */
+	void borrowedFrom(JedisPoolAdaptor owner, JedisAdaptor adaptor) {
+		this.owner = owner;
+		this.adaptor = adaptor;
+	}
+
+	/**
+	 * 归还借到的连接,断开的连接由JedisPool销毁
+	 */
+	void release() {
+		for (Jedis jedis : borrowed.values()) {
+			try {
+				jedis.close();
+			} catch (Exception e) {
+				JedisAdaptor.logger.error("return shard connection error.", e);
+			}
+		}
+		borrowed.clear();
+	}
+
+	private Jedis borrow(JedisShardInfo shardInfo) {
+		Jedis jedis = borrowed.get(shardInfo);
+		if (jedis == null) {
+			jedis = shardPools.get(shardInfo).getResource();
+			borrowed.put(shardInfo, jedis);
+		}
+		return jedis;
+	}
+}
@@ -0,0 +1,58 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * 由ShardRouter计算分片的ShardedJedis
+ * Sharded.getShard通过getShardInfo查找连接,覆盖getShardInfo后所有命令、pipeline都按router分片
+ *
+ * @author wolf
+ */
+//BinaryShardedJedis.srandmember(byte[],int)返回原始类型List,子类继承后产生unchecked警告
+@SuppressWarnings("unchecked")
+class RouterShardedJedis extends ShardedJedis {
+
+	private final ShardRouter router;
+
+	private final JedisShardInfo[] shardInfos;
+
+	/** 与shardInfos对应的连接,Sharded按shard的顺序创建 */
+	private final Jedis[] resources;
+
+	RouterShardedJedis(ShardRouter router) {
+		super(router.getShards());
+		this.router = router;
+		this.shardInfos = router.getShards().toArray(new JedisShardInfo[router.getShards().size()]);
+		this.resources = super.getAllShards().toArray(new Jedis[shardInfos.length]);
+	}
+
+	@Override
+	public JedisShardInfo getShardInfo(String key) {
+		return shardInfos[router.shardIndex(key)];
+	}
+
+	@Override
+	public JedisShardInfo getShardInfo(byte[] key) {
+		return shardInfos[router.shardIndex(key)];
+	}
+
+	/**
+	 * 使用KeyHandle中缓存的shard下标,不再计算hash
+	 */
+	Jedis getShard(KeyHandle key) {
+		return resources[key.shardIndex(router)];
+	}
+
+	JedisShardInfo getShardInfo(KeyHandle key) {
+		return shardInfos[key.shardIndex(router)];
+	}
+
+	ShardRouter getRouter() {
+		return router;
+	}
+}
@@ -0,0 +1,61 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import redis.clients.jedis.Response;
+
+/**
+ * PipelineSession中命令的结果
+ * 命令还在排队时get会先发送整批命令,再返回这个命令的结果
+ *
+ * @author wolf
+ */
+public class SessionResponse<T> {
+
+	private final PipelineSession session;
+	private final Response<?> response;
+
+	/** 本批命令是否已经发送并读取了回复 */
+	private boolean flushed;
+
+	/** 发送或读取回复失败的原因 */
+	private RuntimeException failure;
+
+	SessionResponse(PipelineSession session, Response<?> response) {
+		this.session = session;
+		this.response = response;
+	}
+
+	/**
+	 * 取得结果,必要时发送本批命令
+	 * @throws redis.clients.jedis.exceptions.JedisDataException 命令返回错误时
+	 * @throws redis.clients.jedis.exceptions.JedisConnectionException 发送本批命令失败时
+	 */
+	public T get() {
+		if (!flushed) {
+			session.flush();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return convert(response.get());
+	}
+
+	/**
+	 * 是否已经可以不经过网络取得结果
+	 */
+	public boolean isDone() {
+		return flushed;
+	}
+
+	/**
+	 * 把redis的回复转换成结果,对象命令在这里解码
+	 */
+	@SuppressWarnings("unchecked")
+	protected T convert(Object value) {
+		return (T) value;
+	}
+
+	void flushed(RuntimeException failure) {
+		this.flushed = true;
+		this.failure = failure;
+	}
+}
@@ -0,0 +1,50 @@
+package com.wolf.redis.common.jedisadaptor;
+
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * MultiplexedClient使用的共用连接
+ * 默认为阻塞socket的MultiplexedConnection,使用NioEngine时为NioSharedConnection
+ *
+ * @author wolf
+ */
+interface SharedConnection {
+
+	/**
+	 * 发出一个命令
+	 * @return 这个命令的回复
+	 */
+	Reply send(ProtocolCommand command, byte[]... args);
+
+	/**
+	 * 关闭连接,还在等待回复的请求全部失败
+	 */
+	void close();
+
+	/** 发出的命令数 */
+	long getCommandCount();
+
+	/** 写出的次数,commandCount / flushCount 即平均每次写出的命令数 */
+	long getFlushCount();
+
+	/**
+	 * 一个命令的回复
+	 */
+	abstract class Reply {
+
+		/**
+		 * 等待并返回回复
+		 * @throws JedisDataException redis返回错误时
+		 * @throws JedisConnectionException 连接断开或超时时
+		 */
+		abstract Object get();
+
+		/**
+		 * 不再读取这个回复
+		 */
+		void discard() {
+		}
+	}
+}
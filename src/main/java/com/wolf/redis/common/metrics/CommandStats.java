@@ -0,0 +1,143 @@
+package com.wolf.redis.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个shard上一种命令的次数、延迟直方图、错误数和字节数
+ * 次数、错误数和字节数统计每个命令,直方图只包含采样记录延迟的命令,见RedisMetrics.setLatencySampling
+ * 由ShardMetrics创建并注册到JMX
+ *
+ * @author wolf
+ */
+public class CommandStats implements CommandStatsMBean {
+
+	private final String shard;
+	private final String command;
+	private final LongAdder count = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+
+	CommandStats(String shard, String command) {
+		this.shard = shard;
+		this.command = command;
+	}
+
+	/**
+	 * 记录一次收到回复的命令,nanos小于0时(没有采样)不记录延迟
+	 */
+	public void record(long nanos, long sent, long received) {
+		count.increment();
+		if (nanos >= 0) {
+			latency.record(nanos);
+		}
+		if (sent != 0) {
+			bytesSent.add(sent);
+		}
+		if (received != 0) {
+			bytesReceived.add(received);
+		}
+	}
+
+	/**
+	 * 记录一次失败的命令,nanos小于0时不记录延迟
+	 */
+	public void recordError(long nanos, long sent) {
+		count.increment();
+		errors.incrementAndGet();
+		if (nanos >= 0) {
+			latency.record(nanos);
+		}
+		if (sent != 0) {
+			bytesSent.add(sent);
+		}
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String getShard() {
+		return shard;
+	}
+
+	@Override
+	public String getCommand() {
+		return command;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * 记录了延迟的命令数
+	 */
+	public long getSamples() {
+		return LatencyHistogram.count(latency.snapshot());
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long samples = getSamples();
+		return samples == 0 ? 0 : latency.getTotalNanos() / 1000.0 / samples;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return LatencyHistogram.percentile(latency.snapshot(), 50) / 1000.0;
+	}
+
+	@Override
+	public double getP99Micros() {
+		return LatencyHistogram.percentile(latency.snapshot(), 99) / 1000.0;
+	}
+
+	@Override
+	public double getP999Micros() {
+		return LatencyHistogram.percentile(latency.snapshot(), 99.9) / 1000.0;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return LatencyHistogram.max(latency.snapshot()) / 1000.0;
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+		latency.reset();
+		errors.set(0);
+		bytesSent.reset();
+		bytesReceived.reset();
+	}
+
+	@Override
+	public String toString() {
+		long[] snapshot = latency.snapshot();
+		return String.format("%s %s count=%d errors=%d p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus", shard,
+				command, count.sum(), errors.get(),
+				LatencyHistogram.percentile(snapshot, 50) / 1000.0,
+				LatencyHistogram.percentile(snapshot, 99) / 1000.0,
+				LatencyHistogram.percentile(snapshot, 99.9) / 1000.0, LatencyHistogram.max(snapshot) / 1000.0);
+	}
+}
@@ -0,0 +1,36 @@
+package com.wolf.redis.common.metrics;
+
+/**
+ * 一个shard上一种命令的统计,延迟单位为微秒
+ *
+ * @author wolf
+ */
+public interface CommandStatsMBean {
+
+	String getShard();
+
+	String getCommand();
+
+	long getCount();
+
+	/** redis返回错误、连接断开或超时的次数 */
+	long getErrors();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP99Micros();
+
+	double getP999Micros();
+
+	double getMaxMicros();
+
+	/** 命令参数的字节数 */
+	long getBytesSent();
+
+	/** 回复中bulk数据的字节数 */
+	long getBytesReceived();
+
+	void reset();
+}
@@ -0,0 +1,171 @@
+package com.wolf.redis.common.metrics;
+
+import java.util.List;
+
+import redis.clients.jedis.ProtocolCommand;
+
+/**
+ * 一个连接上已发出、还没读到回复的命令,按发出顺序与回复对应
+ * 普通命令只有一个,pipeline和事务时有多个。与连接一样只在一个线程中使用
+ * 按RedisMetrics.getLatencySampling每隔几个命令取一次开始时间,没有开始时间的命令读到回复时也不取时间
+ *
+ * @author wolf
+ */
+public class CommandTimer {
+
+	/** 没有采样的命令的开始时间,System.nanoTime()可能是负数,不能用-1 */
+	public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	private final ShardMetrics shard;
+	private final int sampleMask;
+	private int sequence;
+
+	/** 环形队列 */
+	private CommandStats[] stats = new CommandStats[8];
+	private long[] starts = new long[8];
+	private long[] sentBytes = new long[8];
+	private int head;
+	private int size;
+
+	public CommandTimer(ShardMetrics shard) {
+		this.shard = shard;
+		this.sampleMask = shard.latencySampling() - 1;
+	}
+
+	/**
+	 * 命令的开始时间,在发送之前调用
+	 * @return 采样的命令返回System.nanoTime(),其它命令返回NOT_SAMPLED
+	 */
+	public long start() {
+		return (sequence++ & sampleMask) == 0 ? System.nanoTime() : NOT_SAMPLED;
+	}
+
+	/**
+	 * 命令已经写入连接
+	 * @param start start()的返回值
+	 */
+	public void sent(ProtocolCommand command, long start, byte[][] args) {
+		long bytes = 0;
+		for (byte[] arg : args) {
+			bytes += arg.length;
+		}
+		if (size == stats.length) {
+			grow();
+		}
+		int tail = (head + size) & (stats.length - 1);
+		stats[tail] = shard.command(command);
+		starts[tail] = start;
+		sentBytes[tail] = bytes;
+		size++;
+	}
+
+	/**
+	 * 发送失败,连接已经不可用
+	 */
+	public void sendFailed(ProtocolCommand command, long start, byte[][] args) {
+		long bytes = 0;
+		for (byte[] arg : args) {
+			bytes += arg.length;
+		}
+		shard.command(command).recordError(elapsed(start), bytes);
+		failAll();
+	}
+
+	/**
+	 * 读到最早发出的命令的回复
+	 */
+	public void replied(Object reply) {
+		if (size == 0) {
+			//订阅模式下的消息等没有对应命令的回复
+			return;
+		}
+		stats[head].record(elapsed(starts[head]), sentBytes[head], replyBytes(reply));
+		poll();
+	}
+
+	/**
+	 * 最早发出的命令收到错误回复
+	 */
+	public void error() {
+		if (size == 0) {
+			return;
+		}
+		stats[head].recordError(elapsed(starts[head]), sentBytes[head]);
+		poll();
+	}
+
+	/**
+	 * 读取失败,连接已经不可用,所有未回复的命令记为错误
+	 */
+	public void failAll() {
+		if (size == 0) {
+			return;
+		}
+		stats[head].recordError(elapsed(starts[head]), sentBytes[head]);
+		poll();
+		while (size > 0) {
+			stats[head].recordError(-1, sentBytes[head]);
+			poll();
+		}
+	}
+
+	/**
+	 * 丢弃未回复的命令,例如断开连接时
+	 */
+	public void clear() {
+		while (size > 0) {
+			poll();
+		}
+	}
+
+	public int getPending() {
+		return size;
+	}
+
+	/**
+	 * 没有采样的命令返回-1
+	 */
+	private static long elapsed(long start) {
+		return start == NOT_SAMPLED ? -1 : System.nanoTime() - start;
+	}
+
+	private void poll() {
+		stats[head] = null;
+		head = (head + 1) & (stats.length - 1);
+		size--;
+	}
+
+	private void grow() {
+		int capacity = stats.length * 2;
+		CommandStats[] newStats = new CommandStats[capacity];
+		long[] newStarts = new long[capacity];
+		long[] newSentBytes = new long[capacity];
+		for (int i = 0; i < size; i++) {
+			int index = (head + i) & (stats.length - 1);
+			newStats[i] = stats[index];
+			newStarts[i] = starts[index];
+			newSentBytes[i] = sentBytes[index];
+		}
+		stats = newStats;
+		starts = newStarts;
+		sentBytes = newSentBytes;
+		head = 0;
+	}
+
+	/**
+	 * 回复中bulk数据的字节数
+	 */
+	static long replyBytes(Object reply) {
+		if (reply instanceof byte[]) {
+			return ((byte[]) reply).length;
+		}
+		if (reply instanceof List) {
+			long bytes = 0;
+			for (Object item : (List<?>) reply) {
+				bytes += replyBytes(item);
+			}
+			return bytes;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,119 @@
+package com.wolf.redis.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图,单位纳秒
+ * 每个2的幂区间平分成8个桶,相对误差不超过12.5%;记录一次只计算桶下标并做两次原子加,不分配对象。
+ * 读取时复制一份桶计数再计算分位数,多个直方图的计数可以相加后合并计算
+ *
+ * @author wolf
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** 2^41纳秒约36分钟,更大的值记入最后一个桶 */
+	private static final int MAX_EXPONENT = 40;
+
+	public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(nanos));
+		totalNanos.add(nanos);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalNanos.reset();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * 把各个桶的计数加到snapshot
+	 * @param snapshot 长度为BUCKETS
+	 */
+	public void addTo(long[] snapshot) {
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] += counts.get(i);
+		}
+	}
+
+	public long[] snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		addTo(snapshot);
+		return snapshot;
+	}
+
+	public static long count(long[] snapshot) {
+		long count = 0;
+		for (long c : snapshot) {
+			count += c;
+		}
+		return count;
+	}
+
+	/**
+	 * 分位数,返回所在桶的上界
+	 * @param percentile 0到100之间,例如99.9
+	 * @return 纳秒,没有记录时返回0
+	 */
+	public static long percentile(long[] snapshot, double percentile) {
+		long count = count(snapshot);
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * 最大值所在桶的上界,没有记录时返回0
+	 */
+	public static long max(long[] snapshot) {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (snapshot[i] != 0) {
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return nanos < 0 ? 0 : (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+				+ (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,71 @@
+package com.wolf.redis.common.metrics;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 记录每个命令延迟的Client
+ * 所有命令都经过sendCommand(ProtocolCommand, byte[]...)(没有参数的命令也转到这里),所有回复都经过readProtocolWithCheckingBroken,
+ * 两者按顺序一一对应,pipeline、事务中的命令也分别记录;延迟按RedisMetrics.setLatencySampling采样记录
+ *
+ * @author wolf
+ */
+class MeteredClient extends Client {
+
+	private static final byte[][] NO_ARGS = new byte[0][];
+
+	private final CommandTimer timer;
+
+	MeteredClient(String host, int port, ShardMetrics shard) {
+		super(host, port);
+		this.timer = new CommandTimer(shard);
+	}
+
+	/**
+	 * Connection中没有参数的命令(PING、MULTI、EXEC等)直接写出,不经过sendCommand(ProtocolCommand, byte[]...)
+	 */
+	@Override
+	protected Connection sendCommand(ProtocolCommand cmd) {
+		return sendCommand(cmd, NO_ARGS);
+	}
+
+	@Override
+	protected Connection sendCommand(ProtocolCommand cmd, byte[]... args) {
+		long start = timer.start();
+		Connection connection;
+		try {
+			//第一个命令时connect,其中的AUTH、SELECT也经过这里,在这个命令之前记录
+			connection = super.sendCommand(cmd, args);
+		} catch (JedisException e) {
+			timer.sendFailed(cmd, start, args);
+			throw e;
+		}
+		timer.sent(cmd, start, args);
+		return connection;
+	}
+
+	@Override
+	protected Object readProtocolWithCheckingBroken() {
+		Object reply;
+		try {
+			reply = super.readProtocolWithCheckingBroken();
+		} catch (JedisDataException e) {
+			timer.error();
+			throw e;
+		} catch (JedisException e) {
+			timer.failAll();
+			throw e;
+		}
+		timer.replied(reply);
+		return reply;
+	}
+
+	@Override
+	public void disconnect() {
+		timer.clear();
+		super.disconnect();
+	}
+}
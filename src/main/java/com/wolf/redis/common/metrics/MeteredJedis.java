@@ -0,0 +1,31 @@
+package com.wolf.redis.common.metrics;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 每个命令的延迟、错误数和字节数记录到RedisMetrics的Jedis
+ *
+ * @author wolf
+ */
+public class MeteredJedis extends Jedis {
+
+	public MeteredJedis(JedisShardInfo shardInfo, RedisMetrics metrics) {
+		super(shardInfo);
+		MeteredClient meteredClient = new MeteredClient(shardInfo.getHost(), shardInfo.getPort(),
+				metrics.shard(shardInfo.getHost(), shardInfo.getPort()));
+		meteredClient.setConnectionTimeout(shardInfo.getConnectionTimeout());
+		meteredClient.setSoTimeout(shardInfo.getSoTimeout());
+		meteredClient.setPassword(shardInfo.getPassword());
+		meteredClient.setDb(shardInfo.getDb());
+		this.client = meteredClient;
+	}
+
+	public MeteredJedis(String host, int port, RedisMetrics metrics) {
+		this(new JedisShardInfo(host, port), metrics);
+	}
+
+	public MeteredJedis(String host, int port, int timeout, RedisMetrics metrics) {
+		this(new JedisShardInfo(host, port, timeout), metrics);
+	}
+}
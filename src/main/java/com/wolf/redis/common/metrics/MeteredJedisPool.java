@@ -0,0 +1,100 @@
+package com.wolf.redis.common.metrics;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+
+/**
+ * 借出MeteredJedis的JedisPool,可以直接注入RedisClientsUtil
+ *
+ * @author wolf
+ */
+public class MeteredJedisPool extends JedisPool {
+
+	public MeteredJedisPool(GenericObjectPoolConfig poolConfig, MeteredShardInfo shardInfo) {
+		super(poolConfig, shardInfo.getHost(), shardInfo.getPort(), shardInfo.getSoTimeout(),
+				shardInfo.getPassword(), shardInfo.getDb());
+		//JedisPool只能由构造方法创建它自己的factory,在这里替换
+		initPool(poolConfig, new MeteredJedisFactory(shardInfo));
+	}
+
+	public MeteredJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, RedisMetrics metrics) {
+		this(poolConfig, new MeteredShardInfo(host, port, Protocol.DEFAULT_TIMEOUT, null, metrics));
+	}
+
+	public MeteredJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout,
+			String password, RedisMetrics metrics) {
+		this(poolConfig, password(new MeteredShardInfo(host, port, timeout, null, metrics), password));
+	}
+
+	private static MeteredShardInfo password(MeteredShardInfo shardInfo, String password) {
+		shardInfo.setPassword(password);
+		return shardInfo;
+	}
+
+	/**
+	 * 与JedisPool的factory相同,连接由shardInfo创建,connect时执行AUTH、SELECT
+	 */
+	private static class MeteredJedisFactory implements PooledObjectFactory<Jedis> {
+		private final MeteredShardInfo shardInfo;
+
+		MeteredJedisFactory(MeteredShardInfo shardInfo) {
+			this.shardInfo = shardInfo;
+		}
+
+		@Override
+		public PooledObject<Jedis> makeObject() throws Exception {
+			Jedis jedis = shardInfo.createResource();
+			try {
+				jedis.connect();
+			} catch (Exception e) {
+				jedis.close();
+				throw e;
+			}
+			return new DefaultPooledObject<Jedis>(jedis);
+		}
+
+		@Override
+		public void destroyObject(PooledObject<Jedis> p) throws Exception {
+			Jedis jedis = p.getObject();
+			if (jedis.isConnected()) {
+				try {
+					try {
+						jedis.quit();
+					} catch (Exception e) {
+					}
+					jedis.disconnect();
+				} catch (Exception e) {
+
+				}
+			}
+		}
+
+		@Override
+		public boolean validateObject(PooledObject<Jedis> p) {
+			Jedis jedis = p.getObject();
+			try {
+				return jedis.isConnected() && jedis.ping().equals("PONG");
+			} catch (final Exception e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void activateObject(PooledObject<Jedis> p) throws Exception {
+			Jedis jedis = p.getObject();
+			if (jedis.getDB() != shardInfo.getDb()) {
+				jedis.select(shardInfo.getDb());
+			}
+		}
+
+		@Override
+		public void passivateObject(PooledObject<Jedis> p) throws Exception {
+		}
+	}
+}
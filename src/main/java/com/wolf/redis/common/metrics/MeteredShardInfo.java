@@ -0,0 +1,62 @@
+package com.wolf.redis.common.metrics;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 创建MeteredJedis的JedisShardInfo
+ * 用它代替JedisShardInfo配置ShardedJedisPool、JedisPoolAdaptor,每个shard的连接都记录命令的统计;
+ * 路由模式的JedisPoolAdaptor为它创建MeteredJedisPool。JedisMultiplexer的共用连接不记录
+ *
+ * @author wolf
+ */
+public class MeteredShardInfo extends JedisShardInfo {
+
+	private final RedisMetrics metrics;
+	private int db;
+
+	public MeteredShardInfo(String host, int port, RedisMetrics metrics) {
+		super(host, port);
+		this.metrics = metrics;
+	}
+
+	public MeteredShardInfo(String host, int port, String name, RedisMetrics metrics) {
+		super(host, port, name);
+		this.metrics = metrics;
+	}
+
+	public MeteredShardInfo(String host, int port, int timeout, String name, RedisMetrics metrics) {
+		super(host, port, timeout, name);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 复制shardInfo的配置,分片结果与shardInfo一致
+	 */
+	public MeteredShardInfo(JedisShardInfo shardInfo, RedisMetrics metrics) {
+		super(shardInfo.getHost(), shardInfo.getName(), shardInfo.getPort(), shardInfo.getSoTimeout(),
+				shardInfo.getWeight());
+		setConnectionTimeout(shardInfo.getConnectionTimeout());
+		setPassword(shardInfo.getPassword());
+		this.db = shardInfo.getDb();
+		this.metrics = metrics;
+	}
+
+	public RedisMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public int getDb() {
+		return db;
+	}
+
+	public void setDb(int db) {
+		this.db = db;
+	}
+
+	@Override
+	public Jedis createResource() {
+		return new MeteredJedis(this, metrics);
+	}
+}
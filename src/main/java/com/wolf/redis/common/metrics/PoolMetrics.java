@@ -0,0 +1,183 @@
+package com.wolf.redis.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * 连接池的统计:借出等待时间、创建连接的时间,以及每次借出时的已借出、空闲连接数
+ * 等待时间包括创建连接和testOnBorrow的检查,即调用方在getResource中花费的时间
+ * 由JedisPoolAdaptor.setPoolMetrics绑定到连接池
+ *
+ * @author wolf
+ */
+public class PoolMetrics implements PoolMetricsMBean {
+
+	private final String name;
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+	private final LatencyHistogram create = new LatencyHistogram();
+	private final LatencyHistogram active = new LatencyHistogram();
+	private final LatencyHistogram idle = new LatencyHistogram();
+	private final AtomicLong borrowFailures = new AtomicLong();
+	private final AtomicLong peakActive = new AtomicLong();
+
+	private volatile GenericObjectPool<?> pool;
+
+	public PoolMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 读取当前连接数和上限的连接池
+	 */
+	public void bind(GenericObjectPool<?> pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 借到连接
+	 * @param active 借出后已借出的连接数
+	 */
+	public void borrowed(long waitNanos, int active, int idle) {
+		borrowWait.record(waitNanos);
+		this.active.record(active);
+		this.idle.record(idle);
+		long peak = peakActive.get();
+		while (active > peak && !peakActive.compareAndSet(peak, active)) {
+			peak = peakActive.get();
+		}
+	}
+
+	public void borrowFailed(long waitNanos) {
+		borrowFailures.incrementAndGet();
+		borrowWait.record(waitNanos);
+	}
+
+	public void created(long nanos) {
+		create.record(nanos);
+	}
+
+	/**
+	 * 上次调用以来借出时已借出连接数的最大值,并从当前值重新开始
+	 */
+	public long takePeakActive() {
+		GenericObjectPool<?> current = pool;
+		return peakActive.getAndSet(current == null ? 0 : current.getNumActive());
+	}
+
+	public LatencyHistogram getBorrowWait() {
+		return borrowWait;
+	}
+
+	public LatencyHistogram getCreate() {
+		return create;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getBorrowCount() {
+		return LatencyHistogram.count(borrowWait.snapshot());
+	}
+
+	@Override
+	public long getBorrowFailures() {
+		return borrowFailures.get();
+	}
+
+	@Override
+	public double getBorrowWaitP50Micros() {
+		return LatencyHistogram.percentile(borrowWait.snapshot(), 50) / 1000.0;
+	}
+
+	@Override
+	public double getBorrowWaitP99Micros() {
+		return LatencyHistogram.percentile(borrowWait.snapshot(), 99) / 1000.0;
+	}
+
+	@Override
+	public double getBorrowWaitMaxMicros() {
+		return LatencyHistogram.max(borrowWait.snapshot()) / 1000.0;
+	}
+
+	@Override
+	public long getCreateCount() {
+		return LatencyHistogram.count(create.snapshot());
+	}
+
+	@Override
+	public double getCreateP99Micros() {
+		return LatencyHistogram.percentile(create.snapshot(), 99) / 1000.0;
+	}
+
+	@Override
+	public double getCreateMaxMicros() {
+		return LatencyHistogram.max(create.snapshot()) / 1000.0;
+	}
+
+	@Override
+	public long getActiveP50() {
+		return LatencyHistogram.percentile(active.snapshot(), 50);
+	}
+
+	@Override
+	public long getActiveP99() {
+		return LatencyHistogram.percentile(active.snapshot(), 99);
+	}
+
+	@Override
+	public long getIdleP50() {
+		return LatencyHistogram.percentile(idle.snapshot(), 50);
+	}
+
+	@Override
+	public int getNumActive() {
+		GenericObjectPool<?> current = pool;
+		return current == null ? 0 : current.getNumActive();
+	}
+
+	@Override
+	public int getNumIdle() {
+		GenericObjectPool<?> current = pool;
+		return current == null ? 0 : current.getNumIdle();
+	}
+
+	@Override
+	public int getNumWaiters() {
+		GenericObjectPool<?> current = pool;
+		return current == null ? 0 : current.getNumWaiters();
+	}
+
+	@Override
+	public int getMaxTotal() {
+		GenericObjectPool<?> current = pool;
+		return current == null ? 0 : current.getMaxTotal();
+	}
+
+	@Override
+	public int getMaxIdle() {
+		GenericObjectPool<?> current = pool;
+		return current == null ? 0 : current.getMaxIdle();
+	}
+
+	@Override
+	public void reset() {
+		borrowWait.reset();
+		create.reset();
+		active.reset();
+		idle.reset();
+		borrowFailures.set(0);
+	}
+
+	@Override
+	public String toString() {
+		long[] wait = borrowWait.snapshot();
+		return String.format("%s borrows=%d failures=%d waitP99=%.1fus waitMax=%.1fus creates=%d activeP99=%d",
+				name, LatencyHistogram.count(wait), borrowFailures.get(),
+				LatencyHistogram.percentile(wait, 99) / 1000.0, LatencyHistogram.max(wait) / 1000.0,
+				getCreateCount(), getActiveP99());
+	}
+}
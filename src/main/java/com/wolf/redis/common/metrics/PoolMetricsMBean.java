@@ -0,0 +1,47 @@
+package com.wolf.redis.common.metrics;
+
+/**
+ * 连接池的借出等待、连接创建和连接数统计,时间单位为微秒
+ *
+ * @author wolf
+ */
+public interface PoolMetricsMBean {
+
+	String getName();
+
+	long getBorrowCount();
+
+	/** 等待超时或创建连接失败,没有借到连接的次数 */
+	long getBorrowFailures();
+
+	double getBorrowWaitP50Micros();
+
+	double getBorrowWaitP99Micros();
+
+	double getBorrowWaitMaxMicros();
+
+	long getCreateCount();
+
+	double getCreateP99Micros();
+
+	double getCreateMaxMicros();
+
+	/** 借出时已借出的连接数的分位数 */
+	long getActiveP50();
+
+	long getActiveP99();
+
+	long getIdleP50();
+
+	int getNumActive();
+
+	int getNumIdle();
+
+	int getNumWaiters();
+
+	int getMaxTotal();
+
+	int getMaxIdle();
+
+	void reset();
+}
@@ -0,0 +1,162 @@
+package com.wolf.redis.common.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 按shard、命令统计的延迟直方图、错误数和字节数
+ * 使用MeteredShardInfo、MeteredJedisPool或JedisPoolAdaptor带RedisMetrics的构造方法创建的连接,
+ * 每个命令从发出到读到回复的时间都记录在这里,JedisAdaptor、BaseShardedJedis、RedisClientsUtil的调用都会经过这些连接。
+ *
+ * jmxEnabled时注册到platform MBeanServer:
+ * domain:type=RedisShard,shard="host:port" 一个shard所有命令合并的统计;
+ * domain:type=RedisCommand,shard="host:port",command=GET 一个shard上一种命令的统计;
+ * domain:type=RedisPool,name="name" 一个连接池的借出等待等统计,见pool。
+ * 同一个JVM中有多个RedisMetrics时使用不同的domain
+ *
+ * @author wolf
+ */
+public class RedisMetrics {
+
+	static Logger logger = Logger.getLogger(RedisMetrics.class);
+
+	public static final String DEFAULT_DOMAIN = "com.wolf.redis";
+
+	/** 默认每个连接上每8个命令记录一次延迟,见setLatencySampling */
+	public static final int DEFAULT_LATENCY_SAMPLING = 8;
+
+	private final String domain;
+	private final boolean jmxEnabled;
+	private final ConcurrentHashMap<String, ShardMetrics> shards = new ConcurrentHashMap<String, ShardMetrics>();
+	private final ConcurrentHashMap<String, PoolMetrics> pools = new ConcurrentHashMap<String, PoolMetrics>();
+	private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+	private volatile int latencySampling = DEFAULT_LATENCY_SAMPLING;
+
+	public RedisMetrics() {
+		this(DEFAULT_DOMAIN, true);
+	}
+
+	/**
+	 * @param domain JMX ObjectName的domain
+	 * @param jmxEnabled 为false时只统计,不注册MBean
+	 */
+	public RedisMetrics(String domain, boolean jmxEnabled) {
+		this.domain = domain;
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * shard的统计,不存在时创建
+	 */
+	public ShardMetrics shard(String host, int port) {
+		String name = host + ":" + port;
+		ShardMetrics shard = shards.get(name);
+		if (shard != null) {
+			return shard;
+		}
+		shard = new ShardMetrics(this, name);
+		ShardMetrics existing = shards.putIfAbsent(name, shard);
+		if (existing != null) {
+			return existing;
+		}
+		register("type=RedisShard,shard=" + ObjectName.quote(name), shard);
+		return shard;
+	}
+
+	/**
+	 * 连接池的统计,不存在时创建,通过JedisPoolAdaptor.setPoolMetrics绑定到连接池
+	 */
+	public PoolMetrics pool(String name) {
+		PoolMetrics pool = pools.get(name);
+		if (pool != null) {
+			return pool;
+		}
+		pool = new PoolMetrics(name);
+		PoolMetrics existing = pools.putIfAbsent(name, pool);
+		if (existing != null) {
+			return existing;
+		}
+		register("type=RedisPool,name=" + ObjectName.quote(name), pool);
+		return pool;
+	}
+
+	public Collection<ShardMetrics> getShards() {
+		return new ArrayList<ShardMetrics>(shards.values());
+	}
+
+	public int getLatencySampling() {
+		return latencySampling;
+	}
+
+	/**
+	 * 每个连接上每sampling个命令记录一次延迟,其它命令只计数和统计字节数,
+	 * 两次System.nanoTime是记录的主要开销(虚拟机上每次可能达到30ns以上),采样后每个命令的开销在100ns以内,见MetricsBenchmark;
+	 * Count、Errors、字节数仍是每个命令都统计的准确值,Mean、分位数按采样的命令计算。
+	 * 为1时记录每个命令的延迟。只对之后创建的连接生效
+	 * @param sampling 2的幂,默认DEFAULT_LATENCY_SAMPLING
+	 */
+	public void setLatencySampling(int sampling) {
+		if (sampling <= 0 || (sampling & (sampling - 1)) != 0) {
+			throw new IllegalArgumentException("latencySampling must be a power of 2: " + sampling);
+		}
+		this.latencySampling = sampling;
+	}
+
+	/**
+	 * 清空所有统计
+	 */
+	public void reset() {
+		for (ShardMetrics shard : shards.values()) {
+			shard.reset();
+		}
+		for (PoolMetrics pool : pools.values()) {
+			pool.reset();
+		}
+	}
+
+	/**
+	 * 注销注册的MBean,之后的统计不再注册
+	 */
+	public void unregister() {
+		if (!jmxEnabled) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (Exception e) {
+				logger.error("unregister " + name + " error.", e);
+			}
+		}
+		registered.clear();
+	}
+
+	void register(CommandStats stats) {
+		register("type=RedisCommand,shard=" + ObjectName.quote(stats.getShard()) + ",command="
+				+ ObjectName.quote(stats.getCommand()), stats);
+	}
+
+	private void register(String properties, Object mbean) {
+		if (!jmxEnabled) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(domain + ":" + properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			registered.add(name);
+		} catch (Exception e) {
+			//统计不受影响
+			logger.error("register mbean " + properties + " error.", e);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.wolf.redis.common.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 一个shard(host:port)上每种命令的统计
+ * Protocol.Command按ordinal直接取数组元素,第一次执行某个命令时创建CommandStats并注册到JMX
+ *
+ * @author wolf
+ */
+public class ShardMetrics implements ShardMetricsMBean {
+
+	private final RedisMetrics metrics;
+	private final String shard;
+	private final AtomicReferenceArray<CommandStats> commands = new AtomicReferenceArray<CommandStats>(
+			Command.values().length);
+	/** 不是Protocol.Command的命令 */
+	private final ConcurrentHashMap<String, CommandStats> otherCommands = new ConcurrentHashMap<String, CommandStats>();
+
+	ShardMetrics(RedisMetrics metrics, String shard) {
+		this.metrics = metrics;
+		this.shard = shard;
+	}
+
+	/**
+	 * 命令的统计,不存在时创建
+	 */
+	public CommandStats command(ProtocolCommand command) {
+		if (command instanceof Command) {
+			int index = ((Command) command).ordinal();
+			CommandStats stats = commands.get(index);
+			if (stats != null) {
+				return stats;
+			}
+			stats = new CommandStats(shard, ((Command) command).name());
+			if (commands.compareAndSet(index, null, stats)) {
+				metrics.register(stats);
+				return stats;
+			}
+			return commands.get(index);
+		}
+		String name = SafeEncoder.encode(command.getRaw()).toUpperCase();
+		CommandStats stats = otherCommands.get(name);
+		if (stats != null) {
+			return stats;
+		}
+		stats = new CommandStats(shard, name);
+		CommandStats existing = otherCommands.putIfAbsent(name, stats);
+		if (existing != null) {
+			return existing;
+		}
+		metrics.register(stats);
+		return stats;
+	}
+
+	/**
+	 * 每个连接上每隔几个命令记录一次延迟,见RedisMetrics.setLatencySampling
+	 */
+	int latencySampling() {
+		return metrics.getLatencySampling();
+	}
+
+	/**
+	 * 执行过的命令的统计
+	 */
+	public List<CommandStats> getCommandStats() {
+		List<CommandStats> result = new ArrayList<CommandStats>();
+		for (int i = 0; i < commands.length(); i++) {
+			CommandStats stats = commands.get(i);
+			if (stats != null) {
+				result.add(stats);
+			}
+		}
+		result.addAll(otherCommands.values());
+		return result;
+	}
+
+	private long[] snapshot() {
+		long[] snapshot = new long[LatencyHistogram.BUCKETS];
+		for (CommandStats stats : getCommandStats()) {
+			stats.getLatency().addTo(snapshot);
+		}
+		return snapshot;
+	}
+
+	@Override
+	public String getShard() {
+		return shard;
+	}
+
+	@Override
+	public String[] getCommands() {
+		List<CommandStats> all = getCommandStats();
+		String[] names = new String[all.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = all.get(i).getCommand();
+		}
+		return names;
+	}
+
+	@Override
+	public long getCount() {
+		long count = 0;
+		for (CommandStats stats : getCommandStats()) {
+			count += stats.getCount();
+		}
+		return count;
+	}
+
+	@Override
+	public long getErrors() {
+		long errors = 0;
+		for (CommandStats stats : getCommandStats()) {
+			errors += stats.getErrors();
+		}
+		return errors;
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long samples = 0;
+		long totalNanos = 0;
+		for (CommandStats stats : getCommandStats()) {
+			samples += stats.getSamples();
+			totalNanos += stats.getLatency().getTotalNanos();
+		}
+		return samples == 0 ? 0 : totalNanos / 1000.0 / samples;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return LatencyHistogram.percentile(snapshot(), 50) / 1000.0;
+	}
+
+	@Override
+	public double getP99Micros() {
+		return LatencyHistogram.percentile(snapshot(), 99) / 1000.0;
+	}
+
+	@Override
+	public double getP999Micros() {
+		return LatencyHistogram.percentile(snapshot(), 99.9) / 1000.0;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return LatencyHistogram.max(snapshot()) / 1000.0;
+	}
+
+	@Override
+	public long getBytesSent() {
+		long bytes = 0;
+		for (CommandStats stats : getCommandStats()) {
+			bytes += stats.getBytesSent();
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getBytesReceived() {
+		long bytes = 0;
+		for (CommandStats stats : getCommandStats()) {
+			bytes += stats.getBytesReceived();
+		}
+		return bytes;
+	}
+
+	@Override
+	public void reset() {
+		for (CommandStats stats : getCommandStats()) {
+			stats.reset();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.wolf.redis.common.metrics;
+
+/**
+ * 一个shard上所有命令合并的统计,延迟单位为微秒
+ *
+ * @author wolf
+ */
+public interface ShardMetricsMBean {
+
+	String getShard();
+
+	/** 执行过的命令 */
+	String[] getCommands();
+
+	long getCount();
+
+	long getErrors();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP99Micros();
+
+	double getP999Micros();
+
+	double getMaxMicros();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	/** 清空这个shard上所有命令的统计 */
+	void reset();
+}
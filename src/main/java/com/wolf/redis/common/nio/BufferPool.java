@@ -0,0 +1,75 @@
+package com.wolf.redis.common.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 固定大小的direct ByteBuffer池
+ * RespEncoder把命令直接写入池中的buffer,写出后归还;direct buffer写socket时不需要再复制到临时的堆外内存。
+ * 最多保留maxPooled个空闲buffer,多出的交给GC回收
+ *
+ * @author wolf
+ */
+public class BufferPool {
+
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	public static final int DEFAULT_MAX_POOLED = 256;
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+	private final AtomicLong allocatedCount = new AtomicLong();
+
+	public BufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+	}
+
+	/**
+	 * @param bufferSize 每个buffer的字节数,超过的命令分多个buffer写入
+	 * @param maxPooled 最多保留的空闲buffer数
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		// 至少能放下一个参数的头部
+		this.bufferSize = Math.max(64, bufferSize);
+		this.maxPooled = Math.max(0, maxPooled);
+	}
+
+	/**
+	 * 取出一个清空的buffer,没有空闲的时新建
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer != null) {
+			freeCount.decrementAndGet();
+			return buffer;
+		}
+		allocatedCount.incrementAndGet();
+		return ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || freeCount.get() >= maxPooled) {
+			return;
+		}
+		buffer.clear();
+		freeCount.incrementAndGet();
+		free.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/** 空闲的buffer数 */
+	public int getFreeCount() {
+		return freeCount.get();
+	}
+
+	/** 新建过的buffer数,远大于maxPooled时说明池太小 */
+	public long getAllocatedCount() {
+		return allocatedCount.get();
+	}
+}
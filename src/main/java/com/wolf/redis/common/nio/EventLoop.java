@@ -0,0 +1,157 @@
+package com.wolf.redis.common.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 一个selector线程,负责注册在它上面的所有连接的读写
+ * 其它线程通过execute提交任务(注册连接、写出缓冲的命令),任务在下一次select返回后按提交顺序执行;
+ * 任务还没执行时再提交不会重复唤醒selector。所有连接共用一个direct读buffer
+ *
+ * @author wolf
+ */
+class EventLoop implements Runnable {
+
+	static Logger logger = Logger.getLogger(EventLoop.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * 注册在EventLoop上的连接,方法都在EventLoop线程中调用
+	 */
+	interface IoHandler {
+		/** 注册完成 */
+		void registered(SelectionKey key);
+
+		/** 可读,readBuffer由所有连接共用,返回后不能再引用 */
+		void readable(ByteBuffer readBuffer);
+
+		/** 上次没有写完的数据可以继续写 */
+		void writable();
+
+		/** EventLoop已经关闭 */
+		void loopClosed();
+	}
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean wakeup = new AtomicBoolean();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private volatile boolean closed;
+
+	EventLoop(String name) {
+		try {
+			this.selector = Selector.open();
+		} catch (IOException e) {
+			throw new JedisException("open selector error.", e);
+		}
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * 在EventLoop线程中执行task
+	 * @throws JedisConnectionException EventLoop已经关闭
+	 */
+	void execute(Runnable task) {
+		if (closed) {
+			throw new JedisConnectionException("event loop is closed.");
+		}
+		tasks.add(task);
+		if (closed && tasks.remove(task)) {
+			//加入队列时线程可能已经退出
+			throw new JedisConnectionException("event loop is closed.");
+		}
+		if (wakeup.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * 注册非阻塞的channel,注册完成前提交的任务也会在注册之后执行
+	 */
+	void register(final SocketChannel channel, final IoHandler handler) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					handler.registered(channel.register(selector, SelectionKey.OP_READ, handler));
+				} catch (ClosedChannelException e) {
+					handler.loopClosed();
+				}
+			}
+		});
+	}
+
+	void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				try {
+					selector.select();
+					wakeup.set(false);
+					runTasks();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						IoHandler handler = (IoHandler) key.attachment();
+						if (key.isValid() && key.isReadable()) {
+							handler.readable(readBuffer);
+						}
+						if (key.isValid() && key.isWritable()) {
+							handler.writable();
+						}
+					}
+				} catch (IOException e) {
+					logger.error("select error.", e);
+				} catch (ClosedSelectorException e) {
+					break;
+				} catch (RuntimeException e) {
+					logger.error("event loop error.", e);
+				}
+			}
+		} finally {
+			closed = true;
+			runTasks();
+			for (SelectionKey key : selector.keys()) {
+				((IoHandler) key.attachment()).loopClosed();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.error("close selector error.", e);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("event loop task error.", e);
+			}
+		}
+	}
+}
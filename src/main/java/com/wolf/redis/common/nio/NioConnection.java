@@ -0,0 +1,418 @@
+package com.wolf.redis.common.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 多个线程共用的一个非阻塞redis连接,由NioEngine的一个EventLoop负责读写
+ * 调用线程在写锁内把命令编码到direct buffer,同时加入回复队列,然后交给EventLoop写出;
+ * EventLoop还没写出时其它线程的命令追加到同一批buffer,一次写出。
+ * EventLoop读到的数据由RespParser增量解析,按顺序交给队列中的请求。
+ * 连接断开或等待回复超时时队列中的请求全部失败,下一个命令重新连接
+ *
+ * @author wolf
+ */
+public class NioConnection {
+
+	static Logger logger = Logger.getLogger(NioConnection.class);
+
+	private final JedisShardInfo shardInfo;
+	private final EventLoop loop;
+	private final BufferPool bufferPool;
+	private final RespEncoder encoder;
+	private final Object writeLock = new Object();
+
+	/** 当前的channel,断开后下一个命令重新创建 */
+	private volatile Link link;
+	private volatile boolean closed;
+
+	private volatile long commandCount;
+	private volatile long flushCount;
+
+	NioConnection(JedisShardInfo shardInfo, EventLoop loop, BufferPool bufferPool) {
+		this.shardInfo = shardInfo;
+		this.loop = loop;
+		this.bufferPool = bufferPool;
+		this.encoder = new RespEncoder(bufferPool);
+	}
+
+	/**
+	 * 发出一个命令
+	 * @return 这个命令的回复
+	 */
+	public PendingReply send(ProtocolCommand command, byte[]... args) {
+		synchronized (writeLock) {
+			Link current = connect();
+			return current.send(command, args, false);
+		}
+	}
+
+	/**
+	 * 关闭连接,还在等待回复的请求全部失败
+	 */
+	public void close() {
+		synchronized (writeLock) {
+			closed = true;
+			Link current = link;
+			if (current != null) {
+				current.fail(new JedisConnectionException("connection is closed."));
+			}
+		}
+	}
+
+	/** 发出的命令数 */
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/** 写出的次数,commandCount / flushCount 即平均每次写出的命令数 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	private Link connect() {
+		if (closed) {
+			throw new JedisException("connection is closed.");
+		}
+		Link current = link;
+		if (current != null && !current.broken) {
+			return current;
+		}
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			Socket socket = channel.socket();
+			socket.setReuseAddress(true);
+			socket.setKeepAlive(true);
+			socket.setTcpNoDelay(true);
+			socket.setSoLinger(true, 0);
+			socket.connect(new InetSocketAddress(shardInfo.getHost(), shardInfo.getPort()),
+					shardInfo.getConnectionTimeout());
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			closeQuietly(channel);
+			throw new JedisConnectionException(e);
+		}
+		current = new Link(channel);
+		try {
+			loop.register(channel, current);
+		} catch (JedisConnectionException e) {
+			closeQuietly(channel);
+			throw e;
+		}
+		link = current;
+		//在第一个命令之前执行,失败时整个连接失败
+		if (shardInfo.getPassword() != null) {
+			current.send(Command.AUTH, new byte[][] { SafeEncoder.encode(shardInfo.getPassword()) }, true);
+		}
+		if (shardInfo.getDb() != 0) {
+			current.send(Command.SELECT, new byte[][] { Protocol.toByteArray(shardInfo.getDb()) }, true);
+		}
+		return current;
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+	/**
+	 * 一个命令的回复
+	 */
+	public final class PendingReply {
+		private final Link link;
+		private final boolean internal;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Object value;
+		private JedisException error;
+
+		PendingReply(Link link, boolean internal) {
+			this.link = link;
+			this.internal = internal;
+		}
+
+		/**
+		 * 等待并返回回复,与Jedis的Protocol.read返回的类型一致
+		 * @throws JedisDataException redis返回错误时
+		 * @throws JedisConnectionException 连接断开或超时时
+		 */
+		public Object get() {
+			try {
+				int timeout = shardInfo.getSoTimeout();
+				if (timeout > 0) {
+					if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+						//回复不知何时到达,整个连接按断开处理
+						link.fail(new JedisConnectionException("read timed out."));
+					}
+				} else {
+					done.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JedisException("wait reply interrupted.", e);
+			}
+			if (error != null) {
+				throw error;
+			}
+			return value;
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		synchronized void complete(Object value, JedisException error) {
+			if (done.getCount() == 0) {
+				return;
+			}
+			this.value = value;
+			this.error = error;
+			done.countDown();
+			if (internal && error != null && !link.broken) {
+				link.fail(new JedisConnectionException("connection init error.", error));
+			}
+		}
+	}
+
+	/**
+	 * 一个channel,以及它的待写出buffer和回复队列
+	 */
+	private final class Link implements EventLoop.IoHandler, RespParser.Handler {
+		final SocketChannel channel;
+		final ConcurrentLinkedQueue<PendingReply> replies = new ConcurrentLinkedQueue<PendingReply>();
+		volatile boolean broken;
+
+		/** 已编码、还没交给EventLoop的buffer,写锁内修改 */
+		final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+		boolean flushScheduled;
+
+		/** 以下只在EventLoop线程中使用 */
+		SelectionKey key;
+		final ArrayDeque<ByteBuffer> writing = new ArrayDeque<ByteBuffer>();
+		final RespParser parser = new RespParser();
+
+		final Runnable flushTask = new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+
+		final Runnable releaseTask = new Runnable() {
+			@Override
+			public void run() {
+				releaseWriting();
+			}
+		};
+
+		Link(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * 写锁内调用
+		 */
+		PendingReply send(ProtocolCommand command, byte[][] args, boolean internal) {
+			PendingReply reply = new PendingReply(this, internal);
+			replies.add(reply);
+			if (broken) {
+				//读取失败时可能已经在加入队列前清空了队列
+				JedisConnectionException error = new JedisConnectionException("connection is broken.");
+				fail(error);
+				throw error;
+			}
+			encoder.encode(outbound, command, args);
+			commandCount++;
+			if (!flushScheduled) {
+				try {
+					loop.execute(flushTask);
+				} catch (JedisConnectionException e) {
+					fail(e);
+					throw e;
+				}
+				flushScheduled = true;
+			}
+			return reply;
+		}
+
+		/**
+		 * 没有写出的buffer归还bufferPool,EventLoop线程
+		 */
+		private void releaseWriting() {
+			ByteBuffer buffer;
+			while ((buffer = writing.poll()) != null) {
+				bufferPool.release(buffer);
+			}
+		}
+
+		/**
+		 * 取出已编码的buffer写出,EventLoop线程
+		 */
+		private void flush() {
+			synchronized (writeLock) {
+				ByteBuffer buffer;
+				while ((buffer = outbound.poll()) != null) {
+					buffer.flip();
+					writing.add(buffer);
+				}
+				flushScheduled = false;
+			}
+			if (broken) {
+				//连接已经断开,取出的buffer不再写出
+				releaseWriting();
+				return;
+			}
+			if (key == null) {
+				return;
+			}
+			flushCount++;
+			write();
+		}
+
+		private void write() {
+			try {
+				while (!writing.isEmpty()) {
+					channel.write(writing.toArray(new ByteBuffer[writing.size()]));
+					ByteBuffer head;
+					while ((head = writing.peek()) != null && !head.hasRemaining()) {
+						bufferPool.release(writing.poll());
+					}
+					if (head != null) {
+						//socket缓冲区已满,可写时继续
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+				if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} catch (IOException e) {
+				fail(new JedisConnectionException(e), true);
+			}
+		}
+
+		@Override
+		public void registered(SelectionKey key) {
+			this.key = key;
+			if (broken) {
+				key.cancel();
+			}
+		}
+
+		@Override
+		public void readable(ByteBuffer readBuffer) {
+			try {
+				while (true) {
+					readBuffer.clear();
+					int read = channel.read(readBuffer);
+					if (read < 0) {
+						fail(new JedisConnectionException("Unexpected end of stream."), true);
+						return;
+					}
+					if (read == 0) {
+						return;
+					}
+					readBuffer.flip();
+					parser.parse(readBuffer, this);
+					if (readBuffer.limit() < readBuffer.capacity()) {
+						//socket中的数据已经读完
+						return;
+					}
+				}
+			} catch (IOException e) {
+				fail(new JedisConnectionException(e), true);
+			} catch (JedisConnectionException e) {
+				fail(e, true);
+			}
+		}
+
+		@Override
+		public void reply(Object value) {
+			PendingReply reply = replies.poll();
+			if (reply == null) {
+				throw new JedisConnectionException("unexpected reply without request.");
+			}
+			if (value instanceof JedisDataException) {
+				reply.complete(null, (JedisDataException) value);
+			} else {
+				reply.complete(value, null);
+			}
+		}
+
+		@Override
+		public void writable() {
+			write();
+		}
+
+		@Override
+		public void loopClosed() {
+			fail(new JedisConnectionException("event loop is closed."), true);
+		}
+
+		/**
+		 * 关闭channel,队列中的请求全部失败,EventLoop线程之外调用
+		 */
+		void fail(JedisException error) {
+			fail(error, false);
+		}
+
+		/**
+		 * 关闭channel,待写出的buffer归还bufferPool,队列中的请求全部失败
+		 * @param inLoop 是否在EventLoop线程中,writing只能在EventLoop线程中释放
+		 */
+		private void fail(JedisException error, boolean inLoop) {
+			if (!broken) {
+				broken = true;
+				if (!closed) {
+					logger.error("nio connection to " + shardInfo.getHost() + ":" + shardInfo.getPort()
+							+ " is broken.", error);
+				}
+				closeQuietly(channel);
+				//broken之后send不再写入outbound
+				synchronized (writeLock) {
+					ByteBuffer buffer;
+					while ((buffer = outbound.poll()) != null) {
+						bufferPool.release(buffer);
+					}
+				}
+				if (inLoop) {
+					releaseWriting();
+				} else {
+					try {
+						loop.execute(releaseTask);
+					} catch (JedisConnectionException e) {
+						//EventLoop已经关闭,writing随Link回收
+					}
+				}
+			}
+			PendingReply reply;
+			while ((reply = replies.poll()) != null) {
+				reply.complete(null, error);
+			}
+		}
+	}
+}
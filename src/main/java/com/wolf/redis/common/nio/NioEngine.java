@@ -0,0 +1,68 @@
+package com.wolf.redis.common.nio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 基于NIO selector的RESP连接引擎
+ * ioThreads个EventLoop线程负责所有连接的读写,调用线程只编码命令和等待回复,
+ * 连接数和IO线程数都与调用线程数无关。命令编码到BufferPool中的direct buffer,回复由RespParser增量解析。
+ *
+ * 通过JedisMultiplexer接入JedisAdaptor:new JedisMultiplexer(router, connectionsPerShard, engine)。
+ * 多个JedisMultiplexer可以共用一个NioEngine,不再使用时调用shutdown
+ *
+ * @author wolf
+ */
+public class NioEngine {
+
+	public static final int DEFAULT_IO_THREADS = 1;
+
+	private static final AtomicInteger INDEX = new AtomicInteger();
+
+	private final EventLoop[] loops;
+	private final BufferPool bufferPool;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	public NioEngine() {
+		this(DEFAULT_IO_THREADS);
+	}
+
+	public NioEngine(int ioThreads) {
+		this(ioThreads, new BufferPool());
+	}
+
+	/**
+	 * @param ioThreads EventLoop线程数,连接按创建顺序分配到其中一个
+	 * @param bufferPool 编码命令使用的buffer
+	 */
+	public NioEngine(int ioThreads, BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		this.loops = new EventLoop[Math.max(1, ioThreads)];
+		int index = INDEX.incrementAndGet();
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop("redis-nio-" + index + "-" + i);
+		}
+	}
+
+	/**
+	 * 创建到shardInfo的连接,第一个命令时才建立socket
+	 */
+	public NioConnection newConnection(JedisShardInfo shardInfo) {
+		EventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		return new NioConnection(shardInfo, loop, bufferPool);
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * 停止所有EventLoop线程,所有连接上等待回复的请求失败
+	 */
+	public void shutdown() {
+		for (EventLoop loop : loops) {
+			loop.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.wolf.redis.common.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+
+import redis.clients.jedis.ProtocolCommand;
+
+/**
+ * 把命令按RESP格式直接写入BufferPool的buffer
+ * 与Jedis的Protocol.sendCommand输出相同:*参数个数,每个参数为$长度加内容。
+ * 写入out的最后一个buffer,放不下时从池中取新的buffer追加到out,参数内容可以跨buffer,不需要先拼成一个大数组
+ *
+ * @author wolf
+ */
+public class RespEncoder {
+
+	/** 一个头部最多的字节数:类型、long的20位数字、CRLF */
+	private static final int MAX_HEADER = 24;
+
+	private final BufferPool pool;
+
+	public RespEncoder(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param out 处于写模式的buffer,按写出顺序
+	 */
+	public void encode(Deque<ByteBuffer> out, ProtocolCommand command, byte[]... args) {
+		ByteBuffer buffer = header(out, (byte) '*', args.length + 1);
+		buffer = bulk(out, buffer, command.getRaw());
+		for (byte[] arg : args) {
+			buffer = bulk(out, buffer, arg);
+		}
+	}
+
+	private ByteBuffer bulk(Deque<ByteBuffer> out, ByteBuffer buffer, byte[] value) {
+		buffer = header(out, (byte) '$', value.length);
+		int offset = 0;
+		while (offset < value.length) {
+			if (!buffer.hasRemaining()) {
+				buffer = next(out);
+			}
+			int length = Math.min(buffer.remaining(), value.length - offset);
+			buffer.put(value, offset, length);
+			offset += length;
+		}
+		if (buffer.remaining() < 2) {
+			buffer = next(out);
+		}
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+		return buffer;
+	}
+
+	private ByteBuffer header(Deque<ByteBuffer> out, byte type, long value) {
+		ByteBuffer buffer = out.peekLast();
+		if (buffer == null || buffer.remaining() < MAX_HEADER) {
+			buffer = next(out);
+		}
+		buffer.put(type);
+		putLong(buffer, value);
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+		return buffer;
+	}
+
+	private ByteBuffer next(Deque<ByteBuffer> out) {
+		ByteBuffer buffer = pool.acquire();
+		out.addLast(buffer);
+		return buffer;
+	}
+
+	/**
+	 * 十进制写入非负数
+	 */
+	private static void putLong(ByteBuffer buffer, long value) {
+		if (value < 10) {
+			buffer.put((byte) ('0' + value));
+			return;
+		}
+		int start = buffer.position();
+		while (value > 0) {
+			buffer.put((byte) ('0' + value % 10));
+			value /= 10;
+		}
+		// 反转写入的数字
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			byte b = buffer.get(i);
+			buffer.put(i, buffer.get(j));
+			buffer.put(j, b);
+		}
+	}
+}
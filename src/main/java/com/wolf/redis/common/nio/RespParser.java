@@ -0,0 +1,207 @@
+package com.wolf.redis.common.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 增量的RESP回复解析器,一次读到的数据可以只是回复的一部分
+ * 解析状态保存在对象中,每次parse都消费掉buffer中的全部数据,下一次从中断的位置继续,
+ * 读buffer可以清空后重复使用。bulk string在读到长度时按长度分配一次,内容直接从buffer复制到结果中,
+ * 数字逐字节累加,不经过中间的字符串。
+ *
+ * 回复的类型与Jedis的Protocol.read一致:
+ * 状态为byte[],整数为Long,bulk string为byte[],数组为List,空值为null,
+ * 错误为JedisDataException对象(数组中的错误同样作为元素),由Handler决定是否抛出
+ * 一个实例只能由一个线程使用
+ *
+ * @author wolf
+ */
+public class RespParser {
+
+	/**
+	 * 接收解析完的顶层回复
+	 */
+	public interface Handler {
+		void reply(Object value);
+	}
+
+	private static final int TYPE = 0;
+	private static final int LINE = 1;
+	private static final int NUMBER = 2;
+	private static final int BULK = 3;
+	private static final int BULK_END = 4;
+
+	private int state = TYPE;
+	private byte type;
+
+	// + - 的内容
+	private byte[] line = new byte[64];
+	private int lineLength;
+
+	// : $ * 后的数字
+	private long number;
+	private boolean negative;
+
+	// 正在读取的bulk string,以及剩余的CRLF字节数
+	private byte[] bulk;
+	private int bulkOffset;
+	private int bulkEnd;
+
+	// 未读完的数组,最内层在栈顶
+	private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+
+	/**
+	 * 解析buffer中的全部数据,每个完整的顶层回复调用一次handler
+	 * @throws JedisConnectionException 数据不是合法的RESP,连接不能再用
+	 */
+	public void parse(ByteBuffer buffer, Handler handler) {
+		while (buffer.hasRemaining()) {
+			switch (state) {
+			case TYPE:
+				type = buffer.get();
+				if (type == '+' || type == '-') {
+					lineLength = 0;
+					state = LINE;
+				} else if (type == ':' || type == '$' || type == '*') {
+					number = 0;
+					negative = false;
+					state = NUMBER;
+				} else {
+					throw new JedisConnectionException("Unknown reply: " + (char) type);
+				}
+				break;
+			case LINE:
+				readLine(buffer, handler);
+				break;
+			case NUMBER:
+				readNumber(buffer, handler);
+				break;
+			case BULK:
+				int length = Math.min(buffer.remaining(), bulk.length - bulkOffset);
+				buffer.get(bulk, bulkOffset, length);
+				bulkOffset += length;
+				if (bulkOffset == bulk.length) {
+					bulkEnd = 2;
+					state = BULK_END;
+				}
+				break;
+			case BULK_END:
+				buffer.get();
+				if (--bulkEnd == 0) {
+					byte[] value = bulk;
+					bulk = null;
+					complete(value, handler);
+				}
+				break;
+			default:
+				throw new IllegalStateException("state " + state);
+			}
+		}
+	}
+
+	/**
+	 * 是否停在两个回复之间
+	 */
+	public boolean isIdle() {
+		return state == TYPE && frames.isEmpty();
+	}
+
+	private void readLine(ByteBuffer buffer, Handler handler) {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b == '\n') {
+				// 去掉结尾的\r
+				int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+				byte[] value = new byte[length];
+				System.arraycopy(line, 0, value, 0, length);
+				if (type == '-') {
+					complete(new JedisDataException(SafeEncoder.encode(value)), handler);
+				} else {
+					complete(value, handler);
+				}
+				return;
+			}
+			if (lineLength == line.length) {
+				byte[] larger = new byte[line.length << 1];
+				System.arraycopy(line, 0, larger, 0, lineLength);
+				line = larger;
+			}
+			line[lineLength++] = b;
+		}
+	}
+
+	private void readNumber(ByteBuffer buffer, Handler handler) {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b == '\n') {
+				numberDone(negative ? -number : number, handler);
+				return;
+			} else if (b == '-') {
+				negative = true;
+			} else if (b >= '0' && b <= '9') {
+				number = number * 10 + (b - '0');
+			} else if (b != '\r') {
+				throw new JedisConnectionException("Unexpected character in number: " + (char) b);
+			}
+		}
+	}
+
+	private void numberDone(long value, Handler handler) {
+		if (type == ':') {
+			complete(value, handler);
+		} else if (type == '$') {
+			if (value < 0) {
+				complete(null, handler);
+			} else {
+				bulk = new byte[(int) value];
+				bulkOffset = 0;
+				if (value == 0) {
+					bulkEnd = 2;
+					state = BULK_END;
+				} else {
+					state = BULK;
+				}
+			}
+		} else if (value < 0) {
+			complete(null, handler);
+		} else if (value == 0) {
+			complete(new ArrayList<Object>(0), handler);
+		} else {
+			frames.push(new Frame((int) value));
+			state = TYPE;
+		}
+	}
+
+	/**
+	 * 一个值解析完成,加入所在的数组;数组满时数组本身作为一个值继续向外层加入
+	 */
+	private void complete(Object value, Handler handler) {
+		state = TYPE;
+		while (!frames.isEmpty()) {
+			Frame frame = frames.peek();
+			frame.items.add(value);
+			if (frame.items.size() < frame.size) {
+				return;
+			}
+			frames.pop();
+			value = frame.items;
+		}
+		handler.reply(value);
+	}
+
+	private static final class Frame {
+		final int size;
+		final List<Object> items;
+
+		Frame(int size) {
+			this.size = size;
+			this.items = new ArrayList<Object>(size);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.wolf.redis.common.route;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 缓存String key的分片结果
+ * String的hashCode缓存在对象中,重复使用的key(常量、热点key)查一次map即可,
+ * 不需要编码成字节、计算murmur hash和查找环。
+ * 缓存满时整体清空重新缓存;二进制key不缓存
+ *
+ * @author wolf
+ */
+public class CachingRouter implements ShardRouter {
+
+	private final ShardRouter router;
+	private final int maxEntries;
+	private final ConcurrentHashMap<String, Integer> cache;
+
+	/**
+	 * @param router 实际计算分片的router
+	 * @param maxEntries 最多缓存的key数
+	 */
+	public CachingRouter(ShardRouter router, int maxEntries) {
+		this.router = router;
+		this.maxEntries = maxEntries;
+		this.cache = new ConcurrentHashMap<String, Integer>(Math.min(maxEntries, 1024));
+	}
+
+	@Override
+	public int shardIndex(String key) {
+		Integer index = cache.get(key);
+		if (index == null) {
+			index = router.shardIndex(key);
+			if (cache.size() >= maxEntries) {
+				cache.clear();
+			}
+			cache.put(key, index);
+		}
+		return index;
+	}
+
+	@Override
+	public int shardIndex(byte[] key) {
+		return router.shardIndex(key);
+	}
+
+	@Override
+	public List<JedisShardInfo> getShards() {
+		return router.getShards();
+	}
+}
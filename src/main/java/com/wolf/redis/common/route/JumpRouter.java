@@ -0,0 +1,64 @@
+package com.wolf.redis.common.route;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Jump一致性hash(Lamping, Veach)
+ * 不需要虚拟节点,没有额外内存,分布更均匀;增加一个shard时只有1/n的key移到新shard。
+ * 分片结果与Sharded不同,已有数据的集群切换到这个实现需要迁移数据;
+ * 不支持权重,只能在末尾增加或删除shard
+ *
+ * @author wolf
+ */
+public class JumpRouter implements ShardRouter {
+
+	private final List<JedisShardInfo> shards;
+	private final Hashing algo;
+	private final Pattern keyTagPattern;
+
+	public JumpRouter(List<JedisShardInfo> shards) {
+		this(shards, Hashing.MURMUR_HASH, null);
+	}
+
+	public JumpRouter(List<JedisShardInfo> shards, Hashing algo, Pattern keyTagPattern) {
+		if (shards == null || shards.isEmpty()) {
+			throw new IllegalArgumentException("shards is empty");
+		}
+		this.shards = Collections.unmodifiableList(new ArrayList<JedisShardInfo>(shards));
+		this.algo = algo;
+		this.keyTagPattern = keyTagPattern;
+	}
+
+	@Override
+	public int shardIndex(String key) {
+		return shardIndex(SafeEncoder.encode(KeyTags.keyTag(keyTagPattern, key)));
+	}
+
+	@Override
+	public int shardIndex(byte[] key) {
+		return jump(algo.hash(key), shards.size());
+	}
+
+	@Override
+	public List<JedisShardInfo> getShards() {
+		return shards;
+	}
+
+	static int jump(long key, int buckets) {
+		long b = -1;
+		long j = 0;
+		while (j < buckets) {
+			b = j;
+			key = key * 2862933555777941757L + 1;
+			j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) b;
+	}
+}
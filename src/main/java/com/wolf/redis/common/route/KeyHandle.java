@@ -0,0 +1,86 @@
+package com.wolf.redis.common.route;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 预先编码的key
+ * 保存key的UTF-8字节和按ShardRouter计算出的shard下标(已经处理了keyTag),
+ * 重复使用同一个KeyHandle时不再编码、匹配keyTag和计算hash。
+ * 适合固定的热点key,作为常量创建一次后反复使用;线程安全
+ *
+ * @author wolf
+ */
+public final class KeyHandle {
+
+	private final String key;
+
+	private final byte[] bytes;
+
+	/** 最近一次使用的router和计算结果 */
+	private volatile Route route;
+
+	public KeyHandle(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("key is null");
+		}
+		this.key = key;
+		this.bytes = SafeEncoder.encode(key);
+	}
+
+	public static KeyHandle[] of(String... keys) {
+		KeyHandle[] handles = new KeyHandle[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			handles[i] = new KeyHandle(keys[i]);
+		}
+		return handles;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * key的UTF-8字节,多个调用方共享,不能修改
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * key在router中的shard下标,同一个router只计算一次
+	 */
+	public int shardIndex(ShardRouter router) {
+		Route current = route;
+		if (current != null && current.router == router) {
+			return current.index;
+		}
+		int index = router.shardIndex(key);
+		route = new Route(router, index);
+		return index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof KeyHandle && key.equals(((KeyHandle) obj).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+
+	private static final class Route {
+		final ShardRouter router;
+		final int index;
+
+		Route(ShardRouter router, int index) {
+			this.router = router;
+			this.index = index;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.wolf.redis.common.route;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * keyTag的处理,与Jedis的Sharded.getKeyTag一致
+ *
+ * @author wolf
+ */
+final class KeyTags {
+
+	private KeyTags() {
+	}
+
+	static String keyTag(Pattern keyTagPattern, String key) {
+		if (keyTagPattern != null) {
+			Matcher matcher = keyTagPattern.matcher(key);
+			if (matcher.find()) {
+				return matcher.group(1);
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,104 @@
+package com.wolf.redis.common.route;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 与Jedis的Sharded完全兼容的一致性hash环
+ * 虚拟节点的生成方式和冲突处理与Sharded相同,分片结果一致,可以直接替换;
+ * 环在创建时展开成有序的long数组,查找时二分查找,不再经过TreeMap.tailMap和Long装箱。
+ *
+ * @author wolf
+ */
+public class RingRouter implements ShardRouter {
+
+	/** 每个权重对应的虚拟节点数,与Sharded相同 */
+	private static final int NODES_PER_WEIGHT = 160;
+
+	private final List<JedisShardInfo> shards;
+	private final Hashing algo;
+	private final Pattern keyTagPattern;
+
+	/** 虚拟节点的hash,升序 */
+	private final long[] ring;
+
+	/** 与ring对应的shard下标 */
+	private final int[] owners;
+
+	public RingRouter(List<JedisShardInfo> shards) {
+		this(shards, Hashing.MURMUR_HASH, null);
+	}
+
+	public RingRouter(List<JedisShardInfo> shards, Hashing algo) {
+		this(shards, algo, null);
+	}
+
+	public RingRouter(List<JedisShardInfo> shards, Hashing algo, Pattern keyTagPattern) {
+		if (shards == null || shards.isEmpty()) {
+			throw new IllegalArgumentException("shards is empty");
+		}
+		this.shards = Collections.unmodifiableList(new ArrayList<JedisShardInfo>(shards));
+		this.algo = algo;
+		this.keyTagPattern = keyTagPattern;
+
+		//先按Sharded的方式放入TreeMap,hash相同时后放入的shard覆盖先放入的
+		TreeMap<Long, Integer> nodes = new TreeMap<Long, Integer>();
+		for (int i = 0; i < shards.size(); i++) {
+			JedisShardInfo shard = shards.get(i);
+			int count = NODES_PER_WEIGHT * shard.getWeight();
+			for (int n = 0; n < count; n++) {
+				String node = shard.getName() == null ? "SHARD-" + i + "-NODE-" + n
+						: shard.getName() + "*" + shard.getWeight() + n;
+				nodes.put(algo.hash(node), i);
+			}
+		}
+		this.ring = new long[nodes.size()];
+		this.owners = new int[nodes.size()];
+		int i = 0;
+		for (Map.Entry<Long, Integer> node : nodes.entrySet()) {
+			ring[i] = node.getKey();
+			owners[i] = node.getValue();
+			i++;
+		}
+	}
+
+	@Override
+	public int shardIndex(String key) {
+		return shardIndex(SafeEncoder.encode(KeyTags.keyTag(keyTagPattern, key)));
+	}
+
+	@Override
+	public int shardIndex(byte[] key) {
+		return owners[ceiling(algo.hash(key))];
+	}
+
+	@Override
+	public List<JedisShardInfo> getShards() {
+		return shards;
+	}
+
+	/**
+	 * 第一个不小于hash的虚拟节点,没有时回到环的起点
+	 */
+	private int ceiling(long hash) {
+		int low = 0;
+		int high = ring.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (ring[mid] < hash) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low == ring.length ? 0 : low;
+	}
+}
@@ -0,0 +1,29 @@
+package com.wolf.redis.common.route;
+
+import java.util.List;
+
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 计算key所在的shard
+ * 返回值为shard在getShards()中的下标,实现类必须是线程安全的
+ *
+ * @author wolf
+ */
+public interface ShardRouter {
+
+	/**
+	 * String key,有keyTagPattern时只按匹配到的部分计算
+	 */
+	int shardIndex(String key);
+
+	/**
+	 * 二进制key,与Jedis的Sharded一样不处理keyTag
+	 */
+	int shardIndex(byte[] key);
+
+	/**
+	 * 所有shard,顺序与创建时传入的一致
+	 */
+	List<JedisShardInfo> getShards();
+}
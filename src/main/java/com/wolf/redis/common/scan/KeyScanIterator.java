@@ -0,0 +1,219 @@
+package com.wolf.redis.common.scan;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.wolf.redis.common.sharded.FanOutExecutor;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 基于SCAN的key迭代器,替代KEYS
+ * 每次从一个shard取回COUNT左右的key,按shard轮流返回,内存中最多保留每个shard一页,
+ * 不会像KEYS那样阻塞redis,也不会一次把所有key放进内存。
+ *
+ * 按JedisShardInfo创建时使用自己的连接,并在后台提前取下一页(每个shard最多一个请求),
+ * 迭代期间可以继续用原来的连接执行其它命令(例如删除取到的key);用完或中途放弃时必须close。
+ * 使用已有的Jedis连接时不提前取,只在hasNext/next中访问redis。
+ *
+ * SCAN的语义:迭代期间一直存在的key至少返回一次,可能返回多次;迭代期间增删的key不确定是否返回。
+ * 非线程安全
+ *
+ * @author wolf
+ */
+public class KeyScanIterator implements Iterator<String>, Closeable {
+
+	public static final int DEFAULT_COUNT = 1000;
+
+	private final List<ShardCursor> cursors;
+	private final ScanParams params;
+	private final boolean prefetch;
+	private final boolean ownConnections;
+
+	/** 轮到的shard */
+	private int shardIndex;
+	private List<String> page = Collections.emptyList();
+	private int pageIndex;
+	private boolean closed;
+
+	/**
+	 * 为每个shard创建自己的连接,后台提前取下一页
+	 * @param shards 所有shard
+	 * @param pattern 为null时返回所有key
+	 * @param count 每次SCAN的COUNT
+	 */
+	public KeyScanIterator(Collection<JedisShardInfo> shards, String pattern, int count) {
+		this.params = params(pattern, count);
+		this.prefetch = true;
+		this.ownConnections = true;
+		this.cursors = new ArrayList<ShardCursor>(shards.size());
+		for (JedisShardInfo shard : shards) {
+			cursors.add(new ShardCursor(new Jedis(shard)));
+		}
+		for (ShardCursor cursor : cursors) {
+			cursor.prefetch();
+		}
+	}
+
+	/**
+	 * 使用已有的连接,不提前取,close时不关闭连接
+	 * @param shards 所有shard的连接
+	 * @param pattern 为null时返回所有key
+	 * @param count 每次SCAN的COUNT
+	 */
+	public KeyScanIterator(List<Jedis> shards, String pattern, int count) {
+		this.params = params(pattern, count);
+		this.prefetch = false;
+		this.ownConnections = false;
+		this.cursors = new ArrayList<ShardCursor>(shards.size());
+		for (Jedis shard : shards) {
+			cursors.add(new ShardCursor(shard));
+		}
+	}
+
+	private static ScanParams params(String pattern, int count) {
+		ScanParams params = new ScanParams().count(count > 0 ? count : DEFAULT_COUNT);
+		if (pattern != null) {
+			params.match(pattern);
+		}
+		return params;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (pageIndex >= page.size()) {
+			if (closed || !nextPage()) {
+				close();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.get(pageIndex++);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/**
+	 * 释放连接和后台请求,迭代结束时自动调用
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		page = Collections.emptyList();
+		for (ShardCursor cursor : cursors) {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * 从下一个还没有扫描完的shard取一页
+	 * @return 所有shard都已扫描完时返回false
+	 */
+	private boolean nextPage() {
+		for (int i = 0; i < cursors.size(); i++) {
+			ShardCursor cursor = cursors.get(shardIndex);
+			shardIndex = (shardIndex + 1) % cursors.size();
+			if (!cursor.finished) {
+				try {
+					page = cursor.take();
+				} catch (RuntimeException e) {
+					close();
+					throw e;
+				}
+				pageIndex = 0;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private final class ShardCursor {
+		final Jedis jedis;
+		String cursor = ScanParams.SCAN_POINTER_START;
+		boolean finished;
+		Future<ScanResult<String>> pending;
+
+		ShardCursor(Jedis jedis) {
+			this.jedis = jedis;
+		}
+
+		void prefetch() {
+			final String current = cursor;
+			pending = FanOutExecutor.submit(new Callable<ScanResult<String>>() {
+				@Override
+				public ScanResult<String> call() {
+					return jedis.scan(current, params);
+				}
+			});
+		}
+
+		List<String> take() {
+			ScanResult<String> result;
+			if (pending == null) {
+				result = jedis.scan(cursor, params);
+			} else {
+				result = await(pending);
+				pending = null;
+			}
+			cursor = result.getStringCursor();
+			finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+			if (!finished && prefetch) {
+				prefetch();
+			}
+			return result.getResult();
+		}
+
+		void close() {
+			if (pending != null) {
+				pending.cancel(true);
+				pending = null;
+			}
+			if (ownConnections) {
+				try {
+					jedis.disconnect();
+				} catch (Exception e) {
+					//ignore
+				}
+			}
+		}
+
+		private ScanResult<String> await(Future<ScanResult<String>> future) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JedisException("scan interrupted.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof JedisException) {
+					throw (JedisException) e.getCause();
+				}
+				throw new JedisException(e.getCause());
+			}
+		}
+	}
+}
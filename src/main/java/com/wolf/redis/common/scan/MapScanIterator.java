@@ -0,0 +1,87 @@
+package com.wolf.redis.common.scan;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.Map;
+
+import com.wolf.redis.common.Constant;
+import com.wolf.redis.common.MapObjects;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.codec.ValueCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 按HSCAN逐页遍历Map对象,返回 map key -> 对象
+ * 与MapObjects.getAll一样兼容两种存储方式:第一页按指定的方式读取,遇到WRONGTYPE时改用另一种格式。
+ * mode为null时只读取Hash,用于普通的hash
+ *
+ * @author wolf
+ */
+public class MapScanIterator<V> extends ScanIterator<Map.Entry<byte[], byte[]>, Map.Entry<String, V>> {
+
+	private final Class<V> clazz;
+
+	/** 旧格式的元素为 value^key,匹配模式要作用在key部分 */
+	private final ScanParams legacyParams;
+
+	/** 类型未确定时先尝试的格式 */
+	private final boolean firstLegacy;
+
+	/** 是否为旧格式的Set,读取第一页后确定 */
+	private volatile Boolean legacy;
+
+	/**
+	 * @param mode 当前的存储方式,为null时只读取Hash
+	 * @see ScanIterator#ScanIterator(Jedis, Closeable, byte[], String, int, boolean, ValueCodec)
+	 */
+	public MapScanIterator(Jedis jedis, Closeable resource, String key, String pattern, int count, boolean prefetch,
+			ValueCodec codec, Class<V> clazz, MapStorageMode mode) {
+		super(jedis, resource, SafeEncoder.encode(key), pattern, count, prefetch, codec);
+		this.clazz = clazz;
+		this.legacyParams = new ScanParams().count(count > 0 ? count : DEFAULT_COUNT);
+		if (pattern != null) {
+			legacyParams.match("*" + Constant.SPLIT_CHAR + pattern);
+		}
+		this.firstLegacy = mode == MapStorageMode.SET;
+		this.legacy = mode == null ? Boolean.FALSE : null;
+	}
+
+	@Override
+	protected ScanResult<Map.Entry<byte[], byte[]>> scan(Jedis jedis, byte[] key, byte[] cursor,
+			ScanParams params) {
+		Boolean current = legacy;
+		if (current != null) {
+			return scan(jedis, key, cursor, params, current);
+		}
+		try {
+			ScanResult<Map.Entry<byte[], byte[]>> result = scan(jedis, key, cursor, params, firstLegacy);
+			legacy = firstLegacy;
+			return result;
+		} catch (JedisDataException e) {
+			if (!MapObjects.isWrongType(e)) {
+				throw e;
+			}
+			legacy = !firstLegacy;
+			return scan(jedis, key, cursor, params, !firstLegacy);
+		}
+	}
+
+	private ScanResult<Map.Entry<byte[], byte[]>> scan(Jedis jedis, byte[] key, byte[] cursor, ScanParams params,
+			boolean legacy) {
+		if (legacy) {
+			return MapObjects.scanLegacy(jedis, key, cursor, legacyParams);
+		}
+		return jedis.hscan(key, cursor, params);
+	}
+
+	@Override
+	protected Map.Entry<String, V> decode(Map.Entry<byte[], byte[]> raw) {
+		return new AbstractMap.SimpleImmutableEntry<String, V>(SafeEncoder.encode(raw.getKey()),
+				decode(raw.getValue(), clazz));
+	}
+}
@@ -0,0 +1,198 @@
+package com.wolf.redis.common.scan;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.sharded.FanOutExecutor;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 按HSCAN/SSCAN/ZSCAN逐页遍历一个集合
+ * 内存中最多保留当前页和后台提前取回的下一页,元素在next时才解码成对象,
+ * 百万级的集合也不会一次放进内存。第一页在第一次hasNext时读取,之后每取到一页就在后台请求下一页。
+ *
+ * 提前取下一页时迭代器独占所用的连接,调用方不能再用这个连接执行其它命令;
+ * 用完或中途放弃时必须close,close时归还连接(resource)。
+ * 非线程安全
+ *
+ * @param <R> SCAN返回的原始元素
+ * @param <T> 解码后的元素
+ * @author wolf
+ */
+public abstract class ScanIterator<R, T> implements Iterator<T>, Closeable {
+
+	public static final int DEFAULT_COUNT = 1000;
+
+	private static final byte[] SCAN_POINTER_START = SafeEncoder.encode(ScanParams.SCAN_POINTER_START);
+
+	protected final ValueCodec codec;
+
+	private final Jedis jedis;
+	private final Closeable resource;
+	private final byte[] key;
+	private final ScanParams params;
+	private final boolean prefetch;
+
+	private byte[] cursor = SCAN_POINTER_START;
+	private boolean finished;
+	private Future<ScanResult<R>> pending;
+	private List<R> page = Collections.emptyList();
+	private int pageIndex;
+	private boolean closed;
+
+	/**
+	 * @param jedis key所在的连接
+	 * @param resource close时关闭,例如借出jedis的ShardedJedis,可以为null
+	 * @param key 集合的key
+	 * @param pattern 元素匹配模式,为null时返回所有元素
+	 * @param count 每次SCAN的COUNT
+	 * @param prefetch 是否在后台提前取下一页
+	 * @param codec 对象解码
+	 */
+	protected ScanIterator(Jedis jedis, Closeable resource, byte[] key, String pattern, int count,
+			boolean prefetch, ValueCodec codec) {
+		this.jedis = jedis;
+		this.resource = resource;
+		this.key = key;
+		this.params = new ScanParams().count(count > 0 ? count : DEFAULT_COUNT);
+		if (pattern != null) {
+			params.match(pattern);
+		}
+		this.prefetch = prefetch;
+		this.codec = codec;
+	}
+
+	/**
+	 * 执行一次SCAN
+	 */
+	protected abstract ScanResult<R> scan(Jedis jedis, byte[] key, byte[] cursor, ScanParams params);
+
+	/**
+	 * 把SCAN返回的元素解码成对象,在next中调用
+	 */
+	protected abstract T decode(R raw);
+
+	/**
+	 * String直接按UTF-8转换,其它类型由codec解码
+	 */
+	@SuppressWarnings("unchecked")
+	protected <E> E decode(byte[] bytes, Class<E> clazz) {
+		if (clazz == String.class) {
+			return (E) SafeEncoder.encode(bytes);
+		}
+		return codec.decode(bytes, clazz);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (pageIndex >= page.size()) {
+			if (closed || finished) {
+				close();
+				return false;
+			}
+			try {
+				nextPage();
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return decode(page.get(pageIndex++));
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/**
+	 * 取消后台请求并归还连接,迭代结束时自动调用
+	 * 后台请求正在执行时断开连接,连接池会重新连接
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		page = Collections.emptyList();
+		if (pending != null) {
+			if (!pending.isDone() && pending.cancel(true)) {
+				try {
+					jedis.disconnect();
+				} catch (Exception e) {
+					//ignore
+				}
+			}
+			pending = null;
+		}
+		if (resource != null) {
+			try {
+				resource.close();
+			} catch (Exception e) {
+				//ignore
+			}
+		}
+	}
+
+	private void nextPage() {
+		ScanResult<R> result;
+		if (pending == null) {
+			result = scan(jedis, key, cursor, params);
+		} else {
+			result = await(pending);
+			pending = null;
+		}
+		cursor = result.getCursorAsBytes();
+		finished = ScanParams.SCAN_POINTER_START.equals(result.getStringCursor());
+		if (!finished && prefetch) {
+			fetch();
+		}
+		page = result.getResult();
+		pageIndex = 0;
+	}
+
+	private void fetch() {
+		final byte[] current = cursor;
+		pending = FanOutExecutor.submit(new Callable<ScanResult<R>>() {
+			@Override
+			public ScanResult<R> call() {
+				return scan(jedis, key, current, params);
+			}
+		});
+	}
+
+	private static <R> ScanResult<R> await(Future<ScanResult<R>> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisException("scan interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JedisException) {
+				throw (JedisException) e.getCause();
+			}
+			throw new JedisException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.wolf.redis.common.scan;
+
+import java.io.Closeable;
+
+import com.wolf.redis.common.codec.ValueCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 按SSCAN逐页遍历Set,元素解码成对象
+ *
+ * @author wolf
+ */
+public class SetScanIterator<E> extends ScanIterator<byte[], E> {
+
+	private final Class<E> clazz;
+
+	/**
+	 * @see ScanIterator#ScanIterator(Jedis, Closeable, byte[], String, int, boolean, ValueCodec)
+	 */
+	public SetScanIterator(Jedis jedis, Closeable resource, String key, String pattern, int count, boolean prefetch,
+			ValueCodec codec, Class<E> clazz) {
+		super(jedis, resource, SafeEncoder.encode(key), pattern, count, prefetch, codec);
+		this.clazz = clazz;
+	}
+
+	@Override
+	protected ScanResult<byte[]> scan(Jedis jedis, byte[] key, byte[] cursor, ScanParams params) {
+		return jedis.sscan(key, cursor, params);
+	}
+
+	@Override
+	protected E decode(byte[] raw) {
+		return decode(raw, clazz);
+	}
+}
@@ -0,0 +1,43 @@
+package com.wolf.redis.common.scan;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.Map;
+
+import com.wolf.redis.common.codec.ValueCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 按ZSCAN逐页遍历SortedSet,返回 元素 -> score
+ * ZSCAN不按score排序,需要顺序时使用zrangeByScore分段读取
+ *
+ * @author wolf
+ */
+public class SortedSetScanIterator<E> extends ScanIterator<Tuple, Map.Entry<E, Double>> {
+
+	private final Class<E> clazz;
+
+	/**
+	 * @see ScanIterator#ScanIterator(Jedis, Closeable, byte[], String, int, boolean, ValueCodec)
+	 */
+	public SortedSetScanIterator(Jedis jedis, Closeable resource, String key, String pattern, int count,
+			boolean prefetch, ValueCodec codec, Class<E> clazz) {
+		super(jedis, resource, SafeEncoder.encode(key), pattern, count, prefetch, codec);
+		this.clazz = clazz;
+	}
+
+	@Override
+	protected ScanResult<Tuple> scan(Jedis jedis, byte[] key, byte[] cursor, ScanParams params) {
+		return jedis.zscan(key, cursor, params);
+	}
+
+	@Override
+	protected Map.Entry<E, Double> decode(Tuple raw) {
+		return new AbstractMap.SimpleImmutableEntry<E, Double>(decode(raw.getBinaryElement(), clazz), raw.getScore());
+	}
+}
@@ -1,46 +1,309 @@
 package com.wolf.redis.common.sharded;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-import com.wolf.redis.common.Constant;
+import com.wolf.redis.common.CollectionWriter;
+import com.wolf.redis.common.MapObjects;
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.PagedList;
+import com.wolf.redis.common.RedisOperations;
+import com.wolf.redis.common.cache.CacheLoader;
+import com.wolf.redis.common.cache.InvalidationBus;
+import com.wolf.redis.common.cache.NearCache;
+import com.wolf.redis.common.cache.SingleFlight;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ObjectBatch;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.route.JumpRouter;
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.route.ShardRouter;
+import com.wolf.redis.common.scan.MapScanIterator;
+import com.wolf.redis.common.scan.ScanIterator;
+import com.wolf.redis.common.scan.SetScanIterator;
+import com.wolf.redis.common.scan.SortedSetScanIterator;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.ShardedJedis;
 import redis.clients.jedis.ShardedJedisPool;
-
-import com.alibaba.fastjson.JSON;
+import redis.clients.util.SafeEncoder;
 
 /**
  *
  * 一致性hash工具类
  * shardedJedis对象并没有直接实现对象的缓存
- * 我们可以借助json工具将对象转化成String对象
- * 然后存放到redis中,取出来时再将json数据转化成
+ * 我们借助codec将对象转化成字节
+ * 然后通过二进制命令存放到redis中,取出来时再将字节转化成
  * object对象
+ * 二进制命令按String key计算shard,与String命令的分片保持一致
  */
 @Repository
-public class BaseShardedJedis {
+public class BaseShardedJedis implements RedisOperations {
 
 	static Logger logger = Logger.getLogger(BaseShardedJedis.class);
 	
 //    @Autowired
     private ShardedJedisPool shardedJedisPool;  
 
+    /** 对象与字节之间的转换,默认json */
+    private ValueCodec codec = new JsonCodec();
+
+    /** setMapObject的存储方式,默认为原来的Set */
+    private MapStorageMode mapStorageMode = MapStorageMode.SET;
+
+    /** 进程内一级缓存,为null时不启用 */
+    private NearCache nearCache;
+
+    /** 通知其它应用节点失效一级缓存,为null时只失效本地 */
+    private InvalidationBus invalidationBus;
+
+    /** 与shardedJedisPool分片结果一致的router,KeyHandle使用它缓存shard下标,为null时按String key计算 */
+    private ShardRouter shardRouter;
+
+    /** 每个ShardedJedis按shard顺序排列的连接,连接池销毁ShardedJedis后随之回收 */
+    private final Map<ShardedJedis, Jedis[]> shardArrays = Collections.synchronizedMap(new WeakHashMap<ShardedJedis, Jedis[]>());
+
+    /** 检查router时比较分片结果的key数 */
+    private static final int ROUTER_CHECK_KEYS = 64;
+
+    /** setListObjects等分块写入时每条命令的元素数 */
+    private int writeChunkSize = CollectionWriter.DEFAULT_CHUNK_SIZE;
+
+    /** 合并多个线程并发的get/getObject,为null时不合并 */
+    private volatile GetCoalescer getCoalescer;
+
+    /** scanMapObject等迭代器每次SCAN的COUNT */
+    private int scanCount = ScanIterator.DEFAULT_COUNT;
+
+    /** 记录加载耗时的key数上限,超过后清空重新记录 */
+    private static final int MAX_LOAD_TIMES = 10000;
+
+    /** getOrLoad提前刷新的系数,越大越早刷新,0表示不提前刷新 */
+    private double earlyRefreshBeta = 1.0;
+
+    /** 合并同一个key、同一个类上并发的读取和加载 */
+    private final SingleFlight<Loaded<?>> loads = new SingleFlight<Loaded<?>>();
+
+    /** 正在提前刷新的key,同一个key同时只有一个线程刷新 */
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** 每个key最近一次加载的耗时(毫秒) */
+    private final ConcurrentHashMap<String, Long> loadMillis = new ConcurrentHashMap<String, Long>();
     
     public ShardedJedisPool getShardedJedisPool() {
 		return shardedJedisPool;
 	}
 
+	public ValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+
+	public MapStorageMode getMapStorageMode() {
+		return mapStorageMode;
+	}
+
+	public void setMapStorageMode(MapStorageMode mapStorageMode) {
+		this.mapStorageMode = mapStorageMode;
+	}
+
+	public GetCoalescer getGetCoalescer() {
+		return getCoalescer;
+	}
+
+	/**
+	 * 合并多个线程并发的get/getObject,每批按shard分组各执行一次MGET
+	 * 启用一级缓存时不合并(一级缓存需要同时取回过期时间)
+	 * @param windowMicros 第一个请求到达后最多等待的微秒数
+	 * @param maxBatch 一批最多的请求数
+	 */
+	public synchronized void enableGetCoalescing(long windowMicros, int maxBatch) {
+		disableGetCoalescing();
+		getCoalescer = new GetCoalescer(new GetCoalescer.BatchReader() {
+			@Override
+			public List<byte[]> mget(String[] keys) {
+				ShardedJedis shardedJedis = shardedJedisPool.getResource();
+				try {
+					return ShardedBatch.mgetBinary(shardedJedis, keys);
+				} finally {
+					shardedJedis.close();
+				}
+			}
+		}, windowMicros, maxBatch);
+	}
+
+	public synchronized void disableGetCoalescing() {
+		GetCoalescer current = getCoalescer;
+		if (current != null) {
+			getCoalescer = null;
+			current.close();
+		}
+	}
+
+	public int getWriteChunkSize() {
+		return writeChunkSize;
+	}
+
+	public void setWriteChunkSize(int writeChunkSize) {
+		this.writeChunkSize = writeChunkSize;
+	}
+
+	public int getScanCount() {
+		return scanCount;
+	}
+
+	public void setScanCount(int scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+
+	/**
+	 * 启用一级缓存,get/getObject/getListObjects先查一级缓存,
+	 * 通过本对象写入或删除key时移除对应的条目
+	 */
+	public void setNearCache(NearCache nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/**
+	 * 多个应用节点共用同一组redis时,写入或删除key后同时通知其它节点失效各自的一级缓存
+	 * 需要先调用invalidationBus.start()
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+	}
+
+	public ShardRouter getShardRouter() {
+		return shardRouter;
+	}
+
+	/**
+	 * 设置后KeyHandle版本的方法直接使用缓存的shard下标
+	 * router必须与shardedJedisPool的分片结果一致,例如用创建pool时相同的shards、algo、keyTagPattern
+	 * 创建的RingRouter;JumpRouter或分片结果不一致的router抛出IllegalArgumentException
+	 */
+	public void setShardRouter(ShardRouter shardRouter) {
+		if (shardRouter instanceof JumpRouter) {
+			throw new IllegalArgumentException("JumpRouter does not match the ring of ShardedJedisPool.");
+		}
+		if (shardRouter != null && shardedJedisPool != null) {
+			ShardedJedis shardedJedis = shardedJedisPool.getResource();
+			try {
+				checkRouter(shardRouter, shardedJedis);
+			} finally {
+				shardedJedis.close();
+			}
+		}
+		shardArrays.clear();
+		this.shardRouter = shardRouter;
+	}
+
+	/**
+	 * key所在的Jedis
+	 * Sharded按shard的顺序保存连接,有shardRouter时按KeyHandle缓存的下标取,不再计算hash
+	 */
+	private Jedis shard(ShardedJedis shardedJedis, String key, KeyHandle handle) {
+		ShardRouter router = shardRouter;
+		if (handle == null || router == null) {
+			return shardedJedis.getShard(key);
+		}
+		Jedis[] shards = shardArrays.get(shardedJedis);
+		if (shards == null) {
+			//设置router时还没有shardedJedisPool,第一次使用时检查
+			checkRouter(router, shardedJedis);
+			shards = shardedJedis.getAllShards().toArray(new Jedis[router.getShards().size()]);
+			shardArrays.put(shardedJedis, shards);
+		}
+		return shards[handle.shardIndex(router)];
+	}
+
+	/**
+	 * router的shard顺序和一组key的分片结果与shardedJedis一致
+	 */
+	private static void checkRouter(ShardRouter router, ShardedJedis shardedJedis) {
+		List<JedisShardInfo> shards = router.getShards();
+		Collection<Jedis> resources = shardedJedis.getAllShards();
+		boolean matched = shards.size() == resources.size();
+		int index = 0;
+		for (Jedis resource : resources) {
+			if (!matched) {
+				break;
+			}
+			matched = sameShard(shards.get(index++), resource.getClient().getHost(), resource.getClient().getPort());
+		}
+		for (int i = 0; matched && i < ROUTER_CHECK_KEYS; i++) {
+			String key = "shard-router-check-" + i;
+			JedisShardInfo expected = shardedJedis.getShardInfo(key);
+			matched = sameShard(shards.get(router.shardIndex(key)), expected.getHost(), expected.getPort());
+		}
+		if (!matched) {
+			throw new IllegalArgumentException("shard router does not match the shards of ShardedJedisPool.");
+		}
+	}
+
+	private static boolean sameShard(JedisShardInfo shard, String host, int port) {
+		return shard.getHost().equals(host) && shard.getPort() == port;
+	}
+
+	public double getEarlyRefreshBeta() {
+		return earlyRefreshBeta;
+	}
+
+	/**
+	 * getOrLoad提前刷新的系数,默认1.0,越大越早刷新,0表示只在key过期后加载
+	 */
+	public void setEarlyRefreshBeta(double earlyRefreshBeta) {
+		this.earlyRefreshBeta = earlyRefreshBeta;
+	}
+
+	private void invalidate(String... keys) {
+		if (nearCache != null) {
+			nearCache.invalidate(keys);
+		}
+		if (invalidationBus != null) {
+			invalidationBus.publish(keys);
+		}
+	}
+
+	/**
+	 * 创建迭代器失败时归还连接
+	 */
+	private static void close(ShardedJedis shardedJedis) {
+		if (shardedJedis != null) {
+			shardedJedis.close();
+		}
+	}
+
 
 	/** 
      * 添加单个值 
@@ -58,11 +321,30 @@ public class BaseShardedJedis {
             logger.error("set error; key is : "+key, ex);  
             return false; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }  
     }  
     
     
+    /**
+     * 使用预先编码的key,见KeyHandle
+     */
+    public boolean set(KeyHandle key, String value) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            shard(shardedJedis, key.getKey(), key).set(key.getBytes(), SafeEncoder.encode(value));
+            return true;
+        } catch (Exception ex) {
+            logger.error("set error; key is : "+key, ex);
+            return false;
+        } finally {
+            invalidate(key.getKey());
+            shardedJedis.close();
+        }
+    }
+    
     /**
     * 向缓存中设置对象
     * @Title: set
@@ -72,88 +354,179 @@ public class BaseShardedJedis {
     * @throws
    */
     public <E> boolean setObject(String key,E object){
-    	//将对象转换成json数据格式
-    	String value = JSON.toJSONString(object);
+    	//将对象转换成字节
+    	byte[] value = codec.encode(object);
     	ShardedJedis shardedJedis = null;  
         try {  
             shardedJedis = shardedJedisPool.getResource();  
-            shardedJedis.set(key, value);  
+            shardedJedis.getShard(key).set(SafeEncoder.encode(key), value);  
             return true;  
         } catch (Exception ex) {  
             logger.error("setObject error; key is : "+key+" value object is :"+object, ex);  
             return false; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }  
     }
     
     /**
-     * 
+     * 使用预先编码的key,见KeyHandle
+     */
+    public <E> boolean setObject(KeyHandle key,E object){
+        byte[] value = codec.encode(object);
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            shard(shardedJedis, key.getKey(), key).set(key.getBytes(), value);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setObject error; key is : "+key+" value object is :"+object, ex);
+            return false;
+        } finally {
+            invalidate(key.getKey());
+            shardedJedis.close();
+        }
+    }
+    
+    /**
+     *
      * 向缓存中设置Map<K, V>对象
+     * 按mapStorageMode存放为Set或Hash
      * @Title: set
      * @param key
-     * @param map<Key,Value>  
-     * @return boolean    
+     * @param map<Key,Value>
+     * @return boolean
      * @throws
-    */
-     public <V> boolean setMapObject(String key,Map<String, V> map){
-    	 ShardedJedis shardedJedis = null;  
-    	 boolean flag = false;
-     	//将对象转换成json数据格式
-     	if (map!=null && !map.isEmpty()) {
-     		List<String> jsonList = new ArrayList<String>(map.size());
-			for (String element_key : map.keySet()) {
-				V object = map.get(element_key);
-				//*******采用分隔符处理有一定的风险,如果map中的key含有SPLIT_CHAR则会导致拆分出错*******
-				String element_content = JSON.toJSONString(object)+ Constant.SPLIT_CHAR+element_key;
-    			jsonList.add(element_content);
-			}
-			//将Set<String>转化成json数组
-	    	String[] jsonArray = new String[jsonList.size()];
-	    	jsonList.toArray(jsonArray);
-			try {  
-	             shardedJedis = shardedJedisPool.getResource();  
-	             shardedJedis.sadd(key, jsonArray);  
-	             flag = true;  
-	         } catch (Exception ex) {  
-	             logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);  
-	         } finally {  
-	             shardedJedis.close();
-	         }  
-		}
-     	 return flag; 
-     }
-     
-     /**
-      * @Title: 根据key获取Set无序集合对象值
-      * @param key
-      * @param clazz 集合中装载对象所属的类   
-      * @return Set<E>    
-      * @throws
      */
-    public <V> Map<String,V> getMapObject(String key,Class<V> clazz) {  
-        ShardedJedis shardedJedis = null;  
-        try {  
-            shardedJedis = shardedJedisPool.getResource();  
-            //获取json集合数据                                                                         
-            Set<String> jsonSet =shardedJedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Map<String,V> objectMap = new HashMap<String,V>(jsonSet.size());
-            for (String json : jsonSet) {
-            	//数据格式： "{\"descrition\":\"worker\",\"id\":\"0011\",\"roleName\":\"worker\"}^001_key"
-            	String[] contentArray = json.split("\\"+Constant.SPLIT_CHAR);
-				V entity = JSON.parseObject(contentArray[0], clazz);
-				objectMap.put(contentArray[1],entity);
-			}
-            return objectMap;
-        } catch (Exception ex) {  
-            logger.error("get getObjects error key is :"+key+" class is :"+clazz, ex);    
-            return null;  
-        } finally {  
+    public <V> boolean setMapObject(String key,Map<String, V> map){
+        if (map==null || map.isEmpty()) {
+            return false;
+        }
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            MapObjects.putAll(shardedJedis.getShard(key), key, map, mapStorageMode, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setMapObject error; key is : "+key+" value map is :"+map, ex);
+            return false;
+        } finally {
             shardedJedis.close();
-        }  
-    }  
-    
+        }
+    }
+
+    /**
+     * @Title: 根据key获取Map对象值
+     * 两种存储方式的数据都可以读取
+     * @param key
+     * @param clazz 集合中装载对象所属的类
+     * @return Map<String,V>
+     * @throws
+     */
+    public <V> Map<String,V> getMapObject(String key,Class<V> clazz) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return MapObjects.getAll(shardedJedis.getShard(key), key, mapStorageMode, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("get getMapObject error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        } finally {
+            shardedJedis.close();
+        }
+    }
+
+    /**
+     * @Title: 逐页遍历Map对象,对象在next时才解码
+     * 两种存储方式的数据都可以读取。迭代器独占一个连接并在后台提前取下一页,
+     * 用完或中途放弃时必须close,否则连接不会归还
+     * @param key
+     * @param clazz 集合中装载对象所属的类
+     * @return MapScanIterator<V> 出错时返回null
+     * @throws
+     */
+    public <V> MapScanIterator<V> scanMapObject(String key,Class<V> clazz) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return new MapScanIterator<V>(shardedJedis.getShard(key), shardedJedis, key, null, scanCount, true,
+                    codec, clazz, mapStorageMode);
+        } catch (Exception ex) {
+            logger.error("scanMapObject error key is :"+key+" class is :"+clazz, ex);
+            close(shardedJedis);
+            return null;
+        }
+    }
+
+    /**
+     * @Title: 获取Map对象中的单个条目(HGET)
+     * @param key
+     * @param field map中的key
+     * @param clazz 对象所属的类
+     * @return V 不存在时返回null
+     * @throws
+     */
+    public <V> V getMapEntry(String key,String field,Class<V> clazz) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return MapObjects.get(shardedJedis.getShard(key), key, field, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntry error key is :"+key+" field is :"+field, ex);
+            return null;
+        } finally {
+            shardedJedis.close();
+        }
+    }
+
+    /**
+     * @Title: 获取Map对象中的多个条目(HMGET)
+     * @param key
+     * @param fields map中的key
+     * @param clazz 对象所属的类
+     * @return Map<String,V> 保持fields的顺序,不存在的field不会出现在结果中
+     * @throws
+     */
+    public <V> Map<String,V> getMapEntries(String key,Collection<String> fields,Class<V> clazz) {
+        if (fields==null || fields.isEmpty()) {
+            return new LinkedHashMap<String,V>();
+        }
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return MapObjects.get(shardedJedis.getShard(key), key, fields, clazz, codec);
+        } catch (Exception ex) {
+            logger.error("getMapEntries error key is :"+key+" fields is :"+fields, ex);
+            return null;
+        } finally {
+            shardedJedis.close();
+        }
+    }
+
+    /**
+     * @Title: 设置Map对象中的单个条目(HSET)
+     * 旧格式(Set)的数据会先转换成Hash
+     * @param key
+     * @param field map中的key
+     * @param value
+     * @return boolean
+     * @throws
+     */
+    public <V> boolean putMapEntry(String key,String field,V value) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            MapObjects.put(shardedJedis.getShard(key), key, field, value, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("putMapEntry error key is :"+key+" field is :"+field, ex);
+            return false;
+        } finally {
+            shardedJedis.close();
+        }
+    }
+
     /**
      * 
      * 向缓存中设置List集合对象
@@ -165,31 +538,43 @@ public class BaseShardedJedis {
      * @throws
     */
      public <E> boolean setListObjects(String key,List<E> list){
-     	//将List集合中的对象转换成json数据格式的数组
-    	List<String> jsonList = new ArrayList<String>(list.size());
-    	if(list!=null && !list.isEmpty()){
-    		for (E object : list) {
-    			String element_content = JSON.toJSONString(object);
-    			jsonList.add(element_content);
-			}
-    	}
-    	
-    	//将List<String>转化成json数组
-    	String[] jsonArray = new String[jsonList.size()];
-    	jsonList.toArray(jsonArray);
      	ShardedJedis shardedJedis = null;  
          try {  
              shardedJedis = shardedJedisPool.getResource();  
-             //添加一个字符串值到List容器的底部（右侧）如果KEY不存在，则创建一个List容器，如果KEY存在并且不是一个List容器，那么返回FLASE
-             shardedJedis.rpush(key, jsonArray);  
+             //添加到List容器的底部（右侧）如果KEY不存在，则创建一个List容器，如果KEY存在并且不是一个List容器，那么返回FLASE
+             //按writeChunkSize分块编码和发送,不会一次把整个集合转换成字节数组
+             CollectionWriter.writeList(shardedJedis.getShard(key), key, list.iterator(), false, writeChunkSize, codec);
              return true;  
          } catch (Exception ex) {  
              logger.error("setListObjects error; key is : "+key, ex);  
              return false; 
          } finally {  
+             invalidate(key);
              shardedJedis.close();
          }  
      }
+
+    /**
+     * 流式写入List集合对象,元素边编码边分块RPUSH,内存中只保留一块
+     * @param key 键
+     * @param elements 按顺序写入的对象
+     * @param replace 为true时写到临时key后RENAME,原子地替换整个List;为false时追加到底部
+     * @return boolean
+     */
+    public <E> boolean writeListObjects(String key, Iterator<E> elements, boolean replace) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            CollectionWriter.writeList(shardedJedis.getShard(key), key, elements, replace, writeChunkSize, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("writeListObjects error; key is : "+key, ex);
+            return false;
+        } finally {
+            invalidate(key);
+            shardedJedis.close();
+        }
+    }
      
      /**
       * @Title: 根据key获取List有序集合对象值
@@ -199,17 +584,42 @@ public class BaseShardedJedis {
       * @throws
      */
     public <E> List<E> getListObjects(String key,Class<E> clazz) {  
+        if (nearCache != null) {
+            List<E> cached = nearCache.getList(key, clazz);
+            if (cached != null) {
+                return cached;
+            }
+        }
         ShardedJedis shardedJedis = null;  
         try {  
             shardedJedis = shardedJedisPool.getResource();  
-            //规律: 左数从0开始,右数从-1开始(0: the first element, 1: the second ... -1: the last element, -2: the penultimate ...)                                                            
-            List<String> jsonList =shardedJedis.lrange(key, 0, -1);
-            //转化集合中的字符串为对象格式
-            List<E> objectList = new ArrayList<E>(jsonList.size());
-            for (String json : jsonList) {
-				E objec = JSON.parseObject(json, clazz);
+            byte[] binaryKey = SafeEncoder.encode(key);
+            List<byte[]> elements;
+            Response<Long> pttl = null;
+            long stamp = 0;
+            if (nearCache == null) {
+                //规律: 左数从0开始,右数从-1开始(0: the first element, 1: the second ... -1: the last element, -2: the penultimate ...)                                                            
+                elements =shardedJedis.getShard(key).lrange(binaryKey, 0, -1);
+            } else {
+                //同一个pipeline里取回剩余过期时间,一级缓存的过期时间不超过它
+                stamp = nearCache.stamp();
+                Pipeline pipeline = shardedJedis.getShard(key).pipelined();
+                Response<List<byte[]>> range = pipeline.lrange(binaryKey, 0, -1);
+                pttl = pipeline.pttl(binaryKey);
+                pipeline.sync();
+                elements = range.get();
+            }
+            //转化集合中的字节为对象格式
+            List<E> objectList = new ArrayList<E>(elements.size());
+            int weight = 0;
+            for (byte[] element : elements) {
+				E objec = codec.decode(element, clazz);
 				objectList.add(objec);
+				weight += element.length;
 			}
+            if (pttl != null && !objectList.isEmpty()) {
+                nearCache.putList(key, clazz, objectList, weight, pttl.get(), stamp);
+            }
             return objectList;
         } catch (Exception ex) {  
             logger.error("get getListObjects error key is :"+key+" class is :"+clazz, ex);    
@@ -219,6 +629,48 @@ public class BaseShardedJedis {
         }  
     }  
     
+     /**
+      * @Title: 分页读取List有序集合对象
+      * 与LLEN在同一个pipeline里取回第一页,之后访问到哪一页才取哪一页,元素在第一次get时解码。
+      * 返回的List不持有连接,取页时再从连接池借用;不经过一级缓存
+      * @param key
+      * @param clazz 集合中装载对象所属的类
+      * @param pageSize 每页元素数,不大于0时使用PagedList.DEFAULT_PAGE_SIZE
+      * @return List<E> 只读
+      * @throws
+     */
+    public <E> List<E> getListObjects(final String key,Class<E> clazz,int pageSize) {
+        if (pageSize <= 0) {
+            pageSize = PagedList.DEFAULT_PAGE_SIZE;
+        }
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            final byte[] binaryKey = SafeEncoder.encode(key);
+            Pipeline pipeline = shardedJedis.getShard(key).pipelined();
+            Response<Long> length = pipeline.llen(binaryKey);
+            Response<List<byte[]>> firstPage = pipeline.lrange(binaryKey, 0, pageSize - 1);
+            pipeline.sync();
+            PagedList.PageLoader loader = new PagedList.PageLoader() {
+                @Override
+                public List<byte[]> range(long start, long end) {
+                    ShardedJedis shardedJedis = shardedJedisPool.getResource();
+                    try {
+                        return shardedJedis.getShard(key).lrange(binaryKey, start, end);
+                    } finally {
+                        shardedJedis.close();
+                    }
+                }
+            };
+            return new PagedList<E>(loader, length.get(), firstPage.get(), pageSize, codec, clazz);
+        } catch (Exception ex) {
+            logger.error("get getListObjects error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        } finally {
+            shardedJedis.close();
+        }
+    }
+    
     
     /**
      * 向缓存中设置Set集合对象
@@ -229,23 +681,11 @@ public class BaseShardedJedis {
      * @throws
     */
      public <E> boolean setSetObjects(String key,Set<E> set){
-     	//将Set集合中的对象转换成json数据格式的数组
-    	Set<String> jsonSet = new HashSet<String>(set.size());
-    	if(set!=null && !set.isEmpty()){
-    		for (E object : set) {
-    			String element_content = JSON.toJSONString(object);
-    			jsonSet.add(element_content);
-			}
-    	}
-    	
-    	//将Set<String>转化成json数组
-    	String[] jsonArray = new String[jsonSet.size()];
-    	jsonSet.toArray(jsonArray);
      	ShardedJedis shardedJedis = null;  
          try {  
              shardedJedis = shardedJedisPool.getResource();  
-             //存放集合数据
-             shardedJedis.sadd(key, jsonArray);  
+             //存放集合数据,按writeChunkSize分块编码和发送
+             CollectionWriter.writeSet(shardedJedis.getShard(key), key, set.iterator(), false, writeChunkSize, codec);
              return true;  
          } catch (Exception ex) {  
              logger.error("setObjects error; key is : "+key, ex);  
@@ -254,6 +694,27 @@ public class BaseShardedJedis {
              shardedJedis.close();
          }  
      }
+
+    /**
+     * 流式写入Set集合对象,元素边编码边分块发送,内存中只保留一块
+     * @param key 键
+     * @param elements 要写入的对象
+     * @param replace 为true时写到临时key后RENAME,原子地替换整个Set;为false时追加
+     * @return boolean
+     */
+    public <E> boolean writeSetObjects(String key, Iterator<E> elements, boolean replace) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            CollectionWriter.writeSet(shardedJedis.getShard(key), key, elements, replace, writeChunkSize, codec);
+            return true;
+        } catch (Exception ex) {
+            logger.error("writeSetObjects error; key is : "+key, ex);
+            return false;
+        } finally {
+            shardedJedis.close();
+        }
+    }
      
      /**
       * @Title: 根据key获取Set无序集合对象值
@@ -266,12 +727,12 @@ public class BaseShardedJedis {
         ShardedJedis shardedJedis = null;  
         try {  
             shardedJedis = shardedJedisPool.getResource();  
-            //获取json集合数据                                                                         
-            Set<String> jsonSet =shardedJedis.smembers(key);
-            //转化集合中的字符串为对象格式
-            Set<E> objectSet = new HashSet<E>(jsonSet.size());
-            for (String json : jsonSet) {
-				E objec = JSON.parseObject(json, clazz);
+            //获取集合数据                                                                         
+            Set<byte[]> elements =shardedJedis.getShard(key).smembers(SafeEncoder.encode(key));
+            //转化集合中的字节为对象格式
+            Set<E> objectSet = new HashSet<E>(elements.size());
+            for (byte[] element : elements) {
+				E objec = codec.decode(element, clazz);
 				objectSet.add(objec);
 			}
             return objectSet;
@@ -283,6 +744,27 @@ public class BaseShardedJedis {
         }  
     }  
     
+    /**
+     * @Title: 逐页遍历Set集合对象(SSCAN),对象在next时才解码
+     * 迭代器独占一个连接并在后台提前取下一页,用完或中途放弃时必须close
+     * @param key
+     * @param clazz 集合中装载对象所属的类
+     * @return SetScanIterator<E> 出错时返回null
+     * @throws
+     */
+    public <E> SetScanIterator<E> scanSetObjects(String key,Class<E> clazz) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return new SetScanIterator<E>(shardedJedis.getShard(key), shardedJedis, key, null, scanCount, true,
+                    codec, clazz);
+        } catch (Exception ex) {
+            logger.error("scanSetObjects error key is :"+key+" class is :"+clazz, ex);
+            close(shardedJedis);
+            return null;
+        }
+    }
+
     /**
      * 根据key获取value值
       * @Title: get
@@ -291,10 +773,53 @@ public class BaseShardedJedis {
       * @throws
      */
     public String get(String key) {  
+        return get(key, null);
+    }  
+
+    /**
+     * 使用预先编码的key,见KeyHandle
+     */
+    public String get(KeyHandle key) {
+        return get(key.getKey(), key);
+    }
+
+    private String get(String key, KeyHandle handle) {
+        if (nearCache != null) {
+            String cached = nearCache.getString(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        GetCoalescer coalescer = getCoalescer;
+        if (coalescer != null && nearCache == null) {
+            try {
+                byte[] value = coalescer.get(key);
+                return value == null ? null : SafeEncoder.encode(value);
+            } catch (Exception ex) {
+                logger.error("get error.", ex);
+                return null;
+            }
+        }
         ShardedJedis shardedJedis = null;  
         try {  
             shardedJedis = shardedJedisPool.getResource();  
-            return shardedJedis.get(key);  
+            Jedis shard = shard(shardedJedis, key, handle);
+            byte[] binaryKey = handle == null ? SafeEncoder.encode(key) : handle.getBytes();
+            if (nearCache == null) {
+                byte[] value = shard.get(binaryKey);
+                return value == null ? null : SafeEncoder.encode(value);
+            }
+            long stamp = nearCache.stamp();
+            Pipeline pipeline = shard.pipelined();
+            Response<byte[]> value = pipeline.get(binaryKey);
+            Response<Long> pttl = pipeline.pttl(binaryKey);
+            pipeline.sync();
+            if (value.get() == null) {
+                return null;
+            }
+            String string = SafeEncoder.encode(value.get());
+            nearCache.putString(key, string, value.get().length, pttl.get(), stamp);
+            return string;
         } catch (Exception ex) {  
             logger.error("get error.", ex);    
             return null;  
@@ -312,11 +837,51 @@ public class BaseShardedJedis {
       * @throws
      */
     public <E> E getObject(String key,Class<E> clazz) {  
+        return getObject(key, null, clazz);
+    }
+
+    /**
+     * 使用预先编码的key,见KeyHandle
+     */
+    public <E> E getObject(KeyHandle key,Class<E> clazz) {
+        return getObject(key.getKey(), key, clazz);
+    }
+
+    private <E> E getObject(String key, KeyHandle handle, Class<E> clazz) {
+        if (nearCache != null) {
+            E cached = nearCache.getObject(key, clazz);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        GetCoalescer coalescer = getCoalescer;
+        if (coalescer != null && nearCache == null) {
+            try {
+                return codec.decode(coalescer.get(key), clazz);
+            } catch (Exception ex) {
+                logger.error("get getObject error key is :"+key+" class is :"+clazz, ex);
+                return null;
+            }
+        }
         ShardedJedis shardedJedis = null;  
         try {  
             shardedJedis = shardedJedisPool.getResource();  
-            String value = shardedJedis.get(key);  
-            return JSON.parseObject(value, clazz);
+            Jedis shard = shard(shardedJedis, key, handle);
+            byte[] binaryKey = handle == null ? SafeEncoder.encode(key) : handle.getBytes();
+            if (nearCache == null) {
+                byte[] value = shard.get(binaryKey);  
+                return codec.decode(value, clazz);
+            }
+            long stamp = nearCache.stamp();
+            Pipeline pipeline = shard.pipelined();
+            Response<byte[]> value = pipeline.get(binaryKey);
+            Response<Long> pttl = pipeline.pttl(binaryKey);
+            pipeline.sync();
+            E object = codec.decode(value.get(), clazz);
+            if (object != null) {
+                nearCache.putObject(key, clazz, object, value.get().length, pttl.get(), stamp);
+            }
+            return object;
         } catch (Exception ex) {  
             logger.error("get getObject error key is :"+key+" class is :"+clazz, ex);    
             return null;  
@@ -326,6 +891,219 @@ public class BaseShardedJedis {
     }  
     
     
+    /**
+     * 获取对象,不存在时通过loader加载并写入redis
+     * 同一个key上并发的调用共享一次redis读取和一次加载,key过期时不会所有线程都去借连接、查数据库。
+     * 临近过期时按概率提前刷新(剩余时间越短、加载越慢,概率越高),由其中一个调用方同步加载,
+     * 其它调用方继续返回当前的值,热点key在过期之前就已经更新。
+      * @Title: getOrLoad
+      * @param key
+      * @param clazz 要返回的对象所属的类
+      * @param loader 加载对象,执行时不占用连接
+      * @param expire_time 写入redis的过期时间(秒),不大于0时不过期
+      * @return E 加载失败或loader返回null时返回null
+      * @throws
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E getOrLoad(final String key, final Class<E> clazz, final CacheLoader<E> loader,
+            final int expire_time) {
+        if (nearCache != null) {
+            E cached = nearCache.getObject(key, clazz);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Loaded<E> loaded;
+        try {
+            //不同clazz的调用不共享结果,类名中没有':',不会与其它key混淆
+            loaded = (Loaded<E>) loads.execute(clazz.getName() + ':' + key, new Callable<Loaded<?>>() {
+                @Override
+                public Loaded<?> call() {
+                    return readOrLoad(key, clazz, loader, expire_time);
+                }
+            });
+        } catch (Exception ex) {
+            logger.error("getOrLoad error key is :"+key+" class is :"+clazz, ex);
+            return null;
+        }
+        if (loaded.value != null && shouldRefresh(key, loaded) && refreshing.add(key)) {
+            try {
+                Loaded<E> refreshed = load(key, clazz, loader, expire_time);
+                if (refreshed.value != null) {
+                    return refreshed.value;
+                }
+            } finally {
+                refreshing.remove(key);
+            }
+        }
+        return loaded.value;
+    }
+
+    private <E> Loaded<E> readOrLoad(String key, Class<E> clazz, CacheLoader<E> loader, int expire_time) {
+        ShardedJedis shardedJedis = null;
+        byte[] binaryKey = SafeEncoder.encode(key);
+        long stamp = nearCache == null ? 0 : nearCache.stamp();
+        Response<byte[]> value = null;
+        Response<Long> pttl = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            Pipeline pipeline = shardedJedis.getShard(key).pipelined();
+            value = pipeline.get(binaryKey);
+            pttl = pipeline.pttl(binaryKey);
+            pipeline.sync();
+        } catch (Exception ex) {
+            //redis不可用时仍然通过loader取得对象
+            logger.error("getOrLoad read error key is :"+key+" class is :"+clazz, ex);
+            value = null;
+        } finally {
+            if (shardedJedis != null) {
+                shardedJedis.close();
+            }
+        }
+        if (value != null && value.get() != null) {
+            E object;
+            try {
+                object = codec.decode(value.get(), clazz);
+            } catch (Exception ex) {
+                //旧的BinaryCodec格式、损坏的json等无法解析的值按未命中处理,重新加载后覆盖
+                logger.error("getOrLoad decode error key is :"+key+" class is :"+clazz, ex);
+                return load(key, clazz, loader, expire_time);
+            }
+            if (nearCache != null) {
+                nearCache.putObject(key, clazz, object, value.get().length, pttl.get(), stamp);
+            }
+            return new Loaded<E>(object, pttl.get());
+        }
+        return load(key, clazz, loader, expire_time);
+    }
+
+    private <E> Loaded<E> load(String key, Class<E> clazz, CacheLoader<E> loader, int expire_time) {
+        long start = System.nanoTime();
+        E object;
+        try {
+            object = loader.load(key);
+        } catch (Exception ex) {
+            logger.error("getOrLoad load error key is :"+key+" class is :"+clazz, ex);
+            return new Loaded<E>(null, -2);
+        }
+        if (loadMillis.size() >= MAX_LOAD_TIMES) {
+            loadMillis.clear();
+        }
+        loadMillis.put(key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (object == null) {
+            return new Loaded<E>(null, -2);
+        }
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            byte[] binaryKey = SafeEncoder.encode(key);
+            if (expire_time > 0) {
+                shardedJedis.getShard(key).setex(binaryKey, expire_time, codec.encode(object));
+            } else {
+                shardedJedis.getShard(key).set(binaryKey, codec.encode(object));
+            }
+        } catch (Exception ex) {
+            logger.error("getOrLoad write error key is :"+key+" class is :"+clazz, ex);
+        } finally {
+            invalidate(key);
+            if (shardedJedis != null) {
+                shardedJedis.close();
+            }
+        }
+        return new Loaded<E>(object, expire_time > 0 ? TimeUnit.SECONDS.toMillis(expire_time) : -1);
+    }
+
+    /**
+     * 按XFetch算法决定是否提前刷新: 加载耗时 * beta * -ln(random) >= 剩余过期时间
+     */
+    private boolean shouldRefresh(String key, Loaded<?> loaded) {
+        if (earlyRefreshBeta <= 0 || loaded.pttl <= 0) {
+            return false;
+        }
+        Long delta = loadMillis.get(key);
+        if (delta == null || delta <= 0) {
+            return false;
+        }
+        long remaining = loaded.pttl - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loaded.readAt);
+        return delta * earlyRefreshBeta * -Math.log(ThreadLocalRandom.current().nextDouble()) >= remaining;
+    }
+
+    /**
+     * 读取或加载的结果
+     */
+    private static final class Loaded<E> {
+        final E value;
+        /** 读取时key的剩余过期时间(毫秒),-1表示不过期 */
+        final long pttl;
+        final long readAt = System.nanoTime();
+
+        Loaded(E value, long pttl) {
+            this.value = value;
+            this.pttl = pttl;
+        }
+    }
+
+    /**
+     * 批量获取对象
+     * 按shard分组后每个shard执行一次MGET,对象较多时并行做对象转换
+     * @Title: getObjects
+     * @param keys
+     * @param clazz 要返回的对象所属的类
+     * @return Map<String,E> key与对象的映射,不存在的key不会出现在结果中
+     * @throws
+     */
+    public <E> Map<String, E> getObjects(Collection<String> keys, Class<E> clazz) {
+        if (keys == null || keys.isEmpty()) {
+            return new LinkedHashMap<String, E>();
+        }
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        List<byte[]> values;
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            values = ShardedBatch.mgetBinary(shardedJedis, keyArray);
+        } catch (Exception ex) {
+            logger.error("getObjects error keys size is :"+keyArray.length+" class is :"+clazz, ex);
+            return null;
+        } finally {
+            shardedJedis.close();
+        }
+        //连接归还之后再做对象转换
+        return ObjectBatch.decode(keyArray, values, clazz, codec);
+    }
+
+    /**
+     * 批量向缓存中设置对象
+     * 按shard分组后每个shard的命令放在一个pipeline里发送
+     * @Title: setObjects
+     * @param objects key与对象的映射
+     * @param expire_time 过期时间(秒),不大于0时不过期
+     * @return boolean
+     * @throws
+     */
+    public <E> boolean setObjects(Map<String, E> objects, int expire_time) {
+        if (objects == null || objects.isEmpty()) {
+            return false;
+        }
+        String[] keys = objects.keySet().toArray(new String[objects.size()]);
+        byte[][] values = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = codec.encode(objects.get(keys[i]));
+        }
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            ShardedBatch.setex(shardedJedis, expire_time, keys, values);
+            return true;
+        } catch (Exception ex) {
+            logger.error("setObjects error; keys size is : "+objects.size(), ex);
+            return false;
+        } finally {
+            invalidate(keys);
+            shardedJedis.close();
+        }
+    }
+
     /** 
      * 添加到Set中 
      * @param key 
@@ -401,6 +1179,7 @@ public class BaseShardedJedis {
             logger.error("expire error[key=" + key + " seconds=" + expire_time + "]" + ex.getMessage(), ex); 
             return 0; 
         } finally {  
+            invalidate(key);
         	shardedJedis.close();
         }   
     }  
@@ -423,6 +1202,7 @@ public class BaseShardedJedis {
             logger.error("expireAt error[key=" + key + " unixTimestamp=" + unixTimestamp + "]" + ex.getMessage(), ex);
             return 0;  
         } finally {  
+            invalidate(key);
         	shardedJedis.close();
         }  
     }  
@@ -446,6 +1226,7 @@ public class BaseShardedJedis {
             logger.error("trimList 出错[key=" + key + " start=" + start + " end=" + end + "]" + ex.getMessage() , ex); 
             return "-"; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }   
     }  
@@ -559,6 +1340,7 @@ public class BaseShardedJedis {
             logger.error("removeListValue error.", ex);  
             return false;  
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }  
     }  
@@ -642,6 +1424,7 @@ public class BaseShardedJedis {
             logger.error("addList error.", ex);   
             return false; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }    
     }  
@@ -792,18 +1575,20 @@ public class BaseShardedJedis {
     public List<Map.Entry<String, String>> scanHSet(String key, String match) {  
         ShardedJedis shardedJedis = null;  
         try {  
-            int cursor = 0;  
+            //游标是64位无符号数,按字符串原样传回
+            String cursor = ScanParams.SCAN_POINTER_START;  
             shardedJedis = shardedJedisPool.getResource();  
             ScanParams scanParams = new ScanParams();  
             scanParams.match(match);  
+            scanParams.count(scanCount);  
             Jedis jedis = shardedJedis.getShard(key);  
             ScanResult<Map.Entry<String, String>> scanResult;  
             List<Map.Entry<String, String>> list = new ArrayList<Map.Entry<String, String>>();  
             do {  
-                scanResult = jedis.hscan(key, String.valueOf(cursor), scanParams);  
+                scanResult = jedis.hscan(key, cursor, scanParams);  
                 list.addAll(scanResult.getResult());  
-                cursor = Integer.parseInt(scanResult.getStringCursor());  
-            } while (cursor > 0);
+                cursor = scanResult.getStringCursor();  
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
             	return list;  
         } catch (Exception ex) {  
             logger.error("scanHSet error.", ex);   
@@ -814,6 +1599,45 @@ public class BaseShardedJedis {
     }  
   
   
+    /**
+     * 逐页遍历hset,不把所有条目放进内存
+     * 迭代器独占一个连接并在后台提前取下一页,用完或中途放弃时必须close
+     * @param match field匹配模式,为null时返回所有条目
+     * @return 出错时返回null
+     */
+    public MapScanIterator<String> scanHash(String key, String match) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return new MapScanIterator<String>(shardedJedis.getShard(key), shardedJedis, key, match, scanCount, true,
+                    codec, String.class, null);
+        } catch (Exception ex) {
+            logger.error("scanHash error.", ex);
+            close(shardedJedis);
+            return null;
+        }
+    }
+
+    /**
+     * 逐页遍历有序集合(ZSCAN),返回 元素 -> score,不按score排序
+     * 迭代器独占一个连接并在后台提前取下一页,用完或中途放弃时必须close
+     * @param match 元素匹配模式,为null时返回所有元素
+     * @param clazz 元素所属的类,String直接返回
+     * @return 出错时返回null
+     */
+    public <E> SortedSetScanIterator<E> scanSortedSet(String key, String match, Class<E> clazz) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            return new SortedSetScanIterator<E>(shardedJedis.getShard(key), shardedJedis, key, match, scanCount,
+                    true, codec, clazz);
+        } catch (Exception ex) {
+            logger.error("scanSortedSet error.", ex);
+            close(shardedJedis);
+            return null;
+        }
+    }
+
     /** 
      * 返回 key 指定的哈希集中所有字段的value值 
      * @param key 键
@@ -1025,6 +1849,7 @@ public class BaseShardedJedis {
             logger.error("set error.", ex);  
             return false; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }  
     }  
@@ -1048,10 +1873,29 @@ public class BaseShardedJedis {
             logger.error("del error.", ex);  
             return false; 
         } finally {  
+            invalidate(key);
             shardedJedis.close();
         }  
     }  
   
+    /**
+     * 使用预先编码的key,见KeyHandle
+     */
+    public boolean del(KeyHandle key) {
+        ShardedJedis shardedJedis = null;
+        try {
+            shardedJedis = shardedJedisPool.getResource();
+            shard(shardedJedis, key.getKey(), key).del(key.getBytes());
+            return true;
+        } catch (Exception ex) {
+            logger.error("del error.", ex);
+            return false;
+        } finally {
+            invalidate(key.getKey());
+            shardedJedis.close();
+        }
+    }
+  
     /**
      * 
       * 根据指定的key的值加1,并返回加1后的值
@@ -1070,6 +1914,7 @@ public class BaseShardedJedis {
             logger.error("incr error.", ex);  
             return 0;
         } finally {  
+            invalidate(key);
         	shardedJedis.close();  
         }  
     }  
@@ -1092,6 +1937,7 @@ public class BaseShardedJedis {
             logger.error("decr error.", ex);  
             return 0; 
         } finally {  
+            invalidate(key);
         	shardedJedis.close();  
         }  
     }  
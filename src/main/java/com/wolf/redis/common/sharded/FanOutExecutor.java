@@ -0,0 +1,201 @@
+package com.wolf.redis.common.sharded;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 多个shard并行执行命令的共享线程池
+ * 每个任务只操作一个shard上的Jedis连接,不同shard的连接互不影响,可以安全并行
+ * 队列满时由调用线程自己执行,退化为顺序执行而不是拒绝
+ *
+ * @author wolf
+ */
+public final class FanOutExecutor {
+
+	private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+			60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1024),
+			new ThreadFactory() {
+				private final AtomicInteger index = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "redis-fanout-" + index.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+	static {
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	private FanOutExecutor() {
+	}
+
+	/**
+	 * 并行执行全部任务,按任务顺序返回结果
+	 * 第一个任务在调用线程中执行,只有一个任务时不会切换线程
+	 *
+	 * @param tasks 每个shard一个任务
+	 * @return 与tasks顺序一致的结果
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+		return invokeAll(tasks, null);
+	}
+
+	/**
+	 * 并行执行全部任务,按任务顺序返回结果
+	 * 调用线程被中断时取消还没有完成的任务,并断开这些任务使用的shard连接,与超时的处理相同
+	 *
+	 * @param tasks 每个shard一个任务
+	 * @param shards 与tasks顺序一致,每个任务使用的连接;为null时任务不使用连接
+	 * @return 与tasks顺序一致的结果
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, List<Jedis> shards) {
+		int size = tasks.size();
+		List<T> results = new ArrayList<T>(size);
+		if (size == 0) {
+			return results;
+		}
+		if (size == 1) {
+			results.add(call(tasks.get(0)));
+			return results;
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(size - 1);
+		for (int i = 1; i < size; i++) {
+			futures.add(EXECUTOR.submit(tasks.get(i)));
+		}
+		RuntimeException failure = null;
+		try {
+			results.add(call(tasks.get(0)));
+		} catch (RuntimeException e) {
+			//等待其它任务结束后再抛出,连接不会在命令执行中被归还
+			failure = e;
+			results.add(null);
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			Future<T> future = futures.get(i);
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				for (int j = i; j < futures.size(); j++) {
+					abort(futures.get(j), shards == null ? null : shards.get(j + 1));
+				}
+				Thread.currentThread().interrupt();
+				throw new JedisException("fan-out interrupted.", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = toJedisException(e.getCause());
+				}
+				results.add(null);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}
+
+	/**
+	 * 提交一个任务,例如提前读取下一页数据
+	 */
+	public static <T> Future<T> submit(Callable<T> task) {
+		return EXECUTOR.submit(task);
+	}
+
+	/**
+	 * 在一个shard上执行的命令
+	 */
+	public interface ShardCommand<T> {
+		T execute(Jedis shard);
+	}
+
+	/**
+	 * 在所有shard上并行执行同一个命令,最多等待到截止时间
+	 * 某个shard失败或超时不影响其它shard的结果,失败信息记录在返回值中。
+	 * 超时的shard会被断开连接,让仍在执行的命令尽快失败,连接不会在命令执行中被下一个使用者拿到;
+	 * 断开的连接归还时由连接池销毁或在下次使用时重新连接
+	 *
+	 * @param shards 每个shard的连接
+	 * @param command 要执行的命令
+	 * @param timeoutMillis 截止时间(毫秒),不大于0时一直等待
+	 */
+	public static <T> FanOutResult<T> invokeAll(Collection<Jedis> shards, final ShardCommand<T> command,
+			long timeoutMillis) {
+		List<Jedis> shardList = new ArrayList<Jedis>(shards);
+		List<Future<T>> futures = new ArrayList<Future<T>>(shardList.size());
+		for (final Jedis shard : shardList) {
+			futures.add(EXECUTOR.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return command.execute(shard);
+				}
+			}));
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		FanOutResult<T> result = new FanOutResult<T>(shardList.size());
+		for (int i = 0; i < shardList.size(); i++) {
+			Jedis shard = shardList.get(i);
+			String name = shard.getClient().getHost() + ":" + shard.getClient().getPort();
+			Future<T> future = futures.get(i);
+			try {
+				T value = timeoutMillis > 0
+						? future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+						: future.get();
+				result.success(i, name, value);
+			} catch (TimeoutException e) {
+				abort(future, shard);
+				result.failure(i, name, new JedisException(name + " timed out after " + timeoutMillis + "ms."));
+			} catch (ExecutionException e) {
+				result.failure(i, name, e.getCause());
+			} catch (InterruptedException e) {
+				for (int j = i; j < shardList.size(); j++) {
+					abort(futures.get(j), shardList.get(j));
+				}
+				Thread.currentThread().interrupt();
+				throw new JedisException("fan-out interrupted.", e);
+			}
+		}
+		return result;
+	}
+
+	private static void abort(Future<?> future, Jedis shard) {
+		if (future.cancel(true) && shard != null) {
+			try {
+				shard.disconnect();
+			} catch (Exception e) {
+				//ignore
+			}
+		}
+	}
+
+	private static <T> T call(Callable<T> task) {
+		try {
+			return task.call();
+		} catch (Exception e) {
+			throw toJedisException(e);
+		}
+	}
+
+	private static JedisException toJedisException(Throwable cause) {
+		if (cause instanceof JedisException) {
+			return (JedisException) cause;
+		}
+		return new JedisException(cause);
+	}
+}
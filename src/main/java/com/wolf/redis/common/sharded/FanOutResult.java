@@ -0,0 +1,102 @@
+package com.wolf.redis.common.sharded;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在所有shard上执行同一个命令的结果
+ * 每个shard对应一个位置,成功的shard有结果,失败或超时的shard有异常,
+ * 部分shard失败时仍然可以使用其它shard的结果
+ *
+ * @author wolf
+ */
+public final class FanOutResult<T> {
+
+	private final String[] shards;
+	private final Object[] results;
+	private final Throwable[] errors;
+	private int failedCount;
+
+	FanOutResult(int size) {
+		this.shards = new String[size];
+		this.results = new Object[size];
+		this.errors = new Throwable[size];
+	}
+
+	void success(int index, String shard, T result) {
+		shards[index] = shard;
+		results[index] = result;
+	}
+
+	void failure(int index, String shard, Throwable error) {
+		shards[index] = shard;
+		errors[index] = error;
+		failedCount++;
+	}
+
+	/**
+	 * shard数
+	 */
+	public int size() {
+		return shards.length;
+	}
+
+	/**
+	 * 所有shard都成功
+	 */
+	public boolean isComplete() {
+		return failedCount == 0;
+	}
+
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * shard的地址 host:port
+	 */
+	public String getShard(int index) {
+		return shards[index];
+	}
+
+	/**
+	 * shard的结果,失败时为null
+	 */
+	@SuppressWarnings("unchecked")
+	public T getResult(int index) {
+		return (T) results[index];
+	}
+
+	/**
+	 * shard的异常,成功时为null
+	 */
+	public Throwable getError(int index) {
+		return errors[index];
+	}
+
+	/**
+	 * 成功的shard的结果
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> getResults() {
+		List<T> list = new ArrayList<T>(shards.length - failedCount);
+		for (int i = 0; i < shards.length; i++) {
+			if (errors[i] == null) {
+				list.add((T) results[i]);
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FanOutResult{shards=").append(shards.length)
+				.append(", failed=").append(failedCount);
+		for (int i = 0; i < shards.length; i++) {
+			if (errors[i] != null) {
+				sb.append(", ").append(shards[i]).append('=').append(errors[i].getMessage());
+			}
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,297 @@
+package com.wolf.redis.common.sharded;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 合并多个线程并发的单key读取
+ * 调用get的线程把请求放入队列后等待,后台线程取出第一个请求后最多再等待window,
+ * 或者凑满maxBatch个请求,然后通过BatchReader一次读取(按shard分组,每个shard一条MGET),再唤醒各个调用方。
+ * 同一批中重复的key只读取一次。
+ *
+ * 每个请求最多增加window的延迟,换来每个连接更高的吞吐量;并发不高时收益很小,默认不启用。
+ * 调用方最多等待window加timeoutMillis,超过时抛出JedisException,这一批仍在后台线程中执行。
+ * 读取使用MGET,非string类型的key读到null而不是WRONGTYPE错误
+ * 不再使用时调用close
+ *
+ * @author wolf
+ */
+public class GetCoalescer implements Closeable {
+
+	static Logger logger = Logger.getLogger(GetCoalescer.class);
+
+	public static final long DEFAULT_WINDOW_MICROS = 200;
+	public static final int DEFAULT_MAX_BATCH = 128;
+
+	/**
+	 * 一次读取多个key,同时实现Closeable时在close中关闭
+	 */
+	public interface BatchReader {
+		/**
+		 * @return 与keys顺序一致的value,不存在的key对应null
+		 */
+		List<byte[]> mget(String[] keys);
+	}
+
+	private static final AtomicLong INDEX = new AtomicLong();
+
+	private final BatchReader reader;
+	private final long windowNanos;
+	private final int maxBatch;
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final List<Thread> dispatchers;
+	private volatile boolean running = true;
+	private volatile long timeoutMillis = Protocol.DEFAULT_TIMEOUT;
+
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong maxBatchSize = new AtomicLong();
+	private final AtomicLong queueNanos = new AtomicLong();
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	/**
+	 * @param reader 一次读取多个key
+	 * @param windowMicros 第一个请求到达后最多等待的微秒数
+	 * @param maxBatch 一批最多的请求数
+	 * @param dispatchers 后台线程数,即同时在执行的批数
+	 */
+	public GetCoalescer(BatchReader reader, long windowMicros, int maxBatch, int dispatchers) {
+		this.reader = reader;
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+		this.maxBatch = maxBatch > 0 ? maxBatch : DEFAULT_MAX_BATCH;
+		this.dispatchers = new ArrayList<Thread>(Math.max(1, dispatchers));
+		long index = INDEX.incrementAndGet();
+		for (int i = 0; i < Math.max(1, dispatchers); i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, "redis-get-coalescer-" + index + "-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			this.dispatchers.add(thread);
+		}
+	}
+
+	public GetCoalescer(BatchReader reader, long windowMicros, int maxBatch) {
+		this(reader, windowMicros, maxBatch, 1);
+	}
+
+	/**
+	 * 读取一个key,和其它线程的请求合并发送
+	 * @return value,不存在时返回null
+	 */
+	public byte[] get(String key) {
+		if (!running) {
+			throw new JedisException("get coalescer is closed.");
+		}
+		Request request = new Request(key);
+		queue.add(request);
+		if (!running && queue.remove(request)) {
+			//加入队列时后台线程可能已经退出
+			throw new JedisException("get coalescer is closed.");
+		}
+		return request.await(windowNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * 调用方在window之外最多等待的毫秒数,通常与连接的soTimeout一致,默认Protocol.DEFAULT_TIMEOUT
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * 停止后台线程,已经在队列中的请求会先处理完
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Thread thread : dispatchers) {
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(2));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.fail(new JedisException("get coalescer is closed."));
+		}
+		if (reader instanceof Closeable) {
+			try {
+				((Closeable) reader).close();
+			} catch (IOException e) {
+				logger.error("close batch reader error.", e);
+			}
+		}
+	}
+
+	/** 发送的批数 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/** 处理的请求数 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/** 平均每批的请求数 */
+	public double getAverageBatchSize() {
+		long batches = batchCount.get();
+		return batches == 0 ? 0 : (double) requestCount.get() / batches;
+	}
+
+	/** 最大的一批请求数 */
+	public long getMaxBatchSize() {
+		return maxBatchSize.get();
+	}
+
+	/** 请求在队列中的平均等待时间(微秒),即合并增加的延迟 */
+	public double getAverageQueueMicros() {
+		long requests = requestCount.get();
+		return requests == 0 ? 0 : queueNanos.get() / 1000.0 / requests;
+	}
+
+	/** 请求在队列中的最长等待时间(微秒) */
+	public long getMaxQueueMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get());
+	}
+
+	private void dispatch() {
+		List<Request> batch = new ArrayList<Request>(maxBatch);
+		while (running || !queue.isEmpty()) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatch - 1);
+				//从第一个请求到达时开始计算等待窗口
+				long deadline = first.enqueued + windowNanos;
+				while (batch.size() < maxBatch) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					queue.drainTo(batch, maxBatch - batch.size());
+				}
+			} catch (InterruptedException e) {
+				//处理完已经取出的请求后退出
+				running = false;
+			}
+			if (!batch.isEmpty()) {
+				execute(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void execute(List<Request> batch) {
+		long now = System.nanoTime();
+		Map<String, Integer> positions = new LinkedHashMap<String, Integer>(batch.size() << 1);
+		for (Request request : batch) {
+			if (!positions.containsKey(request.key)) {
+				positions.put(request.key, positions.size());
+			}
+			long waited = now - request.enqueued;
+			queueNanos.addAndGet(waited);
+			max(maxQueueNanos, waited);
+		}
+		batchCount.incrementAndGet();
+		requestCount.addAndGet(batch.size());
+		max(maxBatchSize, batch.size());
+		List<byte[]> values;
+		try {
+			values = reader.mget(positions.keySet().toArray(new String[positions.size()]));
+			if (values == null || values.size() != positions.size()) {
+				throw new JedisException("coalesced get expects " + positions.size() + " values, got "
+						+ (values == null ? null : values.size()) + ".");
+			}
+		} catch (Throwable e) {
+			//Error也只让这一批失败,后台线程继续处理之后的请求
+			logger.error("coalesced get error, batch size is :" + batch.size(), e);
+			RuntimeException error = e instanceof RuntimeException ? (RuntimeException) e
+					: new JedisException("coalesced get error.", e);
+			for (Request request : batch) {
+				request.fail(error);
+			}
+			return;
+		}
+		for (Request request : batch) {
+			request.complete(values.get(positions.get(request.key)));
+		}
+	}
+
+	private static void max(AtomicLong max, long value) {
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				return;
+			}
+		}
+	}
+
+	private static final class Request {
+		final String key;
+		final long enqueued = System.nanoTime();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private byte[] value;
+		private RuntimeException error;
+
+		Request(String key) {
+			this.key = key;
+		}
+
+		void complete(byte[] value) {
+			this.value = value;
+			done.countDown();
+		}
+
+		void fail(RuntimeException error) {
+			this.error = error;
+			done.countDown();
+		}
+
+		byte[] await(long timeoutNanos) {
+			try {
+				if (!done.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+					throw new JedisException("coalesced get timed out, key is :" + key);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JedisException("coalesced get interrupted.", e);
+			}
+			if (error != null) {
+				throw error;
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package com.wolf.redis.common.sharded;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * ShardedJedis的多key批量操作
+ * 先按key所在的shard分组,每个shard只发送一条多key命令(或一个pipeline),多个shard并行执行,
+ * 最后按调用方传入的顺序组装结果
+ *
+ * @author wolf
+ */
+public final class ShardedBatch {
+
+	private ShardedBatch() {
+	}
+
+	/**
+	 * 分shard执行MGET
+	 * @param shardedJedis
+	 * @param keys
+	 * @return 与keys顺序一致的value列表,不存在的key对应null
+	 */
+	public static List<String> mget(ShardedJedis shardedJedis, String... keys) {
+		List<ShardGroup<String>> groups = groupByShard(shardedJedis, keys, 1);
+		List<List<String>> replies = fanOut(groups, new ShardCall<String, List<String>>() {
+			@Override
+			public List<String> call(ShardGroup<String> group) {
+				return group.shard.mget(group.keys(new String[group.size]));
+			}
+		});
+		return scatter(groups, replies, new String[keys.length]);
+	}
+
+	/**
+	 * 分shard执行MGET(二进制key)
+	 * 二进制key和BinaryShardedJedis一样按完整的key计算shard
+	 * @param shardedJedis
+	 * @param keys
+	 * @return 与keys顺序一致的value列表,不存在的key对应null
+	 */
+	public static List<byte[]> mget(ShardedJedis shardedJedis, byte[]... keys) {
+		List<ShardGroup<byte[]>> groups = groupByShard(shardedJedis, keys, 1);
+		List<List<byte[]>> replies = fanOut(groups, new ShardCall<byte[], List<byte[]>>() {
+			@Override
+			public List<byte[]> call(ShardGroup<byte[]> group) {
+				return group.shard.mget(group.keys(new byte[group.size][]));
+			}
+		});
+		return scatter(groups, replies, new byte[keys.length][]);
+	}
+
+	/**
+	 * 分shard执行MGET,按String key计算shard,以二进制形式返回value
+	 * 与String命令的分片(包括keyTag)保持一致,用于codec写入的对象
+	 * @param shardedJedis
+	 * @param keys
+	 * @return 与keys顺序一致的value列表,不存在的key对应null
+	 */
+	public static List<byte[]> mgetBinary(ShardedJedis shardedJedis, String... keys) {
+		List<ShardGroup<String>> groups = groupByShard(shardedJedis, keys, 1);
+		List<List<byte[]>> replies = fanOut(groups, new ShardCall<String, List<byte[]>>() {
+			@Override
+			public List<byte[]> call(ShardGroup<String> group) {
+				byte[][] binaryKeys = new byte[group.size][];
+				for (int i = 0; i < group.size; i++) {
+					binaryKeys[i] = SafeEncoder.encode(group.key(i));
+				}
+				return group.shard.mget(binaryKeys);
+			}
+		});
+		return scatter(groups, replies, new byte[keys.length][]);
+	}
+
+	/**
+	 * 分shard执行MSET
+	 * @param shardedJedis
+	 * @param keysvalues key,value交替的数组
+	 */
+	public static void mset(ShardedJedis shardedJedis, String... keysvalues) {
+		fanOut(groupByShard(shardedJedis, keysvalues, 2), new ShardCall<String, String>() {
+			@Override
+			public String call(ShardGroup<String> group) {
+				return group.shard.mset(group.pairs(new String[group.size << 1]));
+			}
+		});
+	}
+
+	/**
+	 * 分shard执行MSET(二进制key)
+	 * @param shardedJedis
+	 * @param keysvalues key,value交替的数组
+	 */
+	public static void mset(ShardedJedis shardedJedis, byte[]... keysvalues) {
+		fanOut(groupByShard(shardedJedis, keysvalues, 2), new ShardCall<byte[], String>() {
+			@Override
+			public String call(ShardGroup<byte[]> group) {
+				return group.shard.mset(group.pairs(new byte[group.size << 1][]));
+			}
+		});
+	}
+
+	/**
+	 * 分shard设置多个key并设置相同的过期时间
+	 * 每个shard的SETEX放在一个pipeline里发送,过期时间不大于0时每个shard执行一次MSET
+	 * @param shardedJedis
+	 * @param seconds 过期时间(秒)
+	 * @param keysvalues key,value交替的数组
+	 */
+	public static void setex(ShardedJedis shardedJedis, final int seconds, String... keysvalues) {
+		if (seconds <= 0) {
+			mset(shardedJedis, keysvalues);
+			return;
+		}
+		fanOut(groupByShard(shardedJedis, keysvalues, 2), new ShardCall<String, Void>() {
+			@Override
+			public Void call(ShardGroup<String> group) {
+				Pipeline pipeline = group.shard.pipelined();
+				for (int i = 0; i < group.size; i++) {
+					pipeline.setex(group.key(i), seconds, group.value(i));
+				}
+				pipeline.sync();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * 分shard设置多个二进制value并设置相同的过期时间,按String key计算shard
+	 * @param shardedJedis
+	 * @param seconds 过期时间(秒),不大于0时不过期
+	 * @param keys
+	 * @param values 与keys顺序一致的value
+	 */
+	public static void setex(ShardedJedis shardedJedis, final int seconds, String[] keys, final byte[][] values) {
+		fanOut(groupByShard(shardedJedis, keys, 1), new ShardCall<String, Void>() {
+			@Override
+			public Void call(ShardGroup<String> group) {
+				Pipeline pipeline = group.shard.pipelined();
+				for (int i = 0; i < group.size; i++) {
+					byte[] key = SafeEncoder.encode(group.key(i));
+					byte[] value = values[group.positions[i]];
+					if (seconds > 0) {
+						pipeline.setex(key, seconds, value);
+					} else {
+						pipeline.set(key, value);
+					}
+				}
+				pipeline.sync();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * 分shard执行SETNX
+	 * 原生MSETNX只要有一个key存在就全部不设置,这里保持逐个key的SETNX语义,
+	 * 每个shard的SETNX放在一个pipeline里发送
+	 * @param shardedJedis
+	 * @param keysvalues key,value交替的数组
+	 * @return 设置成功的key的个数
+	 */
+	public static long msetnx(ShardedJedis shardedJedis, String... keysvalues) {
+		return sum(fanOut(groupByShard(shardedJedis, keysvalues, 2), new ShardCall<String, Long>() {
+			@Override
+			public Long call(ShardGroup<String> group) {
+				Pipeline pipeline = group.shard.pipelined();
+				List<Response<Long>> responses = new ArrayList<Response<Long>>(group.size);
+				for (int i = 0; i < group.size; i++) {
+					responses.add(pipeline.setnx(group.key(i), group.value(i)));
+				}
+				pipeline.sync();
+				return countPositive(responses);
+			}
+		}));
+	}
+
+	/**
+	 * 分shard执行SETNX(二进制key)
+	 * @param shardedJedis
+	 * @param keysvalues key,value交替的数组
+	 * @return 设置成功的key的个数
+	 */
+	public static long msetnx(ShardedJedis shardedJedis, byte[]... keysvalues) {
+		return sum(fanOut(groupByShard(shardedJedis, keysvalues, 2), new ShardCall<byte[], Long>() {
+			@Override
+			public Long call(ShardGroup<byte[]> group) {
+				Pipeline pipeline = group.shard.pipelined();
+				List<Response<Long>> responses = new ArrayList<Response<Long>>(group.size);
+				for (int i = 0; i < group.size; i++) {
+					responses.add(pipeline.setnx(group.key(i), group.value(i)));
+				}
+				pipeline.sync();
+				return countPositive(responses);
+			}
+		}));
+	}
+
+	/**
+	 * 分shard执行DEL
+	 * @param shardedJedis
+	 * @param keys
+	 * @return 删除的key的个数
+	 */
+	public static long del(ShardedJedis shardedJedis, String... keys) {
+		return sum(fanOut(groupByShard(shardedJedis, keys, 1), new ShardCall<String, Long>() {
+			@Override
+			public Long call(ShardGroup<String> group) {
+				return group.shard.del(group.keys(new String[group.size]));
+			}
+		}));
+	}
+
+	/**
+	 * 分shard执行DEL(二进制key)
+	 * 与String key一样按解码后的key分片,keyTagPattern同样生效,
+	 * setObject等按String key写入的值可以用二进制key删除
+	 * @param shardedJedis
+	 * @param keys
+	 * @return 删除的key的个数
+	 */
+	public static long del(ShardedJedis shardedJedis, final byte[]... keys) {
+		String[] names = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			names[i] = SafeEncoder.encode(keys[i]);
+		}
+		return sum(fanOut(groupByShard(shardedJedis, names, 1), new ShardCall<String, Long>() {
+			@Override
+			public Long call(ShardGroup<String> group) {
+				byte[][] groupKeys = new byte[group.size][];
+				for (int i = 0; i < group.size; i++) {
+					groupKeys[i] = keys[group.positions[i]];
+				}
+				return group.shard.del(groupKeys);
+			}
+		}));
+	}
+
+	/**
+	 * 按shard分组
+	 * @param shardedJedis
+	 * @param keys key数组,step为2时是key,value交替的数组
+	 * @param step 相邻两个key之间的间隔
+	 * @return 每个shard一组,组内保持key在原数组中的先后顺序
+	 */
+	static <K> List<ShardGroup<K>> groupByShard(ShardedJedis shardedJedis, K[] keys, int step) {
+		Map<Jedis, ShardGroup<K>> groups = new LinkedHashMap<Jedis, ShardGroup<K>>();
+		for (int i = 0; i < keys.length; i += step) {
+			Jedis shard = shardOf(shardedJedis, keys[i]);
+			ShardGroup<K> group = groups.get(shard);
+			if (group == null) {
+				group = new ShardGroup<K>(shard, keys);
+				groups.put(shard, group);
+			}
+			group.add(i);
+		}
+		return new ArrayList<ShardGroup<K>>(groups.values());
+	}
+
+	/**
+	 * 每个shard执行一次call,只涉及一个shard时直接在调用线程中执行
+	 * @return 与groups顺序一致的结果
+	 */
+	static <K, R> List<R> fanOut(List<ShardGroup<K>> groups, final ShardCall<K, R> call) {
+		if (groups.size() == 1) {
+			List<R> results = new ArrayList<R>(1);
+			results.add(call.call(groups.get(0)));
+			return results;
+		}
+		List<Callable<R>> tasks = new ArrayList<Callable<R>>(groups.size());
+		List<Jedis> shards = new ArrayList<Jedis>(groups.size());
+		for (final ShardGroup<K> group : groups) {
+			shards.add(group.shard);
+			tasks.add(new Callable<R>() {
+				@Override
+				public R call() throws Exception {
+					return call.call(group);
+				}
+			});
+		}
+		return FanOutExecutor.invokeAll(tasks, shards);
+	}
+
+	private static Jedis shardOf(ShardedJedis shardedJedis, Object key) {
+		if (key instanceof byte[]) {
+			return shardedJedis.getShard((byte[]) key);
+		}
+		return shardedJedis.getShard((String) key);
+	}
+
+	private static <K, V> List<V> scatter(List<ShardGroup<K>> groups, List<List<V>> replies, V[] values) {
+		for (int g = 0; g < groups.size(); g++) {
+			ShardGroup<K> group = groups.get(g);
+			List<V> reply = replies.get(g);
+			for (int i = 0; i < group.size; i++) {
+				values[group.positions[i]] = reply.get(i);
+			}
+		}
+		return new ArrayList<V>(Arrays.asList(values));
+	}
+
+	private static long countPositive(List<Response<Long>> responses) {
+		long count = 0;
+		for (Response<Long> response : responses) {
+			if (response.get() > 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static long sum(List<Long> counts) {
+		long total = 0;
+		for (Long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * 在单个shard上执行的操作
+	 */
+	interface ShardCall<K, R> {
+		R call(ShardGroup<K> group);
+	}
+
+	/**
+	 * 同一个shard上的key在原数组中的下标
+	 */
+	static final class ShardGroup<K> {
+		final Jedis shard;
+		private final K[] source;
+		int[] positions = new int[8];
+		int size;
+
+		ShardGroup(Jedis shard, K[] source) {
+			this.shard = shard;
+			this.source = source;
+		}
+
+		void add(int position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size << 1);
+			}
+			positions[size++] = position;
+		}
+
+		K key(int i) {
+			return source[positions[i]];
+		}
+
+		K value(int i) {
+			return source[positions[i] + 1];
+		}
+
+		/**
+		 * 取出本组的key
+		 */
+		K[] keys(K[] target) {
+			for (int i = 0; i < size; i++) {
+				target[i] = source[positions[i]];
+			}
+			return target;
+		}
+
+		/**
+		 * 取出本组key,value交替的数组
+		 */
+		K[] pairs(K[] target) {
+			for (int i = 0; i < size; i++) {
+				target[i << 1] = source[positions[i]];
+				target[(i << 1) + 1] = source[positions[i] + 1];
+			}
+			return target;
+		}
+	}
+}
@@ -9,7 +9,8 @@ import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Repository;
-import com.alibaba.fastjson.JSON;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
 
 /**
  * 使用Spring对RedisTemplate的封装
@@ -25,6 +26,17 @@ public class BaseRedisTemplate<K, V> {
 	
 	static Logger logger = Logger.getLogger(BaseRedisTemplate.class);
 	
+	//对象与字节之间的转换,默认json
+	protected ValueCodec codec = new JsonCodec();
+	
+	public ValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+	
 	/**
 	 * 
 	  * setObject(存放对象到redis)
@@ -35,11 +47,11 @@ public class BaseRedisTemplate<K, V> {
 	  * @throws
 	 */
 	public void setObject(final String key,final V entity) {  
-		final String value = JSON.toJSONString(entity);
+		final byte[] value = codec.encode(entity);
 	    redisTemplate.execute(new RedisCallback<Object>() {  
 	        @Override
 	        public Object doInRedis(RedisConnection connection)throws DataAccessException {
-	            connection.set(redisTemplate.getStringSerializer().serialize(key),redisTemplate.getStringSerializer().serialize(value));  
+	            connection.set(redisTemplate.getStringSerializer().serialize(key),value);  
 	            return null;  
 	        }  
 	    });  
@@ -61,8 +73,7 @@ public class BaseRedisTemplate<K, V> {
 	            byte[] key_byte = redisTemplate.getStringSerializer().serialize(key);  
 	            if (connection.exists(key_byte)) {  
 	                byte[] value = connection.get(key_byte);  
-	                String json = redisTemplate.getStringSerializer().deserialize(value);  
-	                V entity = JSON.parseObject(json,clazz);
+	                V entity = codec.decode(value,clazz);
 	                return entity;  
 	            }  
 	            return null;  
@@ -0,0 +1,148 @@
+package com.wolf.test.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wolf.redis.common.cache.InvalidationBus;
+import com.wolf.redis.common.cache.NearCache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * 两个NearCache模拟两个应用节点,验证一个节点写入后另一个节点的一级缓存被失效
+ * 需要127.0.0.1:6379上的redis
+ */
+public class InvalidationBusTest {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+
+	@Test
+	public void publish() throws Exception {
+		NearCache cacheA = new NearCache(100, 60);
+		NearCache cacheB = new NearCache(100, 60);
+		InvalidationBus busA = new InvalidationBus(cacheA, HOST, PORT);
+		InvalidationBus busB = new InvalidationBus(cacheB, HOST, PORT);
+		busA.start();
+		busB.start();
+		try {
+			Thread.sleep(300);
+			cacheA.putString("bus_key", "a", 1, -1, cacheA.stamp());
+			cacheB.putString("bus_key", "b", 1, -1, cacheB.stamp());
+			cacheB.putString("bus_other", "b", 1, -1, cacheB.stamp());
+			cacheB.putString("bus\nline", "b", 1, -1, cacheB.stamp());
+			cacheB.putString("bus", "b", 1, -1, cacheB.stamp());
+			cacheB.putString("line", "b", 1, -1, cacheB.stamp());
+
+			busA.publish("bus_key", "bus\nline");
+			waitFor(cacheB, "bus_key");
+
+			System.out.println("published:" + busA.getPublishedCount() + " received:" + busB.getReceivedCount());
+			Assert.assertNull(cacheB.getString("bus_key"));
+			Assert.assertEquals("b", cacheB.getString("bus_other"));
+			//包含换行的key作为一个key失效
+			Assert.assertNull(cacheB.getString("bus\nline"));
+			Assert.assertEquals("b", cacheB.getString("bus"));
+			Assert.assertEquals("b", cacheB.getString("line"));
+			//自己发布的消息不处理
+			Assert.assertEquals("a", cacheA.getString("bus_key"));
+			Assert.assertEquals(0, busA.getReceivedCount());
+		} finally {
+			busA.close();
+			busB.close();
+		}
+	}
+
+	@Test
+	public void resubscribeAfterDisconnect() throws Exception {
+		NearCache cacheA = new NearCache(100, 60);
+		NearCache cacheB = new NearCache(100, 60);
+		InvalidationBus busA = new InvalidationBus(cacheA, HOST, PORT);
+		InvalidationBus busB = new InvalidationBus(cacheB, HOST, PORT);
+		busA.start();
+		busB.start();
+		Jedis jedis = new Jedis(HOST, PORT);
+		try {
+			Thread.sleep(300);
+			cacheB.putString("bus_gap1", "b", 1, -1, cacheB.stamp());
+			cacheB.putString("bus_gap2", "b", 1, -1, cacheB.stamp());
+			Assert.assertEquals(0, busB.getGapCount());
+
+			//断开订阅连接,期间的消息可能丢失,清空本地缓存
+			int killed = 0;
+			for (String client : jedis.clientList().split("\n")) {
+				if (client.contains("cmd=subscribe")) {
+					for (String field : client.split(" ")) {
+						if (field.startsWith("addr=")) {
+							jedis.clientKill(field.substring("addr=".length()));
+							killed++;
+						}
+					}
+				}
+			}
+			Assert.assertEquals(2, killed);
+			//断开时一次,重新订阅成功时一次
+			for (int i = 0; i < 100 && busB.getGapCount() < 2; i++) {
+				Thread.sleep(20);
+			}
+			System.out.println("gaps:" + busB.getGapCount() + " size:" + cacheB.size());
+			Assert.assertEquals(2, busB.getGapCount());
+			Assert.assertEquals(0, cacheB.size());
+
+			//重新订阅后继续接收消息
+			cacheB.putString("bus_gap1", "b", 1, -1, cacheB.stamp());
+			busA.publish("bus_gap1");
+			waitFor(cacheB, "bus_gap1");
+			Assert.assertNull(cacheB.getString("bus_gap1"));
+		} finally {
+			busA.close();
+			busB.close();
+			jedis.close();
+		}
+	}
+
+	@Test
+	public void keyspace() throws Exception {
+		Jedis jedis = new Jedis(HOST, PORT);
+		List<String> events = jedis.configGet("notify-keyspace-events");
+		String original = events.size() > 1 ? events.get(1) : "";
+		jedis.configSet("notify-keyspace-events", "KA");
+		NearCache cache = new NearCache(100, 60);
+		List<JedisShardInfo> nodes = new ArrayList<JedisShardInfo>();
+		nodes.add(new JedisShardInfo(HOST, PORT));
+		InvalidationBus bus = new InvalidationBus(cache, nodes, InvalidationBus.Source.KEYSPACE);
+		bus.start();
+		try {
+			Thread.sleep(300);
+			cache.putString("bus_keyspace", "old", 3, -1, cache.stamp());
+			//不经过工具类的写入
+			jedis.set("bus_keyspace", "new");
+			waitFor(cache, "bus_keyspace");
+
+			System.out.println("notifications:" + bus.getReceivedCount());
+			Assert.assertNull(cache.getString("bus_keyspace"));
+		} finally {
+			bus.close();
+			jedis.del("bus_keyspace");
+			//共用的redis,恢复原来的配置
+			jedis.configSet("notify-keyspace-events", original);
+			jedis.close();
+		}
+	}
+
+	private static void waitFor(NearCache cache, String key) throws InterruptedException {
+		for (int i = 0; i < 50 && cache.size() > 0 && containsKey(cache, key); i++) {
+			Thread.sleep(20);
+		}
+	}
+
+	private static boolean containsKey(NearCache cache, String key) {
+		long hits = cache.getHitCount();
+		cache.getString(key);
+		return cache.getHitCount() > hits;
+	}
+}
@@ -0,0 +1,74 @@
+package com.wolf.test.codec;
+
+import com.wolf.redis.common.codec.BinaryCodec;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.entity.RoleInfo;
+import com.wolf.redis.entity.UserInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * JsonCodec与BinaryCodec的对比:写入redis的字节数,每次encode/decode分配的内存,吞吐量
+ * 不需要redis
+ * 运行: mvn test -Dtest=CodecBenchmark
+ */
+public class CodecBenchmark {
+
+	private static final int WARMUP = 200000;
+	private static final int ROUNDS = 1000000;
+
+	private final ValueCodec[] codecs = {new JsonCodec(), new BinaryCodec()};
+
+	@Test
+	public void userInfo() {
+		UserInfo user = new UserInfo("100001", "张三", "北京市海淀区中关村大街1号", "13800000000");
+		for (ValueCodec codec : codecs) {
+			Assert.assertEquals(user.toString(), codec.decode(codec.encode(user), UserInfo.class).toString());
+			run(codec, user, UserInfo.class);
+		}
+	}
+
+	@Test
+	public void roleInfo() {
+		RoleInfo role = new RoleInfo("2001", "administrator", "manage users and roles");
+		for (ValueCodec codec : codecs) {
+			Assert.assertEquals(role.toString(), codec.decode(codec.encode(role), RoleInfo.class).toString());
+			run(codec, role, RoleInfo.class);
+		}
+	}
+
+	private <E> void run(ValueCodec codec, E object, Class<E> clazz) {
+		byte[] bytes = codec.encode(object);
+		loop(codec, object, clazz, bytes, WARMUP);
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		long checksum = loop(codec, object, clazz, bytes, ROUNDS);
+		long nanos = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		System.out.println(String.format("%s %s bytes=%d alloc=%dB/op throughput=%.0f ops/s checksum=%d",
+				clazz.getSimpleName(), codec.getClass().getSimpleName(), bytes.length, allocated / ROUNDS,
+				ROUNDS * 1e9 / nanos, checksum));
+	}
+
+	/**
+	 * 每一轮做一次encode和一次decode
+	 */
+	private <E> long loop(ValueCodec codec, E object, Class<E> clazz, byte[] bytes, int rounds) {
+		long checksum = 0;
+		for (int i = 0; i < rounds; i++) {
+			checksum += codec.encode(object).length;
+			checksum += codec.decode(bytes, clazz).hashCode() & 1;
+		}
+		return checksum;
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
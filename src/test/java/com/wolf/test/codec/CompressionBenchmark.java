@@ -0,0 +1,129 @@
+package com.wolf.test.codec;
+
+import com.wolf.redis.common.codec.CompressingCodec;
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.entity.UserInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CompressingCodec对UserInfo列表的效果:
+ * codecOnly 不同大小的列表压缩前后的字节数、encode+decode的耗时,按BANDWIDTH_BITS计算少传输的字节节省的时间,
+ * 输出节省不少于压缩耗时的最小大小(盈亏点),用于选择threshold;
+ * redisRoundTrip 通过本地redis SET+GET的吞吐量
+ * 运行: mvn test -Dtest=CompressionBenchmark
+ */
+public class CompressionBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int[] SIZES = {1, 4, 8, 16, 32, 64, 256, 1024, 2048};
+	private static final long MILLIS = 1000;
+	/** 计算盈亏点使用的网络带宽,本地redis的回环连接看不出传输的节省 */
+	private static final long BANDWIDTH_BITS = 1000L * 1000 * 1000;
+
+	private static final String[] NAMES = {"张三", "李四", "王五", "赵六", "孙七", "周八", "吴九", "郑十"};
+	private static final String[] STREETS = {"中关村大街", "长安街", "建国路", "学院路", "望京街"};
+
+	@Test
+	public void codecOnly() {
+		ValueCodec plain = new JsonCodec();
+		ValueCodec compressing = new CompressingCodec(new JsonCodec(), 0);
+		//第一轮预热
+		int breakEven = -1;
+		for (int round = 0; round < 2; round++) {
+			for (int size : SIZES) {
+				List<UserInfo> users = users(size);
+				byte[] raw = plain.encode(users);
+				byte[] compressed = compressing.encode(users);
+				Assert.assertEquals(plain.decode(raw, List.class), compressing.decode(compressed, List.class));
+				long rounds = Math.max(200, 20000000 / raw.length);
+				double plainNanos = (double) codecLoop(plain, users, rounds) / rounds;
+				double compressingNanos = (double) codecLoop(compressing, users, rounds) / rounds;
+				if (round == 0) {
+					continue;
+				}
+				//SET写出和GET读回各传输一次
+				double savedNanos = 2.0 * (raw.length - compressed.length) * 8 * 1e9 / BANDWIDTH_BITS;
+				if (breakEven < 0 && savedNanos >= compressingNanos - plainNanos) {
+					breakEven = raw.length;
+				}
+				System.out.println(String.format(
+						"users=%d raw=%dB compressed=%dB ratio=%.2f plain=%.1fus compressing=%.1fus transfer saved=%.1fus",
+						size, raw.length, compressed.length, (double) compressed.length / raw.length,
+						plainNanos / 1000, compressingNanos / 1000, savedNanos / 1000));
+			}
+		}
+		System.out.println("break-even size at " + BANDWIDTH_BITS / 1000000 + "Mbit/s="
+				+ (breakEven < 0 ? "none" : breakEven + "B"));
+	}
+
+	@Test
+	public void redisRoundTrip() {
+		ValueCodec plain = new JsonCodec();
+		ValueCodec compressing = new CompressingCodec(new JsonCodec(), 0);
+		Jedis jedis = new Jedis(HOST, PORT);
+		try {
+			byte[] key = SafeEncoder.encode("bench-compression");
+			//第一轮预热
+			for (int round = 0; round < 2; round++) {
+				for (int size : SIZES) {
+					List<UserInfo> users = users(size);
+					long millis = round == 0 ? MILLIS / 4 : MILLIS;
+					double plainOps = redisLoop(jedis, key, plain, users, millis) * 1000.0 / millis;
+					double compressingOps = redisLoop(jedis, key, compressing, users, millis) * 1000.0 / millis;
+					if (round == 1) {
+						System.out.println(String.format(
+								"users=%d raw=%dB plain=%.0f ops/s compressing=%.0f ops/s (%+.0f%%)", size,
+								plain.encode(users).length, plainOps, compressingOps,
+								(compressingOps / plainOps - 1) * 100));
+					}
+				}
+			}
+			jedis.del(key);
+		} finally {
+			jedis.disconnect();
+		}
+	}
+
+	private long codecLoop(ValueCodec codec, List<UserInfo> users, long rounds) {
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (long i = 0; i < rounds; i++) {
+			checksum += codec.decode(codec.encode(users), List.class).size();
+		}
+		long nanos = System.nanoTime() - start;
+		Assert.assertEquals(rounds * users.size(), checksum);
+		return nanos;
+	}
+
+	/**
+	 * 每次SET一个encode的值,再GET并decode
+	 */
+	private long redisLoop(Jedis jedis, byte[] key, ValueCodec codec, List<UserInfo> users, long millis) {
+		long ops = 0;
+		long end = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < end) {
+			jedis.set(key, codec.encode(users));
+			Assert.assertEquals(users.size(), codec.decode(jedis.get(key), List.class).size());
+			ops++;
+		}
+		return ops;
+	}
+
+	private static List<UserInfo> users(int size) {
+		List<UserInfo> users = new ArrayList<UserInfo>(size);
+		for (int i = 0; i < size; i++) {
+			users.add(new UserInfo(String.valueOf(100000 + i), NAMES[i % NAMES.length],
+					"北京市海淀区" + STREETS[i % STREETS.length] + (i % 97 + 1) + "号",
+					"138" + String.format("%08d", i * 7919 % 100000000)));
+		}
+		return users;
+	}
+}
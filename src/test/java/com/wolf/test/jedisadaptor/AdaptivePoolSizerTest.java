@@ -0,0 +1,84 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.AdaptivePoolSizer;
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.metrics.PoolMetrics;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.test.nio.RespStubServer;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 借出等待的统计,以及AdaptivePoolSizer在连接池不够用时增加、空闲时减少连接
+ * 使用进程内的RespStubServer,不需要redis
+ */
+public class AdaptivePoolSizerTest {
+
+	@Test
+	public void growAndShrink() throws Exception {
+		RespStubServer server = new RespStubServer();
+		JedisPoolConfig config = new JedisPoolConfig();
+		config.setMaxTotal(2);
+		config.setMaxIdle(2);
+		config.setMaxWaitMillis(5000);
+		final JedisPoolAdaptor pool = new JedisPoolAdaptor(config, "127.0.0.1", server.getPort());
+		RedisMetrics metrics = new RedisMetrics(RedisMetrics.DEFAULT_DOMAIN, false);
+		pool.setPoolMetrics(metrics.pool("adaptive"));
+		// 由测试调用adjust,定时检查在测试期间不会执行
+		AdaptivePoolSizer sizer = pool.enableAdaptiveSizing(2, 16, 3600 * 1000);
+		sizer.setShrinkAfterIntervals(1);
+		try {
+			// 8个线程争用2个连接
+			int threads = 8;
+			final CountDownLatch done = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 10; i++) {
+								JedisAdaptor jedis = pool.getResource();
+								try {
+									jedis.set("adaptive-" + i, "value");
+									Thread.sleep(10);
+								} finally {
+									pool.returnResource(jedis);
+								}
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							done.countDown();
+						}
+					}
+				}).start();
+			}
+			done.await();
+			PoolMetrics poolMetrics = pool.getPoolMetrics();
+			System.out.println(poolMetrics);
+			Assert.assertEquals(80, poolMetrics.getBorrowCount());
+			Assert.assertEquals(0, poolMetrics.getBorrowFailures());
+			Assert.assertEquals(2, poolMetrics.getCreateCount());
+			Assert.assertTrue(poolMetrics.getBorrowWaitP99Micros() > 1000);
+
+			sizer.adjust();
+			System.out.println("after burst maxTotal=" + pool.getMaxTotal() + " maxIdle=" + pool.getMaxIdle());
+			Assert.assertEquals(3, pool.getMaxTotal());
+			Assert.assertEquals(2, pool.getMaxIdle());
+
+			// 没有请求,收缩
+			sizer.adjust();
+			System.out.println("after quiet maxTotal=" + pool.getMaxTotal() + " maxIdle=" + pool.getMaxIdle());
+			Assert.assertEquals(2, pool.getMaxTotal());
+			Assert.assertEquals(1, pool.getMaxIdle());
+			Assert.assertEquals(2, sizer.getResizeCount());
+		} finally {
+			pool.destroy();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.codec.JsonCodec;
+import com.wolf.redis.common.codec.ValueCodec;
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.entity.RoleInfo;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 写入大List时其它客户端的延迟:一条RPUSH写入全部元素与分块流式写入的对比
+ * 写入期间另一个连接不停执行GET,统计它的p50/p99/max延迟
+ * 需要本地redis
+ * 运行: mvn test -Dtest=CollectionWriteBenchmark
+ */
+public class CollectionWriteBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int ELEMENTS = 1000000;
+	private static final String KEY = "bench-write-list";
+	private static final String PROBE_KEY = "bench-write-probe";
+
+	private final ValueCodec codec = new JsonCodec();
+
+	@Test
+	public void singleCommandVsChunked() throws InterruptedException {
+		Jedis jedis = new Jedis(HOST, PORT);
+		JedisAdaptor adaptor = new JedisAdaptor(jedis);
+		try {
+			jedis.set(PROBE_KEY, "probe");
+			jedis.del(KEY);
+
+			Probe probe = Probe.start();
+			long start = System.nanoTime();
+			byte[][] elements = new byte[ELEMENTS][];
+			Iterator<RoleInfo> roles = roles();
+			for (int i = 0; i < ELEMENTS; i++) {
+				elements[i] = codec.encode(roles.next());
+			}
+			jedis.rpush(SafeEncoder.encode(KEY), elements);
+			long nanos = System.nanoTime() - start;
+			elements = null;
+			print("single rpush", nanos, probe.stop());
+			jedis.del(KEY);
+
+			probe = Probe.start();
+			start = System.nanoTime();
+			adaptor.writeListObjects(KEY, roles(), true);
+			nanos = System.nanoTime() - start;
+			print("chunked replace", nanos, probe.stop());
+			System.out.println("llen : " + jedis.llen(KEY));
+			jedis.del(KEY, PROBE_KEY);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	private void print(String name, long nanos, long[] latencies) {
+		Arrays.sort(latencies);
+		System.out.println(String.format("%s elements=%d write=%dms probes=%d p50=%.1fus p99=%.1fus max=%.1fms",
+				name, ELEMENTS, nanos / 1000000, latencies.length, percentile(latencies, 0.5) / 1000.0,
+				percentile(latencies, 0.99) / 1000.0, latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6));
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * p))];
+	}
+
+	private static Iterator<RoleInfo> roles() {
+		return new Iterator<RoleInfo>() {
+			private int i;
+
+			@Override
+			public boolean hasNext() {
+				return i < ELEMENTS;
+			}
+
+			@Override
+			public RoleInfo next() {
+				i++;
+				return new RoleInfo(String.valueOf(i), "role-" + i, "benchmark role");
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * 另一个客户端,在自己的连接上不停执行GET并记录每次的延迟
+	 */
+	private static final class Probe implements Runnable {
+		private final Jedis jedis = new Jedis(HOST, PORT);
+		private volatile boolean running = true;
+		private long[] latencies = new long[1 << 16];
+		private int count;
+		private Thread thread;
+
+		static Probe start() {
+			Probe probe = new Probe();
+			probe.jedis.get(PROBE_KEY);
+			probe.thread = new Thread(probe, "write-benchmark-probe");
+			probe.thread.start();
+			return probe;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				long start = System.nanoTime();
+				jedis.get(PROBE_KEY);
+				if (count == latencies.length) {
+					latencies = Arrays.copyOf(latencies, count << 1);
+				}
+				latencies[count++] = System.nanoTime() - start;
+			}
+		}
+
+		long[] stop() throws InterruptedException {
+			running = false;
+			thread.join();
+			jedis.close();
+			return Arrays.copyOf(latencies, count);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.sharded.GetCoalescer;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程并发单key GET:每个请求占用一个连接与合并成MGET的对比
+ * 连接数远少于线程数,统计吞吐量以及合并后的平均批大小和排队延迟
+ * 所有shard都指向同一个本地redis,用不同的name模拟多个shard
+ * 运行: mvn test -Dtest=GetCoalescingBenchmark
+ */
+public class GetCoalescingBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int SHARDS = 3;
+	private static final int CONNECTIONS = 8;
+	private static final int THREADS = 64;
+	private static final int KEYS = 1000;
+	private static final long MILLIS = 5000;
+
+	@Test
+	public void coalescedVsDirect() throws InterruptedException {
+		JedisPoolConfig config = new JedisPoolConfig();
+		config.setMaxTotal(CONNECTIONS);
+		config.setMaxIdle(CONNECTIONS);
+		JedisPoolAdaptor pool = new JedisPoolAdaptor(config, shards());
+		try {
+			JedisAdaptor jedis = pool.getResource();
+			for (int i = 0; i < KEYS; i++) {
+				jedis.set("bench-coalesce-" + i, "value-" + i);
+			}
+			pool.returnResource(jedis);
+
+			run("direct", pool);
+			pool.enableGetCoalescing(GetCoalescer.DEFAULT_WINDOW_MICROS, GetCoalescer.DEFAULT_MAX_BATCH);
+			run("coalesced", pool);
+			GetCoalescer coalescer = pool.getGetCoalescer();
+			System.out.println(String.format("batches=%d avgBatch=%.1f maxBatch=%d avgQueue=%.1fus maxQueue=%dus",
+					coalescer.getBatchCount(), coalescer.getAverageBatchSize(), coalescer.getMaxBatchSize(),
+					coalescer.getAverageQueueMicros(), coalescer.getMaxQueueMicros()));
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	private void run(String name, final JedisPoolAdaptor pool) throws InterruptedException {
+		final AtomicLong ops = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final long end = System.currentTimeMillis() + MILLIS;
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							int i = ThreadLocalRandom.current().nextInt(KEYS);
+							JedisAdaptor jedis = pool.getResource();
+							try {
+								if (!("value-" + i).equals(jedis.get("bench-coalesce-" + i))) {
+									misses.incrementAndGet();
+								}
+							} finally {
+								pool.returnResource(jedis);
+							}
+							ops.incrementAndGet();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		System.out.println(String.format("%s threads=%d connections=%d throughput=%.0f ops/s misses=%d", name,
+				THREADS, CONNECTIONS, ops.get() * 1000.0 / MILLIS, misses.get()));
+	}
+
+	private List<JedisShardInfo> shards() {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>(SHARDS);
+		for (int i = 1; i <= SHARDS; i++) {
+			shards.add(new JedisShardInfo(HOST, PORT, "note" + i));
+		}
+		return shards;
+	}
+}
@@ -1,7 +1,12 @@
 package com.wolf.test.jedisadaptor;
 
 import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisMultiplexer;
 import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.jedisadaptor.PipelineSession;
+import com.wolf.redis.common.jedisadaptor.SessionResponse;
+import com.wolf.redis.common.scan.KeyScanIterator;
+import com.wolf.redis.common.sharded.FanOutResult;
 import com.wolf.redis.entity.RoleInfo;
 import com.wolf.redis.entity.UserInfo;
 import org.junit.Before;
@@ -9,6 +14,9 @@ import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
 
 import java.util.*;
 
@@ -182,6 +190,130 @@ public class JedisPoolAdaptorTest extends AbstractJUnit4SpringContextTests {
 		}
 	}
 
+	@Test
+	public void msetAndDel(){//批量设置、读取、删除
+		try {
+			jedis.mset("batch_001", "a", "batch_002", "b", "batch_003", "c");
+			System.out.println(jedis.mget("batch_001", "batch_002", "batch_003"));
+			System.out.println("msetnx count : " + jedis.msetnx("batch_001", "x", "batch_004", "d"));
+			System.out.println("del count : " + jedis.del("batch_001", "batch_002", "batch_003", "batch_004"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if(jedis!=null){
+				jedis.close();
+			}
+		}
+	}
+
+	@Test
+	public void fanOut(){//所有shard并行执行,超时或失败的shard单独报告
+		try {
+			FanOutResult<Long> sizes = jedis.dbSize(1000);
+			for (int i = 0; i < sizes.size(); i++) {
+				System.out.println(sizes.getShard(i) + " : " + sizes.getResult(i) + " error : " + sizes.getError(i));
+			}
+			System.out.println("dbSize : " + jedis.dbSize() + " keys : " + jedis.keys("batch_*"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if(jedis!=null){
+				jedis.close();
+			}
+		}
+	}
+
+	@Test
+	public void session(){//自动pipeline,读取结果时一次发送排队的命令
+		PipelineSession session = jedis.session();
+		try {
+			List<SessionResponse<String>> values = new ArrayList<SessionResponse<String>>();
+			for (int i = 0; i < 20; i++) {
+				session.set("session_" + i, "v" + i);
+				values.add(session.get("session_" + i));
+			}
+			SessionResponse<UserInfo> user = session.getObject("user_001", UserInfo.class);
+			System.out.println(values.get(0).get() + " " + values.get(19).get() + " " + user.get());
+			System.out.println("commands : " + session.getCommandCount() + " flushes : " + session.getFlushCount());
+		} finally {
+			session.close();
+			jedis.close();
+		}
+	}
+
+	@Test
+	public void scanKeys(){//SCAN逐页遍历所有shard的key,不阻塞redis
+		KeyScanIterator keys = jedis.scanKeys("batch_*");
+		try {
+			int count = 0;
+			while (keys.hasNext()) {
+				String key = keys.next();
+				if (count++ < 10) {
+					System.out.println(key + " : " + jedis.get(key));
+				}
+			}
+			System.out.println("count : " + count);
+		} finally {
+			keys.close();
+			jedis.close();
+		}
+	}
+
+	@Test
+	public void routedPool(){//路由模式,每个shard独立的连接池,只借用key所在shard的连接
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		shards.add(new JedisShardInfo("127.0.0.1", 6379));
+		JedisPoolAdaptor routedPool = new JedisPoolAdaptor(new JedisPoolConfig(), shards, true);
+		JedisAdaptor routed = routedPool.getResource();
+		try {
+			routed.set("routed_001", "a");
+			System.out.println(routed.get("routed_001"));
+			for (JedisPool shardPool : routedPool.getShardPools().values()) {
+				System.out.println("shard active : " + shardPool.getNumActive());
+			}
+		} finally {
+			routed.close();
+			routedPool.destroy();
+			if(jedis!=null){
+				jedis.close();
+			}
+		}
+	}
+
+	@Test
+	public void multiplexed(){//多路复用,所有线程共用每个shard的一个连接
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		shards.add(new JedisShardInfo("127.0.0.1", 6379));
+		JedisMultiplexer multiplexer = new JedisMultiplexer(shards);
+		final JedisAdaptor shared = multiplexer.getResource();
+		try {
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 8; i++) {
+				final String key = "multiplexed_00" + i;
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						shared.set(key, key);
+						System.out.println(shared.get(key));
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			System.out.println("commands : " + multiplexer.getCommandCount() + " flushes : " + multiplexer.getFlushCount());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			multiplexer.destroy();
+			if(jedis!=null){
+				jedis.close();
+			}
+		}
+	}
+
 	@Test
 	public void setExpire(){//设置过期时间(30秒)
 		try {
@@ -0,0 +1,130 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisMultiplexer;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程GET/SET:每个线程从连接池借连接与所有线程共用多路复用连接的对比
+ * 统计吞吐量、使用的连接数,以及多路复用时平均每次写出的命令数
+ * 所有shard都指向同一个本地redis,用不同的name模拟多个shard
+ * 运行: mvn test -Dtest=MultiplexedBenchmark
+ */
+public class MultiplexedBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int SHARDS = 3;
+	private static final int THREADS = 64;
+	private static final int KEYS = 1000;
+	private static final long MILLIS = 5000;
+
+	@Test
+	public void pooledVsMultiplexed() throws InterruptedException {
+		for (int connections : new int[]{8, THREADS}) {
+			JedisPoolConfig config = new JedisPoolConfig();
+			config.setMaxTotal(connections);
+			config.setMaxIdle(connections);
+			final JedisPoolAdaptor pool = new JedisPoolAdaptor(config, shards());
+			try {
+				run("pooled maxTotal=" + connections, connections * SHARDS, new Source() {
+					@Override
+					public JedisAdaptor borrow() {
+						return pool.getResource();
+					}
+
+					@Override
+					public void release(JedisAdaptor jedis) {
+						pool.returnResource(jedis);
+					}
+				});
+			} finally {
+				pool.destroy();
+			}
+		}
+
+		final JedisMultiplexer multiplexer = new JedisMultiplexer(shards());
+		try {
+			final JedisAdaptor shared = multiplexer.getResource();
+			run("multiplexed", SHARDS, new Source() {
+				@Override
+				public JedisAdaptor borrow() {
+					return shared;
+				}
+
+				@Override
+				public void release(JedisAdaptor jedis) {
+				}
+			});
+			System.out.println(String.format("commands=%d flushes=%d commandsPerFlush=%.1f",
+					multiplexer.getCommandCount(), multiplexer.getFlushCount(),
+					(double) multiplexer.getCommandCount() / Math.max(1, multiplexer.getFlushCount())));
+		} finally {
+			multiplexer.destroy();
+		}
+	}
+
+	private interface Source {
+		JedisAdaptor borrow();
+
+		void release(JedisAdaptor jedis);
+	}
+
+	private void run(String name, int sockets, final Source source) throws InterruptedException {
+		JedisAdaptor jedis = source.borrow();
+		for (int i = 0; i < KEYS; i++) {
+			jedis.set("bench-mux-" + i, "value-" + i);
+		}
+		source.release(jedis);
+
+		final AtomicLong ops = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final long end = System.currentTimeMillis() + MILLIS;
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							int i = ThreadLocalRandom.current().nextInt(KEYS);
+							JedisAdaptor jedis = source.borrow();
+							try {
+								if (i % 10 == 0) {
+									jedis.set("bench-mux-" + i, "value-" + i);
+								} else if (!("value-" + i).equals(jedis.get("bench-mux-" + i))) {
+									misses.incrementAndGet();
+								}
+							} finally {
+								source.release(jedis);
+							}
+							ops.incrementAndGet();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		System.out.println(String.format("%s threads=%d sockets=%d throughput=%.0f ops/s misses=%d", name, THREADS,
+				sockets, ops.get() * 1000.0 / MILLIS, misses.get()));
+	}
+
+	private List<JedisShardInfo> shards() {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>(SHARDS);
+		for (int i = 1; i <= SHARDS; i++) {
+			shards.add(new JedisShardInfo(HOST, PORT, "note" + i));
+		}
+		return shards;
+	}
+}
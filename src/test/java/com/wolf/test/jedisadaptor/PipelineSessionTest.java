@@ -0,0 +1,110 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisMultiplexer;
+import com.wolf.redis.common.jedisadaptor.PipelineSession;
+import com.wolf.redis.common.jedisadaptor.SessionResponse;
+import com.wolf.test.nio.RespStubServer;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个shard在flush时出错,其它shard的回复仍然读完,之后的命令不会读到会话中命令的回复;
+ * JedisMultiplexer的多个shard在当前线程读取回复
+ * 使用两个进程内的RespStubServer作为两个shard,不需要redis
+ */
+public class PipelineSessionTest {
+
+	@Test
+	public void shardFailureKeepsOtherShardsInSync() throws Exception {
+		RespStubServer failing = new RespStubServer();
+		RespStubServer healthy = new RespStubServer();
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		shards.add(new JedisShardInfo("127.0.0.1", failing.getPort(), "note1"));
+		shards.add(new JedisShardInfo("127.0.0.1", healthy.getPort(), "note2"));
+		ShardedJedis shardedJedis = new ShardedJedis(shards);
+		JedisAdaptor jedis = new JedisAdaptor(shardedJedis);
+		try {
+			//两个shard都建立连接
+			for (int i = 0; i < 20; i++) {
+				jedis.set("session-" + i, "old-" + i);
+			}
+			PipelineSession session = jedis.session(1000);
+			for (int i = 0; i < 20; i++) {
+				session.set("session-" + i, "new-" + i);
+			}
+			failing.closeConnections();
+			try {
+				session.flush();
+				Assert.fail("flush on a closed shard");
+			} catch (JedisConnectionException e) {
+				System.out.println(e.getMessage());
+			}
+
+			int checked = 0;
+			for (int i = 0; i < 20; i++) {
+				String key = "session-" + i;
+				if (shardedJedis.getShardInfo(key).getPort() == healthy.getPort()) {
+					//会话中的SET已经读完回复,GET读到的是自己的回复
+					Assert.assertEquals("new-" + i, jedis.get(key));
+					checked++;
+				} else {
+					//出错的shard重新连接
+					jedis.set(key, "retry-" + i);
+					Assert.assertEquals("retry-" + i, jedis.get(key));
+				}
+			}
+			Assert.assertTrue(checked > 0 && checked < 20);
+		} finally {
+			//RespStubServer不支持QUIT,直接关闭socket
+			for (Jedis shard : shardedJedis.getAllShards()) {
+				shard.getClient().disconnect();
+			}
+			failing.close();
+			healthy.close();
+		}
+	}
+
+	@Test
+	public void multiplexedShards() throws Exception {
+		RespStubServer server1 = new RespStubServer();
+		RespStubServer server2 = new RespStubServer();
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		shards.add(new JedisShardInfo("127.0.0.1", server1.getPort(), "note1"));
+		shards.add(new JedisShardInfo("127.0.0.1", server2.getPort(), "note2"));
+		JedisMultiplexer multiplexer = new JedisMultiplexer(shards);
+		try {
+			JedisAdaptor jedis = multiplexer.getResource();
+			PipelineSession session = jedis.session(1000);
+			List<SessionResponse<String>> sets = new ArrayList<SessionResponse<String>>();
+			for (int i = 0; i < 20; i++) {
+				sets.add(session.set("multiplexed-" + i, "value-" + i));
+			}
+			List<SessionResponse<String>> gets = new ArrayList<SessionResponse<String>>();
+			for (int i = 0; i < 20; i++) {
+				gets.add(session.get("multiplexed-" + i));
+			}
+			session.flush();
+			Assert.assertEquals(1, session.getFlushCount());
+			for (int i = 0; i < 20; i++) {
+				Assert.assertEquals("OK", sets.get(i).get());
+				Assert.assertEquals("value-" + i, gets.get(i).get());
+			}
+			//当前线程没有遗留的回复,之后的命令读到自己的回复
+			for (int i = 0; i < 20; i++) {
+				Assert.assertEquals("value-" + i, jedis.get("multiplexed-" + i));
+			}
+		} finally {
+			multiplexer.destroy();
+			server1.close();
+			server2.close();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import org.junit.Test;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sharded模式下分shard MGET与逐个GET的对比
+ * 所有shard都指向同一个本地redis,用不同的name模拟多个shard
+ * 运行: mvn test -Dtest=ShardedMgetBenchmark
+ */
+public class ShardedMgetBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int ROUNDS = 200;
+
+	@Test
+	public void mgetVsLoop() {
+		int[] shardCounts = {1, 3, 8};
+		int[] keyCounts = {10, 100, 1000};
+		for (int shardCount : shardCounts) {
+			ShardedJedis shardedJedis = new ShardedJedis(shards(shardCount));
+			JedisAdaptor jedis = new JedisAdaptor(shardedJedis);
+			try {
+				for (int keyCount : keyCounts) {
+					String[] keys = keys(keyCount);
+					for (String key : keys) {
+						jedis.set(key, key);
+					}
+					//预热
+					loop(shardedJedis, keys, 20);
+					mget(jedis, keys, 20);
+
+					long loopNanos = loop(shardedJedis, keys, ROUNDS);
+					long mgetNanos = mget(jedis, keys, ROUNDS);
+					System.out.println(String.format("shards=%d keys=%d loop=%.1fus mget=%.1fus speedup=%.1fx",
+							shardCount, keyCount, loopNanos / 1000.0 / ROUNDS, mgetNanos / 1000.0 / ROUNDS,
+							(double) loopNanos / mgetNanos));
+					jedis.del(keys);
+				}
+			} finally {
+				shardedJedis.disconnect();
+			}
+		}
+	}
+
+	private long loop(ShardedJedis shardedJedis, String[] keys, int rounds) {
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			List<String> values = new ArrayList<String>(keys.length);
+			for (String key : keys) {
+				values.add(shardedJedis.get(key));
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long mget(JedisAdaptor jedis, String[] keys, int rounds) {
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			jedis.mget(keys);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private List<JedisShardInfo> shards(int count) {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>(count);
+		for (int i = 1; i <= count; i++) {
+			shards.add(new JedisShardInfo(HOST, PORT, "note" + i));
+		}
+		return shards;
+	}
+
+	private String[] keys(int count) {
+		String[] keys = new String[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = "bench-mget-" + i;
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,117 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolOperations;
+import com.wolf.redis.common.metrics.CommandStats;
+import com.wolf.redis.common.metrics.MeteredShardInfo;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.entity.UserInfo;
+import com.wolf.test.nio.RespStubServer;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * testOnBorrow时JedisPoolOperations借出最近使用过的连接不再PING,getResource仍然PING,以及连接被服务端关闭后的重试
+ * 使用进程内的RespStubServer,不需要redis
+ */
+public class SkipValidationTest {
+
+	private static final UserInfo USER = new UserInfo("100001", "张三", "北京市海淀区中关村大街1号", "13800000000");
+
+	@Test
+	public void skipRecentlyUsed() throws Exception {
+		RespStubServer server = new RespStubServer();
+		RedisMetrics metrics = new RedisMetrics(RedisMetrics.DEFAULT_DOMAIN, false);
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		for (int i = 1; i <= 3; i++) {
+			shards.add(new MeteredShardInfo("127.0.0.1", server.getPort(), "note" + i, metrics));
+		}
+		JedisPoolConfig config = new JedisPoolConfig();
+		config.setTestOnBorrow(true);
+		try {
+			for (long skipMillis : new long[] {0, 60000}) {
+				metrics.reset();
+				JedisPoolAdaptor pool = new JedisPoolAdaptor(config, shards, false);
+				pool.setSkipValidationMillis(skipMillis);
+				JedisPoolOperations operations = new JedisPoolOperations(pool);
+				CommandStats ping = metrics.shard("127.0.0.1", server.getPort()).command(Protocol.Command.PING);
+				try {
+					for (int i = 0; i < 50; i++) {
+						Assert.assertTrue(operations.set("skip-" + i, "value"));
+					}
+					long pings = ping.getCount();
+					System.out.println("skipValidationMillis=" + skipMillis + " pings=" + pings);
+					// 每次借出PING全部3个shard;跳过时只有第一次借出还没有连接的shard时PING
+					Assert.assertEquals(skipMillis > 0 ? 3 : 150, pings);
+
+					// getResource的调用者没有重试,仍然每次PING
+					for (int i = 0; i < 10; i++) {
+						JedisAdaptor jedis = pool.getResource();
+						try {
+							jedis.set("skip-" + i, "value");
+						} finally {
+							pool.returnResource(jedis);
+						}
+					}
+					Assert.assertEquals(pings + 30, ping.getCount());
+				} finally {
+					pool.destroy();
+				}
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void retryAfterServerClose() throws Exception {
+		RespStubServer server = new RespStubServer();
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		for (int i = 1; i <= 3; i++) {
+			shards.add(new JedisShardInfo("127.0.0.1", server.getPort(), "note" + i));
+		}
+		JedisPoolConfig config = new JedisPoolConfig();
+		config.setTestOnBorrow(true);
+		try {
+			for (boolean sharded : new boolean[] {false, true}) {
+				JedisPoolAdaptor pool = sharded ? new JedisPoolAdaptor(config, shards, false)
+						: new JedisPoolAdaptor(config, "127.0.0.1", server.getPort());
+				pool.setSkipValidationMillis(60000);
+				JedisPoolOperations operations = new JedisPoolOperations(pool);
+				try {
+					Assert.assertTrue(operations.set("retry", "value"));
+					Assert.assertTrue(operations.setObject("retry-object", USER));
+					// 空闲的连接被服务端关闭,借出时不PING,GET失败后换新连接重试
+					server.closeConnections();
+					Assert.assertEquals("value", operations.get("retry"));
+					Assert.assertEquals("value", operations.get("retry"));
+					// getObject记录日志后返回null,不抛出异常,按连接已经断开重试
+					server.closeConnections();
+					Assert.assertEquals(USER.getName(), operations.getObject("retry-object", UserInfo.class).getName());
+					// getResource在返回前PING,换掉被关闭的连接
+					server.closeConnections();
+					JedisAdaptor jedis = pool.getResource();
+					try {
+						Assert.assertEquals("value", jedis.get("retry"));
+					} finally {
+						pool.returnResource(jedis);
+					}
+					System.out.println("sharded=" + sharded + " active=" + pool.getNumActive() + " idle="
+							+ pool.getNumIdle());
+					Assert.assertEquals(1, pool.getNumIdle());
+				} finally {
+					pool.destroy();
+				}
+			}
+		} finally {
+			server.close();
+		}
+	}
+}
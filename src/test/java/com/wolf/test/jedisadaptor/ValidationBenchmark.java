@@ -0,0 +1,102 @@
+package com.wolf.test.jedisadaptor;
+
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolOperations;
+import com.wolf.redis.common.metrics.MeteredShardInfo;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.common.metrics.ShardMetrics;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * testOnBorrow时每次借出PING所有shard与最近使用过的连接跳过PING(setSkipValidationMillis)的吞吐量对比
+ * 通过JedisPoolOperations执行GET/SET,每次调用借出一次;所有shard都指向同一个本地redis,用不同的name模拟多个shard,
+ * 同时输出每次调用发出的PING数
+ * 运行: mvn test -Dtest=ValidationBenchmark
+ */
+public class ValidationBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int THREADS = 16;
+	private static final int KEYS = 1000;
+	private static final long MILLIS = 5000;
+
+	@Test
+	public void alwaysPingVsSkip() throws InterruptedException {
+		for (int shardCount : new int[] {1, 3, 8}) {
+			RedisMetrics metrics = new RedisMetrics(RedisMetrics.DEFAULT_DOMAIN, false);
+			List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+			for (int i = 1; i <= shardCount; i++) {
+				shards.add(new MeteredShardInfo(HOST, PORT, "note" + i, metrics));
+			}
+			double[] throughput = new double[2];
+			long[] skipMillis = {0, 1000};
+			//第一轮预热
+			for (int round = 0; round < 2; round++) {
+				for (int mode = 0; mode < skipMillis.length; mode++) {
+					JedisPoolConfig config = new JedisPoolConfig();
+					config.setMaxTotal(THREADS);
+					config.setMaxIdle(THREADS);
+					config.setTestOnBorrow(true);
+					JedisPoolAdaptor pool = new JedisPoolAdaptor(config, shards, false);
+					pool.setSkipValidationMillis(skipMillis[mode]);
+					try {
+						metrics.reset();
+						long ops = run(new JedisPoolOperations(pool));
+						throughput[mode] = ops * 1000.0 / MILLIS;
+						ShardMetrics shard = metrics.shard(HOST, PORT);
+						if (round == 1) {
+							System.out.println(String.format(
+									"shards=%d skipValidationMillis=%d throughput=%.0f ops/s pings/op=%.2f",
+									shardCount, skipMillis[mode], throughput[mode],
+									(double) shard.command(Protocol.Command.PING).getCount() / ops));
+						}
+					} finally {
+						pool.destroy();
+					}
+				}
+			}
+			System.out.println(String.format("shards=%d speedup=%.2fx", shardCount, throughput[1] / throughput[0]));
+		}
+	}
+
+	private long run(final JedisPoolOperations operations) throws InterruptedException {
+		for (int i = 0; i < KEYS; i++) {
+			operations.set("bench-validation-" + i, "value-" + i);
+		}
+		final AtomicLong ops = new AtomicLong();
+		final long end = System.currentTimeMillis() + MILLIS;
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							int i = ThreadLocalRandom.current().nextInt(KEYS);
+							if (i % 10 == 0) {
+								operations.set("bench-validation-" + i, "value-" + i);
+							} else {
+								operations.get("bench-validation-" + i);
+							}
+							ops.incrementAndGet();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		return ops.get();
+	}
+}
@@ -0,0 +1,150 @@
+package com.wolf.test.metrics;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.metrics.CommandTimer;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.common.metrics.ShardMetrics;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.SafeEncoder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个命令记录统计的开销:
+ * overhead 不连接redis,只执行MeteredClient对每个命令做的记录(采样时两次nanoTime、查找CommandStats、计数、直方图和字节数),
+ * 1个线程以及多个线程记录到同一个shard的同一种命令,每个命令都记录延迟(latencySampling=1)以及默认采样时,
+ * 目标默认采样时每次小于100ns;同时输出两次nanoTime本身的开销,虚拟机上nanoTime可能比物理机慢很多;
+ * meteredVsPlain 连接本地redis,对比记录与不记录时GET/SET的吞吐量
+ * 运行: mvn test -Dtest=MetricsBenchmark
+ */
+public class MetricsBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int ITERATIONS = 10000000;
+	private static final int ROUNDS = 5;
+	private static final int KEYS = 1000;
+	private static final long MILLIS = 5000;
+
+	@Test
+	public void overhead() throws InterruptedException {
+		RedisMetrics metrics = new RedisMetrics(RedisMetrics.DEFAULT_DOMAIN, false);
+		final ShardMetrics shard = metrics.shard(HOST, PORT);
+		final byte[][] args = {SafeEncoder.encode("bench-metrics-key")};
+		final byte[] reply = SafeEncoder.encode("value");
+		final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		double clock = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long sum = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				sum += System.nanoTime();
+			}
+			clock = 2.0 * (System.nanoTime() - start - (sum & 1)) / ITERATIONS;
+		}
+		for (int sampling : new int[]{1, RedisMetrics.DEFAULT_LATENCY_SAMPLING}) {
+			metrics.setLatencySampling(sampling);
+			for (int threads : new int[]{1, 4, Runtime.getRuntime().availableProcessors()}) {
+				for (int round = 0; round < ROUNDS; round++) {
+					final CountDownLatch done = new CountDownLatch(threads);
+					final AtomicLong nanos = new AtomicLong();
+					for (int t = 0; t < threads; t++) {
+						new Thread(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									CommandTimer timer = new CommandTimer(shard);
+									// 线程的CPU时间,线程数多于CPU时不计入等待调度的时间
+									long start = threadMXBean.getCurrentThreadCpuTime();
+									for (int i = 0; i < ITERATIONS; i++) {
+										timer.sent(Protocol.Command.GET, timer.start(), args);
+										timer.replied(reply);
+									}
+									nanos.addAndGet(threadMXBean.getCurrentThreadCpuTime() - start);
+								} finally {
+									done.countDown();
+								}
+							}
+						}).start();
+					}
+					done.await();
+					// 最后一轮为预热之后的结果
+					if (round == ROUNDS - 1) {
+						System.out.println(String.format(
+								"latencySampling=%d threads=%d overhead=%.1f ns/call (two System.nanoTime %.1f ns)",
+								sampling, threads, (double) nanos.get() / threads / ITERATIONS, clock));
+					}
+				}
+			}
+		}
+		System.out.println(shard.command(Protocol.Command.GET));
+	}
+
+	@Test
+	public void meteredVsPlain() throws InterruptedException {
+		RedisMetrics metrics = new RedisMetrics(RedisMetrics.DEFAULT_DOMAIN, false);
+		for (int round = 0; round < 2; round++) {
+			for (RedisMetrics current : new RedisMetrics[]{null, metrics}) {
+				JedisPoolConfig config = new JedisPoolConfig();
+				config.setMaxTotal(16);
+				config.setMaxIdle(16);
+				JedisPoolAdaptor pool = new JedisPoolAdaptor(config, HOST, PORT, Protocol.DEFAULT_TIMEOUT, null,
+						current);
+				try {
+					run(current == null ? "plain" : "metered", pool);
+				} finally {
+					pool.destroy();
+				}
+			}
+		}
+		System.out.println(metrics.shard(HOST, PORT).command(Protocol.Command.GET));
+	}
+
+	private void run(String name, final JedisPoolAdaptor pool) throws InterruptedException {
+		JedisAdaptor jedis = pool.getResource();
+		for (int i = 0; i < KEYS; i++) {
+			jedis.set("bench-metrics-" + i, "value-" + i);
+		}
+		pool.returnResource(jedis);
+
+		final int threads = 16;
+		final AtomicLong ops = new AtomicLong();
+		final long end = System.currentTimeMillis() + MILLIS;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							int i = ThreadLocalRandom.current().nextInt(KEYS);
+							JedisAdaptor jedis = pool.getResource();
+							try {
+								if (i % 10 == 0) {
+									jedis.set("bench-metrics-" + i, "value-" + i);
+								} else {
+									jedis.get("bench-metrics-" + i);
+								}
+							} finally {
+								pool.returnResource(jedis);
+							}
+							ops.incrementAndGet();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		System.out.println(String.format("%s threads=%d throughput=%.0f ops/s", name, threads,
+				ops.get() * 1000.0 / MILLIS));
+	}
+}
@@ -0,0 +1,151 @@
+package com.wolf.test.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.metrics.CommandStats;
+import com.wolf.redis.common.metrics.LatencyHistogram;
+import com.wolf.redis.common.metrics.MeteredShardInfo;
+import com.wolf.redis.common.metrics.RedisMetrics;
+import com.wolf.redis.common.metrics.ShardMetrics;
+import com.wolf.test.nio.RespStubServer;
+
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 延迟直方图,以及通过MeteredJedis、MeteredShardInfo记录的命令统计和JMX
+ * 使用进程内的RespStubServer,不需要redis
+ */
+public class RedisMetricsTest {
+
+	private static final String DOMAIN = "com.wolf.redis.test";
+
+	@Test
+	public void histogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1us到10ms均匀分布
+		for (long micros = 1; micros <= 10000; micros++) {
+			histogram.record(micros * 1000);
+		}
+		long[] snapshot = histogram.snapshot();
+		Assert.assertEquals(10000, LatencyHistogram.count(snapshot));
+		assertNear(5000000, LatencyHistogram.percentile(snapshot, 50));
+		assertNear(9900000, LatencyHistogram.percentile(snapshot, 99));
+		assertNear(10000000, LatencyHistogram.max(snapshot));
+		Assert.assertEquals(0, LatencyHistogram.percentile(new long[LatencyHistogram.BUCKETS], 99));
+
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-1);
+		Assert.assertEquals(10002, LatencyHistogram.count(histogram.snapshot()));
+		histogram.reset();
+		Assert.assertEquals(0, LatencyHistogram.count(histogram.snapshot()));
+	}
+
+	@Test
+	public void meteredCommands() throws Exception {
+		RespStubServer server = new RespStubServer();
+		RedisMetrics metrics = new RedisMetrics(DOMAIN, true);
+		//记录每个命令的延迟
+		metrics.setLatencySampling(1);
+		JedisPoolAdaptor pool = new JedisPoolAdaptor(new JedisPoolConfig(), "127.0.0.1", server.getPort(),
+				Protocol.DEFAULT_TIMEOUT, null, metrics);
+		try {
+			JedisAdaptor jedis = pool.getResource();
+			try {
+				for (int i = 0; i < 100; i++) {
+					jedis.set("metrics-" + i, "abcdefghij");
+					Assert.assertEquals("abcdefghij", jedis.get("metrics-" + i));
+				}
+				try {
+					jedis.incr("metrics-0");
+					Assert.fail("incr on text");
+				} catch (JedisDataException e) {
+					System.out.println(e.getMessage());
+				}
+				Pipeline pipeline = jedis.pipeline();
+				for (int i = 0; i < 50; i++) {
+					pipeline.get("metrics-" + i);
+				}
+				pipeline.sync();
+			} finally {
+				pool.returnResource(jedis);
+			}
+
+			ShardMetrics shard = metrics.shard("127.0.0.1", server.getPort());
+			CommandStats get = shard.command(Protocol.Command.GET);
+			CommandStats set = shard.command(Protocol.Command.SET);
+			CommandStats incr = shard.command(Protocol.Command.INCR);
+			Assert.assertEquals(150, get.getCount());
+			Assert.assertEquals(150, get.getSamples());
+			Assert.assertEquals(150 * 10, get.getBytesReceived());
+			Assert.assertEquals(100, set.getCount());
+			Assert.assertEquals(0, set.getErrors());
+			Assert.assertEquals(1, incr.getErrors());
+			Assert.assertTrue(get.getP99Micros() > 0);
+			for (CommandStats stats : shard.getCommandStats()) {
+				System.out.println(stats);
+			}
+
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			String shardName = ObjectName.quote("127.0.0.1:" + server.getPort());
+			Assert.assertEquals(150L, mbeans.getAttribute(new ObjectName(DOMAIN + ":type=RedisCommand,shard="
+					+ shardName + ",command=" + ObjectName.quote("GET")), "Count"));
+			Assert.assertEquals(shard.getCount(),
+					mbeans.getAttribute(new ObjectName(DOMAIN + ":type=RedisShard,shard=" + shardName), "Count"));
+		} finally {
+			pool.destroy();
+			metrics.unregister();
+			server.close();
+		}
+	}
+
+	@Test
+	public void meteredShards() throws Exception {
+		RespStubServer server = new RespStubServer();
+		RedisMetrics metrics = new RedisMetrics(DOMAIN, false);
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		for (int i = 1; i <= 3; i++) {
+			shards.add(new MeteredShardInfo("127.0.0.1", server.getPort(), "note" + i, metrics));
+		}
+		for (boolean routed : new boolean[] {false, true}) {
+			metrics.reset();
+			JedisPoolAdaptor pool = new JedisPoolAdaptor(new JedisPoolConfig(), shards, routed);
+			try {
+				JedisAdaptor jedis = pool.getResource();
+				try {
+					for (int i = 0; i < 100; i++) {
+						jedis.set("metrics-" + i, "value");
+					}
+				} finally {
+					pool.returnResource(jedis);
+				}
+			} finally {
+				pool.destroy();
+			}
+			CommandStats set = metrics.shard("127.0.0.1", server.getPort()).command(Protocol.Command.SET);
+			Assert.assertEquals(100, set.getCount());
+			//默认采样,只有一部分命令记录了延迟
+			Assert.assertTrue(set.getSamples() > 0 && set.getSamples() < 100);
+			System.out.println("routed=" + routed + " " + set + " samples=" + set.getSamples());
+		}
+		server.close();
+	}
+
+	private static void assertNear(long expected, long actual) {
+		Assert.assertTrue("expected " + expected + " actual " + actual,
+				Math.abs(actual - expected) <= expected / 8);
+	}
+}
@@ -0,0 +1,145 @@
+package com.wolf.test.nio;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisMultiplexer;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.nio.NioEngine;
+import com.wolf.redis.common.route.RingRouter;
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 1、64、1024个线程并发GET/SET:Jedis连接池、阻塞socket的多路复用连接、NioEngine的多路复用连接对比
+ * 连接池的maxTotal等于线程数,多路复用每个shard一个连接
+ * 所有shard都指向同一个本地redis,用不同的name模拟多个shard
+ * 运行: mvn test -Dtest=NioBenchmark
+ */
+public class NioBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+	private static final int SHARDS = 3;
+	private static final int[] CALLERS = {1, 64, 1024};
+	private static final int KEYS = 1000;
+	private static final long MILLIS = 5000;
+
+	@Test
+	public void jedisVsNio() throws InterruptedException {
+		for (int callers : CALLERS) {
+			JedisPoolConfig config = new JedisPoolConfig();
+			config.setMaxTotal(callers);
+			config.setMaxIdle(callers);
+			final JedisPoolAdaptor pool = new JedisPoolAdaptor(config, shards());
+			try {
+				run("jedis pool", callers, new Source() {
+					@Override
+					public JedisAdaptor borrow() {
+						return pool.getResource();
+					}
+
+					@Override
+					public void release(JedisAdaptor jedis) {
+						pool.returnResource(jedis);
+					}
+				});
+			} finally {
+				pool.destroy();
+			}
+
+			JedisMultiplexer multiplexer = new JedisMultiplexer(shards());
+			try {
+				runShared("jedis multiplexed", callers, multiplexer);
+			} finally {
+				multiplexer.destroy();
+			}
+
+			NioEngine engine = new NioEngine();
+			multiplexer = new JedisMultiplexer(new RingRouter(shards()), 1, engine);
+			try {
+				runShared("nio multiplexed", callers, multiplexer);
+			} finally {
+				multiplexer.destroy();
+				engine.shutdown();
+			}
+		}
+	}
+
+	private interface Source {
+		JedisAdaptor borrow();
+
+		void release(JedisAdaptor jedis);
+	}
+
+	private void runShared(String name, int callers, JedisMultiplexer multiplexer) throws InterruptedException {
+		final JedisAdaptor shared = multiplexer.getResource();
+		run(name, callers, new Source() {
+			@Override
+			public JedisAdaptor borrow() {
+				return shared;
+			}
+
+			@Override
+			public void release(JedisAdaptor jedis) {
+			}
+		});
+		System.out.println(String.format("    commands=%d flushes=%d commandsPerFlush=%.1f",
+				multiplexer.getCommandCount(), multiplexer.getFlushCount(),
+				(double) multiplexer.getCommandCount() / Math.max(1, multiplexer.getFlushCount())));
+	}
+
+	private void run(String name, int callers, final Source source) throws InterruptedException {
+		JedisAdaptor jedis = source.borrow();
+		for (int i = 0; i < KEYS; i++) {
+			jedis.set("bench-nio-" + i, "value-" + i);
+		}
+		source.release(jedis);
+
+		final AtomicLong ops = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final long end = System.currentTimeMillis() + MILLIS;
+		final CountDownLatch done = new CountDownLatch(callers);
+		for (int t = 0; t < callers; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.currentTimeMillis() < end) {
+							int i = ThreadLocalRandom.current().nextInt(KEYS);
+							JedisAdaptor jedis = source.borrow();
+							try {
+								if (i % 10 == 0) {
+									jedis.set("bench-nio-" + i, "value-" + i);
+								} else if (!("value-" + i).equals(jedis.get("bench-nio-" + i))) {
+									misses.incrementAndGet();
+								}
+							} finally {
+								source.release(jedis);
+							}
+							ops.incrementAndGet();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		System.out.println(String.format("%s callers=%d throughput=%.0f ops/s misses=%d", name, callers,
+				ops.get() * 1000.0 / MILLIS, misses.get()));
+	}
+
+	private List<JedisShardInfo> shards() {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>(SHARDS);
+		for (int i = 1; i <= SHARDS; i++) {
+			shards.add(new JedisShardInfo(HOST, PORT, "note" + i));
+		}
+		return shards;
+	}
+}
@@ -0,0 +1,225 @@
+package com.wolf.test.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisMultiplexer;
+import com.wolf.redis.common.nio.BufferPool;
+import com.wolf.redis.common.nio.NioConnection;
+import com.wolf.redis.common.nio.NioEngine;
+import com.wolf.redis.common.nio.RespEncoder;
+import com.wolf.redis.common.nio.RespParser;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * NioEngine的编码、增量解析,以及通过JedisMultiplexer访问进程内的RespStubServer;
+ * 连接断开时没有写出的buffer归还BufferPool
+ * 不需要redis
+ */
+public class NioEngineTest {
+
+	private static final String REPLIES = "+OK\r\n-ERR bad\r\n:-42\r\n$5\r\nhello\r\n$-1\r\n*-1\r\n*0\r\n"
+			+ "*3\r\n$1\r\na\r\n*2\r\n:1\r\n-E2\r\n$0\r\n\r\n";
+
+	@Test
+	public void encodeLikeJedis() throws IOException {
+		// 很小的buffer,头部和内容都会跨buffer
+		RespEncoder encoder = new RespEncoder(new BufferPool(64, 4));
+		byte[] large = new byte[1000];
+		Arrays.fill(large, (byte) 'x');
+		byte[][] args = {SafeEncoder.encode("key"), large, new byte[0], SafeEncoder.encode("1234567890")};
+		ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		encoder.encode(out, Protocol.Command.SET, args);
+		encoder.encode(out, Protocol.Command.PING);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		for (ByteBuffer buffer : out) {
+			buffer.flip();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			encoded.write(bytes);
+		}
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		RedisOutputStream jedisOut = new RedisOutputStream(expected);
+		Protocol.sendCommand(jedisOut, Protocol.Command.SET, args);
+		Protocol.sendCommand(jedisOut, Protocol.Command.PING);
+		jedisOut.flush();
+		Assert.assertArrayEquals(expected.toByteArray(), encoded.toByteArray());
+	}
+
+	@Test
+	public void parsePartialReads() {
+		byte[] data = SafeEncoder.encode(REPLIES);
+		String whole = describe(parse(data, data.length));
+		Assert.assertEquals("OK ERR bad -42 hello null null [] [a, [1, E2], ] ", whole);
+		// 每次只到达1..n个字节,结果与一次到达相同
+		for (int chunk = 1; chunk < data.length; chunk++) {
+			Assert.assertEquals(whole, describe(parse(data, chunk)));
+		}
+	}
+
+	@Test
+	public void multiplexedOverStub() throws Exception {
+		RespStubServer server = new RespStubServer();
+		NioEngine engine = new NioEngine();
+		JedisMultiplexer multiplexer = new JedisMultiplexer(new JedisShardInfo("127.0.0.1", server.getPort()), 1,
+				engine);
+		try {
+			final JedisAdaptor jedis = multiplexer.getResource();
+			final AtomicInteger misses = new AtomicInteger();
+			int threads = 32;
+			final CountDownLatch done = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 500; i++) {
+								jedis.set("nio-" + thread + "-" + i, "value-" + i);
+								if (!("value-" + i).equals(jedis.get("nio-" + thread + "-" + i))) {
+									misses.incrementAndGet();
+								}
+							}
+						} finally {
+							done.countDown();
+						}
+					}
+				}).start();
+			}
+			done.await();
+			Assert.assertEquals(0, misses.get());
+
+			jedis.set("nio-text", "a");
+			try {
+				jedis.incr("nio-text");
+				Assert.fail("incr on text");
+			} catch (JedisDataException e) {
+				System.out.println(e.getMessage());
+			}
+			Assert.assertEquals("a", jedis.get("nio-text"));
+
+			Pipeline pipeline = jedis.pipeline();
+			List<Response<String>> responses = new ArrayList<Response<String>>();
+			for (int i = 0; i < 100; i++) {
+				responses.add(pipeline.get("nio-0-" + i));
+			}
+			pipeline.sync();
+			Assert.assertEquals("value-99", responses.get(99).get());
+			System.out.println("commands : " + multiplexer.getCommandCount() + " flushes : "
+					+ multiplexer.getFlushCount());
+		} finally {
+			multiplexer.destroy();
+			engine.shutdown();
+			server.close();
+		}
+	}
+
+	@Test
+	public void brokenLinkReleasesBuffers() throws Exception {
+		//只接受连接不读取,socket缓冲区写满后buffer留在NioConnection中
+		final ServerSocket server = new ServerSocket(0);
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					Thread.sleep(10000);
+					socket.close();
+				} catch (Exception e) {
+					//ignore
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 4096);
+		NioEngine engine = new NioEngine(1, bufferPool);
+		try {
+			NioConnection connection = engine.newConnection(new JedisShardInfo("127.0.0.1", server.getLocalPort()));
+			byte[] value = new byte[1024 * 1024];
+			for (int i = 0; i < 16; i++) {
+				connection.send(Protocol.Command.SET, SafeEncoder.encode("nio-big-" + i), value);
+			}
+			Thread.sleep(500);
+			System.out.println("before close allocated : " + bufferPool.getAllocatedCount() + " free : "
+					+ bufferPool.getFreeCount());
+			Assert.assertTrue(bufferPool.getFreeCount() < bufferPool.getAllocatedCount());
+			connection.close();
+			for (int i = 0; i < 100 && bufferPool.getFreeCount() < bufferPool.getAllocatedCount(); i++) {
+				Thread.sleep(20);
+			}
+			System.out.println("after close allocated : " + bufferPool.getAllocatedCount() + " free : "
+					+ bufferPool.getFreeCount());
+			Assert.assertEquals(bufferPool.getAllocatedCount(), bufferPool.getFreeCount());
+		} finally {
+			engine.shutdown();
+			server.close();
+		}
+	}
+
+	private static List<Object> parse(byte[] data, int chunk) {
+		final List<Object> replies = new ArrayList<Object>();
+		RespParser parser = new RespParser();
+		RespParser.Handler handler = new RespParser.Handler() {
+			@Override
+			public void reply(Object value) {
+				replies.add(value);
+			}
+		};
+		ByteBuffer buffer = ByteBuffer.allocate(chunk);
+		for (int offset = 0; offset < data.length; offset += chunk) {
+			buffer.clear();
+			buffer.put(data, offset, Math.min(chunk, data.length - offset));
+			buffer.flip();
+			parser.parse(buffer, handler);
+		}
+		Assert.assertTrue(parser.isIdle());
+		return replies;
+	}
+
+	private static String describe(List<Object> replies) {
+		StringBuilder builder = new StringBuilder();
+		for (Object reply : replies) {
+			builder.append(describe(reply)).append(' ');
+		}
+		return builder.toString();
+	}
+
+	private static String describe(Object reply) {
+		if (reply instanceof byte[]) {
+			return SafeEncoder.encode((byte[]) reply);
+		}
+		if (reply instanceof JedisDataException) {
+			return ((JedisDataException) reply).getMessage();
+		}
+		if (reply instanceof List) {
+			List<String> items = new ArrayList<String>();
+			for (Object item : (List<?>) reply) {
+				items.add(describe(item));
+			}
+			return items.toString();
+		}
+		return String.valueOf(reply);
+	}
+}
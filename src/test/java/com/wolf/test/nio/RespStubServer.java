@@ -0,0 +1,191 @@
+package com.wolf.test.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 进程内的RESP服务,用于没有redis-server时测试NioEngine
+ * 只支持PING、ECHO、GET、SET、DEL、INCR、MGET,其它命令返回错误;每个连接一个线程
+ */
+public class RespStubServer {
+
+	private final ServerSocket serverSocket;
+	private final ConcurrentHashMap<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+	private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private volatile boolean running = true;
+
+	public RespStubServer() throws IOException {
+		this.serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "resp-stub-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		closeConnections();
+	}
+
+	/**
+	 * 关闭所有已接受的连接,模拟redis重启或timeout关闭空闲连接,之后仍然接受新连接
+	 */
+	public void closeConnections() {
+		for (Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				sockets.add(socket);
+				Thread handler = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "resp-stub-" + socket.getPort());
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			StubInputStream in = new StubInputStream(socket.getInputStream());
+			RedisOutputStream out = new RedisOutputStream(socket.getOutputStream());
+			while (running) {
+				@SuppressWarnings("unchecked")
+				List<byte[]> command = (List<byte[]>) Protocol.read(in);
+				execute(command, out);
+				//没有更多已到达的命令时才flush,客户端批量发送的命令一次回复
+				if (in.buffered() == 0 && in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (Exception e) {
+			//客户端断开
+		} finally {
+			sockets.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+	private void execute(List<byte[]> command, RedisOutputStream out) throws IOException {
+		String name = SafeEncoder.encode(command.get(0)).toUpperCase();
+		if ("PING".equals(name)) {
+			status(out, "PONG");
+		} else if ("ECHO".equals(name)) {
+			bulk(out, command.get(1));
+		} else if ("GET".equals(name)) {
+			bulk(out, values.get(SafeEncoder.encode(command.get(1))));
+		} else if ("SET".equals(name)) {
+			values.put(SafeEncoder.encode(command.get(1)), command.get(2));
+			status(out, "OK");
+		} else if ("DEL".equals(name)) {
+			long count = 0;
+			for (int i = 1; i < command.size(); i++) {
+				if (values.remove(SafeEncoder.encode(command.get(i))) != null) {
+					count++;
+				}
+			}
+			integer(out, count);
+		} else if ("INCR".equals(name)) {
+			String key = SafeEncoder.encode(command.get(1));
+			synchronized (values) {
+				byte[] value = values.get(key);
+				long number;
+				try {
+					number = value == null ? 1 : Long.parseLong(SafeEncoder.encode(value)) + 1;
+				} catch (NumberFormatException e) {
+					error(out, "ERR value is not an integer or out of range");
+					return;
+				}
+				values.put(key, SafeEncoder.encode(String.valueOf(number)));
+				integer(out, number);
+			}
+		} else if ("MGET".equals(name)) {
+			out.write((byte) '*');
+			out.writeIntCrLf(command.size() - 1);
+			for (int i = 1; i < command.size(); i++) {
+				bulk(out, values.get(SafeEncoder.encode(command.get(i))));
+			}
+		} else {
+			error(out, "ERR unknown command '" + name + "'");
+		}
+	}
+
+	private static class StubInputStream extends RedisInputStream {
+		StubInputStream(InputStream in) {
+			super(in);
+		}
+
+		/** 已读入缓冲区、还没解析的字节数 */
+		int buffered() {
+			return limit - count;
+		}
+	}
+
+	private static void status(RedisOutputStream out, String status) throws IOException {
+		out.write((byte) '+');
+		out.write(SafeEncoder.encode(status));
+		out.writeCrLf();
+	}
+
+	private static void error(RedisOutputStream out, String message) throws IOException {
+		out.write((byte) '-');
+		out.write(SafeEncoder.encode(message));
+		out.writeCrLf();
+	}
+
+	private static void integer(RedisOutputStream out, long value) throws IOException {
+		out.write((byte) ':');
+		out.write(SafeEncoder.encode(String.valueOf(value)));
+		out.writeCrLf();
+	}
+
+	private static void bulk(RedisOutputStream out, byte[] value) throws IOException {
+		out.write((byte) '$');
+		if (value == null) {
+			out.writeIntCrLf(-1);
+			return;
+		}
+		out.writeIntCrLf(value.length);
+		out.write(value);
+		out.writeCrLf();
+	}
+}
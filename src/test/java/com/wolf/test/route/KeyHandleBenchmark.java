@@ -0,0 +1,153 @@
+package com.wolf.test.route;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wolf.redis.common.jedisadaptor.JedisAdaptor;
+import com.wolf.redis.common.jedisadaptor.JedisPoolAdaptor;
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+import redis.clients.util.Sharded;
+
+/**
+ * String key与KeyHandle的对比:每次调用分配的内存和耗时
+ * route只比较编码+分片,不需要redis;get需要127.0.0.1:6379上的redis,所有shard指向同一个redis
+ * 运行: mvn test -Dtest=KeyHandleBenchmark
+ */
+public class KeyHandleBenchmark {
+
+	private static final int HOT_KEYS = 2000;
+	private static final int ROUNDS = 500;
+
+	@Test
+	public void route() {
+		List<JedisShardInfo> shards = ShardRouterTest.shards(8, true);
+		ShardedJedis sharded = new ShardedJedis(shards, Sharded.DEFAULT_KEY_TAG_PATTERN);
+		ShardRouter router = new RingRouter(shards, Hashing.MURMUR_HASH, Sharded.DEFAULT_KEY_TAG_PATTERN);
+		String[] keys = keys();
+		KeyHandle[] handles = KeyHandle.of(keys);
+
+		for (int warmup = 0; warmup < 5; warmup++) {
+			routeString(sharded, keys, 20);
+			routeHandle(router, handles, 20);
+		}
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		long checksum = routeString(sharded, keys, ROUNDS);
+		print("route String", System.nanoTime() - start, allocatedBytes() - allocated, checksum);
+
+		allocated = allocatedBytes();
+		start = System.nanoTime();
+		checksum = routeHandle(router, handles, ROUNDS);
+		print("route KeyHandle", System.nanoTime() - start, allocatedBytes() - allocated, checksum);
+	}
+
+	@Test
+	public void get() {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		for (int i = 0; i < 8; i++) {
+			shards.add(new JedisShardInfo("127.0.0.1", 6379, "note" + i));
+		}
+		JedisPoolAdaptor pool = new JedisPoolAdaptor(new JedisPoolConfig(), new RingRouter(shards), false);
+		JedisAdaptor jedis = pool.getResource();
+		String[] keys = keys();
+		KeyHandle[] handles = KeyHandle.of(keys);
+		try {
+			for (String key : keys) {
+				jedis.set(key, "v");
+			}
+			for (int i = 0; i < keys.length; i++) {
+				Assert.assertEquals(jedis.get(keys[i]), jedis.get(handles[i]));
+			}
+			int rounds = ROUNDS / 50;
+			getString(jedis, keys, rounds);
+			getHandle(jedis, handles, rounds);
+
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			long checksum = getString(jedis, keys, rounds);
+			print("get String", (System.nanoTime() - start) * ROUNDS / rounds,
+					(allocatedBytes() - allocated) * ROUNDS / rounds, checksum);
+
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			checksum = getHandle(jedis, handles, rounds);
+			print("get KeyHandle", (System.nanoTime() - start) * ROUNDS / rounds,
+					(allocatedBytes() - allocated) * ROUNDS / rounds, checksum);
+			jedis.del(keys);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private long routeString(ShardedJedis sharded, String[] keys, int rounds) {
+		long checksum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String key : keys) {
+				checksum += sharded.getShardInfo(key).getPort() + SafeEncoder.encode(key).length;
+			}
+		}
+		return checksum;
+	}
+
+	private long routeHandle(ShardRouter router, KeyHandle[] handles, int rounds) {
+		long checksum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (KeyHandle handle : handles) {
+				checksum += router.getShards().get(handle.shardIndex(router)).getPort() + handle.getBytes().length;
+			}
+		}
+		return checksum;
+	}
+
+	private long getString(JedisAdaptor jedis, String[] keys, int rounds) {
+		long checksum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String key : keys) {
+				checksum += jedis.get(key).length();
+			}
+		}
+		return checksum;
+	}
+
+	private long getHandle(JedisAdaptor jedis, KeyHandle[] handles, int rounds) {
+		long checksum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (KeyHandle handle : handles) {
+				checksum += jedis.get(handle).length();
+			}
+		}
+		return checksum;
+	}
+
+	private static String[] keys() {
+		String[] keys = new String[HOT_KEYS];
+		for (int i = 0; i < HOT_KEYS; i++) {
+			keys[i] = "{config}:hot:key:" + i;
+		}
+		return keys;
+	}
+
+	private static void print(String name, long nanos, long allocated, long checksum) {
+		long calls = (long) HOT_KEYS * ROUNDS;
+		System.out.println(String.format("%-16s %.1fns/op alloc=%dB/op checksum=%d", name, (double) nanos / calls,
+				allocated / calls, checksum));
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
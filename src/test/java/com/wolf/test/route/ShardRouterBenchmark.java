@@ -0,0 +1,94 @@
+package com.wolf.test.route;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.wolf.redis.common.route.CachingRouter;
+import com.wolf.redis.common.route.JumpRouter;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * 分片查找的吞吐量和分布偏差(最多的shard与平均值之比)
+ * Sharded为Jedis原来的TreeMap查找,Caching为热点key重复查找
+ * 不需要redis
+ * 运行: mvn test -Dtest=ShardRouterBenchmark
+ */
+public class ShardRouterBenchmark {
+
+	private static final int KEYS = 100000;
+	private static final int HOT_KEYS = 1000;
+	private static final int ROUNDS = 20;
+
+	@Test
+	public void lookups() {
+		String[] keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = "user:info:" + i;
+		}
+		String[] hotKeys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			hotKeys[i] = keys[i % HOT_KEYS];
+		}
+		for (int shardCount : new int[] {3, 8, 32}) {
+			List<JedisShardInfo> shards = ShardRouterTest.shards(shardCount, true);
+			final ShardedJedis sharded = new ShardedJedis(shards);
+			final List<JedisShardInfo> shardList = shards;
+			final Map<JedisShardInfo, Integer> indexes = new IdentityHashMap<JedisShardInfo, Integer>();
+			for (int i = 0; i < shardCount; i++) {
+				indexes.put(shards.get(i), i);
+			}
+			ShardRouter jedisRing = new ShardRouter() {
+				@Override
+				public int shardIndex(String key) {
+					return indexes.get(sharded.getShardInfo(key));
+				}
+
+				@Override
+				public int shardIndex(byte[] key) {
+					return indexes.get(sharded.getShardInfo(key));
+				}
+
+				@Override
+				public List<JedisShardInfo> getShards() {
+					return shardList;
+				}
+			};
+			run("Sharded", shardCount, jedisRing, keys);
+			run("Ring", shardCount, new RingRouter(shards), keys);
+			run("Jump", shardCount, new JumpRouter(shards), keys);
+			run("Caching(hot)", shardCount, new CachingRouter(new RingRouter(shards), HOT_KEYS * 2), hotKeys);
+		}
+	}
+
+	private void run(String name, int shardCount, ShardRouter router, String[] keys) {
+		int[] counts = new int[shardCount];
+		loop(router, keys, counts, 3);
+		counts = new int[shardCount];
+		long start = System.nanoTime();
+		loop(router, keys, counts, ROUNDS);
+		long nanos = System.nanoTime() - start;
+
+		long max = 0;
+		for (int count : counts) {
+			max = Math.max(max, count);
+		}
+		double mean = (double) keys.length * ROUNDS / shardCount;
+		System.out.println(String.format("%-13s shards=%-3d lookups=%.0f/s skew=%.3f", name, shardCount,
+				keys.length * ROUNDS * 1e9 / nanos, max / mean));
+	}
+
+	private void loop(ShardRouter router, String[] keys, int[] counts, int rounds) {
+		for (int r = 0; r < rounds; r++) {
+			for (String key : keys) {
+				counts[router.shardIndex(key)]++;
+			}
+		}
+	}
+}
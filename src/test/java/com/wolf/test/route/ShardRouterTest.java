@@ -0,0 +1,88 @@
+package com.wolf.test.route;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wolf.redis.common.route.CachingRouter;
+import com.wolf.redis.common.route.JumpRouter;
+import com.wolf.redis.common.route.RingRouter;
+import com.wolf.redis.common.route.ShardRouter;
+
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+import redis.clients.util.Sharded;
+
+/**
+ * RingRouter与Jedis的Sharded分片结果一致
+ * 不需要redis
+ */
+public class ShardRouterTest {
+
+	private static final int KEYS = 100000;
+
+	@Test
+	public void ringCompatible() {
+		for (int count : new int[] {1, 3, 8, 32}) {
+			assertCompatible(shards(count, true), null);
+			assertCompatible(shards(count, false), null);
+			assertCompatible(shards(count, true), Sharded.DEFAULT_KEY_TAG_PATTERN);
+		}
+	}
+
+	@Test
+	public void weightedRingCompatible() {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+		shards.add(new JedisShardInfo("127.0.0.1", 6379, 2000, 2000, 2));
+		shards.add(new JedisShardInfo("127.0.0.1", 6380, 2000, 2000, 1));
+		shards.add(new JedisShardInfo("127.0.0.1", 6381, 2000, 2000, 3));
+		assertCompatible(shards, null);
+	}
+
+	@Test
+	public void jumpAndCaching() {
+		List<JedisShardInfo> shards = shards(8, true);
+		ShardRouter jump = new JumpRouter(shards);
+		ShardRouter caching = new CachingRouter(new RingRouter(shards), 1000);
+		ShardRouter ring = new RingRouter(shards);
+		int[] counts = new int[shards.size()];
+		for (int i = 0; i < KEYS; i++) {
+			String key = "key_" + i;
+			int index = jump.shardIndex(key);
+			Assert.assertEquals(index, jump.shardIndex(SafeEncoder.encode(key)));
+			counts[index]++;
+			Assert.assertEquals(ring.shardIndex(key), caching.shardIndex(key));
+			Assert.assertEquals(ring.shardIndex(key), caching.shardIndex(key));
+		}
+		for (int count : counts) {
+			Assert.assertTrue(count > KEYS / shards.size() * 0.9);
+		}
+	}
+
+	private void assertCompatible(List<JedisShardInfo> shards, Pattern keyTagPattern) {
+		ShardedJedis sharded = new ShardedJedis(shards, Hashing.MURMUR_HASH, keyTagPattern);
+		ShardRouter router = new RingRouter(shards, Hashing.MURMUR_HASH, keyTagPattern);
+		for (int i = 0; i < KEYS; i++) {
+			String key = i % 2 == 0 ? UUID.randomUUID().toString() : "{user" + (i % 100) + "}:" + i;
+			Assert.assertSame(sharded.getShardInfo(key), shards.get(router.shardIndex(key)));
+			byte[] binaryKey = SafeEncoder.encode(key);
+			Assert.assertSame(sharded.getShardInfo(binaryKey), shards.get(router.shardIndex(binaryKey)));
+		}
+		System.out.println("shards : " + shards.size() + " keyTag : " + (keyTagPattern != null) + " compatible");
+	}
+
+	static List<JedisShardInfo> shards(int count, boolean named) {
+		List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>(count);
+		for (int i = 0; i < count; i++) {
+			shards.add(named ? new JedisShardInfo("10.0.0." + i, 6379, "note" + i)
+					: new JedisShardInfo("10.0.0." + i, 6379));
+		}
+		return shards;
+	}
+}
@@ -1,19 +1,32 @@
 package com.wolf.test.sharded;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
 
+import com.wolf.redis.common.MapStorageMode;
+import com.wolf.redis.common.async.AsyncExecutor;
+import com.wolf.redis.common.async.AsyncRedis;
+import com.wolf.redis.common.cache.CacheLoader;
+import com.wolf.redis.common.cache.NearCache;
+import com.wolf.redis.common.route.KeyHandle;
+import com.wolf.redis.common.scan.MapScanIterator;
+import com.wolf.redis.common.scan.SetScanIterator;
 import com.wolf.redis.common.sharded.BaseShardedJedis;
 import com.wolf.redis.entity.RoleInfo;
 import com.wolf.redis.entity.UserInfo;
@@ -103,6 +116,66 @@ public class ShardedTest extends AbstractJUnit4SpringContextTests {
 		}
 	}
 	
+	@Test
+	public void mapEntries(){//Hash方式存取Map条目,可以读取setMapObjects写入的旧格式
+		MapStorageMode mode = baseShardedJedis.getMapStorageMode();
+		baseShardedJedis.setMapStorageMode(MapStorageMode.HASH);
+		try {
+			System.out.println(baseShardedJedis.getMapEntry("role-map", "002_key", RoleInfo.class));
+			baseShardedJedis.putMapEntry("role-map", "004_key", new RoleInfo("0044", "teacher", "teacher"));
+			Map<String, RoleInfo> map = baseShardedJedis.getMapEntries("role-map", Arrays.asList("001_key", "004_key"), RoleInfo.class);
+			for (String key : map.keySet()) {
+				System.out.println("key : "+key+" role info : "+map.get(key));
+			}
+		} finally {
+			//共用的bean,恢复原来的方式,不影响其它测试
+			baseShardedJedis.setMapStorageMode(mode);
+		}
+	}
+	
+	@Test
+	public void putMapEntryThenSetMapObject(){//Set方式写入整个map,putMapEntry转换成Hash后仍然可以写入
+		MapStorageMode mode = baseShardedJedis.getMapStorageMode();
+		baseShardedJedis.setMapStorageMode(MapStorageMode.SET);
+		String key = "role-map-mixed";
+		try {
+			Map<String,RoleInfo> map = new HashMap<String,RoleInfo>();
+			map.put("001_key", new RoleInfo("0011", "worker", "worker"));
+			Assert.assertTrue(baseShardedJedis.setMapObject(key, map));
+			Assert.assertTrue(baseShardedJedis.putMapEntry(key, "002_key", new RoleInfo("0022", "student", "student")));
+			map.clear();
+			map.put("003_key", new RoleInfo("0033", "engineer", "engineer"));
+			Assert.assertTrue(baseShardedJedis.setMapObject(key, map));
+			Map<String, RoleInfo> all = baseShardedJedis.getMapObject(key, RoleInfo.class);
+			Assert.assertEquals(3, all.size());
+			Assert.assertEquals("engineer", all.get("003_key").getRoleName());
+		} finally {
+			baseShardedJedis.del(key);
+			baseShardedJedis.setMapStorageMode(mode);
+		}
+	}
+	
+	@Test
+	public void scanObjects(){//逐页遍历大集合,后台提前取下一页,对象在next时才解码
+		MapScanIterator<RoleInfo> roles = baseShardedJedis.scanMapObject("role-map", RoleInfo.class);
+		try {
+			while (roles.hasNext()) {
+				Map.Entry<String, RoleInfo> entry = roles.next();
+				System.out.println("key : "+entry.getKey()+" role info : "+entry.getValue());
+			}
+		} finally {
+			roles.close();
+		}
+		SetScanIterator<UserInfo> users = baseShardedJedis.scanSetObjects("0001-1000", UserInfo.class);
+		try {
+			while (users.hasNext()) {
+				System.out.println(users.next());
+			}
+		} finally {
+			users.close();
+		}
+	}
+	
 	@Test
 	public void getListObjects(){//获取List集合对象
 		List<RoleInfo> list = baseShardedJedis.getListObjects("role-list", RoleInfo.class);
@@ -111,6 +184,143 @@ public class ShardedTest extends AbstractJUnit4SpringContextTests {
 		}
 	}
 	
+	@Test
+	public void writeListObjects(){//分块流式写入,写到临时key后RENAME原子替换
+		List<RoleInfo> list = new ArrayList<RoleInfo>();
+		for (int i = 0; i < 10000; i++) {
+			list.add(new RoleInfo(String.valueOf(i), "role-" + i, "role"));
+		}
+		//使用单独的key,不覆盖其它测试读取的role-list
+		try {
+			System.out.println(baseShardedJedis.writeListObjects("role-list-stream", list.iterator(), true));
+			System.out.println("size : "+baseShardedJedis.getListObjects("role-list-stream", RoleInfo.class, 20).size());
+		} finally {
+			baseShardedJedis.del("role-list-stream");
+		}
+	}
+	
+	@Test
+	public void getListObjectsPaged(){//分页读取,只取回访问到的页
+		List<RoleInfo> list = baseShardedJedis.getListObjects("role-list", RoleInfo.class, 20);
+		System.out.println("size : "+list.size());
+		for (int i = 0; i < list.size() && i < 20; i++) {
+			System.out.println(list.get(i));
+		}
+	}
+	
+	@Test
+	public void setAndGetObjectsBatch(){//批量存取对象
+		Map<String,UserInfo> users = new HashMap<String,UserInfo>();
+		for (int i = 1; i <= 200; i++) {
+			users.put("user-" + i, new UserInfo(String.valueOf(i), "lisi", "shenzhen","110"));
+		}
+		baseShardedJedis.setObjects(users, 60);
+		Map<String, UserInfo> result = baseShardedJedis.getObjects(users.keySet(), UserInfo.class);
+		System.out.println("size : "+result.size()+" user-1 : "+result.get("user-1"));
+	}
+	
+	@Test
+	public void nearCache(){//一级缓存,第二次读取命中本地缓存,写入后失效
+		NearCache nearCache = new NearCache(1000, 60);
+		baseShardedJedis.setNearCache(nearCache);
+		try {
+			baseShardedJedis.setObject("near-user", new UserInfo("1", "lisi", "shenzhen","110"));
+			System.out.println(baseShardedJedis.getObject("near-user", UserInfo.class));
+			System.out.println(baseShardedJedis.getObject("near-user", UserInfo.class));
+			baseShardedJedis.setObject("near-user", new UserInfo("2", "wangwu", "Wuhan","110"));
+			System.out.println(baseShardedJedis.getObject("near-user", UserInfo.class));
+			System.out.println("hit : "+nearCache.getHitCount()+" miss : "+nearCache.getMissCount()+" eviction : "+nearCache.getEvictionCount());
+		} finally {
+			//共用的bean,其它测试不经过一级缓存
+			baseShardedJedis.setNearCache(null);
+		}
+	}
+	
+	@Test
+	public void getOrLoad() throws InterruptedException{//key过期时并发读取,只加载一次
+		baseShardedJedis.del("load-user");
+		final AtomicInteger loadCount = new AtomicInteger();
+		final CacheLoader<UserInfo> loader = new CacheLoader<UserInfo>() {
+			@Override
+			public UserInfo load(String key) throws Exception {
+				loadCount.incrementAndGet();
+				Thread.sleep(200);//模拟查询数据库
+				return new UserInfo("1", "lisi", "shenzhen","110");
+			}
+		};
+		int threads = 100;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						baseShardedJedis.getOrLoad("load-user", UserInfo.class, loader, 60);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		System.out.println("load count : "+loadCount.get());
+		System.out.println(baseShardedJedis.getOrLoad("load-user", UserInfo.class, loader, 60));
+	}
+	
+	@Test
+	public void getOrLoadUndecodable(){//缓存的值无法解析时按未命中处理,重新加载并覆盖
+		baseShardedJedis.set("load-user-bad", "{not json");
+		try {
+			UserInfo user = baseShardedJedis.getOrLoad("load-user-bad", UserInfo.class, new CacheLoader<UserInfo>() {
+				@Override
+				public UserInfo load(String key) throws Exception {
+					return new UserInfo("2", "wangwu", "beijing","120");
+				}
+			}, 60);
+			Assert.assertEquals("wangwu", user.getName());
+			Assert.assertEquals("wangwu", baseShardedJedis.getObject("load-user-bad", UserInfo.class).getName());
+		} finally {
+			baseShardedJedis.del("load-user-bad");
+		}
+	}
+	
+	private static final KeyHandle CONFIG_KEY = new KeyHandle("config-user");
+
+	@Test
+	public void keyHandle(){//预先编码的key,重复使用时不再编码和计算分片
+		baseShardedJedis.setObject(CONFIG_KEY, new UserInfo("1", "lisi", "shenzhen","110"));
+		System.out.println(baseShardedJedis.getObject(CONFIG_KEY, UserInfo.class));
+		System.out.println(baseShardedJedis.getObject(CONFIG_KEY.getKey(), UserInfo.class));
+		baseShardedJedis.del(CONFIG_KEY);
+	}
+	
+	@Test
+	public void async(){//异步读取多个key,最后一起等待结果
+		AsyncExecutor executor = new AsyncExecutor();
+		AsyncRedis asyncRedis = new AsyncRedis(baseShardedJedis, executor);
+		try {
+			List<CompletableFuture<UserInfo>> users = new ArrayList<CompletableFuture<UserInfo>>();
+			for (int i = 1; i <= 20; i++) {
+				users.add(asyncRedis.getObject("user-" + i, UserInfo.class));
+			}
+			CompletableFuture<Set<String>> roles = asyncRedis.getSet("role-set");
+			CompletableFuture<Map<String, UserInfo>> batch = asyncRedis.getObjects(Arrays.asList("user-1", "user-2"), UserInfo.class);
+			for (CompletableFuture<UserInfo> user : users) {
+				System.out.println(user.join());
+			}
+			System.out.println(roles.join());
+			System.out.println(batch.join());
+			System.out.println("rejected : "+executor.getRejectedCount()+" timeout : "+executor.getTimeoutCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
 	@Test
 	public void setExpire(){//设置过期时间(30秒)
 		baseShardedJedis.setExpire("role-map", 30);